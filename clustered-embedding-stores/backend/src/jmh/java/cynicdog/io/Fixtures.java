@@ -0,0 +1,49 @@
+package cynicdog.io;
+
+import io.vertx.core.buffer.Buffer;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic inputs shared by the benchmarks, so runs on different commits score the same data.
+ */
+public class Fixtures {
+
+    public static float[] vector(Random random, int dimension) {
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    public static float[][] vectors(long seed, int count, int dimension) {
+        Random random = new Random(seed);
+        float[][] vectors = new float[count][];
+        for (int i = 0; i < count; i++) {
+            vectors[i] = vector(random, dimension);
+        }
+        return vectors;
+    }
+
+    /**
+     * A body shaped like Ollama's {@code /api/embed} response, numbers printed the way Ollama prints them.
+     */
+    public static Buffer ollamaEmbedResponse(List<float[]> embeddings) {
+        StringBuilder json = new StringBuilder("{\"model\":\"mxbai-embed-large\",\"embeddings\":[");
+        for (int i = 0; i < embeddings.size(); i++) {
+            json.append(i == 0 ? "[" : ",[");
+            float[] vector = embeddings.get(i);
+            for (int j = 0; j < vector.length; j++) {
+                if (j > 0) {
+                    json.append(',');
+                }
+                json.append(vector[j]);
+            }
+            json.append(']');
+        }
+        json.append("],\"total_duration\":14143917,\"load_duration\":1019500,\"prompt_eval_count\":8}");
+        return Buffer.buffer(json.toString());
+    }
+}
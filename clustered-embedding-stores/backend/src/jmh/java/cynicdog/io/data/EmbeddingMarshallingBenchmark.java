@@ -0,0 +1,63 @@
+package cynicdog.io.data;
+
+import cynicdog.io.Fixtures;
+import org.infinispan.protostream.ProtobufUtil;
+import org.infinispan.protostream.SerializationContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Protostream encoding of {@link Embedding} through the generated {@link EmbeddingSchema}, which is what
+ * every cache write, state transfer and remote read pays.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmbeddingMarshallingBenchmark {
+
+    @Param({"384", "768", "1024"})
+    int dimension;
+
+    SerializationContext context;
+    Embedding embedding;
+    byte[] encoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        context = ProtobufUtil.newSerializationContext();
+        EmbeddingSchema schema = new EmbeddingSchemaImpl();
+        schema.registerSchema(context);
+        schema.registerMarshallers(context);
+
+        Random random = new Random(11);
+        embedding = new Embedding(Fixtures.vector(random, dimension),
+                "Llamas are members of the camelid family meaning they're pretty closely related to vicunas and camels");
+        encoded = ProtobufUtil.toWrappedByteArray(context, embedding);
+    }
+
+    @Benchmark
+    public byte[] marshall() throws IOException {
+        return ProtobufUtil.toWrappedByteArray(context, embedding);
+    }
+
+    @Benchmark
+    public Object unmarshall() throws IOException {
+        return ProtobufUtil.fromWrappedByteArray(context, encoded);
+    }
+}
@@ -0,0 +1,116 @@
+package cynicdog.io.index;
+
+import cynicdog.io.Fixtures;
+import cynicdog.io.data.Embedding;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import org.infinispan.Cache;
+import org.infinispan.commons.dataconversion.MediaType;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Top-k retrieval from a collection held in an embedded Infinispan cache, the path every {@code generate}
+ * takes after embedding its prompt. {@code exact} is the linear scan the store started with, {@code hnsw}
+ * the graph the backend uses by default.
+ * <p>
+ * Building the graph dominates the setup: a million entries take a while and, at 1024 dimensions, a heap of
+ * about 16 GB for the cache and the index together.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class VectorSearchBenchmark {
+
+    static final int QUERIES = 256;
+    static final int BATCH_SIZE = 1024;
+
+    // One line per search would be the benchmark otherwise
+    static final Logger searchLogger = Logger.getLogger(VectorSearch.class.getName());
+
+    @Param({"1000", "100000", "1000000"})
+    int entries;
+
+    @Param({"384", "768", "1024"})
+    int dimension;
+
+    @Param({"exact", "hnsw"})
+    String mode;
+
+    @Param({"1", "10"})
+    int k;
+
+    Vertx vertx;
+    DefaultCacheManager cacheManager;
+    Cache<String, Embedding> cache;
+    VectorSearch search;
+    float[][] queries;
+    int next;
+
+    @Setup
+    public void setUp() {
+        searchLogger.setLevel(Level.WARNING);
+
+        vertx = Vertx.vertx();
+        cacheManager = new DefaultCacheManager();
+        cache = cacheManager.createCache("embeddings.benchmark", new ConfigurationBuilder()
+                .encoding().key().mediaType(MediaType.APPLICATION_OBJECT_TYPE)
+                .encoding().value().mediaType(MediaType.APPLICATION_PROTOSTREAM_TYPE)
+                .build());
+
+        HnswIndex index = new HnswIndex(Metric.COSINE, VectorStorage.create("none", Metric.COSINE, 8, 1024, false),
+                16, 100, 64, "exact".equals(mode));
+        WorkerExecutor searchPool = vertx.createSharedWorkerExecutor("benchmark-search", 1);
+        search = new VectorSearch(vertx, "benchmark", searchPool, index, 5000, 4, 0);
+
+        // Fill the cache and the index directly rather than through the listeners, so setup ends with both complete
+        Random random = new Random(3);
+        Map<String, Embedding> batch = new HashMap<>();
+        for (int i = 0; i < entries; i++) {
+            String key = String.valueOf(i);
+            float[] vector = Fixtures.vector(random, dimension);
+            batch.put(key, new Embedding(vector, "document " + i));
+            index.add(key, vector);
+            if (batch.size() == BATCH_SIZE || i == entries - 1) {
+                cache.putAll(batch);
+                batch.clear();
+            }
+        }
+        queries = Fixtures.vectors(5, QUERIES, dimension);
+    }
+
+    @TearDown
+    public void tearDown() {
+        search.detach();
+        cacheManager.stop();
+        vertx.close();
+    }
+
+    @Benchmark
+    public List<SearchHit> searchLocal() {
+        return search.searchLocal(queries[next++ & (QUERIES - 1)], k, null, cache, false);
+    }
+}
@@ -0,0 +1,53 @@
+package cynicdog.io.util;
+
+import cynicdog.io.Fixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pairwise similarity kernels, with whichever of the scalar or Vector API kernels the JVM loads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SimilarityBenchmark {
+
+    static final int PAIRS = 1024;
+
+    @Param({"384", "768", "1024"})
+    int dimension;
+
+    float[][] vectors;
+    int next;
+
+    @Setup
+    public void setUp() {
+        vectors = Fixtures.vectors(42, PAIRS + 1, dimension);
+    }
+
+    @Benchmark
+    public double cosineSimilarity() {
+        int i = next++ & (PAIRS - 1);
+        return VectorUtils.calculateCosineSimilarity(vectors[i], vectors[i + 1]);
+    }
+
+    @Benchmark
+    public float dot() {
+        int i = next++ & (PAIRS - 1);
+        return VectorUtils.dot(vectors[i], vectors[i + 1]);
+    }
+}
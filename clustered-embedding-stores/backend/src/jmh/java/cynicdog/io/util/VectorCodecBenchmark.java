@@ -0,0 +1,74 @@
+package cynicdog.io.util;
+
+import cynicdog.io.Fixtures;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning an Ollama embed response into vectors: the streaming parser the backend uses, against going
+ * through {@link JsonObject} as a reference point.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VectorCodecBenchmark {
+
+    @Param({"384", "768", "1024"})
+    int dimension;
+
+    @Param({"1", "16"})
+    int batch;
+
+    Buffer response;
+    float[] vector;
+
+    @Setup
+    public void setUp() {
+        float[][] vectors = Fixtures.vectors(7, batch, dimension);
+        response = Fixtures.ollamaEmbedResponse(Arrays.asList(vectors));
+        vector = vectors[0];
+    }
+
+    @Benchmark
+    public List<float[]> parseVectors() {
+        return VectorCodec.parseVectors(response, "embeddings");
+    }
+
+    @Benchmark
+    public float[][] parseJsonObject() {
+        JsonArray embeddings = new JsonObject(response).getJsonArray("embeddings");
+        float[][] vectors = new float[embeddings.size()][];
+        for (int i = 0; i < vectors.length; i++) {
+            JsonArray scores = embeddings.getJsonArray(i);
+            vectors[i] = new float[scores.size()];
+            for (int j = 0; j < scores.size(); j++) {
+                vectors[i][j] = scores.getNumber(j).floatValue();
+            }
+        }
+        return vectors;
+    }
+
+    @Benchmark
+    public float[] packUnpack() {
+        return VectorCodec.unpack(VectorCodec.pack(vector));
+    }
+}
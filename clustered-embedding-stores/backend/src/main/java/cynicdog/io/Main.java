@@ -1,97 +1,342 @@
 
 package cynicdog.io;
 
+import cynicdog.io.api.EmbeddingBatcher;
 import cynicdog.io.api.OllamaAPI;
-import cynicdog.io.util.TriFunction;
+import cynicdog.io.api.OllamaDispatcher;
+import cynicdog.io.api.OllamaEndpoints;
+import cynicdog.io.api.QueryEmbeddingCache;
+import cynicdog.io.cluster.ClusterProfile;
+import cynicdog.io.collection.AnswerCache;
+import cynicdog.io.collection.CollectionConfig;
+import cynicdog.io.collection.CollectionLimits;
+import cynicdog.io.collection.CollectionRegistry;
+import cynicdog.io.collection.EmbeddingCollection;
+import cynicdog.io.index.AttributeFilter;
+import cynicdog.io.index.HnswIndex;
+import cynicdog.io.index.Metric;
+import cynicdog.io.index.VectorSearch;
+import cynicdog.io.index.VectorStorage;
+import cynicdog.io.message.EmbedResult;
+import cynicdog.io.message.ProtoMessageCodec;
+import cynicdog.io.metrics.Metrics;
 import io.vertx.core.*;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.impl.VertxInternal;
 import io.vertx.core.impl.logging.Logger;
 import io.vertx.core.impl.logging.LoggerFactory;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
 import io.vertx.core.spi.cluster.ClusterManager;
 import io.vertx.ext.cluster.infinispan.ClusterHealthCheck;
 import io.vertx.ext.cluster.infinispan.InfinispanClusterManager;
 import io.vertx.ext.healthchecks.HealthCheckHandler;
 import io.vertx.ext.healthchecks.HealthChecks;
+import io.vertx.ext.healthchecks.Status;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.client.WebClientOptions;
+import io.vertx.micrometer.PrometheusScrapingHandler;
 import org.infinispan.configuration.cache.CacheMode;
-import org.infinispan.configuration.cache.ConfigurationBuilder;
-import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.configuration.cache.StorageType;
 import org.infinispan.manager.DefaultCacheManager;
+import org.infinispan.manager.EmbeddedCacheManager;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 
 public class Main extends AbstractVerticle {
 
     private static final String OLLAMA_HOST = System.getenv().getOrDefault("OLLAMA_HOST", "localhost");
     private static final int OLLAMA_PORT = Integer.parseInt(System.getenv().getOrDefault("OLLAMA_PORT", "11434"));
+    // Several Ollama servers, as comma-separated host:port, or a DNS name resolving to one address per server
+    // (with OLLAMA_PORT); either replaces OLLAMA_HOST
+    private static final String OLLAMA_ENDPOINTS = System.getenv().getOrDefault("OLLAMA_ENDPOINTS", "");
+    private static final String OLLAMA_DISCOVERY = System.getenv().getOrDefault("OLLAMA_DISCOVERY", "");
+    private static final long OLLAMA_DISCOVERY_INTERVAL_MS = Long.parseLong(System.getenv().getOrDefault("OLLAMA_DISCOVERY_INTERVAL_MS", "10000"));
+    // Failures in a row that take an endpoint out of rotation, and for how long
+    private static final int OLLAMA_MAX_FAILURES = Integer.parseInt(System.getenv().getOrDefault("OLLAMA_MAX_FAILURES", "3"));
+    private static final long OLLAMA_EJECTION_MS = Long.parseLong(System.getenv().getOrDefault("OLLAMA_EJECTION_MS", "10000"));
+    // Embedding calls slower than the recent p95 (and at least the minimum delay) are sent to a second endpoint
+    private static final boolean OLLAMA_HEDGE = Boolean.parseBoolean(System.getenv().getOrDefault("OLLAMA_HEDGE", "true"));
+    private static final long OLLAMA_HEDGE_MIN_DELAY_MS = Long.parseLong(System.getenv().getOrDefault("OLLAMA_HEDGE_MIN_DELAY_MS", "50"));
     private static final int HTTP_PORT = Integer.parseInt(System.getenv().getOrDefault("HTTP_PORT", "8080"));
     public static final String POD_NAME = System.getenv().getOrDefault("POD_NAME", "unknown");
 
+    // Retrieval tuning: similarity metric, graph degree, build/search candidate list sizes, and `exact` to bypass the graph
+    private static final int HNSW_M = Integer.parseInt(System.getenv().getOrDefault("HNSW_M", "16"));
+    private static final int HNSW_EF_CONSTRUCTION = Integer.parseInt(System.getenv().getOrDefault("HNSW_EF_CONSTRUCTION", "200"));
+    private static final int HNSW_EF_SEARCH = Integer.parseInt(System.getenv().getOrDefault("HNSW_EF_SEARCH", "64"));
+    // Dimension the default collection enforces on its vectors; 0 accepts any length
+    private static final int EMBEDDING_DIMENSION = Integer.parseInt(System.getenv().getOrDefault("EMBEDDING_DIMENSION", "0"));
+    private static final Metric VECTOR_METRIC = Metric.valueOf(System.getenv().getOrDefault("VECTOR_METRIC", "COSINE"));
+    private static final String SEARCH_MODE = System.getenv().getOrDefault("SEARCH_MODE", "approximate");
+    private static final int RETRIEVAL_TOP_K = Integer.parseInt(System.getenv().getOrDefault("RETRIEVAL_TOP_K", "1"));
+
+    // Index vector compression: `none`, `int8` (scalar) or `pq` (product). Quantized collections cache int8
+    // codes instead of floats, and `pq` candidates are rescored against them. RECALL_SAMPLE_RATE of the
+    // searches are checked against a scan of the cached vectors in the background
+    private static final String QUANTIZATION = System.getenv().getOrDefault("QUANTIZATION", "none");
+    private static final int PQ_SUBSPACES = Integer.parseInt(System.getenv().getOrDefault("PQ_SUBSPACES", "64"));
+    private static final int PQ_TRAINING_SIZE = Integer.parseInt(System.getenv().getOrDefault("PQ_TRAINING_SIZE", "4096"));
+    private static final int RESCORE_FACTOR = Integer.parseInt(System.getenv().getOrDefault("RESCORE_FACTOR", "4"));
+    private static final double RECALL_SAMPLE_RATE = Double.parseDouble(System.getenv().getOrDefault("RECALL_SAMPLE_RATE", "0"));
+
+    // REPL_SYNC keeps the whole corpus on every node; DIST_SYNC spreads it over EMBEDDINGS_OWNERS copies
+    // and fans searches out to the owners
+    private static final CacheMode EMBEDDINGS_CACHE_MODE = CacheMode.valueOf(System.getenv().getOrDefault("EMBEDDINGS_CACHE_MODE", "REPL_SYNC"));
+    private static final int EMBEDDINGS_OWNERS = Integer.parseInt(System.getenv().getOrDefault("EMBEDDINGS_OWNERS", "2"));
+    // Default bounds of a collection on each node (0 or empty for none): entries or bytes such as `512MB` past
+    // which entries are evicted, seconds before they expire, and HEAP or OFF_HEAP storage
+    private static final long EMBEDDINGS_MAX_ENTRIES = Long.parseLong(System.getenv().getOrDefault("EMBEDDINGS_MAX_ENTRIES", "0"));
+    private static final String EMBEDDINGS_MAX_SIZE = System.getenv().getOrDefault("EMBEDDINGS_MAX_SIZE", "");
+    private static final long EMBEDDINGS_LIFESPAN_S = Long.parseLong(System.getenv().getOrDefault("EMBEDDINGS_LIFESPAN_S", "0"));
+    private static final long EMBEDDINGS_MAX_IDLE_S = Long.parseLong(System.getenv().getOrDefault("EMBEDDINGS_MAX_IDLE_S", "0"));
+    private static final String EMBEDDINGS_STORAGE = System.getenv().getOrDefault("EMBEDDINGS_STORAGE", "HEAP");
+    // Concurrent embedding requests are coalesced into one /api/embed call per window or full batch
+    private static final long EMBED_BATCH_WINDOW_MS = Long.parseLong(System.getenv().getOrDefault("EMBED_BATCH_WINDOW_MS", "5"));
+    private static final int EMBED_BATCH_MAX_SIZE = Integer.parseInt(System.getenv().getOrDefault("EMBED_BATCH_MAX_SIZE", "32"));
+
+    // Admission control in front of Ollama: concurrent calls, calls waiting for a slot and how long they may
+    // wait before they are turned away with 503 (a full queue answers 429 straight away)
+    private static final int OLLAMA_MAX_CONCURRENCY = Integer.parseInt(System.getenv().getOrDefault("OLLAMA_MAX_CONCURRENCY", "4"));
+    private static final int OLLAMA_MAX_QUEUED = Integer.parseInt(System.getenv().getOrDefault("OLLAMA_MAX_QUEUED", "64"));
+    private static final long OLLAMA_MAX_QUEUE_WAIT_MS = Long.parseLong(System.getenv().getOrDefault("OLLAMA_MAX_QUEUE_WAIT_MS", "10000"));
+    // Connections kept to Ollama, how long an idle one is kept open, and whether requests may be pipelined on one
+    private static final int OLLAMA_POOL_SIZE = Integer.parseInt(System.getenv().getOrDefault("OLLAMA_POOL_SIZE", String.valueOf(OLLAMA_MAX_CONCURRENCY)));
+    private static final int OLLAMA_KEEP_ALIVE_TIMEOUT_S = Integer.parseInt(System.getenv().getOrDefault("OLLAMA_KEEP_ALIVE_TIMEOUT_S", "60"));
+    private static final boolean OLLAMA_PIPELINING = Boolean.parseBoolean(System.getenv().getOrDefault("OLLAMA_PIPELINING", "false"));
+    private static final int OLLAMA_PIPELINING_LIMIT = Integer.parseInt(System.getenv().getOrDefault("OLLAMA_PIPELINING_LIMIT", "10"));
+
+    private static final int QUERY_CACHE_SIZE = Integer.parseInt(System.getenv().getOrDefault("QUERY_CACHE_SIZE", "1024"));
+    // Generated answers reused for questions this similar over the same documents; a TTL of 0 turns it off
+    private static final double ANSWER_CACHE_SIMILARITY = Double.parseDouble(System.getenv().getOrDefault("ANSWER_CACHE_SIMILARITY", "0.95"));
+    private static final long ANSWER_CACHE_TTL_S = Long.parseLong(System.getenv().getOrDefault("ANSWER_CACHE_TTL_S", "600"));
+    private static final int ANSWER_CACHE_MAX_ENTRIES = Integer.parseInt(System.getenv().getOrDefault("ANSWER_CACHE_MAX_ENTRIES", "1000"));
+
+    private static final long SEARCH_TIMEOUT_MS = Long.parseLong(System.getenv().getOrDefault("SEARCH_TIMEOUT_MS", "5000"));
+    // Local searches run on this many dedicated workers instead of the event loop
+    private static final int SEARCH_WORKERS = Integer.parseInt(System.getenv().getOrDefault("SEARCH_WORKERS", String.valueOf(Runtime.getRuntime().availableProcessors())));
+    // Cache reads and writes run on this many dedicated workers; a write mostly waits for the other owners
+    private static final int CACHE_WORKERS = Integer.parseInt(System.getenv().getOrDefault("CACHE_WORKERS", String.valueOf(4 * Runtime.getRuntime().availableProcessors())));
+    // Threads a single exact scan over a large collection is split across
+    private static final int SCAN_PARALLELISM = Integer.parseInt(System.getenv().getOrDefault("SCAN_PARALLELISM", String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+    // Directory for the on-disk copy of the embeddings this node holds, one subdirectory per collection,
+    // reloaded on startup; unset keeps them in memory only
+    private static final String SEGMENT_DIR = System.getenv().getOrDefault("SEGMENT_DIR", "");
+    private static final long SEGMENT_SIZE_MB = Long.parseLong(System.getenv().getOrDefault("SEGMENT_SIZE_MB", "256"));
+    private static final long SEGMENT_SYNC_INTERVAL_MS = Long.parseLong(System.getenv().getOrDefault("SEGMENT_SYNC_INTERVAL_MS", "1000"));
+    // How long a removed entry is remembered; a node down for longer may bring it back on restart. A week by default
+    private static final long SEGMENT_TOMBSTONE_RETENTION_S = Long.parseLong(System.getenv().getOrDefault("SEGMENT_TOMBSTONE_RETENTION_S", "604800"));
+
+    // How often the event loop lag reported on /metrics is sampled
+    private static final long EVENT_LOOP_LAG_INTERVAL_MS = Long.parseLong(System.getenv().getOrDefault("EVENT_LOOP_LAG_INTERVAL_MS", "1000"));
+    // Verticle instances, each serving HTTP and the event bus on an event loop of its own over the node's shared
+    // collections; by default one per core the container may use
+    private static final int VERTICLE_INSTANCES = Integer.parseInt(System.getenv().getOrDefault("VERTICLE_INSTANCES", String.valueOf(Runtime.getRuntime().availableProcessors())));
+
     private static final Logger logger = LoggerFactory.getLogger(Main.class);
 
-    static DefaultCacheManager cacheManager;
-    WebClient client;
+    CollectionRegistry registry;
 
     @Override
-    public void start() throws Exception {
+    public void start(Promise<Void> startPromise) {
+        NodeServices.of(vertx, this::createServices)
+                .compose(this::serve)
+                .<Void>mapEmpty()
+                .onComplete(startPromise);
+    }
+
+    private Future<HttpServer> serve(NodeServices services) {
+        registry = services.registry();
+        OllamaAPI ollamaAPI = services.ollamaAPI();
 
         // Register router handlers
         Router router = Router.router(vertx);
-        client = WebClient.create(vertx);
 
-        router.get("/health").handler(context -> context.response().end("OK"));
-        router.get("/readiness").handler(HealthCheckHandler.createWithHealthChecks(HealthChecks
+        HealthChecks healthChecks = HealthChecks
                 .create(vertx)
-                .register("cluster-health", ClusterHealthCheck.createProcedure(vertx, false))));
+                .register("cluster-health", ClusterHealthCheck.createProcedure(vertx, false));
+
+        router.get("/health").handler(context -> context.response().end("OK"));
+        router.get("/readiness").handler(HealthCheckHandler.createWithHealthChecks(healthChecks));
+        router.get("/metrics").handler(PrometheusScrapingHandler.create());
 
-        var ollamaAPI = new OllamaAPI(WebClient.create(vertx), OLLAMA_HOST, OLLAMA_PORT);
+        Metrics.monitorEventLoop(vertx, EVENT_LOOP_LAG_INTERVAL_MS);
 
-        // Register consumers
+        // Not ready until the collections are open and, with a segment store, refilled from disk
+        Future<Void> opened = services.opened();
+        healthChecks.register("embeddings", promise -> promise.complete(opened.succeeded()
+                ? Status.OK()
+                : Status.KO(new JsonObject().put("reason", opened.failed() ? opened.cause().getMessage() : "loading"))));
+
+        // Register consumers; the target collection travels in the `collection` header. Each instance registers
+        // its own, and messages are spread over them
         registerConsumer(vertx, "embed", ollamaAPI::embed);
+        registerConsumer(vertx, "embedBatch", ollamaAPI::embedBatch);
+        registerConsumer(vertx, "ingest", ollamaAPI::ingest);
         registerConsumer(vertx, "evict", ollamaAPI::evict);
-        registerConsumer(vertx, "evictAll", ollamaAPI::evictAll);
         registerConsumer(vertx, "generate", ollamaAPI::generate);
+        registerConsumer(vertx, "stats", ollamaAPI::stats);
+        registerStreamingConsumer(vertx, "generateStream", ollamaAPI);
+
+        // Collection administration acts on the whole cluster, so any backend may take it
+        registerAdminConsumer(vertx, "evictAll", msg -> registry.truncate(collectionOf(msg))
+                .map(config -> new EmbedResult(config.name(), List.of(), POD_NAME, 0)));
+        registerAdminConsumer(vertx, "collections.create", msg -> registry.create((JsonObject) msg.body())
+                .map(config -> config.toJson().encodePrettily()));
+        registerAdminConsumer(vertx, "collections.list", msg -> registry.list().map(JsonArray::encodePrettily));
+        registerAdminConsumer(vertx, "collections.drop", msg -> registry.drop(collectionOf(msg))
+                .map(config -> String.format("Collection %s dropped \nFrom: %s", config.name(), POD_NAME)));
 
-        vertx.createHttpServer()
+        // Instances listening on the same port share the connections between them
+        return vertx.createHttpServer()
                 .requestHandler(router)
                 .listen(HTTP_PORT)
                 .onSuccess(server -> logger.info("HTTP server started on port " + server.actualPort()));
     }
 
-    public static void main(String[] args) {
+    /**
+     * Builds what the verticle instances of this node share, on the context of the first one to start.
+     */
+    private NodeServices createServices() {
+        var client = WebClient.create(vertx,
+                new WebClientOptions()
+                        .setKeepAlive(true)
+                        .setKeepAliveTimeout(OLLAMA_KEEP_ALIVE_TIMEOUT_S)
+                        .setPipelining(OLLAMA_PIPELINING)
+                        .setPipeliningLimit(OLLAMA_PIPELINING_LIMIT)
+                        .setMaxPoolSize(OLLAMA_POOL_SIZE));
+
+        var searchPool = vertx.createSharedWorkerExecutor("vector-search", SEARCH_WORKERS);
+        var cachePool = vertx.createSharedWorkerExecutor("cache-ops", CACHE_WORKERS);
+        var scanPool = new ForkJoinPool(SCAN_PARALLELISM);
+        Function<CollectionConfig, VectorSearch> searchFactory = config -> new VectorSearch(vertx, config.name(), searchPool,
+                new HnswIndex(config.metric(), VectorStorage.create(config.quantization(), config.metric(), PQ_SUBSPACES, PQ_TRAINING_SIZE,
+                        config.limits().storage() == StorageType.OFF_HEAP),
+                        HNSW_M, HNSW_EF_CONSTRUCTION, HNSW_EF_SEARCH, "exact".equalsIgnoreCase(SEARCH_MODE), scanPool),
+                SEARCH_TIMEOUT_MS, RESCORE_FACTOR, RECALL_SAMPLE_RATE);
+        Function<CollectionConfig, AnswerCache> answerFactory = config -> new AnswerCache(cachePool, config.name(),
+                ANSWER_CACHE_SIMILARITY, ANSWER_CACHE_TTL_S * 1000, ANSWER_CACHE_MAX_ENTRIES);
+        var limits = new CollectionLimits(EMBEDDINGS_MAX_ENTRIES, CollectionLimits.bytes(EMBEDDINGS_MAX_SIZE),
+                EMBEDDINGS_LIFESPAN_S, EMBEDDINGS_MAX_IDLE_S, CollectionLimits.storage(EMBEDDINGS_STORAGE));
+        var defaults = new CollectionConfig(CollectionRegistry.DEFAULT_COLLECTION, EMBEDDING_DIMENSION, VECTOR_METRIC, QUANTIZATION, 0, limits);
+        var registry = new CollectionRegistry(vertx, cacheManager(), EMBEDDINGS_CACHE_MODE, EMBEDDINGS_OWNERS, searchFactory, answerFactory, defaults,
+                SEGMENT_DIR.isBlank() ? null : Path.of(SEGMENT_DIR), SEGMENT_SIZE_MB * 1024 * 1024, SEGMENT_SYNC_INTERVAL_MS,
+                SEGMENT_TOMBSTONE_RETENTION_S * 1000);
 
-        var globalConfig = new GlobalConfigurationBuilder()
-                .transport()
-                .defaultTransport()
-                // TODO: Jgroup configuration for k8s deployment
-                .build();
+        var dispatcher = new OllamaDispatcher(vertx, OLLAMA_MAX_CONCURRENCY, OLLAMA_MAX_QUEUED, OLLAMA_MAX_QUEUE_WAIT_MS);
+        var endpoints = new OllamaEndpoints(vertx, client, dispatcher, List.of("mxbai-embed-large:latest", "qwen:1.8b"),
+                OLLAMA_MAX_FAILURES, OLLAMA_EJECTION_MS, OLLAMA_HEDGE, OLLAMA_HEDGE_MIN_DELAY_MS);
+        if (!OLLAMA_DISCOVERY.isBlank()) {
+            endpoints.discover(OLLAMA_DISCOVERY, OLLAMA_PORT, OLLAMA_DISCOVERY_INTERVAL_MS);
+        } else {
+            endpoints.use(OLLAMA_ENDPOINTS.isBlank() ? List.of(OLLAMA_HOST + ":" + OLLAMA_PORT) : List.of(OLLAMA_ENDPOINTS.split(",")));
+        }
+        var batcher = new EmbeddingBatcher(vertx, client, dispatcher, endpoints, "mxbai-embed-large:latest", EMBED_BATCH_WINDOW_MS, EMBED_BATCH_MAX_SIZE);
+        var queryCache = new QueryEmbeddingCache(batcher, QUERY_CACHE_SIZE);
+        queryCache.bindTo(Metrics.registry());
+        var ollamaAPI = new OllamaAPI(vertx, cachePool, client, dispatcher, endpoints, batcher, queryCache, RETRIEVAL_TOP_K);
 
-        // Configure default cache manager
-        cacheManager = new DefaultCacheManager(globalConfig);
+        Future<Void> opened = registry.start()
+                .onFailure(err -> logger.error("Failed to open the collections", err));
 
-        // Configure Infinispan caches for Vert.x clustering
-        cacheManager.defineConfiguration("__vertx.subs", new ConfigurationBuilder().clustering().cacheMode(CacheMode.REPL_SYNC).build());
-        cacheManager.defineConfiguration("__vertx.haInfo", new ConfigurationBuilder().clustering().cacheMode(CacheMode.REPL_SYNC).build());
-        cacheManager.defineConfiguration("__vertx.nodeInfo", new ConfigurationBuilder().clustering().cacheMode(CacheMode.REPL_SYNC).build());
+        return new NodeServices(registry, ollamaAPI, opened);
+    }
+
+    public static void main(String[] args) {
+
+        // Cache manager with the Vert.x clustering caches and JGroups stack of CLUSTER_CACHES and CLUSTER_TRANSPORT
+        DefaultCacheManager cacheManager = ClusterProfile.fromEnv().cacheManager();
 
         ClusterManager clusterManager = new InfinispanClusterManager(cacheManager);
 
-        // Deploy the verticle
-        Vertx.clusteredVertx(new VertxOptions().setClusterManager(clusterManager))
-                .compose(v -> v.deployVerticle(new Main()))
+        // Deploy the verticle instances
+        Vertx.clusteredVertx(Metrics.checkEventLoops(new VertxOptions()
+                        .setClusterManager(clusterManager)
+                        .setMetricsOptions(Metrics.options())))
+                .compose(v -> {
+                    ProtoMessageCodec.registerAll(v.eventBus());
+                    return v.deployVerticle(Main::new, new DeploymentOptions().setInstances(VERTICLE_INSTANCES));
+                })
                 .onFailure(Throwable::printStackTrace);
     }
 
-    private void registerConsumer(Vertx vertx, String address, TriFunction<WebClient, String, DefaultCacheManager, Future<String>> apiMethod) {
-        vertx.eventBus().<String>consumer(address, msg ->
-                apiMethod.apply(client, msg.body(), cacheManager)
-                        .onComplete(res -> {
-                            if (res.succeeded()) {
-                                msg.reply(res.result());
-                            } else {
-                                msg.fail(500, "Failed to get response: " + res.cause().getMessage());
-                            }
-                        })
+    /**
+     * The cache manager the node joined the cluster with, whether {@link #main} created it or
+     * {@code io.vertx.core.Launcher} did (as in the container image).
+     */
+    private EmbeddedCacheManager cacheManager() {
+        var clusterManager = (InfinispanClusterManager) ((VertxInternal) vertx).getClusterManager();
+        return (EmbeddedCacheManager) clusterManager.getCacheContainer();
+    }
+
+    private <T, R> void registerConsumer(Vertx vertx, String address, BiFunction<EmbeddingCollection, T, Future<R>> apiMethod) {
+        vertx.eventBus().<T>consumer(address, msg ->
+                registry.get(collectionOf(msg))
+                        .compose(collection -> apiMethod.apply(collection, msg.body()))
+                        .onComplete(res -> reply(msg, res))
         );
     }
-}
 
+    private void registerAdminConsumer(Vertx vertx, String address, Function<Message<Object>, Future<?>> operation) {
+        vertx.eventBus().consumer(address, msg -> operation.apply(msg).onComplete(res -> reply(msg, res)));
+    }
+
+    private static String collectionOf(Message<?> msg) {
+        String collection = msg.headers().get("collection");
+        return collection != null ? collection : CollectionRegistry.DEFAULT_COLLECTION;
+    }
+
+    // Failures that carry a status (unknown collection, wrong dimension, ...) reach the frontend with it
+    private static void reply(Message<?> msg, AsyncResult<?> res) {
+        if (res.succeeded()) {
+            msg.reply(res.result());
+        } else if (res.cause() instanceof ReplyException failure) {
+            msg.fail(failure.failureCode(), failure.getMessage());
+        } else {
+            msg.fail(500, "Failed to get response: " + res.cause().getMessage());
+        }
+    }
+
+    /**
+     * The request is acknowledged once an Ollama slot is held for it, or failed with its status; tokens then flow
+     * to the caller's {@code replyAddress} as messages tagged {@code type=token}, followed by a single
+     * {@code type=end} (or {@code type=error}).
+     */
+    private void registerStreamingConsumer(Vertx vertx, String address, OllamaAPI ollamaAPI) {
+        vertx.eventBus().<JsonObject>consumer(address, msg -> {
+            String replyAddress = msg.body().getString("replyAddress");
+
+            Future<AttributeFilter> filter = OllamaAPI.filter(msg.body().getString("filter"));
+
+            // Once accepted the stream's status can no longer change, so it is turned away before then
+            filter.compose(v -> registry.get(collectionOf(msg)))
+                    .compose(collection -> ollamaAPI.generateStream(collection, msg.body().getString("prompt"), filter.result()))
+                    .onComplete(stream -> {
+                        if (stream.failed()) {
+                            reply(msg, stream);
+                            return;
+                        }
+                        msg.reply("accepted");
+
+                        stream.result().start(token -> vertx.eventBus().send(replyAddress, token, new DeliveryOptions().addHeader("type", "token")))
+                                .onComplete(res -> {
+                                    if (res.succeeded()) {
+                                        vertx.eventBus().send(replyAddress, res.result(), new DeliveryOptions().addHeader("type", "end"));
+                                    } else {
+                                        vertx.eventBus().send(replyAddress, "Failed to get response: " + res.cause().getMessage(), new DeliveryOptions().addHeader("type", "error"));
+                                    }
+                                });
+                    });
+        });
+    }
+}
@@ -0,0 +1,48 @@
+package cynicdog.io;
+
+import cynicdog.io.api.OllamaAPI;
+import cynicdog.io.collection.CollectionRegistry;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.function.Supplier;
+
+/**
+ * What the verticle instances of a backend share on their node: the collections, with their caches, indexes
+ * and segments, and the Ollama client with its endpoints, admission queue and batching. The first instance
+ * to start builds them and the others wait for it, so the models are pulled and the collections opened once
+ * whatever the number of instances. All of them are safe to use from any event loop.
+ *
+ * @param opened completes once the collections known at startup are open on this node
+ */
+record NodeServices(CollectionRegistry registry, OllamaAPI ollamaAPI, Future<Void> opened) implements Shareable {
+
+    /**
+     * The services of this node, built with {@code create} by the first caller. Only the claim is made under
+     * the shared map's lock; the others are handed a future that completes on their own context.
+     */
+    static Future<NodeServices> of(Vertx vertx, Supplier<NodeServices> create) {
+        Promise<NodeServices> built = Promise.promise();
+        Building claimed = vertx.sharedData().<String, Building>getLocalMap(NodeServices.class.getName())
+                .putIfAbsent("services", new Building(built.future()));
+        if (claimed == null) {
+            try {
+                built.complete(create.get());
+            } catch (RuntimeException e) {
+                built.fail(e);
+            }
+            return built.future();
+        }
+
+        Context context = vertx.getOrCreateContext();
+        Promise<NodeServices> services = Promise.promise();
+        claimed.services().onComplete(res -> context.runOnContext(v -> services.handle(res)));
+        return services.future();
+    }
+
+    record Building(Future<NodeServices> services) implements Shareable {
+    }
+}
@@ -0,0 +1,127 @@
+package cynicdog.io.api;
+
+import cynicdog.io.api.OllamaDispatcher.Priority;
+import cynicdog.io.util.VectorCodec;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.impl.logging.Logger;
+import io.vertx.core.impl.logging.LoggerFactory;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.WebClient;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Coalesces concurrent embedding requests into calls to Ollama's multi-input {@code /api/embed}.
+ * <p>
+ * A batch is sent as soon as it reaches {@code maxBatchSize} prompts, or {@code windowMs} after its
+ * first prompt arrived, whichever comes first. Each caller gets its own vector back. A batch goes through
+ * the {@link OllamaDispatcher} as interactive if any of its prompts is.
+ */
+public class EmbeddingBatcher {
+
+    static final Logger logger = LoggerFactory.getLogger(EmbeddingBatcher.class);
+
+    final Vertx vertx;
+    final WebClient client;
+    final OllamaDispatcher dispatcher;
+    final OllamaEndpoints endpoints;
+    final String model;
+    final long windowMs;
+    final int maxBatchSize;
+
+    List<Pending> pending = new ArrayList<>();
+    long timerId = -1;
+
+    public EmbeddingBatcher(Vertx vertx, WebClient client, OllamaDispatcher dispatcher, OllamaEndpoints endpoints, String model, long windowMs, int maxBatchSize) {
+        this.vertx = vertx;
+        this.client = client;
+        this.dispatcher = dispatcher;
+        this.endpoints = endpoints;
+        this.model = model;
+        this.windowMs = windowMs;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public Future<float[]> embed(String prompt, Priority priority) {
+        Promise<float[]> promise = Promise.promise();
+
+        List<Pending> ready = null;
+        synchronized (this) {
+            pending.add(new Pending(prompt, priority, promise));
+            if (pending.size() >= maxBatchSize) {
+                ready = drain();
+            } else if (timerId < 0) {
+                timerId = vertx.setTimer(windowMs, id -> flush());
+            }
+        }
+        if (ready != null) {
+            send(ready);
+        }
+        return promise.future();
+    }
+
+    public Future<List<float[]>> embedAll(List<String> prompts) {
+        List<Future<float[]>> vectors = new ArrayList<>(prompts.size());
+        for (String prompt : prompts) {
+            vectors.add(embed(prompt, Priority.BULK));
+        }
+        return Future.all(vectors).map(all -> all.<float[]>list());
+    }
+
+    void flush() {
+        List<Pending> ready;
+        synchronized (this) {
+            timerId = -1;
+            ready = drain();
+        }
+        if (!ready.isEmpty()) {
+            send(ready);
+        }
+    }
+
+    // Callers hold the monitor.
+    List<Pending> drain() {
+        if (timerId >= 0) {
+            vertx.cancelTimer(timerId);
+            timerId = -1;
+        }
+        List<Pending> ready = pending;
+        pending = new ArrayList<>();
+        return ready;
+    }
+
+    void send(List<Pending> batch) {
+        JsonArray input = new JsonArray();
+        batch.forEach(p -> input.add(p.prompt()));
+        Priority priority = batch.stream().anyMatch(p -> p.priority() == Priority.INTERACTIVE) ? Priority.INTERACTIVE : Priority.BULK;
+
+        // Embedding the same input twice is harmless, so a slow batch is hedged on another endpoint
+        dispatcher.submit(priority, "embed", () -> endpoints.hedged(endpoint -> client.post(endpoint.port(), endpoint.host(), "/api/embed")
+                        .sendJsonObject(new JsonObject()
+                                .put("model", model)
+                                .put("input", input))))
+                // A full batch is tens of thousands of numbers, too much to parse on the event loop
+                .compose(res -> vertx.executeBlocking(() -> VectorCodec.parseVectors(res.body(), "embeddings"), false))
+                .onSuccess(vectors -> {
+                    if (vectors.size() != batch.size()) {
+                        var message = String.format("Expected %d embeddings from Ollama, got %d", batch.size(), vectors.size());
+                        batch.forEach(p -> p.promise().fail(message));
+                        return;
+                    }
+                    for (int i = 0; i < batch.size(); i++) {
+                        batch.get(i).promise().complete(vectors.get(i));
+                    }
+                })
+                .onFailure(err -> {
+                    logger.error("Batched embedding request of " + batch.size() + " prompts failed: " + err.getMessage());
+                    batch.forEach(p -> p.promise().fail(err));
+                });
+    }
+
+    record Pending(String prompt, Priority priority, Promise<float[]> promise) {
+    }
+}
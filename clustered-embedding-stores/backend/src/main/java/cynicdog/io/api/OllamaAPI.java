@@ -1,231 +1,412 @@
 package cynicdog.io.api;
 
+import cynicdog.io.api.OllamaDispatcher.Priority;
+import cynicdog.io.collection.EmbeddingCollection;
+import cynicdog.io.data.Attribute;
 import cynicdog.io.data.Embedding;
+import cynicdog.io.index.AttributeFilter;
+import cynicdog.io.index.SearchHit;
+import cynicdog.io.message.EmbedResult;
+import cynicdog.io.message.GenerateResult;
+import cynicdog.io.message.IngestResult;
+import cynicdog.io.message.Prompt;
+import cynicdog.io.message.PromptBatch;
+import cynicdog.io.message.Reference;
+import cynicdog.io.metrics.Metrics;
+import cynicdog.io.util.ContentHash;
+import io.micrometer.core.instrument.Timer;
 import io.vertx.core.Future;
+import io.vertx.core.Handler;
 import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
 import io.vertx.core.impl.logging.Logger;
 import io.vertx.core.impl.logging.LoggerFactory;
-import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.parsetools.JsonParser;
 import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.codec.BodyCodec;
+import org.infinispan.AdvancedCache;
 import org.infinispan.Cache;
-import org.infinispan.commons.api.CacheContainerAdmin;
-import org.infinispan.commons.dataconversion.MediaType;
-import org.infinispan.configuration.cache.CacheMode;
-import org.infinispan.configuration.cache.Configuration;
-import org.infinispan.configuration.cache.ConfigurationBuilder;
-import org.infinispan.manager.DefaultCacheManager;
+import org.infinispan.context.Flag;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static cynicdog.io.Main.POD_NAME;
-import static cynicdog.io.util.VectorUtils.retrieveRelevantDocument;
 
 public class OllamaAPI {
 
     static final Logger logger = LoggerFactory.getLogger(OllamaAPI.class);
 
-    final String host;
-    final int port;
+    final Vertx vertx;
+    final WorkerExecutor cachePool;
+    final WebClient client;
+    final OllamaDispatcher dispatcher;
+    final OllamaEndpoints endpoints;
+
+    final EmbeddingBatcher batcher;
+    final QueryEmbeddingCache queryCache;
+    final int topK;
+
+    /**
+     * @param cachePool workers the cache reads and writes run on, so that none of them holds an event loop
+     */
+    public OllamaAPI(Vertx vertx, WorkerExecutor cachePool, WebClient client, OllamaDispatcher dispatcher, OllamaEndpoints endpoints, EmbeddingBatcher batcher, QueryEmbeddingCache queryCache, int topK) {
+        this.vertx = vertx;
+        this.cachePool = cachePool;
+        this.client = client;
+        this.dispatcher = dispatcher;
+        this.endpoints = endpoints;
+        this.batcher = batcher;
+        this.queryCache = queryCache;
+        this.topK = topK;
+    }
 
-    Configuration cacheConfig;
+    public Future<EmbedResult> embed(EmbeddingCollection collection, Prompt request) {
 
-    public OllamaAPI(WebClient client, String host, int port) {
-        this.host = host;
-        this.port = port;
+        Promise<EmbedResult> promise = Promise.promise();
+        Cache<String, Embedding> cache = collection.cache();
+        String prompt = request.getText();
 
-        // Configure the cache for embeddings
-        this.cacheConfig = new ConfigurationBuilder().clustering()
-                .cacheMode(CacheMode.REPL_SYNC)
-                .encoding().key().mediaType(MediaType.APPLICATION_OBJECT_TYPE)
-                .encoding().value().mediaType(MediaType.APPLICATION_PROTOSTREAM_TYPE)
-                .build();
+        attributes(request.getAttributes())
+                .compose(attributes -> batcher.embed(prompt, Priority.BULK)
+                        .compose(collection::checkDimension)
+                        .map(latentScores -> new Embedding(latentScores, prompt, attributes)))
+                .compose(embedding -> {
+                    String key = ContentHash.of(prompt);
+                    float[] latentScores = embedding.getLatentScores();
 
-        String[] models = {"mxbai-embed-large:latest", "qwen:1.8b"};
+                    // Store the embeddings in the cache
+                    return write(collection, "put", () -> writer(cache).put(key, collection.encode(embedding)))
+                            .map(ignored -> {
+                                EmbedResult result = new EmbedResult(collection.name(), List.of(key), POD_NAME, collection.localSize());
+                                return request.isIncludeVectors() ? result.withVectors(List.of(latentScores)) : result;
+                            });
+                })
+                .onSuccess(result -> {
+                    logger.info(String.format("Embedding entry stored with key: %s (Collection Size: %d)", result.getKeys().get(0), result.getCollectionSize()));
+                    promise.complete(result);
+                })
+                .onFailure(err -> {
+                    logger.error("Embedding request failed: " + err.getMessage());
+                    promise.fail(failure("Embedding request failed: ", err));
+                });
 
-        for (String model : models) {
-            client.post(port, host, "/api/pull")
-                    .sendJsonObject(new JsonObject().put("model", model))
-                    .onSuccess(res -> logger.info("Model " + model + " pulled."))
-                    .onFailure(err -> logger.error("Embedding request failed: ", err));
-        }
+        return promise.future();
     }
 
-    public Future<String> embed(WebClient client, String prompt, DefaultCacheManager cacheManager) {
-
-        Promise<String> promise = Promise.promise();
+    public Future<EmbedResult> embedBatch(EmbeddingCollection collection, PromptBatch request) {
+
+        Promise<EmbedResult> promise = Promise.promise();
+        Cache<String, Embedding> cache = collection.cache();
+
+        List<String> documents = request.getTexts();
+
+        attributes(request.getAttributes())
+                .compose(attributes -> batcher.embedAll(documents).compose(vectors -> {
+                    for (float[] vector : vectors) {
+                        Future<float[]> checked = collection.checkDimension(vector);
+                        if (checked.failed()) {
+                            return checked.<EmbedResult>mapEmpty();
+                        }
+                    }
+
+                    Map<String, Embedding> entries = new LinkedHashMap<>();
+                    for (int i = 0; i < documents.size(); i++) {
+                        String prompt = documents.get(i);
+                        entries.put(ContentHash.of(prompt), new Embedding(vectors.get(i), prompt, attributes));
+                    }
+                    Map<String, Embedding> stored = new LinkedHashMap<>();
+                    entries.forEach((key, embedding) -> stored.put(key, collection.encode(embedding)));
+
+                    // Store the batch with a single replicated write
+                    return write(collection, "putAll", () -> writer(cache).putAll(stored))
+                            .map(ignored -> {
+                                EmbedResult result = new EmbedResult(collection.name(), List.copyOf(entries.keySet()), POD_NAME, collection.localSize());
+                                return request.isIncludeVectors()
+                                        ? result.withVectors(entries.values().stream().map(Embedding::getLatentScores).toList())
+                                        : result;
+                            });
+                }))
+                .onSuccess(result -> {
+                    logger.info(String.format("%d embedding entries stored with keys: %s (Collection Size: %d)", result.getKeys().size(), result.getKeys(), result.getCollectionSize()));
+                    promise.complete(result);
+                })
+                .onFailure(err -> {
+                    logger.error("Batch embedding request failed: " + err.getMessage());
+                    promise.fail(failure("Batch embedding request failed: ", err));
+                });
 
-        if (cacheManager.cacheExists("embeddings")) {
-            logger.info(String.format("Cache %s exists with the hashcode of %d on %s node.",
-                    "embeddings",
-                    cacheManager.getCache("embeddings").hashCode(),
-                    cacheManager.getNodeAddress())
-            );
-        } else {
-            logger.info(String.format("Cache %s does not exist, a new cache is created on %s node.",
-                    "embeddings",
-                    cacheManager.getNodeAddress()
-            ));
-        }
+        return promise.future();
+    }
 
-        Cache<String, Embedding> collection = cacheManager
-                .administration()
-                .withFlags(CacheContainerAdmin.AdminFlag.VOLATILE)
-                .getOrCreateCache("embeddings", cacheConfig);
+    /**
+     * Stores one batch of an ingestion's chunks. Chunks whose content the collection already holds are
+     * dropped before anything is sent to Ollama, and the rest is written with a single {@code putAll}.
+     */
+    public Future<IngestResult> ingest(EmbeddingCollection collection, PromptBatch request) {
+
+        Promise<IngestResult> promise = Promise.promise();
+        Cache<String, Embedding> cache = collection.cache();
+
+        Map<String, String> chunks = new LinkedHashMap<>();
+        request.getTexts().forEach(text -> chunks.putIfAbsent(ContentHash.of(text), text));
+
+        attributes(request.getAttributes())
+                .compose(attributes -> blocking(() -> cache.getAdvancedCache().getAll(chunks.keySet())).compose(stored -> {
+                    chunks.keySet().removeAll(stored.keySet());
+                    if (chunks.isEmpty()) {
+                        return Future.<Void>succeededFuture();
+                    }
+
+                    List<String> documents = List.copyOf(chunks.values());
+                    return batcher.embedAll(documents).compose(vectors -> {
+                        Map<String, Embedding> entries = new LinkedHashMap<>();
+                        for (int i = 0; i < documents.size(); i++) {
+                            Future<float[]> checked = collection.checkDimension(vectors.get(i));
+                            if (checked.failed()) {
+                                return checked.<Void>mapEmpty();
+                            }
+                            entries.put(ContentHash.of(documents.get(i)), collection.encode(new Embedding(vectors.get(i), documents.get(i), attributes)));
+                        }
+                        return write(collection, "putAll", () -> writer(cache).putAll(entries));
+                    });
+                }))
+                .map(v -> new IngestResult(collection.name(), request.getTexts().size(), request.getTexts().size() - chunks.size(), POD_NAME))
+                .onSuccess(result -> {
+                    logger.info(String.format("Ingested %d chunks, %d already stored (Collection: %s)", result.getChunks(), result.getSkipped(), result.getCollection()));
+                    promise.complete(result);
+                })
+                .onFailure(err -> {
+                    logger.error("Ingestion batch failed: " + err.getMessage());
+                    promise.fail(failure("Ingestion batch failed: ", err));
+                });
 
-        client.post(port, host, "/api/embeddings")
-                .sendJsonObject(new JsonObject()
-                        .put("model", "mxbai-embed-large:latest")
-                        .put("prompt", prompt))
-                .onSuccess(res -> {
-                    JsonArray embeddingsJson = res.bodyAsJsonObject().getJsonArray("embedding");
-                    List<Float> latentScores = embeddingsJson.stream()
-                            .map(value -> ((Number) value).floatValue())
-                            .toList();
+        return promise.future();
+    }
 
-                    String key = Integer.toString(prompt.hashCode());
+    public Future<EmbedResult> evict(EmbeddingCollection collection, Prompt request) {
 
-                    // Store the embeddings in the cache
-                    collection.put(key, new Embedding(latentScores, prompt));
+        Promise<EmbedResult> promise = Promise.promise();
+        Cache<String, Embedding> cache = collection.cache();
+        String key = request.getText();
 
-                    var message = String.format("Embedding entry stored with key: %s \nFrom: %s (Collection Size: %d)", key, POD_NAME, collection.size());
-                    logger.info(message);
-                    promise.complete(message);
+        write(collection, "remove", () -> writer(cache).remove(key))
+                .map(ignored -> new EmbedResult(collection.name(), List.of(key), POD_NAME, collection.localSize()))
+                .onSuccess(result -> {
+                    logger.info(String.format("Embedding entry evicted with key: %s (Collection Size: %d)", key, result.getCollectionSize()));
+                    promise.complete(result);
                 })
                 .onFailure(err -> {
-                    var message = "Embedding request failed: " + err.getMessage();
-                    logger.error(message);
-                    promise.fail(message);
+                    logger.error("Eviction failed: " + err.getMessage());
+                    promise.fail(failure("Eviction failed: ", err));
                 });
 
         return promise.future();
     }
 
-    public Future<String> evict(WebClient client, String key, DefaultCacheManager cacheManager) {
+    public Future<GenerateResult> generate(EmbeddingCollection collection, Prompt request) {
+
+        Promise<GenerateResult> promise = Promise.promise();
+        String prompt = request.getText();
+
+        filter(request.getFilter())
+                .compose(filter -> retrieveDocuments(prompt, filter, collection)
+                        .compose(retrieval -> collection.answers().lookup(retrieval.query(), filter, retrieval.hits())
+                                .compose(cached -> cached != null
+                                        ? Future.succeededFuture(cached)
+                                        : dispatcher.submit(Priority.INTERACTIVE, "generate", () -> endpoints.call(endpoint -> client.post(endpoint.port(), endpoint.host(), "/api/generate")
+                                                        .sendJsonObject(new JsonObject()
+                                                                .put("model", "qwen:1.8b")
+                                                                .put("prompt", String.format("Using this data: %s, respond to this prompt: %s", context(retrieval.hits()), prompt))
+                                                                .put("stream", false))))
+                                                .onFailure(err -> logger.error("Failed to connect to Ollama", err))
+                                                .map(success -> success.bodyAsJsonObject().getString("response"))
+                                                .onSuccess(response -> collection.answers().store(prompt, retrieval.query(), filter, retrieval.hits(), response)))
+                                .map(response -> new GenerateResult(
+                                        response,
+                                        retrieval.hits().stream().map(hit -> new Reference(hit.key(), hit.similarity(), hit.document())).toList(),
+                                        POD_NAME,
+                                        collection.localSize()))))
+                .onSuccess(promise::complete)
+                .onFailure(err -> {
+                    logger.error("Generate request failed: " + err.getMessage());
+                    promise.fail(err);
+                });
 
-        Promise<String> promise = Promise.promise();
+        return promise.future();
+    }
 
-        if (cacheManager.cacheExists("embeddings")) {
-            logger.info(String.format("Cache %s exists with the hashcode of %d on %s node.",
-                    "embeddings",
-                    cacheManager.getCache("embeddings").hashCode(),
-                    cacheManager.getNodeAddress())
-            );
-        } else {
-            logger.info(String.format("Cache %s does not exist, a new cache is created on %s node.",
-                    "embeddings",
-                    cacheManager.getNodeAddress()
-            ));
+    /**
+     * Streaming variant of {@link #generate}, in two steps so that the caller can still turn the request away
+     * with a status until it starts answering: the returned future completes once the documents are retrieved
+     * and, unless the answer is cached, an Ollama slot is reserved for the stream.
+     */
+    public Future<AnswerStream> generateStream(EmbeddingCollection collection, String prompt, AttributeFilter filter) {
+        return retrieveDocuments(prompt, filter, collection)
+                .compose(retrieval -> collection.answers().lookup(retrieval.query(), filter, retrieval.hits())
+                        .compose(cached -> cached != null
+                                ? Future.succeededFuture(new AnswerStream(collection, prompt, filter, retrieval, cached, null))
+                                : dispatcher.admission(Priority.INTERACTIVE, "generate-stream")
+                                .map(slot -> new AnswerStream(collection, prompt, filter, retrieval, null, slot))));
+    }
+
+    /**
+     * An answer ready to stream, in the slot reserved for it.
+     */
+    public class AnswerStream {
+
+        final EmbeddingCollection collection;
+        final String prompt;
+        final AttributeFilter filter;
+        final Retrieval retrieval;
+        final String cached;
+        final OllamaDispatcher.Slot slot;
+
+        AnswerStream(EmbeddingCollection collection, String prompt, AttributeFilter filter, Retrieval retrieval, String cached, OllamaDispatcher.Slot slot) {
+            this.collection = collection;
+            this.prompt = prompt;
+            this.filter = filter;
+            this.retrieval = retrieval;
+            this.cached = cached;
+            this.slot = slot;
         }
 
-        Cache<String, Embedding> collection = cacheManager
-                .administration()
-                .withFlags(CacheContainerAdmin.AdminFlag.VOLATILE)
-                .getOrCreateCache("embeddings", cacheConfig);
+        /**
+         * Hands Ollama's NDJSON chunks to {@code onToken} as they arrive, and completes with the trailing reference
+         * summary once the model is done; the slot is given back then. A cached answer is handed over whole, as a
+         * single token.
+         */
+        public Future<String> start(Handler<String> onToken) {
+            Promise<String> promise = Promise.promise();
+            String document = context(retrieval.hits());
+
+            Future<Void> answered;
+            if (cached != null) {
+                onToken.handle(cached);
+                answered = Future.succeededFuture();
+            } else {
+                StringBuilder response = new StringBuilder();
+                JsonParser parser = JsonParser.newParser().objectValueMode();
+                parser.handler(event -> {
+                    String token = event.objectValue().getString("response", "");
+                    if (!token.isEmpty()) {
+                        response.append(token);
+                        onToken.handle(token);
+                    }
+                });
+                parser.exceptionHandler(promise::tryFail);
+
+                answered = endpoints.call(endpoint -> client.post(endpoint.port(), endpoint.host(), "/api/generate")
+                                .as(BodyCodec.jsonStream(parser))
+                                .sendJsonObject(new JsonObject()
+                                        .put("model", "qwen:1.8b")
+                                        .put("prompt", String.format("Using this data: %s, respond to this prompt: %s", document, prompt))
+                                        .put("stream", true)))
+                        .onComplete(res -> slot.release())
+                        .onFailure(err -> logger.error("Failed to connect to Ollama", err))
+                        .onSuccess(done -> {
+                            // A malformed chunk fails the stream, and leaves an answer not worth keeping
+                            if (!promise.future().failed()) {
+                                collection.answers().store(prompt, retrieval.query(), filter, retrieval.hits(), response.toString());
+                            }
+                        })
+                        .mapEmpty();
+            }
 
-        try {
-            collection.evict(key);
-
-            var message = String.format("Embedding entry evicted with key: %s \nFrom: %s (Collection Size: %d)", key, POD_NAME, collection.size());
-            logger.info(message);
-            promise.complete(message);
-        } catch (Exception e) {
-            logger.error(e.getMessage());
-            promise.fail(e.getMessage());
+            answered.map(done -> String.format("\n\nReferenced document: %s. \nFrom: %s (Collection Size: %d)",
+                            document, POD_NAME, collection.localSize()))
+                    .onSuccess(promise::tryComplete)
+                    .onFailure(err -> {
+                        logger.error("Generate request failed: " + err.getMessage());
+                        promise.tryFail(err);
+                    });
+
+            return promise.future();
         }
-        return promise.future();
     }
 
-    public Future<String> evictAll(WebClient client, String keys, DefaultCacheManager cacheManager) {
+    record Retrieval(float[] query, List<SearchHit> hits) {
+    }
 
-        Promise<String> promise = Promise.promise();
+    Future<Retrieval> retrieveDocuments(String prompt, AttributeFilter filter, EmbeddingCollection collection) {
+        return queryCache.get(prompt).compose(query -> collection.search(query, topK, filter).map(hits -> new Retrieval(query, hits)));
+    }
 
-        if (cacheManager.cacheExists("embeddings")) {
-            logger.info(String.format("Cache %s exists with the hashcode of %d on %s node.",
-                    "embeddings",
-                    cacheManager.getCache("embeddings").hashCode(),
-                    cacheManager.getNodeAddress())
-            );
-        } else {
-            logger.info(String.format("Cache %s does not exist, a new cache is created on %s node.",
-                    "embeddings",
-                    cacheManager.getNodeAddress()
-            ));
+    /**
+     * Reads the attributes a client sent as a JSON object; a malformed one is the client's error.
+     */
+    static Future<List<Attribute>> attributes(String json) {
+        try {
+            return Future.succeededFuture(json == null ? List.of() : Attribute.fromJson(new JsonObject(json)));
+        } catch (RuntimeException e) {
+            return Future.failedFuture(new ReplyException(ReplyFailure.RECIPIENT_FAILURE, 400, "Invalid attributes: " + e.getMessage()));
         }
+    }
 
-        Cache<String, Embedding> collection = cacheManager
-                .administration()
-                .withFlags(CacheContainerAdmin.AdminFlag.VOLATILE)
-                .getOrCreateCache("embeddings", cacheConfig);
-
+    public static Future<AttributeFilter> filter(String json) {
         try {
-            for (String cacheKey : collection.keySet()) {
-                collection.evict(cacheKey);
-            }
-            var message = String.format("All embedding entries evicted \nFrom: %s (Collection Size: %d)", POD_NAME, collection.size());
-            logger.info(message);
-            promise.complete(message);
-        } catch (Exception e) {
-            logger.error(e.getMessage());
-            promise.fail(e.getMessage());
+            return Future.succeededFuture(json == null ? null : AttributeFilter.fromJson(new JsonObject(json)));
+        } catch (RuntimeException e) {
+            return Future.failedFuture(new ReplyException(ReplyFailure.RECIPIENT_FAILURE, 400, "Invalid filter: " + e.getMessage()));
         }
-        return promise.future();
     }
 
-    public Future<String> generate(WebClient client, String prompt, DefaultCacheManager cacheManager) {
+    static String context(List<SearchHit> hits) {
+        return hits.isEmpty()
+                ? "No relevant data found."
+                : hits.stream().map(SearchHit::document).collect(Collectors.joining("\n"));
+    }
 
-        Promise<String> promise = Promise.promise();
+    public Future<String> stats(EmbeddingCollection collection, String ignored) {
+        return collection.stats().map(stats -> new JsonObject()
+                .put("pod", POD_NAME)
+                .put("queryEmbeddingCache", queryCache.stats())
+                .put("ollama", dispatcher.stats().mergeIn(endpoints.stats()))
+                .put("collection", stats)
+                .encodePrettily());
+    }
 
-        if (cacheManager.cacheExists("embeddings")) {
-            logger.info(String.format("Cache %s exists with the hashcode of %d on %s node.",
-                    "embeddings",
-                    cacheManager.getCache("embeddings").hashCode(),
-                    cacheManager.getNodeAddress())
-            );
-        } else {
-            logger.info(String.format("Cache %s does not exist, a new cache is created on %s node.",
-                    "embeddings",
-                    cacheManager.getNodeAddress()
-            ));
-        }
+    // Failures that already carry a status (such as a dimension mismatch) are passed on as they are
+    static Throwable failure(String prefix, Throwable err) {
+        return err instanceof ReplyException ? err : new RuntimeException(prefix + err.getMessage(), err);
+    }
 
-        Cache<String, Embedding> collection = cacheManager
-                .administration()
-                .withFlags(CacheContainerAdmin.AdminFlag.VOLATILE)
-                .getOrCreateCache("embeddings", cacheConfig);
-
-        client.post(port, host, "/api/embeddings")
-                .sendJsonObject(new JsonObject()
-                        .put("model", "mxbai-embed-large:latest")
-                        .put("prompt", prompt))
-                .onSuccess(res -> {
-                    JsonArray embeddingsJson = res.bodyAsJsonObject().getJsonArray("embedding");
-                    List<Float> embeddings = embeddingsJson.stream()
-                            .map(value -> ((Number) value).floatValue())
-                            .toList();
-
-                    String document = retrieveRelevantDocument(embeddings, collection);
-
-                    client.post(port, host, "/api/generate")
-                            .sendJsonObject(new JsonObject()
-                                    .put("model", "qwen:1.8b")
-                                    .put("prompt", String.format("Using this data: %s, respond to this prompt: %s", document, prompt))
-                                    .put("stream", false))
-                            .onSuccess(success -> {
-                                var response = success.bodyAsJsonObject().getString("response");
-                                response += String.format("\n\nReferenced document: %s. \nFrom: %s (Collection Size: %d)", document, POD_NAME, collection.size());
-                                promise.complete(response);
-                            })
-                            .onFailure(err -> {
-                                logger.error("Failed to connect to Ollama", err);
-                                promise.fail(err);
-                            });
-                })
-                .onFailure(err -> {
-                    logger.error("Generate request failed: " + err.getMessage());
-                    promise.fail(err);
-                });
+    /**
+     * Runs an Infinispan operation on the cache workers and resumes on the calling verticle instance's context.
+     * Even the async API marshals the value and runs the interceptors and listeners on the calling thread, so
+     * no cache operation is started from an event loop.
+     */
+    <T> Future<T> blocking(Callable<T> operation) {
+        return cachePool.executeBlocking(operation, false);
+    }
 
-        return promise.future();
+    /**
+     * {@link #blocking} for a write, timed: the caches are synchronous, so a write completes once every owner
+     * has applied it and this measures replication.
+     */
+    Future<Void> write(EmbeddingCollection collection, String operation, Runnable write) {
+        long started = System.nanoTime();
+        return this.<Void>blocking(() -> {
+            write.run();
+            return null;
+        }).onComplete(res -> Timer.builder("embeddings.write")
+                .description("Time for a write to be applied by every owner of the entry")
+                .tags("collection", collection.name(), "operation", operation)
+                .publishPercentiles(0.5, 0.99)
+                .register(Metrics.registry())
+                .record(System.nanoTime() - started, TimeUnit.NANOSECONDS));
+    }
+
+    // Writes never look at the previous value, so don't have it fetched from the owners
+    static AdvancedCache<String, Embedding> writer(Cache<String, Embedding> cache) {
+        return cache.getAdvancedCache().withFlags(Flag.IGNORE_RETURN_VALUES);
     }
 }
@@ -0,0 +1,282 @@
+package cynicdog.io.api;
+
+import cynicdog.io.message.Backpressure;
+import cynicdog.io.metrics.Metrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Timer;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Admission control in front of Ollama.
+ * <p>
+ * At most {@code maxConcurrency} calls run at once and up to {@code maxQueued} wait for a slot, interactive
+ * ones ahead of bulk ones. A call that finds the queue full is rejected straight away with 429 (an
+ * interactive call first pushes out the most recent bulk one), and a call still waiting after
+ * {@code maxQueueWaitMs} with 503. Both carry an estimate of when a retry would get through, so clients
+ * back off instead of stacking up behind a model that can't keep up.
+ */
+public class OllamaDispatcher {
+
+    public enum Priority {
+        INTERACTIVE, BULK
+    }
+
+    // Weight of the latest call in the moving average of Ollama's service time
+    static final double SERVICE_TIME_WEIGHT = 0.2;
+
+    final Vertx vertx;
+    final int maxConcurrency;
+    final int maxQueued;
+    final long maxQueueWaitMs;
+
+    final Map<Priority, Deque<Task<?>>> queues = new EnumMap<>(Priority.class);
+    int running;
+    double serviceTimeMs = 1000;
+
+    long admitted;
+    long rejected;
+    long expired;
+
+    public OllamaDispatcher(Vertx vertx, int maxConcurrency, int maxQueued, long maxQueueWaitMs) {
+        this.vertx = vertx;
+        this.maxConcurrency = maxConcurrency;
+        this.maxQueued = maxQueued;
+        this.maxQueueWaitMs = maxQueueWaitMs;
+        for (Priority priority : Priority.values()) {
+            queues.put(priority, new ArrayDeque<>());
+            Gauge.builder("ollama.queued", this, dispatcher -> dispatcher.queued(priority))
+                    .description("Ollama calls waiting for a slot")
+                    .tag("priority", priority.name().toLowerCase())
+                    .register(Metrics.registry());
+        }
+        Gauge.builder("ollama.running", this, dispatcher -> dispatcher.running())
+                .description("Ollama calls in progress")
+                .register(Metrics.registry());
+    }
+
+    /**
+     * Runs {@code call} once a slot is free; the slot is held until the returned future completes.
+     */
+    public <T> Future<T> submit(Priority priority, String operation, Supplier<Future<T>> call) {
+        Task<T> task = new Task<>(priority, operation, call, Promise.promise());
+        Task<?> pushedOut = null;
+        boolean start = false;
+
+        synchronized (this) {
+            if (running < maxConcurrency) {
+                running++;
+                admitted++;
+                start = true;
+            } else {
+                if (queued() >= maxQueued) {
+                    pushedOut = pushOut(priority);
+                    if (pushedOut == null) {
+                        rejected++;
+                        countRejection(429);
+                        return Future.failedFuture(rejection(429, "Ollama is saturated"));
+                    }
+                }
+                queues.get(priority).addLast(task);
+                task.timer = vertx.setTimer(maxQueueWaitMs, id -> expire(task));
+            }
+        }
+
+        if (pushedOut != null) {
+            pushedOut.promise.fail(rejection(429, "Ollama is saturated"));
+        }
+        if (start) {
+            run(task);
+        }
+        return task.promise.future();
+    }
+
+    /**
+     * Reserves a slot for a call the caller makes itself, such as a stream it has to accept before it starts,
+     * queued and turned away like {@link #submit}. The slot is held until {@link Slot#release()}.
+     */
+    public Future<Slot> admission(Priority priority, String operation) {
+        Slot slot = new Slot();
+        Promise<Slot> granted = Promise.promise();
+        submit(priority, operation, () -> {
+            granted.complete(slot);
+            return slot.released.future();
+        }).onFailure(granted::tryFail);
+        return granted.future();
+    }
+
+    /**
+     * A slot taken at once for a call made on behalf of one already running, such as a hedge, or null when
+     * every slot is busy or calls are waiting for one. It is held until {@link Slot#release()}.
+     */
+    public Slot trySlot() {
+        synchronized (this) {
+            if (running >= maxConcurrency || queued() > 0) {
+                return null;
+            }
+            running++;
+            admitted++;
+        }
+        Slot slot = new Slot();
+        long started = System.nanoTime();
+        slot.released.future().onComplete(res -> release(started));
+        return slot;
+    }
+
+    public synchronized JsonObject stats() {
+        return new JsonObject()
+                .put("running", running)
+                .put("maxConcurrency", maxConcurrency)
+                .put("queuedInteractive", queues.get(Priority.INTERACTIVE).size())
+                .put("queuedBulk", queues.get(Priority.BULK).size())
+                .put("maxQueued", maxQueued)
+                .put("admitted", admitted)
+                .put("rejected", rejected)
+                .put("expired", expired)
+                .put("serviceTimeMs", serviceTimeMs);
+    }
+
+    <T> void run(Task<T> task) {
+        long started = System.nanoTime();
+        Timer.builder("ollama.queue.wait")
+                .description("Time an Ollama call waited for a slot")
+                .tag("priority", task.priority.name().toLowerCase())
+                .register(Metrics.registry())
+                .record(started - task.submitted, TimeUnit.NANOSECONDS);
+
+        Future<T> result;
+        try {
+            result = task.call.get();
+        } catch (RuntimeException e) {
+            result = Future.failedFuture(e);
+        }
+        result.onComplete(res -> {
+            Timer.builder("ollama.call")
+                    .description("Latency of Ollama calls, from the request to the end of the response")
+                    .tags("operation", task.operation, "outcome", res.succeeded() ? "success" : "failure")
+                    .publishPercentiles(0.5, 0.99)
+                    .register(Metrics.registry())
+                    .record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            release(started);
+            task.promise.handle(res);
+        });
+    }
+
+    void release(long started) {
+        Task<?> next;
+        synchronized (this) {
+            serviceTimeMs += SERVICE_TIME_WEIGHT * ((System.nanoTime() - started) / 1_000_000.0 - serviceTimeMs);
+            next = poll();
+            if (next == null) {
+                running--;
+            } else {
+                vertx.cancelTimer(next.timer);
+                admitted++;
+            }
+        }
+        if (next != null) {
+            run(next);
+        }
+    }
+
+    void expire(Task<?> task) {
+        synchronized (this) {
+            if (!queues.get(task.priority).remove(task)) {
+                return;
+            }
+            expired++;
+        }
+        countRejection(503);
+        task.promise.fail(rejection(503, "Ollama did not free up in " + maxQueueWaitMs + " ms"));
+    }
+
+    // Callers hold the monitor. An interactive call takes the place of the most recent bulk one.
+    Task<?> pushOut(Priority priority) {
+        Deque<Task<?>> bulk = queues.get(Priority.BULK);
+        if (priority != Priority.INTERACTIVE || bulk.isEmpty()) {
+            return null;
+        }
+        Task<?> victim = bulk.pollLast();
+        vertx.cancelTimer(victim.timer);
+        rejected++;
+        countRejection(429);
+        return victim;
+    }
+
+    // Callers hold the monitor.
+    Task<?> poll() {
+        for (Priority priority : Priority.values()) {
+            Task<?> task = queues.get(priority).pollFirst();
+            if (task != null) {
+                return task;
+            }
+        }
+        return null;
+    }
+
+    synchronized int queued(Priority priority) {
+        return queues.get(priority).size();
+    }
+
+    synchronized int running() {
+        return running;
+    }
+
+    static void countRejection(int status) {
+        Counter.builder("ollama.rejected")
+                .description("Ollama calls turned away: 429 when the queue was full, 503 when they waited too long")
+                .tag("status", String.valueOf(status))
+                .register(Metrics.registry())
+                .increment();
+    }
+
+    // Callers hold the monitor.
+    int queued() {
+        int queued = 0;
+        for (Deque<Task<?>> queue : queues.values()) {
+            queued += queue.size();
+        }
+        return queued;
+    }
+
+    // Roughly how long until everything queued now has had its turn
+    synchronized ReplyException rejection(int status, String reason) {
+        long retryAfterMs = (long) (serviceTimeMs * (queued() / (double) maxConcurrency + 1));
+        return Backpressure.rejected(status, Math.max(1, (retryAfterMs + 999) / 1000), reason);
+    }
+
+    public static class Slot {
+        final Promise<Void> released = Promise.promise();
+
+        public void release() {
+            released.tryComplete();
+        }
+    }
+
+    static class Task<T> {
+        final Priority priority;
+        final String operation;
+        final Supplier<Future<T>> call;
+        final Promise<T> promise;
+        final long submitted = System.nanoTime();
+        long timer;
+
+        Task(Priority priority, String operation, Supplier<Future<T>> call, Promise<T> promise) {
+            this.priority = priority;
+            this.operation = operation;
+            this.call = call;
+            this.promise = promise;
+        }
+    }
+}
@@ -0,0 +1,468 @@
+package cynicdog.io.api;
+
+import cynicdog.io.metrics.Metrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.impl.logging.Logger;
+import io.vertx.core.impl.logging.LoggerFactory;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.client.impl.ClientPhase;
+import io.vertx.ext.web.client.impl.WebClientInternal;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * The Ollama servers a backend spreads its calls over.
+ * <p>
+ * Endpoints are either a fixed list or the addresses a DNS name resolves to (one per pod behind a headless
+ * service), re-resolved every {@code discoveryIntervalMs}. Every Ollama keeps its own models, so an endpoint
+ * is only used once they have been pulled on it. Each call goes to the usable endpoint with the fewest calls
+ * outstanding from this backend; {@code maxFailures} failures in a row eject it for {@code ejectionMs}, after
+ * which it has to pull the models again to be let back in. With no usable endpoint left, calls go to the
+ * least loaded one anyway rather than failing outright.
+ * <p>
+ * Embedding calls can be hedged: one still running after the recent 95th percentile of their latency is
+ * sent again to another endpoint if the dispatcher has a slot to spare, and whichever answers first is used.
+ */
+public class OllamaEndpoints {
+
+    static final Logger logger = LoggerFactory.getLogger(OllamaEndpoints.class);
+
+    static final int LATENCY_WINDOW = 256;
+    // Hedging waits for this many latencies so a cold start doesn't duplicate every call
+    static final int MIN_LATENCY_SAMPLES = 20;
+
+    // The attempt whose request is being built on this thread, to find the web client's context for it
+    static final ThreadLocal<Attempt<?>> SENDING = new ThreadLocal<>();
+
+    public static class Endpoint {
+        final String host;
+        final int port;
+        final List<Meter> meters = new ArrayList<>();
+
+        int outstanding;
+        int failures;
+        boolean ready;
+        boolean preparing;
+        long ejectedUntil;
+
+        Endpoint(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        public String host() {
+            return host;
+        }
+
+        public int port() {
+            return port;
+        }
+
+        boolean usable(long now) {
+            return ready && now >= ejectedUntil;
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+
+    final Vertx vertx;
+    final WebClient client;
+    final OllamaDispatcher dispatcher;
+    final List<String> models;
+    final int maxFailures;
+    final long ejectionMs;
+    final boolean hedging;
+    final long minHedgeDelayMs;
+
+    final Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+    int rotation;
+
+    final long[] latencies = new long[LATENCY_WINDOW];
+    int latencyCount;
+    int latencyNext;
+
+    final Counter hedges;
+    final Counter hedgesSkipped;
+    final Counter hedgeWins;
+
+    /**
+     * @param dispatcher      where hedges take their slot
+     * @param models          pulled on every endpoint before it is used
+     * @param hedging         whether embedding calls are hedged at all
+     * @param minHedgeDelayMs lower bound of the hedging delay, whatever the recent latencies
+     */
+    public OllamaEndpoints(Vertx vertx, WebClient client, OllamaDispatcher dispatcher, List<String> models, int maxFailures, long ejectionMs,
+                           boolean hedging, long minHedgeDelayMs) {
+        this.vertx = vertx;
+        this.client = client;
+        this.dispatcher = dispatcher;
+        this.models = models;
+        this.maxFailures = maxFailures;
+        this.ejectionMs = ejectionMs;
+        this.hedging = hedging;
+        this.minHedgeDelayMs = minHedgeDelayMs;
+        this.hedges = Counter.builder("ollama.hedges")
+                .description("Embedding calls sent to a second endpoint after running longer than the hedging delay")
+                .register(Metrics.registry());
+        this.hedgesSkipped = Counter.builder("ollama.hedges.skipped")
+                .description("Embedding calls due a hedge that got none, as no dispatcher slot was free")
+                .register(Metrics.registry());
+        this.hedgeWins = Counter.builder("ollama.hedge.wins")
+                .description("Hedged calls answered by the second endpoint first")
+                .register(Metrics.registry());
+        // Preparing a request runs on the thread sending it, which is how an attempt finds its request once sent
+        ((WebClientInternal) client).addInterceptor(context -> {
+            if (context.phase() == ClientPhase.PREPARE_REQUEST && SENDING.get() != null) {
+                context.set(Attempt.class.getName(), SENDING.get());
+            } else if (context.phase() == ClientPhase.SEND_REQUEST && context.get(Attempt.class.getName()) instanceof Attempt<?> attempt) {
+                attempt.sent(context.clientRequest());
+            }
+            context.next();
+        });
+    }
+
+    /**
+     * Replaces the endpoints with {@code addresses}, given as {@code host:port}. Endpoints already known keep
+     * their state; new ones start pulling the models.
+     */
+    public void use(List<String> addresses) {
+        List<Endpoint> added = new ArrayList<>();
+        synchronized (this) {
+            Map<String, Endpoint> current = new LinkedHashMap<>();
+            for (String address : addresses) {
+                String trimmed = address.trim();
+                int colon = trimmed.lastIndexOf(':');
+                Endpoint endpoint = endpoints.remove(trimmed);
+                if (endpoint == null) {
+                    endpoint = new Endpoint(trimmed.substring(0, colon), Integer.parseInt(trimmed.substring(colon + 1)));
+                    added.add(endpoint);
+                }
+                current.put(trimmed, endpoint);
+            }
+            for (Endpoint gone : endpoints.values()) {
+                gone.meters.forEach(Metrics.registry()::remove);
+                logger.info("Ollama endpoint " + gone + " is gone");
+            }
+            endpoints.clear();
+            endpoints.putAll(current);
+        }
+        for (Endpoint endpoint : added) {
+            endpoint.meters.add(Gauge.builder("ollama.endpoint.outstanding", this, pool -> pool.outstanding(endpoint))
+                    .description("Calls this backend has outstanding on an Ollama endpoint")
+                    .tag("endpoint", endpoint.toString())
+                    .register(Metrics.registry()));
+            endpoint.meters.add(Gauge.builder("ollama.endpoint.usable", this, pool -> pool.usable(endpoint) ? 1 : 0)
+                    .description("Whether an Ollama endpoint has its models and is not ejected")
+                    .tag("endpoint", endpoint.toString())
+                    .register(Metrics.registry()));
+            logger.info("Ollama endpoint " + endpoint + " added");
+            prepare(endpoint);
+        }
+    }
+
+    /**
+     * Follows the addresses {@code name} resolves to, such as the pods of a headless service.
+     */
+    public void discover(String name, int port, long intervalMs) {
+        resolve(name, port);
+        vertx.setPeriodic(intervalMs, id -> resolve(name, port));
+    }
+
+    void resolve(String name, int port) {
+        vertx.executeBlocking(() -> Arrays.stream(InetAddress.getAllByName(name))
+                        .map(address -> address.getHostAddress() + ":" + port)
+                        .sorted()
+                        .toList(), false)
+                .onSuccess(this::use)
+                // Keep the endpoints already known rather than dropping them all on a DNS hiccup
+                .onFailure(err -> logger.warn("Failed to resolve Ollama endpoints from " + name + ": " + err.getMessage()));
+    }
+
+    /**
+     * Sends {@code request} to the least loaded endpoint. An answer other than 2xx fails the call with its status,
+     * or with 503 for a 5xx, which also counts against the endpoint.
+     */
+    public <T> Future<HttpResponse<T>> call(Function<Endpoint, Future<HttpResponse<T>>> request) {
+        Endpoint endpoint = select(null);
+        if (endpoint == null) {
+            return Future.failedFuture(new ReplyException(ReplyFailure.RECIPIENT_FAILURE, 503, "No Ollama endpoint configured"));
+        }
+        return send(endpoint, request).response;
+    }
+
+    /**
+     * {@link #call}, sent again to a second endpoint when the first hasn't answered within the hedging delay.
+     * Only for idempotent requests. The second copy takes a dispatcher slot of its own and is not sent when
+     * none is free; whichever copy answers first is used and the other one is cancelled.
+     */
+    public <T> Future<HttpResponse<T>> hedged(Function<Endpoint, Future<HttpResponse<T>>> request) {
+        Endpoint first = select(null);
+        if (first == null) {
+            return Future.failedFuture(new ReplyException(ReplyFailure.RECIPIENT_FAILURE, 503, "No Ollama endpoint configured"));
+        }
+        long delay = hedgeDelayMs();
+        if (delay < 0) {
+            return timed(first, request).response;
+        }
+
+        Promise<HttpResponse<T>> promise = Promise.promise();
+        List<Attempt<T>> attempts = new CopyOnWriteArrayList<>();
+        Attempt<T> primary = timed(first, request);
+        attempts.add(primary);
+        long timer = vertx.setTimer(delay, id -> {
+            Endpoint second = promise.future().isComplete() ? null : select(first);
+            if (second == null) {
+                return;
+            }
+            // Calls waiting for a slot come first: a saturated Ollama gets no duplicate work
+            OllamaDispatcher.Slot slot = dispatcher.trySlot();
+            if (slot == null) {
+                hedgesSkipped.increment();
+                return;
+            }
+            hedges.increment();
+            Attempt<T> hedge = timed(second, request);
+            attempts.add(hedge);
+            hedge.response.onComplete(res -> {
+                slot.release();
+                settle(promise, attempts, hedge, res);
+            });
+        });
+        primary.response.onComplete(res -> {
+            vertx.cancelTimer(timer);
+            settle(promise, attempts, primary, res);
+        });
+        return promise.future();
+    }
+
+    // The first answer wins and the others are cancelled; the call only fails once every copy has
+    <T> void settle(Promise<HttpResponse<T>> promise, List<Attempt<T>> attempts, Attempt<T> attempt, AsyncResult<HttpResponse<T>> res) {
+        if (res.succeeded()) {
+            if (promise.tryComplete(res.result())) {
+                if (attempt != attempts.get(0)) {
+                    hedgeWins.increment();
+                }
+                attempts.stream().filter(other -> other != attempt).forEach(Attempt::cancel);
+            }
+        } else if (attempts.stream().allMatch(other -> other.response.isComplete())) {
+            promise.tryFail(res.cause());
+        }
+    }
+
+    public synchronized JsonObject stats() {
+        long now = System.currentTimeMillis();
+        JsonArray list = new JsonArray();
+        for (Endpoint endpoint : endpoints.values()) {
+            list.add(new JsonObject()
+                    .put("endpoint", endpoint.toString())
+                    .put("usable", endpoint.usable(now))
+                    .put("outstanding", endpoint.outstanding)
+                    .put("ejectedForMs", Math.max(0, endpoint.ejectedUntil - now)));
+        }
+        return new JsonObject()
+                .put("endpoints", list)
+                .put("hedgeDelayMs", hedgeDelayMs())
+                .put("hedges", (long) hedges.count())
+                .put("hedgesSkipped", (long) hedgesSkipped.count())
+                .put("hedgeWins", (long) hedgeWins.count());
+    }
+
+    <T> Attempt<T> timed(Endpoint endpoint, Function<Endpoint, Future<HttpResponse<T>>> request) {
+        long started = System.nanoTime();
+        Attempt<T> attempt = send(endpoint, request);
+        attempt.response.onSuccess(res -> recordLatency((System.nanoTime() - started) / 1_000_000));
+        return attempt;
+    }
+
+    <T> Attempt<T> send(Endpoint endpoint, Function<Endpoint, Future<HttpResponse<T>>> request) {
+        synchronized (this) {
+            endpoint.outstanding++;
+        }
+        Attempt<T> attempt = new Attempt<>();
+        Future<HttpResponse<T>> response;
+        SENDING.set(attempt);
+        try {
+            response = request.apply(endpoint);
+        } catch (RuntimeException e) {
+            response = Future.failedFuture(e);
+        } finally {
+            SENDING.remove();
+        }
+        attempt.response = response
+                .compose(res -> res.statusCode() / 100 == 2
+                        ? Future.succeededFuture(res)
+                        : Future.<HttpResponse<T>>failedFuture(new ReplyException(ReplyFailure.RECIPIENT_FAILURE, res.statusCode() >= 500 ? 503 : res.statusCode(),
+                        String.format("Ollama at %s answered %d: %s", endpoint, res.statusCode(), res.statusMessage()))))
+                // An endpoint that turns a request down is still up
+                .onComplete(res -> completed(endpoint, res.succeeded() || res.cause() instanceof ReplyException e && e.failureCode() < 500, attempt.cancelled));
+        return attempt;
+    }
+
+    void completed(Endpoint endpoint, boolean succeeded, boolean cancelled) {
+        synchronized (this) {
+            endpoint.outstanding--;
+            // A copy cancelled because another one answered first says nothing about its endpoint
+            if (cancelled) {
+                return;
+            }
+            if (succeeded) {
+                endpoint.failures = 0;
+                return;
+            }
+            if (++endpoint.failures < maxFailures || !endpoint.ready) {
+                return;
+            }
+            endpoint.ready = false;
+            endpoint.failures = 0;
+            endpoint.ejectedUntil = System.currentTimeMillis() + ejectionMs;
+        }
+        logger.warn(String.format("Ollama endpoint %s ejected for %d ms after %d failures in a row", endpoint, ejectionMs, maxFailures));
+    }
+
+    /**
+     * The usable endpoint with the fewest outstanding calls other than {@code exclude}, starting the search
+     * at a rotating position so ties are spread. Without an {@code exclude}, falls back to any endpoint.
+     */
+    Endpoint select(Endpoint exclude) {
+        List<Endpoint> due = new ArrayList<>();
+        Endpoint best = null;
+        Endpoint fallback = null;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            List<Endpoint> all = new ArrayList<>(endpoints.values());
+            int start = all.isEmpty() ? 0 : Math.floorMod(rotation++, all.size());
+            for (int i = 0; i < all.size(); i++) {
+                Endpoint endpoint = all.get((start + i) % all.size());
+                if (endpoint == exclude) {
+                    continue;
+                }
+                if (!endpoint.ready && !endpoint.preparing && now >= endpoint.ejectedUntil) {
+                    endpoint.preparing = true;
+                    due.add(endpoint);
+                }
+                if (endpoint.usable(now) && (best == null || endpoint.outstanding < best.outstanding)) {
+                    best = endpoint;
+                }
+                if (fallback == null || endpoint.outstanding < fallback.outstanding) {
+                    fallback = endpoint;
+                }
+            }
+        }
+        due.forEach(this::pull);
+        return best != null || exclude != null ? best : fallback;
+    }
+
+    void prepare(Endpoint endpoint) {
+        synchronized (this) {
+            if (endpoint.preparing) {
+                return;
+            }
+            endpoint.preparing = true;
+        }
+        pull(endpoint);
+    }
+
+    // Pulling a model the endpoint already has is quick, so this doubles as the check an ejected endpoint passes
+    void pull(Endpoint endpoint) {
+        List<Future<Void>> pulls = new ArrayList<>();
+        for (String model : models) {
+            pulls.add(client.post(endpoint.port, endpoint.host, "/api/pull")
+                    .sendJsonObject(new JsonObject().put("model", model))
+                    .compose(res -> res.statusCode() == 200
+                            ? Future.<Void>succeededFuture()
+                            : Future.failedFuture(String.format("pulling %s answered %d", model, res.statusCode()))));
+        }
+        Future.all(pulls).onComplete(res -> {
+            synchronized (this) {
+                endpoint.preparing = false;
+                endpoint.ready = res.succeeded();
+                if (res.succeeded()) {
+                    endpoint.failures = 0;
+                    endpoint.ejectedUntil = 0;
+                } else {
+                    endpoint.ejectedUntil = System.currentTimeMillis() + ejectionMs;
+                }
+            }
+            if (res.succeeded()) {
+                logger.info("Models " + models + " pulled on " + endpoint);
+            } else {
+                logger.error("Failed to pull models on " + endpoint + ", retrying in " + ejectionMs + " ms: " + res.cause().getMessage());
+            }
+        });
+    }
+
+    synchronized void recordLatency(long latencyMs) {
+        latencies[latencyNext] = latencyMs;
+        latencyNext = (latencyNext + 1) % LATENCY_WINDOW;
+        latencyCount = Math.min(latencyCount + 1, LATENCY_WINDOW);
+    }
+
+    /**
+     * The 95th percentile of recent latencies, or -1 while there is nothing to hedge with.
+     */
+    synchronized long hedgeDelayMs() {
+        if (!hedging || latencyCount < MIN_LATENCY_SAMPLES || endpoints.size() < 2) {
+            return -1;
+        }
+        long[] window = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(window);
+        return Math.max(minHedgeDelayMs, window[(int) Math.ceil(0.95 * latencyCount) - 1]);
+    }
+
+    /**
+     * One copy of a call on one endpoint.
+     */
+    static class Attempt<T> {
+        Future<HttpResponse<T>> response;
+        HttpClientRequest request;
+        volatile boolean cancelled;
+
+        synchronized void sent(HttpClientRequest request) {
+            this.request = request;
+            if (cancelled) {
+                request.reset();
+            }
+        }
+
+        // Resetting the request, or the connection it went out on, stops Ollama working on it
+        synchronized void cancel() {
+            if (response.isComplete()) {
+                return;
+            }
+            cancelled = true;
+            if (request != null) {
+                request.reset();
+            }
+        }
+    }
+
+    synchronized int outstanding(Endpoint endpoint) {
+        return endpoint.outstanding;
+    }
+
+    synchronized boolean usable(Endpoint endpoint) {
+        return endpoint.usable(System.currentTimeMillis());
+    }
+}
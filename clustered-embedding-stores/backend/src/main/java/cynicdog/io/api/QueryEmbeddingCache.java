@@ -0,0 +1,129 @@
+package cynicdog.io.api;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.json.JsonObject;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU of query prompt to query vector, in front of the {@link EmbeddingBatcher}.
+ * <p>
+ * Concurrent misses for the same prompt share a single in-flight embedding future, so a burst of
+ * identical questions costs one Ollama call.
+ */
+public class QueryEmbeddingCache {
+
+    final EmbeddingBatcher batcher;
+    final int maxEntries;
+
+    final Map<String, float[]> entries;
+    final Map<String, Promise<float[]>> inFlight = new HashMap<>();
+
+    long hits;
+    long misses;
+    long coalesced;
+
+    public QueryEmbeddingCache(EmbeddingBatcher batcher, int maxEntries) {
+        this.batcher = batcher;
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+                return size() > QueryEmbeddingCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * The vector of {@code prompt}, a copy of its own for every caller so that none can change the cached one.
+     */
+    public Future<float[]> get(String prompt) {
+        Promise<float[]> promise;
+        synchronized (this) {
+            float[] cached = entries.get(prompt);
+            if (cached != null) {
+                hits++;
+                return Future.succeededFuture(cached.clone());
+            }
+
+            Promise<float[]> pending = inFlight.get(prompt);
+            if (pending != null) {
+                coalesced++;
+                return pending.future().map(float[]::clone);
+            }
+
+            misses++;
+            promise = Promise.promise();
+            inFlight.put(prompt, promise);
+        }
+
+        // The batcher takes its own lock and may send a batch, so the claim is all that happens under this one
+        Future<float[]> embedded;
+        try {
+            embedded = batcher.embed(prompt, OllamaDispatcher.Priority.INTERACTIVE);
+        } catch (RuntimeException e) {
+            embedded = Future.failedFuture(e);
+        }
+        embedded.onComplete(res -> {
+            synchronized (this) {
+                inFlight.remove(prompt);
+                if (res.succeeded()) {
+                    entries.put(prompt, res.result());
+                }
+            }
+            promise.handle(res);
+        });
+        return promise.future().map(float[]::clone);
+    }
+
+    /**
+     * Publishes the cache's size and lookup outcomes.
+     */
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("query.embedding.cache.entries", this, cache -> cache.size())
+                .description("Query vectors held by the query embedding cache")
+                .register(registry);
+        FunctionCounter.builder("query.embedding.cache.lookups", this, cache -> cache.hits())
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("query.embedding.cache.lookups", this, cache -> cache.misses())
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("query.embedding.cache.lookups", this, cache -> cache.coalesced())
+                .tag("result", "coalesced")
+                .register(registry);
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+
+    synchronized long misses() {
+        return misses;
+    }
+
+    synchronized long coalesced() {
+        return coalesced;
+    }
+
+    public synchronized JsonObject stats() {
+        long lookups = hits + misses + coalesced;
+        return new JsonObject()
+                .put("size", entries.size())
+                .put("maxEntries", maxEntries)
+                .put("hits", hits)
+                .put("misses", misses)
+                .put("coalesced", coalesced)
+                .put("hitRate", lookups == 0 ? 0.0 : (double) (hits + coalesced) / lookups);
+    }
+}
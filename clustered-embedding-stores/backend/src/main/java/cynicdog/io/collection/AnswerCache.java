@@ -0,0 +1,328 @@
+package cynicdog.io.collection;
+
+import cynicdog.io.data.CachedAnswer;
+import cynicdog.io.data.Embedding;
+import cynicdog.io.index.AttributeFilter;
+import cynicdog.io.index.Metric;
+import cynicdog.io.index.SearchHit;
+import cynicdog.io.metrics.Metrics;
+import cynicdog.io.util.ContentHash;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.core.Future;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.impl.logging.Logger;
+import io.vertx.core.impl.logging.LoggerFactory;
+import io.vertx.core.json.JsonObject;
+import org.infinispan.Cache;
+import org.infinispan.commons.dataconversion.MediaType;
+import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.configuration.cache.Configuration;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.context.Flag;
+import org.infinispan.distribution.DistributionManager;
+import org.infinispan.notifications.Listener;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntriesEvicted;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryCreated;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryExpired;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryModified;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryRemoved;
+import org.infinispan.notifications.cachelistener.event.CacheEntriesEvictedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryCreatedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryExpiredEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryModifiedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryRemovedEvent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Generated answers of a collection, kept in a replicated cache of their own so a question close enough
+ * to one already answered is served without calling Ollama again.
+ * <p>
+ * An answer is reused only when the question's vector is within {@code similarity} of the cached one, the
+ * filter is the same and retrieval still returns exactly the documents the answer was grounded on. Entries
+ * are keyed by the hash of their text, so equal keys mean unchanged documents. Answers expire after the
+ * configured lifespan, and are removed as soon as one of their documents leaves the collection.
+ * <p>
+ * Each node keeps the cached question vectors in memory, in step with the replicated cache, and looks
+ * them up with a linear scan; {@code maxEntries} keeps that scan short.
+ */
+public class AnswerCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(AnswerCache.class);
+
+    record Candidate(float[] query, String filter, List<String> references) {
+    }
+
+    final WorkerExecutor cachePool;
+    final String collectionName;
+    final double similarity;
+    final long lifespanMs;
+    final int maxEntries;
+
+    final Map<String, Candidate> candidates = new HashMap<>();
+    final Map<String, Set<String>> dependents = new HashMap<>();
+
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final List<Meter> meters = new ArrayList<>();
+
+    Cache<String, CachedAnswer> answers;
+    Cache<String, Embedding> collection;
+    Object answersListener;
+    Object invalidationListener;
+
+    /**
+     * @param cachePool  workers the lookups and writes run on
+     * @param similarity cosine similarity a question needs with a cached one to reuse its answer
+     * @param lifespanMs how long an answer is kept; 0 disables the cache
+     */
+    public AnswerCache(WorkerExecutor cachePool, String collectionName, double similarity, long lifespanMs, int maxEntries) {
+        this.cachePool = cachePool;
+        this.collectionName = collectionName;
+        this.similarity = similarity;
+        this.lifespanMs = lifespanMs;
+        this.maxEntries = maxEntries;
+    }
+
+    public boolean enabled() {
+        return lifespanMs > 0;
+    }
+
+    Configuration configuration() {
+        // A miss only costs a generation, so replicating asynchronously is enough
+        return new ConfigurationBuilder()
+                .clustering().cacheMode(CacheMode.REPL_ASYNC)
+                .expiration().lifespan(lifespanMs, TimeUnit.MILLISECONDS)
+                .memory().maxCount(maxEntries)
+                .encoding().key().mediaType(MediaType.APPLICATION_OBJECT_TYPE)
+                .encoding().value().mediaType(MediaType.APPLICATION_PROTOSTREAM_TYPE)
+                .build();
+    }
+
+    /**
+     * Follows the answers cache and the collection it was created for. Runs on a worker, as it reads
+     * whatever answers this node already holds.
+     */
+    void attach(Cache<String, CachedAnswer> answers, Cache<String, Embedding> collection) {
+        this.answers = answers;
+        this.collection = collection;
+
+        answersListener = new AnswersListener();
+        answers.addListener(answersListener);
+        answers.getAdvancedCache().withFlags(Flag.CACHE_MODE_LOCAL).forEach(this::index);
+
+        invalidationListener = new InvalidationListener();
+        collection.addListener(invalidationListener);
+
+        MeterRegistry registry = Metrics.registry();
+        meters.add(Gauge.builder("answer.cache.entries", this, cache -> cache.size())
+                .description("Answers held by the collection's answer cache")
+                .tag("collection", collectionName)
+                .register(registry));
+        meters.add(FunctionCounter.builder("answer.cache.lookups", hits, LongAdder::sum)
+                .tags("collection", collectionName, "result", "hit")
+                .register(registry));
+        meters.add(FunctionCounter.builder("answer.cache.lookups", misses, LongAdder::sum)
+                .tags("collection", collectionName, "result", "miss")
+                .register(registry));
+    }
+
+    void detach() {
+        if (answers == null) {
+            return;
+        }
+        meters.forEach(Metrics.registry()::remove);
+        collection.removeListener(invalidationListener);
+        answers.removeListener(answersListener);
+        synchronized (this) {
+            candidates.clear();
+            dependents.clear();
+        }
+    }
+
+    /**
+     * Completes with the answer cached for a question like this one over the same documents, or with
+     * {@code null} when there is none.
+     */
+    public Future<String> lookup(float[] query, AttributeFilter filter, List<SearchHit> retrieved) {
+        if (answers == null) {
+            return Future.succeededFuture();
+        }
+        String filterKey = filterKey(filter);
+        List<String> references = retrieved.stream().map(SearchHit::key).toList();
+
+        return cachePool.<String>executeBlocking(() -> {
+            String best = closest(Metric.COSINE.prepare(query), filterKey, references);
+            // Replicated, so the answer itself is read locally
+            CachedAnswer answer = best == null ? null : answers.get(best);
+            return answer == null ? null : answer.getResponse();
+        }, false).onSuccess(answer -> (answer != null ? hits : misses).increment());
+    }
+
+    /**
+     * Key of the most similar cached question asked with the same filter over the same documents, or
+     * {@code null} when none is within {@code similarity}.
+     */
+    synchronized String closest(float[] prepared, String filterKey, List<String> references) {
+        String best = null;
+        double bestSimilarity = similarity;
+        for (Map.Entry<String, Candidate> entry : candidates.entrySet()) {
+            Candidate candidate = entry.getValue();
+            if (candidate.query().length != prepared.length
+                    || !filterKey.equals(candidate.filter())
+                    || !references.equals(candidate.references())) {
+                continue;
+            }
+            double score = Metric.COSINE.score(prepared, candidate.query());
+            if (score >= bestSimilarity) {
+                best = entry.getKey();
+                bestSimilarity = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Caches an answer generated for {@code prompt}; a later question with the same text replaces it.
+     */
+    public void store(String prompt, float[] query, AttributeFilter filter, List<SearchHit> retrieved, String response) {
+        if (answers == null || response == null || response.isEmpty()) {
+            return;
+        }
+        String filterKey = filterKey(filter);
+        CachedAnswer answer = new CachedAnswer(query, filterKey, retrieved.stream().map(SearchHit::key).toList(), response);
+        cachePool.executeBlocking(() -> answers.getAdvancedCache().withFlags(Flag.IGNORE_RETURN_VALUES)
+                        .put(ContentHash.of(filterKey + "\n" + prompt), answer), false)
+                .onFailure(err -> logger.error("Failed to cache answer in " + answers.getName() + ": " + err.getMessage()));
+    }
+
+    public synchronized JsonObject stats() {
+        long hitCount = hits.sum();
+        long lookups = hitCount + misses.sum();
+        return new JsonObject()
+                .put("enabled", enabled())
+                .put("size", candidates.size())
+                .put("maxEntries", maxEntries)
+                .put("similarity", similarity)
+                .put("lifespanMs", lifespanMs)
+                .put("hits", hitCount)
+                .put("lookups", lookups)
+                .put("hitRate", lookups == 0 ? 0.0 : (double) hitCount / lookups);
+    }
+
+    synchronized int size() {
+        return candidates.size();
+    }
+
+    synchronized void index(String key, CachedAnswer answer) {
+        unindex(key);
+        candidates.put(key, new Candidate(Metric.COSINE.prepare(answer.getQuery()), answer.getFilter(), answer.getReferences()));
+        for (String reference : answer.getReferences()) {
+            dependents.computeIfAbsent(reference, k -> new HashSet<>()).add(key);
+        }
+    }
+
+    synchronized void unindex(String key) {
+        Candidate removed = candidates.remove(key);
+        if (removed == null) {
+            return;
+        }
+        for (String reference : removed.references()) {
+            Set<String> keys = dependents.get(reference);
+            if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                dependents.remove(reference);
+            }
+        }
+    }
+
+    /**
+     * Removes, cluster-wide, the answers grounded on an entry that left the collection.
+     */
+    void invalidate(String reference) {
+        Set<String> keys;
+        synchronized (this) {
+            Set<String> dependent = dependents.get(reference);
+            if (dependent == null) {
+                return;
+            }
+            keys = Set.copyOf(dependent);
+        }
+        for (String key : keys) {
+            cachePool.executeBlocking(() -> answers.getAdvancedCache().withFlags(Flag.IGNORE_RETURN_VALUES).remove(key), false)
+                    .onFailure(err -> logger.error("Failed to invalidate answer in " + answers.getName() + ": " + err.getMessage()));
+        }
+    }
+
+    // Every owner of a removed entry is notified; only its primary owner has to act on it
+    boolean primary(String key) {
+        DistributionManager distribution = collection.getAdvancedCache().getDistributionManager();
+        return distribution == null || distribution.getCacheTopology()
+                .getDistribution(collection.getAdvancedCache().getKeyDataConversion().toStorage(key))
+                .isPrimary();
+    }
+
+    static String filterKey(AttributeFilter filter) {
+        return filter == null ? "" : filter.toJson().encode();
+    }
+
+    @Listener(observation = Listener.Observation.POST)
+    public class AnswersListener {
+
+        @CacheEntryCreated
+        public void onCreated(CacheEntryCreatedEvent<String, CachedAnswer> event) {
+            index(event.getKey(), event.getValue());
+        }
+
+        @CacheEntryModified
+        public void onModified(CacheEntryModifiedEvent<String, CachedAnswer> event) {
+            index(event.getKey(), event.getNewValue());
+        }
+
+        @CacheEntryRemoved
+        public void onRemoved(CacheEntryRemovedEvent<String, CachedAnswer> event) {
+            unindex(event.getKey());
+        }
+
+        @CacheEntryExpired
+        public void onExpired(CacheEntryExpiredEvent<String, CachedAnswer> event) {
+            unindex(event.getKey());
+        }
+
+        @CacheEntriesEvicted
+        public void onEvicted(CacheEntriesEvictedEvent<String, CachedAnswer> event) {
+            event.getEntries().keySet().forEach(AnswerCache.this::unindex);
+        }
+    }
+
+    @Listener(observation = Listener.Observation.POST)
+    public class InvalidationListener {
+
+        @CacheEntryRemoved
+        public void onRemoved(CacheEntryRemovedEvent<String, Embedding> event) {
+            if (primary(event.getKey())) {
+                invalidate(event.getKey());
+            }
+        }
+
+        @CacheEntryExpired
+        public void onExpired(CacheEntryExpiredEvent<String, Embedding> event) {
+            invalidate(event.getKey());
+        }
+
+        // Eviction is local to each node, so whichever node lets an entry go drops the answers built on it
+        @CacheEntriesEvicted
+        public void onEvicted(CacheEntriesEvictedEvent<String, Embedding> event) {
+            event.getEntries().keySet().forEach(AnswerCache.this::invalidate);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package cynicdog.io.collection;
+
+import cynicdog.io.index.Metric;
+import io.vertx.core.json.JsonObject;
+
+import java.util.regex.Pattern;
+
+/**
+ * Cluster-wide description of a named collection. {@code dimension} of 0 accepts vectors of any length.
+ * The generation is bumped on every truncate, so each one starts over in a fresh cache.
+ */
+public record CollectionConfig(String name, int dimension, Metric metric, String quantization, int generation, CollectionLimits limits) {
+
+    static final Pattern NAME = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    public static boolean validName(String name) {
+        return name != null && NAME.matcher(name).matches();
+    }
+
+    public String cacheName() {
+        return "embeddings." + name + "." + generation;
+    }
+
+    public String answersCacheName() {
+        return cacheName() + ".answers";
+    }
+
+    public CollectionConfig nextGeneration() {
+        return new CollectionConfig(name, dimension, metric, quantization, generation + 1, limits);
+    }
+
+    public JsonObject toJson() {
+        return new JsonObject()
+                .put("name", name)
+                .put("dimension", dimension)
+                .put("metric", metric.name())
+                .put("quantization", quantization)
+                .put("generation", generation)
+                .put("limits", limits.toJson());
+    }
+
+    public static CollectionConfig fromJson(JsonObject json) {
+        return new CollectionConfig(
+                json.getString("name"),
+                json.getInteger("dimension", 0),
+                Metric.valueOf(json.getString("metric")),
+                json.getString("quantization"),
+                json.getInteger("generation", 0),
+                // Definitions from before limits existed are unbounded
+                CollectionLimits.fromJson(json.getJsonObject("limits"), CollectionLimits.NONE));
+    }
+}
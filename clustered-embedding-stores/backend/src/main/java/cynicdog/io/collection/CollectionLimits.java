@@ -0,0 +1,101 @@
+package cynicdog.io.collection;
+
+import io.vertx.core.json.JsonObject;
+import org.infinispan.commons.dataconversion.MediaType;
+import org.infinispan.commons.util.ByteQuantity;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.configuration.cache.StorageType;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How much of a collection each node keeps and for how long; 0 leaves a limit off. Past {@code maxEntries}
+ * or {@code maxBytes} a node evicts entries by Infinispan's TinyLFU policy, which weighs how often and how
+ * recently each was read. Entries expire {@code lifespanSeconds} after they were written, or after
+ * {@code maxIdleSeconds} without a read. Either way they leave the index and the answers built on them.
+ * <p>
+ * Off-heap storage keeps keys and values as bytes outside the Java heap, and the index its full-precision
+ * vectors in direct buffers, so a large collection no longer lengthens garbage collection; {@code maxBytes}
+ * then counts the cache's memory.
+ * <p>
+ * The limits bound the cache. The index next to it holds one node per entry the node keeps, plus tombstones
+ * until it compacts them, so {@code maxEntries} bounds it as well; its bytes, reported in the collection
+ * stats, come on top of {@code maxBytes}.
+ */
+public record CollectionLimits(long maxEntries, long maxBytes, long lifespanSeconds, long maxIdleSeconds, StorageType storage) {
+
+    public static final CollectionLimits NONE = new CollectionLimits(0, 0, 0, 0, StorageType.HEAP);
+
+    public CollectionLimits {
+        if (maxEntries < 0 || maxBytes < 0 || lifespanSeconds < 0 || maxIdleSeconds < 0) {
+            throw new IllegalArgumentException("Limits cannot be negative");
+        }
+        if (maxEntries > 0 && maxBytes > 0) {
+            throw new IllegalArgumentException("Bound a collection by maxEntries or by maxBytes, not both");
+        }
+        if (storage != StorageType.HEAP && storage != StorageType.OFF_HEAP) {
+            throw new IllegalArgumentException("Storage is HEAP or OFF_HEAP");
+        }
+    }
+
+    public boolean bounded() {
+        return maxEntries > 0 || maxBytes > 0;
+    }
+
+    /**
+     * Adds the limits to a cache configuration. Entries are weighed in bytes and stored off-heap as bytes,
+     * so either one stores keys in protostream rather than as objects.
+     */
+    void apply(ConfigurationBuilder builder) {
+        builder.memory().storage(storage);
+        if (maxEntries > 0) {
+            builder.memory().maxCount(maxEntries);
+        } else if (maxBytes > 0) {
+            builder.memory().maxSize(String.valueOf(maxBytes));
+        }
+        if (maxBytes > 0 || storage == StorageType.OFF_HEAP) {
+            builder.encoding().key().mediaType(MediaType.APPLICATION_PROTOSTREAM_TYPE);
+        }
+        if (lifespanSeconds > 0) {
+            builder.expiration().lifespan(lifespanSeconds, TimeUnit.SECONDS);
+        }
+        if (maxIdleSeconds > 0) {
+            builder.expiration().maxIdle(maxIdleSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    public JsonObject toJson() {
+        return new JsonObject()
+                .put("maxEntries", maxEntries)
+                .put("maxBytes", maxBytes)
+                .put("lifespanSeconds", lifespanSeconds)
+                .put("maxIdleSeconds", maxIdleSeconds)
+                .put("storage", storage.name());
+    }
+
+    /**
+     * @param json     limits as sent or stored; {@code maxBytes} may also be a quantity such as {@code "512MB"}
+     * @param defaults what applies to anything {@code json} leaves out
+     */
+    public static CollectionLimits fromJson(JsonObject json, CollectionLimits defaults) {
+        if (json == null) {
+            return defaults;
+        }
+        Object maxBytes = json.getValue("maxBytes");
+        return new CollectionLimits(
+                json.getLong("maxEntries", defaults.maxEntries()),
+                maxBytes == null ? defaults.maxBytes() : bytes(maxBytes.toString()),
+                json.getLong("lifespanSeconds", defaults.lifespanSeconds()),
+                json.getLong("maxIdleSeconds", defaults.maxIdleSeconds()),
+                json.containsKey("storage") ? storage(json.getString("storage")) : defaults.storage());
+    }
+
+    public static long bytes(String quantity) {
+        return quantity.isBlank() ? 0 : ByteQuantity.parse(quantity.trim());
+    }
+
+    public static StorageType storage(String name) {
+        return StorageType.valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+}
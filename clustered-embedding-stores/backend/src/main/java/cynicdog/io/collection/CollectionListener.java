@@ -0,0 +1,38 @@
+package cynicdog.io.collection;
+
+import io.vertx.core.json.JsonObject;
+import org.infinispan.notifications.Listener;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryCreated;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryModified;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryRemoved;
+import org.infinispan.notifications.cachelistener.event.CacheEntryCreatedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryModifiedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryRemovedEvent;
+
+/**
+ * Opens, reopens and discards this node's collections as their definitions change anywhere in the cluster.
+ */
+@Listener(observation = Listener.Observation.POST)
+public class CollectionListener {
+
+    final CollectionRegistry registry;
+
+    public CollectionListener(CollectionRegistry registry) {
+        this.registry = registry;
+    }
+
+    @CacheEntryCreated
+    public void onCreated(CacheEntryCreatedEvent<String, String> event) {
+        registry.apply(CollectionConfig.fromJson(new JsonObject(event.getValue())));
+    }
+
+    @CacheEntryModified
+    public void onModified(CacheEntryModifiedEvent<String, String> event) {
+        registry.apply(CollectionConfig.fromJson(new JsonObject(event.getNewValue())));
+    }
+
+    @CacheEntryRemoved
+    public void onRemoved(CacheEntryRemovedEvent<String, String> event) {
+        registry.discard(event.getKey());
+    }
+}
@@ -0,0 +1,308 @@
+package cynicdog.io.collection;
+
+import cynicdog.io.data.Embedding;
+import cynicdog.io.index.Metric;
+import cynicdog.io.index.VectorSearch;
+import cynicdog.io.index.VectorStorage;
+import cynicdog.io.store.SegmentStore;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.impl.logging.Logger;
+import io.vertx.core.impl.logging.LoggerFactory;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.infinispan.Cache;
+import org.infinispan.commons.api.CacheContainerAdmin;
+import org.infinispan.commons.dataconversion.MediaType;
+import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.configuration.cache.Configuration;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.manager.EmbeddedCacheManager;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Named collections of embeddings, each in its own cache with its own index.
+ * <p>
+ * Definitions live in the replicated {@code collections} cache; every backend follows it through a
+ * {@link CollectionListener} and opens or discards its local share. Dropping a collection removes its cache
+ * cluster-wide and truncating one moves it to a fresh cache, so neither touches the entries one by one.
+ */
+public class CollectionRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(CollectionRegistry.class);
+
+    public static final String DEFAULT_COLLECTION = "default";
+
+    static final String METADATA_CACHE = "collections";
+    static final String DEFINITION_FILE = "collection.json";
+
+    final Vertx vertx;
+    final EmbeddedCacheManager cacheManager;
+    final Configuration cacheConfig;
+    final Function<CollectionConfig, VectorSearch> searchFactory;
+    final Function<CollectionConfig, AnswerCache> answerFactory;
+    final CollectionConfig defaults;
+
+    final Path segmentDir;
+    final long segmentBytes;
+    final long segmentSyncIntervalMs;
+    final long segmentTombstoneRetentionMs;
+
+    final Map<String, Future<EmbeddingCollection>> collections = new ConcurrentHashMap<>();
+    final Map<String, Future<Void>> discarding = new ConcurrentHashMap<>();
+
+    Cache<String, String> metadata;
+
+    /**
+     * @param searchFactory builds the index and search partition for a collection as it opens on this node
+     * @param answerFactory builds the cache of generated answers for a collection as it opens on this node
+     * @param defaults      definition of the default collection, and of anything a create request leaves out
+     * @param segmentDir    parent directory of each collection's segments, or {@code null} to keep them in memory only
+     * @param segmentTombstoneRetentionMs how long the segments and the cluster remember a removed entry
+     */
+    public CollectionRegistry(Vertx vertx, EmbeddedCacheManager cacheManager, CacheMode cacheMode, int owners,
+                              Function<CollectionConfig, VectorSearch> searchFactory, Function<CollectionConfig, AnswerCache> answerFactory,
+                              CollectionConfig defaults,
+                              Path segmentDir, long segmentBytes, long segmentSyncIntervalMs, long segmentTombstoneRetentionMs) {
+        this.vertx = vertx;
+        this.cacheManager = cacheManager;
+        this.searchFactory = searchFactory;
+        this.answerFactory = answerFactory;
+        this.defaults = defaults;
+        this.segmentDir = segmentDir;
+        this.segmentBytes = segmentBytes;
+        this.segmentSyncIntervalMs = segmentSyncIntervalMs;
+        this.segmentTombstoneRetentionMs = segmentTombstoneRetentionMs;
+
+        // Configure the caches for embeddings; numOwners only applies to distributed modes. Each collection
+        // adds its own limits to this in cacheConfig
+        this.cacheConfig = new ConfigurationBuilder().clustering()
+                .cacheMode(cacheMode)
+                .hash().numOwners(owners)
+                .encoding().key().mediaType(MediaType.APPLICATION_OBJECT_TYPE)
+                .encoding().value().mediaType(MediaType.APPLICATION_PROTOSTREAM_TYPE)
+                .build();
+    }
+
+    /**
+     * Joins the collection definitions and completes once every collection known at that point has been
+     * opened on this node, restored from its segments where there are any. A collection that fails to open
+     * is logged and left out rather than holding the node back.
+     */
+    public Future<Void> start() {
+        return vertx.executeBlocking(() -> {
+            metadata = cacheManager
+                    .administration()
+                    .withFlags(CacheContainerAdmin.AdminFlag.VOLATILE)
+                    .getOrCreateCache(METADATA_CACHE, new ConfigurationBuilder().clustering().cacheMode(CacheMode.REPL_SYNC).build());
+
+            // Definitions are not persisted by the cluster, so bring back the ones this node has segments for
+            for (CollectionConfig config : persisted()) {
+                metadata.putIfAbsent(config.name(), config.toJson().encode());
+            }
+            metadata.putIfAbsent(defaults.name(), defaults.toJson().encode());
+
+            metadata.addListener(new CollectionListener(this));
+            // Open what was defined before the listener was there; applying a definition twice is harmless
+            metadata.values().forEach(definition -> apply(CollectionConfig.fromJson(new JsonObject(definition))));
+            return null;
+        }).compose(v -> Future.join(new ArrayList<>(collections.values())).<Void>mapEmpty().otherwiseEmpty());
+    }
+
+    public Future<EmbeddingCollection> get(String name) {
+        Future<EmbeddingCollection> collection = collections.get(name);
+        if (collection == null) {
+            return Future.failedFuture(notFound(name));
+        }
+        // An open collection is handed over as it is, so the caller carries on on its own event loop rather
+        // than on the context that opened it
+        return collection.succeeded() ? Future.succeededFuture(collection.result()) : collection;
+    }
+
+    public Future<JsonArray> list() {
+        return blocking(() -> {
+            JsonArray definitions = new JsonArray();
+            metadata.values().forEach(definition -> definitions.add(new JsonObject(definition)));
+            return definitions;
+        });
+    }
+
+    public Future<CollectionConfig> create(JsonObject request) {
+        CollectionConfig config;
+        try {
+            config = new CollectionConfig(
+                    request.getString("name"),
+                    request.getInteger("dimension", defaults.dimension()),
+                    Metric.valueOf(request.getString("metric", defaults.metric().name()).toUpperCase()),
+                    request.getString("quantization", defaults.quantization()),
+                    0,
+                    CollectionLimits.fromJson(request.getJsonObject("limits"), defaults.limits()));
+            VectorStorage.create(config.quantization(), config.metric(), 1, 1, false);
+            cacheConfig(config);
+        } catch (RuntimeException e) {
+            return Future.failedFuture(new ReplyException(ReplyFailure.RECIPIENT_FAILURE, 400, "Invalid collection: " + e.getMessage()));
+        }
+        if (!CollectionConfig.validName(config.name())) {
+            return Future.failedFuture(new ReplyException(ReplyFailure.RECIPIENT_FAILURE, 400,
+                    "Collection names are 1-64 letters, digits, '-' or '_'"));
+        }
+
+        return blocking(() -> metadata.putIfAbsent(config.name(), config.toJson().encode()))
+                .compose(previous -> previous == null
+                        // The local listener has already started opening it
+                        ? get(config.name()).map(config)
+                        : Future.failedFuture(new ReplyException(ReplyFailure.RECIPIENT_FAILURE, 409, "Collection " + config.name() + " already exists")));
+    }
+
+    public Future<CollectionConfig> drop(String name) {
+        return blocking(() -> metadata.remove(name))
+                .compose(definition -> {
+                    if (definition == null) {
+                        return Future.failedFuture(notFound(name));
+                    }
+                    CollectionConfig config = CollectionConfig.fromJson(new JsonObject(definition));
+                    return removeCaches(config).map(config);
+                });
+    }
+
+    /**
+     * Empties a collection by moving it to the next generation's cache and removing the old one whole.
+     */
+    public Future<CollectionConfig> truncate(String name) {
+        return blocking(() -> metadata.get(name))
+                .compose(definition -> {
+                    if (definition == null) {
+                        return Future.failedFuture(notFound(name));
+                    }
+                    CollectionConfig current = CollectionConfig.fromJson(new JsonObject(definition));
+                    CollectionConfig next = current.nextGeneration();
+                    return blocking(() -> metadata.replace(name, definition, next.toJson().encode()))
+                            .compose(replaced -> replaced
+                                    ? removeCaches(current).compose(v -> get(name)).map(next)
+                                    : Future.failedFuture(new ReplyException(ReplyFailure.RECIPIENT_FAILURE, 409,
+                                    "Collection " + name + " changed concurrently, retry")));
+                });
+    }
+
+    /**
+     * Brings this node's share of a collection in line with its definition. Calls for the same name are
+     * chained, so a truncate discards the old generation before the new one opens.
+     */
+    void apply(CollectionConfig config) {
+        collections.compute(config.name(), (name, current) -> {
+            if (current == null) {
+                return open(config);
+            }
+            return current.transform(opened -> {
+                if (opened.succeeded() && opened.result().config().equals(config)) {
+                    return Future.succeededFuture(opened.result());
+                }
+                Future<Void> discarded = opened.succeeded() ? opened.result().discard() : Future.succeededFuture();
+                return discarded.transform(v -> open(config));
+            });
+        });
+    }
+
+    void discard(String name) {
+        Future<EmbeddingCollection> current = collections.remove(name);
+        if (current == null) {
+            return;
+        }
+        discarding.put(name, current.transform(opened -> opened.succeeded() ? opened.result().discard() : Future.succeededFuture())
+                .onComplete(v -> logger.info("Discarded collection " + name)));
+    }
+
+    Future<EmbeddingCollection> open(CollectionConfig config) {
+        // A collection dropped and created again must not reuse segments still being deleted
+        Future<Void> previous = discarding.getOrDefault(config.name(), Future.succeededFuture());
+
+        return previous.transform(v -> vertx.executeBlocking(() -> {
+                    if (!config.toJson().encode().equals(metadata.get(config.name()))) {
+                        // Superseded while waiting: opening it now would bring a removed cache back
+                        throw new IllegalStateException("Collection " + config.name() + " generation " + config.generation() + " is superseded");
+                    }
+                    Cache<String, Embedding> cache = cacheManager
+                            .administration()
+                            .withFlags(CacheContainerAdmin.AdminFlag.VOLATILE)
+                            .getOrCreateCache(config.cacheName(), cacheConfig(config));
+
+                    VectorSearch search = searchFactory.apply(config);
+                    search.attach(cache);
+
+                    AnswerCache answers = answerFactory.apply(config);
+                    if (answers.enabled()) {
+                        answers.attach(cacheManager
+                                .administration()
+                                .withFlags(CacheContainerAdmin.AdminFlag.VOLATILE)
+                                .getOrCreateCache(config.answersCacheName(), answers.configuration()), cache);
+                    }
+
+                    SegmentStore store = null;
+                    if (segmentDir != null) {
+                        Path directory = segmentDir.resolve(config.name());
+                        Files.createDirectories(directory);
+                        Files.writeString(directory.resolve(DEFINITION_FILE), config.toJson().encode());
+                        store = new SegmentStore(vertx, config.name(), directory, segmentBytes, segmentSyncIntervalMs, segmentTombstoneRetentionMs,
+                                !"none".equalsIgnoreCase(config.quantization()));
+                    }
+                    return new EmbeddingCollection(vertx, config, cache, search, answers, store);
+                }))
+                .compose(collection -> collection.store == null
+                        ? Future.succeededFuture(collection)
+                        : collection.store.attach(collection.cache).map(collection))
+                .onSuccess(collection -> logger.info(String.format("Collection %s opened on %s node.", config.cacheName(), cacheManager.getAddress())))
+                .onFailure(err -> logger.error("Failed to open collection " + config.cacheName() + ": " + err.getMessage()));
+    }
+
+    Configuration cacheConfig(CollectionConfig config) {
+        ConfigurationBuilder builder = new ConfigurationBuilder().read(cacheConfig);
+        config.limits().apply(builder);
+        return builder.build();
+    }
+
+    List<CollectionConfig> persisted() throws Exception {
+        List<CollectionConfig> configs = new ArrayList<>();
+        if (segmentDir == null || !Files.isDirectory(segmentDir)) {
+            return configs;
+        }
+        try (Stream<Path> directories = Files.list(segmentDir)) {
+            for (Path definition : directories.map(directory -> directory.resolve(DEFINITION_FILE)).filter(Files::exists).toList()) {
+                configs.add(CollectionConfig.fromJson(new JsonObject(Files.readString(definition))));
+            }
+        }
+        return configs;
+    }
+
+    Future<Void> removeCaches(CollectionConfig config) {
+        return vertx.executeBlocking(() -> {
+            cacheManager.administration().removeCache(config.cacheName());
+            // Only there when answers are cached, or with a segment store
+            for (String companion : List.of(config.answersCacheName(), SegmentStore.tombstonesCacheName(config.cacheName()))) {
+                if (cacheManager.cacheExists(companion)) {
+                    cacheManager.administration().removeCache(companion);
+                }
+            }
+            return null;
+        });
+    }
+
+    // The definitions are replicated synchronously, so even reading them is left to a worker
+    <T> Future<T> blocking(Callable<T> operation) {
+        return vertx.executeBlocking(operation, false);
+    }
+
+    static ReplyException notFound(String name) {
+        return new ReplyException(ReplyFailure.RECIPIENT_FAILURE, 404, "Collection " + name + " does not exist");
+    }
+}
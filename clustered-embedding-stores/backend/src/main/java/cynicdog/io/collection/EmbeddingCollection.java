@@ -0,0 +1,162 @@
+package cynicdog.io.collection;
+
+import cynicdog.io.data.Embedding;
+import cynicdog.io.index.AttributeFilter;
+import cynicdog.io.index.SearchHit;
+import cynicdog.io.index.VectorSearch;
+import cynicdog.io.metrics.Metrics;
+import cynicdog.io.store.SegmentStore;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.json.JsonObject;
+import org.infinispan.Cache;
+import org.infinispan.container.DataContainer;
+import org.infinispan.notifications.Listener;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntriesEvicted;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryExpired;
+import org.infinispan.notifications.cachelistener.event.CacheEntriesEvictedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryExpiredEvent;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One collection as opened on this node: its cache, the local index over it and, optionally, its segments.
+ */
+public class EmbeddingCollection {
+
+    final Vertx vertx;
+    final CollectionConfig config;
+    final Cache<String, Embedding> cache;
+    final VectorSearch search;
+    final AnswerCache answers;
+    final SegmentStore store;
+    final List<Meter> meters;
+    final RetentionListener retention = new RetentionListener();
+
+    final LongAdder evicted = new LongAdder();
+    final LongAdder expired = new LongAdder();
+
+    EmbeddingCollection(Vertx vertx, CollectionConfig config, Cache<String, Embedding> cache, VectorSearch search, AnswerCache answers, SegmentStore store) {
+        this.vertx = vertx;
+        this.config = config;
+        this.cache = cache;
+        this.search = search;
+        this.answers = answers;
+        this.store = store;
+        this.meters = List.of(
+                Gauge.builder("embeddings.cache.entries", this, EmbeddingCollection::localSize)
+                        .description("Entries of the collection held on this node, backups included")
+                        .tag("collection", config.name())
+                        .strongReference(true)
+                        .register(Metrics.registry()),
+                FunctionCounter.builder("embeddings.cache.removals", evicted, LongAdder::sum)
+                        .description("Entries this node let go of to stay within the collection's memory bound, or because they expired")
+                        .tags("collection", config.name(), "cause", "evicted")
+                        .register(Metrics.registry()),
+                FunctionCounter.builder("embeddings.cache.removals", expired, LongAdder::sum)
+                        .tags("collection", config.name(), "cause", "expired")
+                        .register(Metrics.registry()));
+        cache.addListener(retention);
+    }
+
+    public String name() {
+        return config.name();
+    }
+
+    public CollectionConfig config() {
+        return config;
+    }
+
+    public Cache<String, Embedding> cache() {
+        return cache;
+    }
+
+    public AnswerCache answers() {
+        return answers;
+    }
+
+    /**
+     * Entries of the collection held on this node, backups included. Unlike {@link Cache#size()} it asks no
+     * other node, so replies can carry it at no cost.
+     */
+    public long localSize() {
+        return cache.getAdvancedCache().getDataContainer().sizeIncludingExpired();
+    }
+
+    public Future<List<SearchHit>> search(float[] query, int k, AttributeFilter filter) {
+        return search.search(query, k, filter, cache);
+    }
+
+    public Future<JsonObject> stats() {
+        return search.stats().map(index -> config.toJson()
+                .put("index", index)
+                .put("answerCache", answers.stats())
+                .put("memory", memory()));
+    }
+
+    // Capacity and use are in entries or bytes, as the collection is bounded
+    JsonObject memory() {
+        DataContainer<String, Embedding> container = cache.getAdvancedCache().getDataContainer();
+        JsonObject memory = new JsonObject()
+                .put("evicted", evicted.sum())
+                .put("expired", expired.sum());
+        if (config.limits().bounded()) {
+            memory.put("capacity", container.capacity()).put("used", container.evictionSize());
+        }
+        return memory;
+    }
+
+    /**
+     * The entry as this collection stores it: with int8 codes in place of the floats when its index is
+     * quantized, as nothing in the cache needs them any finer.
+     */
+    public Embedding encode(Embedding embedding) {
+        return "none".equalsIgnoreCase(config.quantization()) ? embedding : embedding.quantized();
+    }
+
+    public Future<float[]> checkDimension(float[] vector) {
+        if (config.dimension() > 0 && vector.length != config.dimension()) {
+            return Future.failedFuture(new ReplyException(ReplyFailure.RECIPIENT_FAILURE, 400, String.format(
+                    "Collection %s expects %d-dimensional vectors, got %d", config.name(), config.dimension(), vector.length)));
+        }
+        return Future.succeededFuture(vector);
+    }
+
+    /**
+     * Releases this node's share of the collection. The cache itself is removed cluster-wide by whoever
+     * dropped or truncated it, so only the index, the answers held here and the segment files are left to discard here.
+     */
+    Future<Void> discard() {
+        cache.removeListener(retention);
+        meters.forEach(Metrics.registry()::remove);
+        search.detach();
+        answers.detach();
+        if (store == null) {
+            return Future.succeededFuture();
+        }
+        return vertx.executeBlocking(() -> {
+            store.delete();
+            return null;
+        });
+    }
+
+    @Listener(observation = Listener.Observation.POST)
+    public class RetentionListener {
+
+        @CacheEntriesEvicted
+        public void onEvicted(CacheEntriesEvictedEvent<String, Embedding> event) {
+            evicted.add(event.getEntries().size());
+        }
+
+        @CacheEntryExpired
+        public void onExpired(CacheEntryExpiredEvent<String, Embedding> event) {
+            expired.increment();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package cynicdog.io.data;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.infinispan.protostream.annotations.ProtoFactory;
+import org.infinispan.protostream.annotations.ProtoField;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * One metadata value of a stored entry, such as its source, tenant or timestamp. A multi-valued attribute
+ * like tags is stored as one {@code Attribute} per value under the same name.
+ */
+public class Attribute {
+
+    final String name;
+    final String value;
+
+    @ProtoFactory
+    public Attribute(String name, String value) {
+        this.name = name;
+        this.value = value;
+    }
+
+    @ProtoField(number = 1)
+    public String getName() {
+        return name;
+    }
+
+    @ProtoField(number = 2)
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * The value as a number when it reads as one, so that ranges compare timestamps and counts numerically.
+     */
+    public Double number() {
+        return number(value);
+    }
+
+    public static Double number(String value) {
+        try {
+            double number = Double.parseDouble(value);
+            return Double.isFinite(number) ? number : null;
+        } catch (NumberFormatException | NullPointerException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Attribute other && Objects.equals(name, other.name) && Objects.equals(value, other.value);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, value);
+    }
+
+    /**
+     * Reads {@code {"source": "wiki", "tags": ["llama", "camel"], "timestamp": 1700000000}}; arrays give one
+     * attribute per element.
+     */
+    public static List<Attribute> fromJson(JsonObject json) {
+        List<Attribute> attributes = new ArrayList<>();
+        if (json == null) {
+            return attributes;
+        }
+        for (String name : json.fieldNames()) {
+            Object value = json.getValue(name);
+            if (value instanceof JsonArray values) {
+                values.forEach(element -> attributes.add(new Attribute(name, String.valueOf(element))));
+            } else if (value instanceof JsonObject) {
+                throw new IllegalArgumentException("Attribute " + name + " must be a value or an array of values");
+            } else if (value != null) {
+                attributes.add(new Attribute(name, String.valueOf(value)));
+            }
+        }
+        return attributes;
+    }
+}
@@ -0,0 +1,57 @@
+package cynicdog.io.data;
+
+import cynicdog.io.util.VectorCodec;
+import org.infinispan.protostream.annotations.ProtoFactory;
+import org.infinispan.protostream.annotations.ProtoField;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A generated answer kept for similar questions: the question's vector, the filter it was asked with and
+ * the keys of the documents it was grounded on. Keys are content hashes, so the same keys mean the same
+ * documents.
+ */
+public class CachedAnswer {
+
+    final float[] query;
+    final String filter;
+    final List<String> references;
+    final String response;
+
+    public CachedAnswer(float[] query, String filter, List<String> references, String response) {
+        this.query = query;
+        this.filter = filter;
+        this.references = references;
+        this.response = response;
+    }
+
+    @ProtoFactory
+    CachedAnswer(byte[] packedQuery, String filter, List<String> references, String response) {
+        this(VectorCodec.unpack(packedQuery), filter, references != null ? references : List.of(), response);
+    }
+
+    @ProtoField(number = 1)
+    byte[] getPackedQuery() {
+        return VectorCodec.pack(query);
+    }
+
+    @ProtoField(number = 2)
+    public String getFilter() {
+        return filter;
+    }
+
+    @ProtoField(number = 3, collectionImplementation = ArrayList.class)
+    public List<String> getReferences() {
+        return references;
+    }
+
+    @ProtoField(number = 4)
+    public String getResponse() {
+        return response;
+    }
+
+    public float[] getQuery() {
+        return query;
+    }
+}
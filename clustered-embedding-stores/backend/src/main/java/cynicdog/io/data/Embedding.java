@@ -1,38 +1,127 @@
 package cynicdog.io.data;
 
+import cynicdog.io.util.ScalarCode;
+import cynicdog.io.util.VectorCodec;
 import org.infinispan.protostream.annotations.ProtoFactory;
 import org.infinispan.protostream.annotations.ProtoField;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public  class Embedding {
 
-    @ProtoField(number = 1, collectionImplementation = ArrayList.class)
-    List<Float> latentScores;
+    float[] latentScores;
 
-    @ProtoField(number = 2)
     String document;
 
-    @ProtoFactory
-    public Embedding(List<Float> latentScores, String document) {
+    List<Attribute> attributes;
+
+    // When the embedding was computed, in epoch milliseconds; a restore keeps the newer of two copies and
+    // drops a copy older than the key's removal
+    long version;
+
+    // Set instead of latentScores in a quantized collection, which keeps int8 codes rather than floats
+    ScalarCode code;
+
+    public Embedding(float[] latentScores, String document) {
+        this(latentScores, document, List.of());
+    }
+
+    public Embedding(float[] latentScores, String document, List<Attribute> attributes) {
+        this(latentScores, document, attributes, System.currentTimeMillis());
+    }
+
+    public Embedding(float[] latentScores, String document, List<Attribute> attributes, long version) {
         this.latentScores = latentScores;
         this.document = document;
+        this.attributes = attributes;
+        this.version = version;
     }
 
-    public List<Float> getLatentScores() {
-        return latentScores;
+    Embedding(ScalarCode code, String document, List<Attribute> attributes, long version) {
+        this((float[]) null, document, attributes, version);
+        this.code = code;
     }
 
-    public void setLatentScores(List<Float> latentScores) {
-        this.latentScores = latentScores;
+    // Entries written before the packed field existed only carry the repeated `latentScores` field,
+    // so both encodings are accepted on read while only the packed one is written.
+    @ProtoFactory
+    Embedding(List<Float> legacyLatentScores, String document, byte[] packedLatentScores, List<Attribute> attributes, long version,
+              byte[] codeLevels, float codeOffset, float codeScale) {
+        this(packedLatentScores != null
+                ? VectorCodec.unpack(packedLatentScores)
+                : codeLevels != null ? null : VectorCodec.unbox(legacyLatentScores), document, attributes != null ? attributes : List.of(), version);
+        if (codeLevels != null) {
+            this.code = new ScalarCode(codeLevels, codeOffset, codeScale);
+        }
     }
 
+    @Deprecated
+    @ProtoField(number = 1, name = "latentScores", collectionImplementation = ArrayList.class)
+    List<Float> getLegacyLatentScores() {
+        return Collections.emptyList();
+    }
+
+    @ProtoField(number = 2)
     public String getDocument() {
         return document;
     }
 
+    @ProtoField(number = 3, name = "packedLatentScores")
+    byte[] getPackedLatentScores() {
+        return latentScores == null ? null : VectorCodec.pack(latentScores);
+    }
+
+    @ProtoField(number = 4, collectionImplementation = ArrayList.class)
+    public List<Attribute> getAttributes() {
+        return attributes;
+    }
+
+    @ProtoField(number = 5, defaultValue = "0")
+    public long getVersion() {
+        return version;
+    }
+
+    @ProtoField(number = 6)
+    byte[] getCodeLevels() {
+        return code == null ? null : code.levels();
+    }
+
+    @ProtoField(number = 7, defaultValue = "0")
+    float getCodeOffset() {
+        return code == null ? 0 : code.offset();
+    }
+
+    @ProtoField(number = 8, defaultValue = "0")
+    float getCodeScale() {
+        return code == null ? 0 : code.scale();
+    }
+
+    /**
+     * The vector, decoded from its int8 codes in a quantized collection.
+     */
+    public float[] getLatentScores() {
+        return latentScores != null ? latentScores : code.decode();
+    }
+
+    public boolean isQuantized() {
+        return code != null;
+    }
+
+    /**
+     * This entry with int8 codes in place of its floats, as a quantized collection stores it.
+     */
+    public Embedding quantized() {
+        return code != null ? this : new Embedding(ScalarCode.encode(latentScores), document, attributes, version);
+    }
+
+    public void setLatentScores(float[] latentScores) {
+        this.latentScores = latentScores;
+        this.code = null;
+    }
+
     public void setDocument(String document) {
         this.document = document;
     }
-}
\ No newline at end of file
+}
@@ -4,7 +4,7 @@ import org.infinispan.protostream.GeneratedSchema;
 import org.infinispan.protostream.annotations.AutoProtoSchemaBuilder;
 
 @AutoProtoSchemaBuilder(
-        includeClasses = {Embedding.class},
+        includeClasses = {Embedding.class, Attribute.class, CachedAnswer.class},
         schemaFileName = "embedding.proto",
         schemaFilePath = "proto"
 )
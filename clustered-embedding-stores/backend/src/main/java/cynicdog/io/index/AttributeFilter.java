@@ -0,0 +1,111 @@
+package cynicdog.io.index;
+
+import cynicdog.io.data.Attribute;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Restricts a search to entries whose attributes match every condition, for instance
+ * {@code {"tenant": "acme", "tags": ["llama", "camel"], "timestamp": {"gte": 1700000000}}}: a value must
+ * be equal, an array matches any of its values and an object bounds a range, with at most one lower and one
+ * upper bound. Values that read as numbers are compared as numbers.
+ */
+public class AttributeFilter {
+
+    sealed interface Condition permits AnyOf, Range {
+        String name();
+
+        boolean matches(Attribute attribute);
+    }
+
+    record AnyOf(String name, List<String> values) implements Condition {
+        @Override
+        public boolean matches(Attribute attribute) {
+            Double number = attribute.number();
+            for (String value : values) {
+                Double expected = Attribute.number(value);
+                if (number != null && expected != null ? number.equals(expected) : value.equals(attribute.getValue())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    record Range(String name, double from, boolean fromInclusive, double to, boolean toInclusive) implements Condition {
+        @Override
+        public boolean matches(Attribute attribute) {
+            Double number = attribute.number();
+            return number != null
+                    && (fromInclusive ? number >= from : number > from)
+                    && (toInclusive ? number <= to : number < to);
+        }
+    }
+
+    final JsonObject json;
+    final List<Condition> conditions;
+
+    AttributeFilter(JsonObject json, List<Condition> conditions) {
+        this.json = json;
+        this.conditions = conditions;
+    }
+
+    /**
+     * @return the filter, or {@code null} when there is nothing to filter on
+     * @throws IllegalArgumentException when a condition cannot be read
+     */
+    public static AttributeFilter fromJson(JsonObject json) {
+        if (json == null || json.isEmpty()) {
+            return null;
+        }
+        List<Condition> conditions = new ArrayList<>();
+        for (String name : json.fieldNames()) {
+            Object value = json.getValue(name);
+            if (value instanceof JsonArray values) {
+                conditions.add(new AnyOf(name, values.stream().filter(Objects::nonNull).map(String::valueOf).toList()));
+            } else if (value instanceof JsonObject range) {
+                conditions.add(range(name, range));
+            } else if (value != null) {
+                conditions.add(new AnyOf(name, List.of(String.valueOf(value))));
+            }
+        }
+        return new AttributeFilter(json, conditions);
+    }
+
+    static Range range(String name, JsonObject bounds) {
+        for (String bound : bounds.fieldNames()) {
+            if (!List.of("gt", "gte", "lt", "lte").contains(bound) || !(bounds.getValue(bound) instanceof Number)) {
+                throw new IllegalArgumentException("Range on " + name + " takes numeric gt, gte, lt and lte bounds");
+            }
+        }
+        if (bounds.containsKey("gt") && bounds.containsKey("gte") || bounds.containsKey("lt") && bounds.containsKey("lte")) {
+            throw new IllegalArgumentException("Range on " + name + " takes at most one lower and one upper bound");
+        }
+        boolean fromInclusive = !bounds.containsKey("gt");
+        boolean toInclusive = !bounds.containsKey("lt");
+        Range range = new Range(name,
+                bounds.getDouble(fromInclusive ? "gte" : "gt", Double.NEGATIVE_INFINITY), fromInclusive,
+                bounds.getDouble(toInclusive ? "lte" : "lt", Double.POSITIVE_INFINITY), toInclusive);
+        if (range.from() > range.to() || range.from() == range.to() && !(fromInclusive && toInclusive)) {
+            throw new IllegalArgumentException("Range on " + name + " is empty");
+        }
+        return range;
+    }
+
+    public JsonObject toJson() {
+        return json;
+    }
+
+    public boolean matches(List<Attribute> attributes) {
+        for (Condition condition : conditions) {
+            if (attributes.stream().noneMatch(attribute -> attribute.getName().equals(condition.name()) && condition.matches(attribute))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,153 @@
+package cynicdog.io.index;
+
+import cynicdog.io.data.Attribute;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Compressed bitmaps of the {@link HnswIndex} node ids carrying each attribute value, so a filter resolves
+ * to its matching ids by intersecting and unioning bitmaps instead of looking at every entry.
+ * <p>
+ * A replaced or removed entry only leaves {@code live}, and its bits in the value bitmaps are masked out
+ * by it until {@link #compact} drops them. Not thread-safe; {@link HnswIndex} guards it with its own lock.
+ */
+class AttributeIndex {
+
+    final Map<String, Map<String, RoaringBitmap>> values = new HashMap<>();
+    final Map<String, TreeMap<Double, RoaringBitmap>> numbers = new HashMap<>();
+    final RoaringBitmap live = new RoaringBitmap();
+
+    /**
+     * Returns the number of distinct values the id was added under, which {@link #holds} compares against.
+     */
+    int add(int id, List<Attribute> attributes) {
+        live.add(id);
+        int distinct = 0;
+        for (Attribute attribute : attributes) {
+            Double number = attribute.number();
+            RoaringBitmap bitmap = number != null
+                    ? numbers.computeIfAbsent(attribute.getName(), name -> new TreeMap<>()).computeIfAbsent(number, value -> new RoaringBitmap())
+                    : values.computeIfAbsent(attribute.getName(), name -> new HashMap<>()).computeIfAbsent(attribute.getValue(), value -> new RoaringBitmap());
+            if (bitmap.checkedAdd(id)) {
+                distinct++;
+            }
+        }
+        return distinct;
+    }
+
+    /**
+     * Whether {@code id} was added under exactly these attributes, {@code count} being what {@link #add} returned.
+     */
+    boolean holds(int id, List<Attribute> attributes, int count) {
+        Set<RoaringBitmap> bitmaps = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Attribute attribute : attributes) {
+            Double number = attribute.number();
+            RoaringBitmap bitmap = number != null
+                    ? numbers.getOrDefault(attribute.getName(), new TreeMap<>()).get(number)
+                    : values.getOrDefault(attribute.getName(), Map.of()).get(attribute.getValue());
+            if (bitmap == null || !bitmap.contains(id)) {
+                return false;
+            }
+            bitmaps.add(bitmap);
+        }
+        return bitmaps.size() == count;
+    }
+
+    void remove(int id) {
+        live.remove(id);
+    }
+
+    /**
+     * Ids of the live nodes matching the filter, conditions from the most selective one down.
+     */
+    RoaringBitmap select(AttributeFilter filter) {
+        List<RoaringBitmap> matches = new ArrayList<>(filter.conditions.size() + 1);
+        for (AttributeFilter.Condition condition : filter.conditions) {
+            RoaringBitmap match = select(condition);
+            if (match.isEmpty()) {
+                return match;
+            }
+            matches.add(match);
+        }
+        matches.add(live);
+        matches.sort((a, b) -> Integer.compare(a.getCardinality(), b.getCardinality()));
+        return FastAggregation.and(matches.iterator());
+    }
+
+    RoaringBitmap select(AttributeFilter.Condition condition) {
+        TreeMap<Double, RoaringBitmap> byNumber = numbers.getOrDefault(condition.name(), new TreeMap<>());
+        if (condition instanceof AttributeFilter.Range range) {
+            NavigableMap<Double, RoaringBitmap> inRange = byNumber.subMap(range.from(), range.fromInclusive(), range.to(), range.toInclusive());
+            return FastAggregation.or(inRange.values().iterator());
+        }
+
+        Map<String, RoaringBitmap> byValue = values.getOrDefault(condition.name(), Map.of());
+        List<RoaringBitmap> matches = new ArrayList<>();
+        for (String value : ((AttributeFilter.AnyOf) condition).values()) {
+            Double number = Attribute.number(value);
+            RoaringBitmap match = number != null ? byNumber.get(number) : byValue.get(value);
+            if (match != null) {
+                matches.add(match);
+            }
+        }
+        return FastAggregation.or(matches.iterator());
+    }
+
+    /**
+     * A copy holding only the live ids, each renumbered to its rank among them.
+     */
+    AttributeIndex compact() {
+        AttributeIndex copy = new AttributeIndex();
+        copy.live.add(0L, live.getLongCardinality());
+        values.forEach((name, bitmaps) -> bitmaps.forEach((value, bitmap) -> {
+            RoaringBitmap renumbered = renumber(bitmap);
+            if (!renumbered.isEmpty()) {
+                copy.values.computeIfAbsent(name, n -> new HashMap<>()).put(value, renumbered);
+            }
+        }));
+        numbers.forEach((name, bitmaps) -> bitmaps.forEach((number, bitmap) -> {
+            RoaringBitmap renumbered = renumber(bitmap);
+            if (!renumbered.isEmpty()) {
+                copy.numbers.computeIfAbsent(name, n -> new TreeMap<>()).put(number, renumbered);
+            }
+        }));
+        return copy;
+    }
+
+    RoaringBitmap renumber(RoaringBitmap bitmap) {
+        RoaringBitmap renumbered = new RoaringBitmap();
+        RoaringBitmap.and(bitmap, live).forEach((int id) -> renumbered.add((int) live.rankLong(id) - 1));
+        return renumbered;
+    }
+
+    void clear() {
+        values.clear();
+        numbers.clear();
+        live.clear();
+    }
+
+    long memoryBytes() {
+        long bytes = live.getLongSizeInBytes();
+        for (Map<String, RoaringBitmap> bitmaps : values.values()) {
+            for (RoaringBitmap bitmap : bitmaps.values()) {
+                bytes += bitmap.getLongSizeInBytes();
+            }
+        }
+        for (TreeMap<Double, RoaringBitmap> bitmaps : numbers.values()) {
+            for (RoaringBitmap bitmap : bitmaps.values()) {
+                bytes += bitmap.getLongSizeInBytes();
+            }
+        }
+        return bytes;
+    }
+}
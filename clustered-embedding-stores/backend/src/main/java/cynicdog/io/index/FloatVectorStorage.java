@@ -0,0 +1,103 @@
+package cynicdog.io.index;
+
+import java.util.Arrays;
+
+/**
+ * Full-precision vectors as one row-major matrix, allocated in blocks of {@link #BLOCK_ROWS} rows so it
+ * grows without copying the rows already there. Ids are handed out in order, so scanning ascending ids
+ * streams through memory instead of chasing one array per vector.
+ */
+class FloatVectorStorage implements VectorStorage {
+
+    static final int BLOCK_SHIFT = 8;
+    static final int BLOCK_ROWS = 1 << BLOCK_SHIFT;
+
+    final Metric metric;
+    float[][] blocks = new float[0][];
+    int dimension;
+    long memoryBytes;
+
+    FloatVectorStorage(Metric metric) {
+        this.metric = metric;
+    }
+
+    @Override
+    public void put(int id, float[] vector) {
+        if (dimension == 0) {
+            dimension = vector.length;
+        } else if (vector.length != dimension) {
+            throw new IllegalArgumentException(String.format("Expected %d-dimensional vectors, got %d", dimension, vector.length));
+        }
+
+        int block = id >>> BLOCK_SHIFT;
+        if (block >= blocks.length) {
+            blocks = Arrays.copyOf(blocks, Math.max(block + 1, blocks.length * 2));
+        }
+        if (blocks[block] == null) {
+            blocks[block] = new float[BLOCK_ROWS * dimension];
+        }
+        System.arraycopy(vector, 0, blocks[block], offset(id), dimension);
+        memoryBytes += (long) dimension * Float.BYTES;
+    }
+
+    @Override
+    public Scorer scorer(float[] query) {
+        if (dimension != 0 && query.length != dimension) {
+            throw new IllegalArgumentException(String.format("Expected a %d-dimensional query, got %d", dimension, query.length));
+        }
+        float[][] matrix = blocks;
+        int rowLength = dimension;
+        return id -> metric.score(query, matrix[id >>> BLOCK_SHIFT], (id & (BLOCK_ROWS - 1)) * rowLength);
+    }
+
+    @Override
+    public float[] reconstruct(int id) {
+        int from = offset(id);
+        return Arrays.copyOfRange(blocks[id >>> BLOCK_SHIFT], from, from + dimension);
+    }
+
+    @Override
+    public boolean holds(int id, float[] vector) {
+        int block = id >>> BLOCK_SHIFT;
+        if (vector.length != dimension || block >= blocks.length || blocks[block] == null) {
+            return false;
+        }
+        int from = offset(id);
+        return Arrays.equals(blocks[block], from, from + dimension, vector, 0, dimension);
+    }
+
+    @Override
+    public VectorStorage compact(int[] ids) {
+        FloatVectorStorage copy = new FloatVectorStorage(metric);
+        for (int id = 0; id < ids.length; id++) {
+            copy.put(id, reconstruct(ids[id]));
+        }
+        return copy;
+    }
+
+    @Override
+    public boolean lossy() {
+        return false;
+    }
+
+    @Override
+    public String name() {
+        return "none";
+    }
+
+    @Override
+    public long memoryBytes() {
+        return memoryBytes;
+    }
+
+    @Override
+    public void clear() {
+        blocks = new float[0][];
+        dimension = 0;
+        memoryBytes = 0;
+    }
+
+    int offset(int id) {
+        return (id & (BLOCK_ROWS - 1)) * dimension;
+    }
+}
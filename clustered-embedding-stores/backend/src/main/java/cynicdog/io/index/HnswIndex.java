@@ -0,0 +1,617 @@
+package cynicdog.io.index;
+
+import cynicdog.io.data.Attribute;
+import io.vertx.core.json.JsonObject;
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory Hierarchical Navigable Small World graph over the vectors of one embeddings cache.
+ * <p>
+ * Every node keeps its own copy of the graph, fed by {@link IndexingListener}. Removed or replaced
+ * entries are tombstoned: they still route searches through the graph but never show up in results.
+ * Once tombstones make up {@link #COMPACTION_SHARE} of the nodes, the index is rebuilt over the live
+ * entries, so the graph and the storage shrink back with the collection instead of growing with every write.
+ * <p>
+ * Entry attributes are kept in an {@link AttributeIndex}, so a filtered search knows up front which ids
+ * may be returned and how many there are.
+ * <p>
+ * Exact searches score ids in ascending order, which with {@link FloatVectorStorage} walks the vector
+ * matrix front to back; beyond {@link #SCAN_SLICE} ids the scan is split across {@code scanPool}.
+ */
+public class HnswIndex {
+
+    static final int SCAN_SLICE = 8192;
+
+    // Tombstones needed before a rebuild, as a share of the nodes and in absolute terms
+    static final double COMPACTION_SHARE = 0.5;
+    static final int COMPACTION_MIN_TOMBSTONES = 1024;
+
+    final Metric metric;
+    VectorStorage storage;
+    final int m;
+    final int maxConnections0;
+    final int efConstruction;
+    final int efSearch;
+    final boolean exact;
+    final double levelMultiplier;
+    final ForkJoinPool scanPool;
+
+    List<Node> nodes = new ArrayList<>();
+    Map<String, Integer> idsByKey = new HashMap<>();
+    AttributeIndex attributes = new AttributeIndex();
+
+    int entryPoint = -1;
+    int maxLevel = -1;
+    int dimension;
+
+    // Bumped by every change, so a compaction built from an older state is dropped rather than swapped in
+    long writes;
+
+    final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Searches served and vectors scored by them, for the candidates-per-search metric
+    final LongAdder searches = new LongAdder();
+    final LongAdder scanned = new LongAdder();
+    final LongAdder compactions = new LongAdder();
+
+    /**
+     * @param metric         similarity used both for building the graph and for ranking results
+     * @param storage        where the (possibly compressed) vectors behind node ids live
+     * @param m              neighbours kept per node on the upper layers (twice as many on layer 0)
+     * @param efConstruction candidate list size while linking a new node
+     * @param efSearch       candidate list size while searching, trades latency for recall
+     * @param exact          when set, every search is a linear scan instead of a graph traversal
+     * @param scanPool       runs the slices of large linear scans in parallel
+     */
+    public HnswIndex(Metric metric, VectorStorage storage, int m, int efConstruction, int efSearch, boolean exact, ForkJoinPool scanPool) {
+        this.metric = metric;
+        this.storage = storage;
+        this.m = m;
+        this.maxConnections0 = m * 2;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.exact = exact;
+        this.levelMultiplier = 1 / Math.log(m);
+        this.scanPool = scanPool;
+    }
+
+    public HnswIndex(Metric metric, VectorStorage storage, int m, int efConstruction, int efSearch, boolean exact) {
+        this(metric, storage, m, efConstruction, efSearch, exact, ForkJoinPool.commonPool());
+    }
+
+    public void add(String key, float[] embedding) {
+        add(key, embedding, List.of());
+    }
+
+    public void add(String key, float[] embedding, List<Attribute> attributes) {
+        float[] vector = metric.prepare(embedding);
+
+        lock.writeLock().lock();
+        try {
+            // Putting an entry again with what it already holds, as a replay racing the listener does, changes nothing
+            Integer previous = idsByKey.get(key);
+            if (previous != null && storage.holds(previous, vector)
+                    && this.attributes.holds(previous, attributes, nodes.get(previous).attributeCount)) {
+                return;
+            }
+
+            // Stored first: a vector the storage rejects leaves the index as it was
+            int id = nodes.size();
+            storage.put(id, vector);
+            dimension = vector.length;
+            writes++;
+
+            if (previous != null) {
+                this.attributes.remove(previous);
+            }
+
+            int level = (int) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * levelMultiplier);
+            Node node = new Node(key, level, this.attributes.add(id, attributes));
+            nodes.add(node);
+            idsByKey.put(key, id);
+            connect(id, node, storage.scorer(vector));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * Links a node already stored under {@code id} into every layer up to its own, {@code scorer} scoring its vector.
+     */
+    void connect(int id, Node node, VectorStorage.Scorer scorer) {
+        int level = node.neighbours.length - 1;
+        if (entryPoint < 0) {
+            entryPoint = id;
+            maxLevel = level;
+            return;
+        }
+
+        int current = entryPoint;
+        for (int layer = maxLevel; layer > level; layer--) {
+            current = greedyClosest(scorer, current, layer);
+        }
+
+        for (int layer = Math.min(level, maxLevel); layer >= 0; layer--) {
+            PriorityQueue<Candidate> candidates = searchLayer(scorer, current, efConstruction, layer);
+            int maxConnections = layer == 0 ? maxConnections0 : m;
+
+            int[] selected = closest(candidates, maxConnections);
+            node.neighbours[layer] = selected;
+
+            for (int neighbour : selected) {
+                link(neighbour, id, layer, maxConnections);
+            }
+            current = selected.length > 0 ? selected[0] : current;
+        }
+
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = id;
+        }
+    }
+
+    public void remove(String key) {
+        lock.writeLock().lock();
+        try {
+            Integer id = idsByKey.remove(key);
+            if (id != null) {
+                attributes.remove(id);
+                writes++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * Rebuilds the index over its live entries when there are enough tombstones. The copy is built under
+     * the read lock, so searches carry on meanwhile, and is swapped in unless a write got in first.
+     */
+    void compactIfNeeded() {
+        long version;
+        HnswIndex compacted;
+        lock.readLock().lock();
+        try {
+            int tombstones = nodes.size() - idsByKey.size();
+            if (tombstones < COMPACTION_MIN_TOMBSTONES || tombstones < nodes.size() * COMPACTION_SHARE) {
+                return;
+            }
+            version = writes;
+            compacted = compacted();
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (writes == version) {
+                storage = compacted.storage;
+                nodes = compacted.nodes;
+                idsByKey = compacted.idsByKey;
+                attributes = compacted.attributes;
+                entryPoint = compacted.entryPoint;
+                maxLevel = compacted.maxLevel;
+                writes++;
+                compactions.increment();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * A copy of the index holding only the live entries, the i-th live id becoming id i. Nodes keep their
+     * level and are linked again from scratch, so no edge leads to a tombstone any more.
+     */
+    HnswIndex compacted() {
+        int[] live = attributes.live.toArray();
+        HnswIndex copy = new HnswIndex(metric, storage.compact(live), m, efConstruction, efSearch, exact, scanPool);
+        copy.attributes = attributes.compact();
+        for (int id = 0; id < live.length; id++) {
+            Node node = nodes.get(live[id]);
+            Node moved = new Node(node.key, node.neighbours.length - 1, node.attributeCount);
+            copy.nodes.add(moved);
+            copy.idsByKey.put(node.key, id);
+            copy.connect(id, moved, copy.storage.scorer(copy.storage.reconstruct(id)));
+        }
+        return copy;
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            nodes.clear();
+            idsByKey.clear();
+            attributes.clear();
+            storage.clear();
+            entryPoint = -1;
+            maxLevel = -1;
+            dimension = 0;
+            writes++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return idsByKey.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int dimension() {
+        lock.readLock().lock();
+        try {
+            return dimension;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Metric metric() {
+        return metric;
+    }
+
+    /**
+     * Whether search scores are estimates from codes coarser than the cache's copy, and should be rescored against it.
+     */
+    public boolean rescored() {
+        lock.readLock().lock();
+        try {
+            return storage.rescored();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * What the index holds on this node. It lives next to the cache rather than in it, so none of it counts
+     * against the collection's {@code maxBytes}; {@code memoryBytes} is its total and {@code heapBytes} the
+     * part of it on the Java heap.
+     */
+    public JsonObject stats() {
+        lock.readLock().lock();
+        try {
+            int vectors = nodes.size();
+            long vectorBytes = storage.memoryBytes();
+            long graphBytes = graphBytes();
+            long attributeBytes = attributes.memoryBytes();
+            long memoryBytes = vectorBytes + graphBytes + attributeBytes;
+            return new JsonObject()
+                    .put("quantization", storage.name())
+                    .put("offHeap", storage.offHeap())
+                    .put("entries", idsByKey.size())
+                    .put("storedVectors", vectors)
+                    .put("compactions", compactions.sum())
+                    .put("memoryBytes", memoryBytes)
+                    .put("heapBytes", storage.offHeap() ? memoryBytes - vectorBytes : memoryBytes)
+                    .put("vectorBytes", vectorBytes)
+                    .put("bytesPerVector", vectors == 0 ? 0 : vectorBytes / vectors)
+                    .put("graphBytes", graphBytes)
+                    .put("attributeIndexBytes", attributeBytes);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Estimated footprint of the nodes, their neighbour arrays and the key lookup, assuming compressed
+     * references: 16 bytes of header per object and array, 4 per reference or int.
+     */
+    long graphBytes() {
+        long bytes = 0;
+        for (Node node : nodes) {
+            bytes += 24 + 16 + 4L * node.neighbours.length;
+            for (int[] neighbours : node.neighbours) {
+                bytes += 16 + 4L * neighbours.length;
+            }
+            // The key string, shared with the lookup
+            bytes += 24 + 16 + node.key.length();
+        }
+        // A map entry and a boxed id per live entry, plus the table slot
+        return bytes + idsByKey.size() * (32L + 16 + 4);
+    }
+
+    /**
+     * Returns up to {@code k} entries ordered from most to least similar.
+     */
+    public List<SearchResult> search(float[] embedding, int k) {
+        return search(embedding, k, null);
+    }
+
+    /**
+     * Returns up to {@code k} entries matching {@code filter}, ordered from most to least similar.
+     * <p>
+     * The traversal only admits matching nodes to the results but still routes through the others, so it
+     * scores about {@code size / matches} nodes per result. It is given as many scores as there are
+     * matches; a filter too selective for that is answered by scanning the matching ids instead, so the
+     * work stays proportional to the filtered set rather than to the collection. Tombstones are routed
+     * through the same way, and a traversal that reaches fewer than {@code k} live nodes falls back to the scan.
+     */
+    public List<SearchResult> search(float[] embedding, int k, AttributeFilter filter) {
+        float[] query = metric.prepare(embedding);
+        int[] scored = {0};
+
+        lock.readLock().lock();
+        try {
+            RoaringBitmap accepted = filter == null ? null : attributes.select(filter);
+            if (entryPoint < 0 || accepted != null && accepted.isEmpty()) {
+                return List.of();
+            }
+            VectorStorage.Scorer storageScorer = storage.scorer(query);
+            VectorStorage.Scorer scorer = id -> {
+                scored[0]++;
+                return storageScorer.score(id);
+            };
+
+            // Below the candidate list size a scan touches fewer vectors than the traversal would.
+            int ef = Math.max(efSearch, k);
+            int matches = accepted == null ? idsByKey.size() : accepted.getCardinality();
+            if (exact || matches <= ef || accepted != null && (long) ef * idsByKey.size() / matches >= matches) {
+                return exactSearch(storageScorer, k, accepted);
+            }
+
+            int current = entryPoint;
+            for (int layer = maxLevel; layer > 0; layer--) {
+                current = greedyClosest(scorer, current, layer);
+            }
+
+            PriorityQueue<Candidate> candidates = searchLayer(scorer, current, ef, 0,
+                    accepted == null ? attributes.live : accepted, accepted == null ? Integer.MAX_VALUE : matches);
+            if (candidates == null || candidates.size() < Math.min(k, matches)) {
+                return exactSearch(storageScorer, k, accepted);
+            }
+
+            List<Candidate> sorted = new ArrayList<>(candidates);
+            sorted.sort(Comparator.comparingDouble((Candidate c) -> c.similarity).reversed());
+
+            List<SearchResult> results = new ArrayList<>(k);
+            for (Candidate candidate : sorted.subList(0, Math.min(k, sorted.size()))) {
+                results.add(new SearchResult(nodes.get(candidate.id).key, candidate.similarity));
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+            searches.increment();
+            scanned.add(scored[0]);
+        }
+    }
+
+    public long searches() {
+        return searches.sum();
+    }
+
+    public long scanned() {
+        return scanned.sum();
+    }
+
+    /**
+     * Scores every live node, or only the {@code accepted} ones when given. {@code scorer} is shared by the
+     * slices of a parallel scan, so it must not count or otherwise keep state.
+     */
+    List<SearchResult> exactSearch(VectorStorage.Scorer scorer, int k, RoaringBitmap accepted) {
+        RoaringBitmap ids = accepted != null ? accepted : attributes.live;
+        int count = ids.getCardinality();
+        scanned.add(count);
+
+        PriorityQueue<Candidate> top = count <= SCAN_SLICE
+                ? scan(scorer, k, ids, 0, count)
+                : scanPool.invoke(new ScanTask(scorer, k, ids, 0, count));
+
+        List<SearchResult> results = new ArrayList<>(top.size());
+        while (!top.isEmpty()) {
+            Candidate candidate = top.poll();
+            results.add(0, new SearchResult(nodes.get(candidate.id).key, candidate.similarity));
+        }
+        return results;
+    }
+
+    /**
+     * The {@code k} best of the ids ranked {@code from} (inclusive) to {@code to} (exclusive) in {@code ids},
+     * as a min-heap on similarity.
+     */
+    static PriorityQueue<Candidate> scan(VectorStorage.Scorer scorer, int k, RoaringBitmap ids, int from, int to) {
+        PriorityQueue<Candidate> top = new PriorityQueue<>(Comparator.comparingDouble(c -> c.similarity));
+        if (from >= to) {
+            return top;
+        }
+        PeekableIntIterator iterator = ids.getIntIterator();
+        iterator.advanceIfNeeded(ids.select(from));
+        for (int i = from; i < to; i++) {
+            int id = iterator.next();
+            double similarity = scorer.score(id);
+            if (top.size() < k) {
+                top.add(new Candidate(id, similarity));
+            } else if (similarity > top.peek().similarity) {
+                top.poll();
+                top.add(new Candidate(id, similarity));
+            }
+        }
+        return top;
+    }
+
+    static class ScanTask extends RecursiveTask<PriorityQueue<Candidate>> {
+
+        final VectorStorage.Scorer scorer;
+        final int k;
+        final RoaringBitmap ids;
+        final int from;
+        final int to;
+
+        ScanTask(VectorStorage.Scorer scorer, int k, RoaringBitmap ids, int from, int to) {
+            this.scorer = scorer;
+            this.k = k;
+            this.ids = ids;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected PriorityQueue<Candidate> compute() {
+            if (to - from <= SCAN_SLICE) {
+                return scan(scorer, k, ids, from, to);
+            }
+            int middle = (from + to) >>> 1;
+            ScanTask left = new ScanTask(scorer, k, ids, from, middle);
+            left.fork();
+            PriorityQueue<Candidate> top = new ScanTask(scorer, k, ids, middle, to).compute();
+            for (Candidate candidate : left.join()) {
+                if (top.size() < k) {
+                    top.add(candidate);
+                } else if (candidate.similarity > top.peek().similarity) {
+                    top.poll();
+                    top.add(candidate);
+                }
+            }
+            return top;
+        }
+    }
+
+    int greedyClosest(VectorStorage.Scorer scorer, int start, int layer) {
+        int current = start;
+        double best = scorer.score(current);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int neighbour : nodes.get(current).neighbours(layer)) {
+                double candidate = scorer.score(neighbour);
+                if (candidate > best) {
+                    best = candidate;
+                    current = neighbour;
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Best-first expansion of one layer, returning the {@code ef} most similar nodes reached.
+     * The result queue is a min-heap on similarity so the worst of the current best is at its head.
+     */
+    PriorityQueue<Candidate> searchLayer(VectorStorage.Scorer scorer, int start, int ef, int layer) {
+        return searchLayer(scorer, start, ef, layer, null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Same expansion, but only {@code accepted} nodes make it into the results; the others are still
+     * expanded as long as they beat the worst result. Returns {@code null} once more than {@code budget}
+     * nodes have been scored.
+     */
+    PriorityQueue<Candidate> searchLayer(VectorStorage.Scorer scorer, int start, int ef, int layer, RoaringBitmap accepted, int budget) {
+        int scored = 1;
+        BitSet visited = new BitSet(nodes.size());
+        visited.set(start);
+
+        Candidate first = new Candidate(start, scorer.score(start));
+        PriorityQueue<Candidate> frontier = new PriorityQueue<>(Comparator.comparingDouble((Candidate c) -> c.similarity).reversed());
+        PriorityQueue<Candidate> results = new PriorityQueue<>(Comparator.comparingDouble(c -> c.similarity));
+        frontier.add(first);
+        if (accepted == null || accepted.contains(start)) {
+            results.add(first);
+        }
+
+        while (!frontier.isEmpty()) {
+            Candidate closest = frontier.poll();
+            if (results.size() >= ef && closest.similarity < results.peek().similarity) {
+                break;
+            }
+            for (int neighbour : nodes.get(closest.id).neighbours(layer)) {
+                if (visited.get(neighbour)) {
+                    continue;
+                }
+                visited.set(neighbour);
+                if (++scored > budget) {
+                    return null;
+                }
+
+                double similarity = scorer.score(neighbour);
+                if (results.size() < ef || similarity > results.peek().similarity) {
+                    Candidate candidate = new Candidate(neighbour, similarity);
+                    frontier.add(candidate);
+                    if (accepted == null || accepted.contains(neighbour)) {
+                        results.add(candidate);
+                        if (results.size() > ef) {
+                            results.poll();
+                        }
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    void link(int from, int to, int layer, int maxConnections) {
+        Node node = nodes.get(from);
+        int[] neighbours = node.neighbours(layer);
+
+        if (neighbours.length < maxConnections) {
+            int[] grown = Arrays.copyOf(neighbours, neighbours.length + 1);
+            grown[neighbours.length] = to;
+            node.neighbours[layer] = grown;
+            return;
+        }
+
+        // Full: keep the closest connections, which may or may not include the new node.
+        VectorStorage.Scorer scorer = storage.scorer(storage.reconstruct(from));
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>(Comparator.comparingDouble(c -> c.similarity));
+        candidates.add(new Candidate(to, scorer.score(to)));
+        for (int neighbour : neighbours) {
+            candidates.add(new Candidate(neighbour, scorer.score(neighbour)));
+        }
+        node.neighbours[layer] = closest(candidates, maxConnections);
+    }
+
+    static int[] closest(PriorityQueue<Candidate> candidates, int count) {
+        List<Candidate> sorted = new ArrayList<>(candidates);
+        sorted.sort(Comparator.comparingDouble((Candidate c) -> c.similarity).reversed());
+
+        int[] ids = new int[Math.min(count, sorted.size())];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = sorted.get(i).id;
+        }
+        return ids;
+    }
+
+    static class Node {
+        final String key;
+        final int[][] neighbours;
+        // Distinct attribute values the entry was indexed with, to tell whether it is put again unchanged
+        final int attributeCount;
+
+        Node(String key, int level, int attributeCount) {
+            this.key = key;
+            this.neighbours = new int[level + 1][];
+            this.attributeCount = attributeCount;
+            Arrays.fill(this.neighbours, new int[0]);
+        }
+
+        int[] neighbours(int layer) {
+            return layer < neighbours.length ? neighbours[layer] : new int[0];
+        }
+    }
+
+    record Candidate(int id, double similarity) {
+    }
+}
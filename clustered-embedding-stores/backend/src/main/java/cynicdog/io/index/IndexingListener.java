@@ -0,0 +1,68 @@
+package cynicdog.io.index;
+
+import cynicdog.io.data.Embedding;
+import io.vertx.core.WorkerExecutor;
+import org.infinispan.notifications.Listener;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntriesEvicted;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryCreated;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryExpired;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryModified;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryRemoved;
+import org.infinispan.notifications.cachelistener.event.CacheEntriesEvictedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryCreatedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryExpiredEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryModifiedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryRemovedEvent;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Keeps a node's {@link HnswIndex} in step with the entries of the embeddings cache held on that node,
+ * whether they were written locally or replicated from another member.
+ * <p>
+ * Notifications arrive on whichever thread performed the write, an event loop included, so the graph
+ * update is handed to {@code writer} and the returned stage holds the write back until it is indexed.
+ */
+@Listener(observation = Listener.Observation.POST)
+public class IndexingListener {
+
+    final HnswIndex index;
+    final WorkerExecutor writer;
+
+    public IndexingListener(HnswIndex index, WorkerExecutor writer) {
+        this.index = index;
+        this.writer = writer;
+    }
+
+    @CacheEntryCreated
+    public CompletionStage<Void> onCreated(CacheEntryCreatedEvent<String, Embedding> event) {
+        return apply(() -> index.add(event.getKey(), event.getValue().getLatentScores(), event.getValue().getAttributes()));
+    }
+
+    @CacheEntryModified
+    public CompletionStage<Void> onModified(CacheEntryModifiedEvent<String, Embedding> event) {
+        return apply(() -> index.add(event.getKey(), event.getNewValue().getLatentScores(), event.getNewValue().getAttributes()));
+    }
+
+    @CacheEntryRemoved
+    public CompletionStage<Void> onRemoved(CacheEntryRemovedEvent<String, Embedding> event) {
+        return apply(() -> index.remove(event.getKey()));
+    }
+
+    @CacheEntryExpired
+    public CompletionStage<Void> onExpired(CacheEntryExpiredEvent<String, Embedding> event) {
+        return apply(() -> index.remove(event.getKey()));
+    }
+
+    @CacheEntriesEvicted
+    public CompletionStage<Void> onEvicted(CacheEntriesEvictedEvent<String, Embedding> event) {
+        return apply(() -> event.getEntries().keySet().forEach(index::remove));
+    }
+
+    CompletionStage<Void> apply(Runnable update) {
+        return writer.<Void>executeBlocking(() -> {
+            update.run();
+            return null;
+        }, false).toCompletionStage();
+    }
+}
@@ -0,0 +1,50 @@
+package cynicdog.io.index;
+
+import cynicdog.io.util.VectorUtils;
+
+/**
+ * Similarity functions understood by the index. Scores are always "higher is closer".
+ * Vectors are passed through {@link #prepare(float[])} once when indexed or queried, which lets
+ * cosine be served by the dot-product kernel against pre-normalised vectors.
+ */
+public enum Metric {
+
+    COSINE {
+        @Override
+        public float[] prepare(float[] vector) {
+            return VectorUtils.normalize(vector);
+        }
+
+        @Override
+        public double score(float[] a, float[] b, int offset) {
+            return VectorUtils.kernel().dot(a, b, offset);
+        }
+    },
+
+    DOT_PRODUCT {
+        @Override
+        public double score(float[] a, float[] b, int offset) {
+            return VectorUtils.kernel().dot(a, b, offset);
+        }
+    },
+
+    L2 {
+        @Override
+        public double score(float[] a, float[] b, int offset) {
+            return -VectorUtils.kernel().squaredDistance(a, b, offset);
+        }
+    };
+
+    public float[] prepare(float[] vector) {
+        return vector;
+    }
+
+    public double score(float[] a, float[] b) {
+        return score(a, b, 0);
+    }
+
+    /**
+     * Scores {@code a} against the row of a matrix that starts at {@code offset} in {@code b}.
+     */
+    public abstract double score(float[] a, float[] b, int offset);
+}
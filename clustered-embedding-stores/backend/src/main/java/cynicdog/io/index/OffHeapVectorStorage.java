@@ -0,0 +1,121 @@
+package cynicdog.io.index;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Full-precision vectors in direct buffers of {@link FloatVectorStorage#BLOCK_ROWS} rows, for collections
+ * stored off-heap: the matrix then neither counts against the Java heap nor gets copied by the collector.
+ * A row is copied into a per-thread array before it is scored, since the kernels work on arrays.
+ */
+class OffHeapVectorStorage implements VectorStorage {
+
+    static final int BLOCK_SHIFT = FloatVectorStorage.BLOCK_SHIFT;
+    static final int BLOCK_ROWS = FloatVectorStorage.BLOCK_ROWS;
+
+    static final ThreadLocal<float[]> ROWS = ThreadLocal.withInitial(() -> new float[0]);
+
+    final Metric metric;
+    FloatBuffer[] blocks = new FloatBuffer[0];
+    int dimension;
+    long memoryBytes;
+
+    OffHeapVectorStorage(Metric metric) {
+        this.metric = metric;
+    }
+
+    @Override
+    public void put(int id, float[] vector) {
+        if (dimension == 0) {
+            dimension = vector.length;
+        } else if (vector.length != dimension) {
+            throw new IllegalArgumentException(String.format("Expected %d-dimensional vectors, got %d", dimension, vector.length));
+        }
+
+        int block = id >>> BLOCK_SHIFT;
+        if (block >= blocks.length) {
+            blocks = Arrays.copyOf(blocks, Math.max(block + 1, blocks.length * 2));
+        }
+        if (blocks[block] == null) {
+            blocks[block] = ByteBuffer.allocateDirect(BLOCK_ROWS * dimension * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+            memoryBytes += (long) BLOCK_ROWS * dimension * Float.BYTES;
+        }
+        blocks[block].put(offset(id), vector);
+    }
+
+    @Override
+    public Scorer scorer(float[] query) {
+        if (dimension != 0 && query.length != dimension) {
+            throw new IllegalArgumentException(String.format("Expected a %d-dimensional query, got %d", dimension, query.length));
+        }
+        FloatBuffer[] matrix = blocks;
+        int rowLength = dimension;
+        return id -> {
+            float[] row = ROWS.get();
+            if (row.length != rowLength) {
+                row = new float[rowLength];
+                ROWS.set(row);
+            }
+            matrix[id >>> BLOCK_SHIFT].get((id & (BLOCK_ROWS - 1)) * rowLength, row);
+            return metric.score(query, row);
+        };
+    }
+
+    @Override
+    public float[] reconstruct(int id) {
+        float[] vector = new float[dimension];
+        blocks[id >>> BLOCK_SHIFT].get(offset(id), vector);
+        return vector;
+    }
+
+    @Override
+    public boolean holds(int id, float[] vector) {
+        int block = id >>> BLOCK_SHIFT;
+        return vector.length == dimension && block < blocks.length && blocks[block] != null && Arrays.equals(reconstruct(id), vector);
+    }
+
+    @Override
+    public VectorStorage compact(int[] ids) {
+        OffHeapVectorStorage copy = new OffHeapVectorStorage(metric);
+        for (int id = 0; id < ids.length; id++) {
+            copy.put(id, reconstruct(ids[id]));
+        }
+        return copy;
+    }
+
+    @Override
+    public boolean lossy() {
+        return false;
+    }
+
+    @Override
+    public boolean offHeap() {
+        return true;
+    }
+
+    @Override
+    public String name() {
+        return "none";
+    }
+
+    /**
+     * Counts whole blocks, as they are allocated; the buffers are freed once collected.
+     */
+    @Override
+    public long memoryBytes() {
+        return memoryBytes;
+    }
+
+    @Override
+    public void clear() {
+        blocks = new FloatBuffer[0];
+        dimension = 0;
+        memoryBytes = 0;
+    }
+
+    int offset(int id) {
+        return (id & (BLOCK_ROWS - 1)) * dimension;
+    }
+}
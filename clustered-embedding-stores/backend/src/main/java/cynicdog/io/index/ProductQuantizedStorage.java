@@ -0,0 +1,258 @@
+package cynicdog.io.index;
+
+import cynicdog.io.util.VectorUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Product quantization: the vector is cut into {@code subspaces} slices and each slice is replaced by the
+ * id of its nearest centroid in a per-slice codebook, one byte per slice. Queries are scored with
+ * asymmetric distance: a per-query table of partial scores against every centroid, summed per code.
+ * <p>
+ * Codebooks are learnt with k-means on the first {@code trainingSize} vectors; until then vectors are
+ * kept as floats and scored exactly. Training runs once, inside the index write lock.
+ */
+class ProductQuantizedStorage implements VectorStorage {
+
+    static final int CENTROIDS = 256;
+    static final int TRAINING_ITERATIONS = 10;
+
+    final Metric metric;
+    final int subspaces;
+    final int trainingSize;
+
+    final List<float[]> pending = new ArrayList<>();
+    final List<byte[]> codes = new ArrayList<>();
+    int pendingCount;
+
+    int[] bounds;
+    float[][][] codebooks;
+    long memoryBytes;
+
+    ProductQuantizedStorage(Metric metric, int subspaces, int trainingSize) {
+        this.metric = metric;
+        this.subspaces = subspaces;
+        this.trainingSize = trainingSize;
+    }
+
+    @Override
+    public void put(int id, float[] vector) {
+        if (codebooks != null) {
+            set(codes, id, encode(vector));
+            memoryBytes += bounds.length - 1;
+            return;
+        }
+
+        set(pending, id, vector);
+        pendingCount++;
+        memoryBytes += (long) vector.length * Float.BYTES;
+
+        if (pendingCount >= trainingSize) {
+            train();
+        }
+    }
+
+    @Override
+    public Scorer scorer(float[] query) {
+        if (codebooks == null) {
+            return id -> metric.score(query, pending.get(id));
+        }
+
+        int slices = bounds.length - 1;
+        float[][] table = new float[slices][];
+        for (int s = 0; s < slices; s++) {
+            float[] slice = Arrays.copyOfRange(query, bounds[s], bounds[s + 1]);
+            table[s] = new float[codebooks[s].length];
+            for (int c = 0; c < codebooks[s].length; c++) {
+                table[s][c] = metric == Metric.L2
+                        ? -VectorUtils.kernel().squaredDistance(slice, codebooks[s][c])
+                        : VectorUtils.kernel().dot(slice, codebooks[s][c]);
+            }
+        }
+
+        return id -> {
+            byte[] code = codes.get(id);
+            double score = 0;
+            for (int s = 0; s < code.length; s++) {
+                score += table[s][code[s] & 0xFF];
+            }
+            return score;
+        };
+    }
+
+    @Override
+    public float[] reconstruct(int id) {
+        if (codebooks == null) {
+            return pending.get(id);
+        }
+        byte[] code = codes.get(id);
+        float[] vector = new float[bounds[bounds.length - 1]];
+        for (int s = 0; s < code.length; s++) {
+            float[] centroid = codebooks[s][code[s] & 0xFF];
+            System.arraycopy(centroid, 0, vector, bounds[s], centroid.length);
+        }
+        return vector;
+    }
+
+    @Override
+    public boolean holds(int id, float[] vector) {
+        if (codebooks == null) {
+            return id < pending.size() && Arrays.equals(pending.get(id), vector);
+        }
+        return id < codes.size() && Arrays.equals(codes.get(id), encode(vector));
+    }
+
+    @Override
+    public VectorStorage compact(int[] ids) {
+        ProductQuantizedStorage copy = new ProductQuantizedStorage(metric, subspaces, trainingSize);
+        if (codebooks == null) {
+            for (int id : ids) {
+                float[] vector = pending.get(id);
+                copy.pending.add(vector);
+                copy.memoryBytes += (long) vector.length * Float.BYTES;
+            }
+            copy.pendingCount = ids.length;
+            return copy;
+        }
+
+        copy.bounds = bounds;
+        copy.codebooks = codebooks;
+        copy.memoryBytes = codebookBytes();
+        for (int id : ids) {
+            copy.codes.add(codes.get(id));
+            copy.memoryBytes += bounds.length - 1;
+        }
+        return copy;
+    }
+
+    @Override
+    public boolean lossy() {
+        return codebooks != null;
+    }
+
+    @Override
+    public String name() {
+        return "pq";
+    }
+
+    @Override
+    public long memoryBytes() {
+        return memoryBytes;
+    }
+
+    @Override
+    public void clear() {
+        pending.clear();
+        codes.clear();
+        pendingCount = 0;
+        bounds = null;
+        codebooks = null;
+        memoryBytes = 0;
+    }
+
+    void train() {
+        List<float[]> sample = pending.stream().filter(v -> v != null).toList();
+        int dimension = sample.get(0).length;
+        int slices = Math.min(subspaces, dimension);
+
+        bounds = new int[slices + 1];
+        for (int s = 0; s <= slices; s++) {
+            bounds[s] = s * dimension / slices;
+        }
+
+        codebooks = new float[slices][][];
+        for (int s = 0; s < slices; s++) {
+            float[][] points = new float[sample.size()][];
+            for (int i = 0; i < points.length; i++) {
+                points[i] = Arrays.copyOfRange(sample.get(i), bounds[s], bounds[s + 1]);
+            }
+            codebooks[s] = kMeans(points, Math.min(CENTROIDS, points.length), s);
+        }
+
+        memoryBytes = codebookBytes();
+        for (int id = 0; id < pending.size(); id++) {
+            float[] vector = pending.get(id);
+            if (vector != null) {
+                set(codes, id, encode(vector));
+                memoryBytes += slices;
+            }
+        }
+        pending.clear();
+    }
+
+    long codebookBytes() {
+        long bytes = 0;
+        for (float[][] codebook : codebooks) {
+            bytes += (long) codebook.length * codebook[0].length * Float.BYTES;
+        }
+        return bytes;
+    }
+
+    byte[] encode(float[] vector) {
+        byte[] code = new byte[bounds.length - 1];
+        for (int s = 0; s < code.length; s++) {
+            float[] slice = Arrays.copyOfRange(vector, bounds[s], bounds[s + 1]);
+            code[s] = (byte) nearest(codebooks[s], slice);
+        }
+        return code;
+    }
+
+    static float[][] kMeans(float[][] points, int k, long seed) {
+        Random random = new Random(seed);
+        int dimension = points[0].length;
+
+        // Seed with distinct sample points
+        float[][] centroids = new float[k][];
+        int[] order = random.ints(0, points.length).distinct().limit(k).toArray();
+        for (int c = 0; c < k; c++) {
+            centroids[c] = points[order[c]].clone();
+        }
+
+        int[] assignment = new int[points.length];
+        for (int iteration = 0; iteration < TRAINING_ITERATIONS; iteration++) {
+            float[][] sums = new float[k][dimension];
+            int[] counts = new int[k];
+
+            for (int i = 0; i < points.length; i++) {
+                assignment[i] = nearest(centroids, points[i]);
+                counts[assignment[i]]++;
+                float[] sum = sums[assignment[i]];
+                for (int d = 0; d < dimension; d++) {
+                    sum[d] += points[i][d];
+                }
+            }
+            for (int c = 0; c < k; c++) {
+                // An empty cluster keeps its previous centroid
+                if (counts[c] > 0) {
+                    for (int d = 0; d < dimension; d++) {
+                        centroids[c][d] = sums[c][d] / counts[c];
+                    }
+                }
+            }
+        }
+        return centroids;
+    }
+
+    static int nearest(float[][] centroids, float[] point) {
+        int best = 0;
+        float bestDistance = Float.MAX_VALUE;
+        for (int c = 0; c < centroids.length; c++) {
+            float distance = VectorUtils.kernel().squaredDistance(point, centroids[c]);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    static <T> void set(List<T> list, int id, T value) {
+        while (list.size() <= id) {
+            list.add(null);
+        }
+        list.set(id, value);
+    }
+}
@@ -0,0 +1,119 @@
+package cynicdog.io.index;
+
+import cynicdog.io.util.ScalarCode;
+import cynicdog.io.util.VectorUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * int8 scalar quantization, see {@link ScalarCode}: a quarter of the float footprint, plus three floats of
+ * per-vector header. Candidates are scored with the kernel's float-by-byte dot product.
+ */
+class ScalarQuantizedStorage implements VectorStorage {
+
+    final Metric metric;
+    final List<Code> codes = new ArrayList<>();
+    long memoryBytes;
+
+    ScalarQuantizedStorage(Metric metric) {
+        this.metric = metric;
+    }
+
+    @Override
+    public void put(int id, float[] vector) {
+        while (codes.size() <= id) {
+            codes.add(null);
+        }
+        Code code = Code.of(vector);
+        codes.set(id, code);
+        memoryBytes += code.levels().length + 3L * Float.BYTES;
+    }
+
+    @Override
+    public Scorer scorer(float[] query) {
+        float querySum = 0;
+        for (float value : query) {
+            querySum += value;
+        }
+        float sum = querySum;
+        float squaredNorm = VectorUtils.kernel().dot(query, query);
+
+        return id -> {
+            Code code = codes.get(id);
+            // sum(q * (offset + scale * c)) = offset * sum(q) + scale * sum(q * c)
+            double estimate = code.offset() * sum + code.scale() * VectorUtils.kernel().dot(query, code.levels());
+
+            return metric == Metric.L2
+                    ? -(squaredNorm - 2 * estimate + code.squaredNorm())
+                    : estimate;
+        };
+    }
+
+    @Override
+    public float[] reconstruct(int id) {
+        return codes.get(id).code().decode();
+    }
+
+    @Override
+    public boolean holds(int id, float[] vector) {
+        Code code = id < codes.size() ? codes.get(id) : null;
+        if (code == null) {
+            return false;
+        }
+        ScalarCode encoded = ScalarCode.encode(vector);
+        return Arrays.equals(code.levels(), encoded.levels()) && code.offset() == encoded.offset() && code.scale() == encoded.scale();
+    }
+
+    @Override
+    public VectorStorage compact(int[] ids) {
+        ScalarQuantizedStorage copy = new ScalarQuantizedStorage(metric);
+        for (int id : ids) {
+            Code code = codes.get(id);
+            copy.codes.add(code);
+            copy.memoryBytes += code.levels().length + 3L * Float.BYTES;
+        }
+        return copy;
+    }
+
+    @Override
+    public boolean lossy() {
+        return true;
+    }
+
+    // The cache holds the same codes
+    @Override
+    public boolean rescored() {
+        return false;
+    }
+
+    @Override
+    public String name() {
+        return "int8";
+    }
+
+    @Override
+    public long memoryBytes() {
+        return memoryBytes;
+    }
+
+    @Override
+    public void clear() {
+        codes.clear();
+        memoryBytes = 0;
+    }
+
+    record Code(byte[] levels, float offset, float scale, float squaredNorm) {
+
+        static Code of(float[] vector) {
+            ScalarCode code = ScalarCode.encode(vector);
+            float[] restored = code.decode();
+            return new Code(code.levels(), code.offset(), code.scale(), VectorUtils.kernel().dot(restored, restored));
+        }
+
+        ScalarCode code() {
+            return new ScalarCode(levels, offset, scale);
+        }
+    }
+}
@@ -0,0 +1,4 @@
+package cynicdog.io.index;
+
+public record SearchHit(String key, double similarity, String document) {
+}
@@ -0,0 +1,4 @@
+package cynicdog.io.index;
+
+public record SearchResult(String key, double similarity) {
+}
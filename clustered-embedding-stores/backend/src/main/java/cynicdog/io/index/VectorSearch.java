@@ -0,0 +1,369 @@
+package cynicdog.io.index;
+
+import cynicdog.io.data.Embedding;
+import cynicdog.io.message.Backpressure;
+import cynicdog.io.metrics.Metrics;
+import cynicdog.io.util.VectorCodec;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.impl.logging.Logger;
+import io.vertx.core.impl.logging.LoggerFactory;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.infinispan.Cache;
+import org.infinispan.encoding.DataConversion;
+import org.infinispan.context.Flag;
+import org.infinispan.distribution.LocalizedCacheTopology;
+import org.infinispan.distribution.ch.ConsistentHash;
+import org.infinispan.remoting.transport.Address;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Top-k retrieval over the embeddings cache.
+ * <p>
+ * With a replicated cache every node holds the whole corpus, so the local index answers on its own.
+ * With a distributed cache the query is scattered to every primary owner on the event bus; each owner
+ * scores only the entries it is primary for and the coordinator merges the partial top-k lists. A partition
+ * that fails or times out fails the whole search with 503, rather than answering from part of the corpus
+ * as if it were all of it.
+ */
+public class VectorSearch {
+
+    private static final Logger logger = LoggerFactory.getLogger(VectorSearch.class);
+
+    static final String ADDRESS_PREFIX = "search.";
+
+    final Vertx vertx;
+    final String collectionName;
+    final WorkerExecutor searchPool;
+    final WorkerExecutor indexWriter;
+    final HnswIndex index;
+    final long timeout;
+    final int rescoreFactor;
+    final double recallSampleRate;
+
+    MessageConsumer<JsonObject> partitions;
+
+    final DoubleAdder recallSum = new DoubleAdder();
+    final LongAdder recallSamples = new LongAdder();
+    // Set while a recall scan is running; searches sampled meanwhile are skipped rather than queued
+    final AtomicBoolean sampling = new AtomicBoolean();
+
+    final Timer localSearches;
+    final Timer clusterSearches;
+    final Counter partitionFailures;
+    final List<Meter> meters = new ArrayList<>();
+
+    /**
+     * @param searchPool       workers that run local searches, so a large scan never holds up an event loop
+     * @param rescoreFactor    with a product-quantized index, how many times {@code k} candidates are
+     *                         rescored against the int8 codes the cache holds before the top-k is cut
+     * @param recallSampleRate fraction of local searches that are also answered by a linear scan of the
+     *                         cached vectors, to track the recall of the approximate path. The scan runs on
+     *                         a worker after the search has answered, one at a time per collection.
+     */
+    public VectorSearch(Vertx vertx, String collectionName, WorkerExecutor searchPool, HnswIndex index, long timeout, int rescoreFactor, double recallSampleRate) {
+        this.vertx = vertx;
+        this.collectionName = collectionName;
+        this.searchPool = searchPool;
+        // Index updates are applied one at a time, in the order the cache notified them; collections don't wait on each other
+        this.indexWriter = vertx.createSharedWorkerExecutor("index-writer-" + collectionName, 1);
+        this.index = index;
+        this.timeout = timeout;
+        this.rescoreFactor = rescoreFactor;
+        this.recallSampleRate = recallSampleRate;
+
+        MeterRegistry registry = Metrics.registry();
+        this.localSearches = meter(Timer.builder("vector.search")
+                .description("Time to answer a search from this node's index, or from every partition")
+                .tags("collection", collectionName, "scope", "local")
+                .publishPercentiles(0.5, 0.99)
+                .register(registry));
+        this.clusterSearches = meter(Timer.builder("vector.search")
+                .tags("collection", collectionName, "scope", "cluster")
+                .publishPercentiles(0.5, 0.99)
+                .register(registry));
+        this.partitionFailures = meter(Counter.builder("vector.search.partition.failures")
+                .description("Partitions of a distributed search that failed or timed out, each failing its search")
+                .tag("collection", collectionName)
+                .register(registry));
+        meter(FunctionCounter.builder("vector.search.candidates", index, HnswIndex::scanned)
+                .description("Vectors scored by index searches; divide by vector.search.index to get candidates per search")
+                .tag("collection", collectionName)
+                .register(registry));
+        meter(FunctionCounter.builder("vector.search.index", index, HnswIndex::searches)
+                .description("Searches served by the index")
+                .tag("collection", collectionName)
+                .register(registry));
+    }
+
+    /**
+     * Starts indexing the entries this node holds and registers it as a search partition for the cache.
+     */
+    public void attach(Cache<String, Embedding> collection) {
+        // Catch up with the entries already held on this node, such as those state transfer brought in. The
+        // listener is added by the same writer task, so every notification is applied after the catch-up and
+        // never gets overwritten by an older value. A write seen by both puts an unchanged entry, which the
+        // index skips.
+        indexWriter.executeBlocking(() -> {
+            collection.addListener(new IndexingListener(index, indexWriter));
+            collection.getAdvancedCache().withFlags(Flag.CACHE_MODE_LOCAL)
+                    .forEach((key, embedding) -> index.add(key, embedding.getLatentScores(), embedding.getAttributes()));
+            return null;
+        }, false).onFailure(err -> logger.error("Failed to index " + collection.getName() + ": " + err.getMessage()));
+
+        partitions = vertx.eventBus().consumer(address(collection.getName(), collection.getCacheManager().getAddress()), msg -> {
+            float[] query = VectorCodec.unpack(msg.body().getBinary("vector"));
+            int k = msg.body().getInteger("k");
+            AttributeFilter filter = AttributeFilter.fromJson(msg.body().getJsonObject("filter"));
+
+            searchPool.executeBlocking(() -> {
+                        JsonArray hits = new JsonArray();
+                        for (SearchHit hit : searchLocal(query, k, filter, collection, true)) {
+                            hits.add(new JsonObject()
+                                    .put("key", hit.key())
+                                    .put("similarity", hit.similarity())
+                                    .put("document", hit.document()));
+                        }
+                        return hits;
+                    }, false)
+                    .onSuccess(msg::reply)
+                    .onFailure(err -> msg.fail(500, "Partial search failed: " + err.getMessage()));
+        });
+    }
+
+    /**
+     * Stops serving partial searches and lets go of the index, once the collection is gone.
+     */
+    public void detach() {
+        if (partitions != null) {
+            partitions.unregister();
+        }
+        indexWriter.close();
+        index.clear();
+        meters.forEach(Metrics.registry()::remove);
+    }
+
+    /**
+     * @param filter restricts the hits to entries with matching attributes, or {@code null} for none
+     */
+    public Future<List<SearchHit>> search(float[] query, int k, AttributeFilter filter, Cache<String, Embedding> collection) {
+        if (!collection.getCacheConfiguration().clustering().cacheMode().isDistributed()) {
+            return searchPool.executeBlocking(() -> searchLocal(query, k, filter, collection, false), false);
+        }
+        long started = System.nanoTime();
+
+        JsonObject request = new JsonObject()
+                .put("vector", VectorCodec.pack(query))
+                .put("k", k)
+                .put("filter", filter == null ? null : filter.toJson());
+
+        return scatter(collection.getName(), primaryOwners(collection), request, k)
+                .onComplete(res -> clusterSearches.record(System.nanoTime() - started, TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * Sends the search to every owner's partition and merges their top-k lists, failing with 503 if any of them does.
+     */
+    Future<List<SearchHit>> scatter(String cacheName, Set<Address> owners, JsonObject request, int k) {
+        List<Future<List<SearchHit>>> partials = new ArrayList<>();
+        for (Address owner : owners) {
+            partials.add(vertx.eventBus()
+                    .<JsonArray>request(address(cacheName, owner), request, new DeliveryOptions().setSendTimeout(timeout))
+                    .map(reply -> toHits(reply.body()))
+                    .recover(err -> {
+                        partitionFailures.increment();
+                        logger.error(String.format("Partial search on %s failed: %s", owner, err.getMessage()));
+                        return Future.failedFuture(Backpressure.rejected(503, 1,
+                                String.format("Search partition on %s failed: %s", owner, err.getMessage())));
+                    }));
+        }
+
+        return Future.all(partials).map(all -> {
+            Map<String, SearchHit> merged = new HashMap<>();
+            for (int i = 0; i < all.size(); i++) {
+                for (SearchHit hit : all.<List<SearchHit>>resultAt(i)) {
+                    // An entry can be reported twice while a rebalance moves its primary ownership.
+                    merged.merge(hit.key(), hit, (a, b) -> a.similarity() >= b.similarity() ? a : b);
+                }
+            }
+            return merged.values().stream()
+                    .sorted(Comparator.comparingDouble(SearchHit::similarity).reversed())
+                    .limit(k)
+                    .toList();
+        });
+    }
+
+    List<SearchHit> searchLocal(float[] query, int k, AttributeFilter filter, Cache<String, Embedding> collection, boolean primaryOnly) {
+        long started = System.nanoTime();
+        var localCache = collection.getAdvancedCache().withFlags(Flag.CACHE_MODE_LOCAL);
+        // Only a partition of a distributed cache filters by ownership; a local cache has no topology at all
+        Predicate<String> primary = primaryOnly ? primaryOwned(collection) : key -> true;
+
+        // Backup copies are indexed too, so ask for enough neighbours to still have k after dropping them
+        int owners = primaryOnly ? collection.getCacheConfiguration().clustering().hash().numOwners() : 1;
+        List<SearchHit> hits = nearest(query, k, filter, localCache, primary, owners);
+
+        if (recallSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < recallSampleRate && sampling.compareAndSet(false, true)) {
+            List<SearchHit> sampled = hits;
+            vertx.executeBlocking(() -> {
+                sampleRecall(query, k, filter, sampled, localCache, primary);
+                return null;
+            }, false).onComplete(res -> sampling.set(false));
+        }
+
+        localSearches.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        return hits;
+    }
+
+    /**
+     * The {@code k} entries nearest to {@code query} among those {@code primary} accepts. With {@code owners}
+     * copies of each entry indexed, {@code owners} times as many neighbours are asked for at first, and twice
+     * as many each time that falls short while the index has more to give.
+     */
+    List<SearchHit> nearest(float[] query, int k, AttributeFilter filter, Map<String, Embedding> localCache, Predicate<String> primary, int owners) {
+        // Scores from coarse codes only shortlist candidates; the cached vectors decide the order.
+        boolean rescore = index.rescored();
+        Metric metric = index.metric();
+        float[] prepared = rescore ? metric.prepare(query) : null;
+        int wanted = k * (rescore ? rescoreFactor : 1);
+
+        int fetch = wanted * owners;
+        List<SearchHit> hits = new ArrayList<>(wanted);
+        while (true) {
+            List<SearchResult> results = index.search(query, fetch, filter);
+            hits.clear();
+            for (SearchResult result : results) {
+                if (hits.size() == wanted) {
+                    break;
+                }
+                if (!primary.test(result.key())) {
+                    continue;
+                }
+                Embedding embedding = localCache.get(result.key());
+                if (embedding != null) {
+                    double similarity = rescore
+                            ? metric.score(prepared, metric.prepare(embedding.getLatentScores()))
+                            : result.similarity();
+                    hits.add(new SearchHit(result.key(), similarity, embedding.getDocument()));
+                }
+            }
+            if (hits.size() == wanted || results.size() < fetch || fetch >= index.size()) {
+                break;
+            }
+            fetch = (int) Math.min(2L * fetch, index.size());
+        }
+        if (rescore) {
+            hits.sort(Comparator.comparingDouble(SearchHit::similarity).reversed());
+            hits = new ArrayList<>(hits.subList(0, Math.min(k, hits.size())));
+        }
+        return hits;
+    }
+
+    void sampleRecall(float[] query, int k, AttributeFilter filter, List<SearchHit> hits, Map<String, Embedding> localCache,
+                      Predicate<String> primary) {
+        Metric metric = index.metric();
+        float[] prepared = metric.prepare(query);
+
+        PriorityQueue<SearchHit> exact = new PriorityQueue<>(Comparator.comparingDouble(SearchHit::similarity));
+        for (Map.Entry<String, Embedding> entry : localCache.entrySet()) {
+            if (!primary.test(entry.getKey())
+                    || filter != null && !filter.matches(entry.getValue().getAttributes())) {
+                continue;
+            }
+            double similarity = metric.score(prepared, metric.prepare(entry.getValue().getLatentScores()));
+            exact.add(new SearchHit(entry.getKey(), similarity, null));
+            if (exact.size() > k) {
+                exact.poll();
+            }
+        }
+        if (exact.isEmpty()) {
+            return;
+        }
+
+        Set<String> found = new HashSet<>();
+        hits.forEach(hit -> found.add(hit.key()));
+        long matched = exact.stream().filter(hit -> found.contains(hit.key())).count();
+
+        recallSum.add((double) matched / exact.size());
+        recallSamples.increment();
+    }
+
+    public Future<JsonObject> stats() {
+        // Reading the index waits for any insert holding its lock, so keep it off the event loop as well
+        return searchPool.executeBlocking(() -> {
+            long samples = recallSamples.sum();
+            JsonObject stats = index.stats();
+            long entries = stats.getInteger("entries");
+            // The cache holds a second copy of every vector: int8 codes with their offset and scale when quantized
+            long perEntry = "none".equals(stats.getString("quantization"))
+                    ? (long) index.dimension() * Float.BYTES
+                    : index.dimension() + 2L * Float.BYTES;
+            long cacheVectorBytes = entries * perEntry;
+            return stats
+                    .put("cacheVectorBytes", cacheVectorBytes)
+                    .put("bytesPerEntry", entries == 0 ? 0 : (stats.getLong("memoryBytes") + cacheVectorBytes) / entries)
+                    .put("rescoreFactor", rescoreFactor)
+                    .put("recallSamples", samples)
+                    .put("sampledRecall", samples == 0 ? null : recallSum.sum() / samples);
+        }, false);
+    }
+
+    <M extends Meter> M meter(M meter) {
+        meters.add(meter);
+        return meter;
+    }
+
+    // Keys bounded in bytes or kept off-heap are stored in protostream, and hashed to a segment in that form
+    static Predicate<String> primaryOwned(Cache<String, Embedding> collection) {
+        LocalizedCacheTopology topology = collection.getAdvancedCache().getDistributionManager().getCacheTopology();
+        DataConversion keys = collection.getAdvancedCache().getKeyDataConversion();
+        return key -> topology.getDistribution(keys.toStorage(key)).isPrimary();
+    }
+
+    static Set<Address> primaryOwners(Cache<String, Embedding> collection) {
+        ConsistentHash hash = collection.getAdvancedCache().getDistributionManager().getCacheTopology().getReadConsistentHash();
+
+        Set<Address> owners = new LinkedHashSet<>();
+        for (int segment = 0; segment < hash.getNumSegments(); segment++) {
+            owners.add(hash.locatePrimaryOwnerForSegment(segment));
+        }
+        return owners;
+    }
+
+    static List<SearchHit> toHits(JsonArray reply) {
+        List<SearchHit> hits = new ArrayList<>(reply.size());
+        for (int i = 0; i < reply.size(); i++) {
+            JsonObject hit = reply.getJsonObject(i);
+            hits.add(new SearchHit(hit.getString("key"), hit.getDouble("similarity"), hit.getString("document")));
+        }
+        return hits;
+    }
+
+    static String address(String cacheName, Address node) {
+        return ADDRESS_PREFIX + cacheName + "." + node;
+    }
+}
@@ -0,0 +1,67 @@
+package cynicdog.io.index;
+
+/**
+ * Holds the vectors behind the ids of an {@link HnswIndex}, either as full floats or as compressed codes.
+ * Vectors handed in have already been prepared by the index {@link Metric}.
+ */
+public interface VectorStorage {
+
+    /**
+     * @param offHeap whether full-precision vectors are kept outside the Java heap; codes always live on it
+     */
+    static VectorStorage create(String quantization, Metric metric, int pqSubspaces, int pqTrainingSize, boolean offHeap) {
+        return switch (quantization.toLowerCase()) {
+            case "none" -> offHeap ? new OffHeapVectorStorage(metric) : new FloatVectorStorage(metric);
+            case "int8" -> new ScalarQuantizedStorage(metric);
+            case "pq" -> new ProductQuantizedStorage(metric, pqSubspaces, pqTrainingSize);
+            default -> throw new IllegalArgumentException("Unknown quantization: " + quantization);
+        };
+    }
+
+    void put(int id, float[] vector);
+
+    /**
+     * Returns a scorer estimating {@link Metric#score} between the query and stored vectors.
+     */
+    Scorer scorer(float[] query);
+
+    /**
+     * Returns the stored vector, or its closest reconstruction when the storage is lossy.
+     */
+    float[] reconstruct(int id);
+
+    /**
+     * Whether {@code id} holds what putting {@code vector} would store there.
+     */
+    boolean holds(int id, float[] vector);
+
+    /**
+     * Returns a storage of the same kind holding the vectors of {@code ids}, the one under {@code ids[i]}
+     * stored under {@code i}. This storage is left as it is.
+     */
+    VectorStorage compact(int[] ids);
+
+    boolean lossy();
+
+    /**
+     * Whether scores are worth rescoring against the cache's copy of the entries. A quantized collection
+     * keeps int8 codes there, so only codes coarser than those are.
+     */
+    default boolean rescored() {
+        return lossy();
+    }
+
+    default boolean offHeap() {
+        return false;
+    }
+
+    String name();
+
+    long memoryBytes();
+
+    void clear();
+
+    interface Scorer {
+        double score(int id);
+    }
+}
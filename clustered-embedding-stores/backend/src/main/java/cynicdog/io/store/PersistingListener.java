@@ -0,0 +1,69 @@
+package cynicdog.io.store;
+
+import cynicdog.io.data.Embedding;
+import io.vertx.core.WorkerExecutor;
+import org.infinispan.notifications.Listener;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryCreated;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryExpired;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryModified;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryRemoved;
+import org.infinispan.notifications.cachelistener.event.CacheEntryCreatedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryExpiredEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryModifiedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryRemovedEvent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Appends every entry this node holds to its {@link SegmentStore}. Evictions are left alone: they only
+ * free memory, the entry still belongs to the collection. Expired entries are deleted like removed ones, and
+ * both leave a tombstone.
+ */
+@Listener(observation = Listener.Observation.POST)
+public class PersistingListener {
+
+    final SegmentStore store;
+    final WorkerExecutor writer;
+
+    public PersistingListener(SegmentStore store, WorkerExecutor writer) {
+        this.store = store;
+        this.writer = writer;
+    }
+
+    @CacheEntryCreated
+    public CompletionStage<Void> onCreated(CacheEntryCreatedEvent<String, Embedding> event) {
+        return apply(() -> {
+            store.append(event.getKey(), event.getValue());
+            return null;
+        });
+    }
+
+    @CacheEntryModified
+    public CompletionStage<Void> onModified(CacheEntryModifiedEvent<String, Embedding> event) {
+        return apply(() -> {
+            store.append(event.getKey(), event.getNewValue());
+            return null;
+        });
+    }
+
+    @CacheEntryRemoved
+    public CompletionStage<Void> onRemoved(CacheEntryRemovedEvent<String, Embedding> event) {
+        return apply(() -> {
+            store.remove(event.getKey());
+            return null;
+        });
+    }
+
+    @CacheEntryExpired
+    public CompletionStage<Void> onExpired(CacheEntryExpiredEvent<String, Embedding> event) {
+        return apply(() -> {
+            store.remove(event.getKey());
+            return null;
+        });
+    }
+
+    CompletionStage<Void> apply(Callable<Void> update) {
+        return writer.executeBlocking(update, false).toCompletionStage();
+    }
+}
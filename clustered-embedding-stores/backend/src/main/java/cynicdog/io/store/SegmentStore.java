@@ -0,0 +1,646 @@
+package cynicdog.io.store;
+
+import cynicdog.io.data.Attribute;
+import cynicdog.io.data.Embedding;
+import cynicdog.io.util.ContentHash;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.impl.logging.Logger;
+import io.vertx.core.impl.logging.LoggerFactory;
+import org.infinispan.AdvancedCache;
+import org.infinispan.Cache;
+import org.infinispan.commons.api.CacheContainerAdmin;
+import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.configuration.cache.Configuration;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.context.Flag;
+import org.infinispan.distribution.LocalizedCacheTopology;
+import org.infinispan.encoding.DataConversion;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Append-only copy of the embeddings held on this node, so a restarted cluster refills its cache from
+ * disk instead of recomputing every vector through Ollama.
+ * <p>
+ * A segment is a pair of files: {@code <n>.vec} holds the vectors as one contiguous block of little-endian
+ * floats, and {@code <n>.tbl} is a log of put/delete records carrying the key, the time of the write, the
+ * document and the offset of the vector in the block. Loading maps both files and copies the vectors out in
+ * bulk; the last record for a key wins. Segments roll over once the vector block reaches {@code segmentBytes}.
+ * An entry with attributes is written as a {@code PUT_ATTRIBUTES} record, a put followed by its name/value pairs.
+ * <p>
+ * A delete is kept as a tombstone for {@code tombstoneRetentionMs}, on disk and in the collection's replicated
+ * tombstones cache, so that a node that still holds the entry from before the removal doesn't bring it back
+ * when the cluster restarts. A node that was down for longer than that may.
+ * <p>
+ * Once superseded and delete records outnumber the live ones, the oldest segment is compacted: its live
+ * entries and retained tombstones are appended again and its files removed.
+ */
+public class SegmentStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentStore.class);
+
+    static final byte PUT = 1;
+    static final byte DELETE = 2;
+    static final byte PUT_ATTRIBUTES = 3;
+
+    static final int RESTORE_BATCH_SIZE = 1024;
+
+    static final String TOMBSTONES_SUFFIX = ".tombstones";
+
+    // Superseded and delete records needed before a compaction, besides outnumbering the live ones
+    static final int COMPACTION_MIN_RECORDS = 10_000;
+
+    final Vertx vertx;
+    final Path directory;
+    final long segmentBytes;
+    final long tombstoneRetentionMs;
+    final boolean quantized;
+    final WorkerExecutor writer;
+    final long syncTimer;
+
+    // Where the last record of each stored key is, with the digest of its document and attributes so that
+    // an entry the store already has is not written again
+    final Map<String, Location> live = new HashMap<>();
+    // When each key whose last record is a delete was removed
+    final Map<String, Long> removed = new HashMap<>();
+    // Records in each segment, deletes included
+    final TreeMap<Integer, Integer> records = new TreeMap<>();
+    long totalRecords;
+    Segment current;
+    int nextSegment;
+    Cache<String, Long> tombstones;
+
+    /**
+     * @param collectionName       names the writer thread, one per collection so they don't wait on each other
+     * @param tombstoneRetentionMs how long a removal is remembered, and so the longest a node can be down
+     *                             without bringing removed entries back on restart
+     * @param quantized            whether the collection caches int8 codes, which loaded entries are turned back into
+     */
+    public SegmentStore(Vertx vertx, String collectionName, Path directory, long segmentBytes, long syncIntervalMs, long tombstoneRetentionMs,
+                        boolean quantized) {
+        this.vertx = vertx;
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.tombstoneRetentionMs = tombstoneRetentionMs;
+        this.quantized = quantized;
+        // Appends are applied one at a time, in the order the cache notified them
+        this.writer = vertx.createSharedWorkerExecutor("segment-writer-" + collectionName, 1);
+
+        this.syncTimer = vertx.setPeriodic(syncIntervalMs, id -> writer.executeBlocking(() -> {
+            sync();
+            return null;
+        }, false).onFailure(err -> logger.error("Failed to sync segment: " + err.getMessage())));
+    }
+
+    /**
+     * Puts back whatever the cluster lacks from this node's segments, then keeps the segments in step with the
+     * cache. Joining a cluster that already holds data restores the same way: state transfer only brings what
+     * the nodes up so far had, and this node may hold the only copies of the rest.
+     */
+    public Future<Void> attach(Cache<String, Embedding> collection) {
+        AdvancedCache<String, Embedding> local = collection.getAdvancedCache().withFlags(Flag.CACHE_MODE_LOCAL);
+        return vertx.executeBlocking(() -> {
+            Files.createDirectories(directory);
+            tombstones = collection.getCacheManager()
+                    .administration()
+                    .withFlags(CacheContainerAdmin.AdminFlag.VOLATILE)
+                    .getOrCreateCache(tombstonesCacheName(collection.getName()), tombstonesConfiguration(collection));
+
+            restore(new CacheTarget(collection, tombstones, tombstoneRetentionMs));
+            collection.addListener(new PersistingListener(this, writer));
+            return null;
+        }).compose(v -> writer.executeBlocking(() -> {
+            // Write out whatever this node holds that the segments don't have yet
+            for (Map.Entry<String, Embedding> entry : local.entrySet()) {
+                append(entry.getKey(), entry.getValue());
+            }
+            return null;
+        }, false));
+    }
+
+    public static String tombstonesCacheName(String cacheName) {
+        return cacheName + TOMBSTONES_SUFFIX;
+    }
+
+    Configuration tombstonesConfiguration(Cache<String, Embedding> collection) {
+        // Read on every restored key, so every node holds all of them
+        return new ConfigurationBuilder()
+                .clustering().cacheMode(collection.getCacheConfiguration().clustering().cacheMode().isClustered() ? CacheMode.REPL_SYNC : CacheMode.LOCAL)
+                .expiration().lifespan(tombstoneRetentionMs, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Publishes the removals this node recorded, taking out older copies another node restored first, then
+     * puts back every entry the cluster lacks or holds an older copy of. Entries this node owns go straight
+     * into its own copy of the cache, where the listeners index them; the other owners restore theirs from
+     * their own segments. An entry removed after this node wrote it is deleted from the segments instead.
+     */
+    void restore(Target target) throws IOException {
+        long started = System.currentTimeMillis();
+        Map<String, Embedding> entries = load();
+
+        int published = 0;
+        for (Map.Entry<String, Long> tombstone : new ArrayList<>(removed.entrySet())) {
+            if (started - tombstone.getValue() < tombstoneRetentionMs) {
+                target.remove(tombstone.getKey(), tombstone.getValue());
+                published++;
+            }
+        }
+
+        int restored = 0;
+        int stale = 0;
+        Map<String, CompletableFuture<Embedding>> batch = new HashMap<>();
+        for (Map.Entry<String, Embedding> entry : entries.entrySet()) {
+            Long removedAt = target.removedAt(entry.getKey());
+            if (removedAt != null && removedAt >= entry.getValue().getVersion()) {
+                delete(entry.getKey(), removedAt);
+                stale++;
+                continue;
+            }
+            batch.put(entry.getKey(), target.putIfAbsent(entry.getKey(), entry.getValue()));
+            if (batch.size() == RESTORE_BATCH_SIZE) {
+                restored += settle(batch, entries, target);
+            }
+        }
+        restored += settle(batch, entries, target);
+
+        logger.info(String.format("Restored %d of %d embeddings (%d removed since, %d removals published) from %d segments in %s in %d ms",
+                restored, entries.size(), stale, published, records.size(), directory, System.currentTimeMillis() - started));
+    }
+
+    // Waits for a batch of puts and replaces the copies that turned out to be older than this node's
+    static int settle(Map<String, CompletableFuture<Embedding>> batch, Map<String, Embedding> entries, Target target) {
+        int restored = 0;
+        for (Map.Entry<String, CompletableFuture<Embedding>> put : batch.entrySet()) {
+            Embedding existing = put.getValue().join();
+            Embedding mine = entries.get(put.getKey());
+            if (existing == null) {
+                restored++;
+            } else if (existing.getVersion() < mine.getVersion()) {
+                target.replace(put.getKey(), existing, mine);
+                restored++;
+            }
+        }
+        batch.clear();
+        return restored;
+    }
+
+    // Keys bounded in bytes or kept off-heap are stored in protostream, and hashed to a segment in that form
+    static Predicate<String> owned(Cache<String, Embedding> collection) {
+        if (!collection.getCacheConfiguration().clustering().cacheMode().isClustered()) {
+            return key -> true;
+        }
+        LocalizedCacheTopology topology = collection.getAdvancedCache().getDistributionManager().getCacheTopology();
+        DataConversion keys = collection.getAdvancedCache().getKeyDataConversion();
+        return key -> topology.isWriteOwner(keys.toStorage(key));
+    }
+
+    synchronized Map<String, Embedding> load() throws IOException {
+        Map<String, Embedding> entries = new LinkedHashMap<>();
+        for (int id : segmentIds()) {
+            Path vectorPath = vectorPath(id);
+            Path tablePath = tablePath(id);
+            if (!Files.exists(vectorPath)) {
+                continue;
+            }
+
+            int count = 0;
+            try (FileChannel vectorChannel = FileChannel.open(vectorPath, StandardOpenOption.READ);
+                 FileChannel tableChannel = FileChannel.open(tablePath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long vectorBytes = vectorChannel.size();
+                FloatBuffer vectors = vectorChannel.map(FileChannel.MapMode.READ_ONLY, 0, vectorBytes)
+                        .order(ByteOrder.LITTLE_ENDIAN)
+                        .asFloatBuffer();
+                MappedByteBuffer table = tableChannel.map(FileChannel.MapMode.READ_ONLY, 0, tableChannel.size());
+
+                while (table.hasRemaining()) {
+                    int start = table.position();
+                    try {
+                        Record record = Record.read(table, vectorBytes);
+                        count++;
+                        if (record.op() == DELETE) {
+                            entries.remove(record.key());
+                            live.remove(record.key());
+                            removed.put(record.key(), record.written());
+                            continue;
+                        }
+                        Embedding embedding = new Embedding(record.vector(vectors), record.document(), record.attributes(), record.written());
+                        entries.put(record.key(), quantized ? embedding.quantized() : embedding);
+                        live.put(record.key(), new Location(id, record.offset(), ContentHash.digest(record.document(), record.attributes())));
+                        removed.remove(record.key());
+                    } catch (BufferUnderflowException | IllegalArgumentException e) {
+                        // A record torn by a crash mid-append: keep everything before it
+                        logger.warn(String.format("Truncating %s at byte %d", tablePath, start));
+                        tableChannel.truncate(start);
+                        break;
+                    }
+                }
+            }
+            records.put(id, count);
+            totalRecords += count;
+            nextSegment = id + 1;
+        }
+        return entries;
+    }
+
+    synchronized void append(String key, Embedding embedding) throws IOException {
+        String document = embedding.getDocument();
+        List<Attribute> attributes = embedding.getAttributes();
+        byte[] digest = ContentHash.digest(document, attributes);
+        Location known = live.get(key);
+        // Keys are derived from the document, so the same document and attributes mean the same entry
+        if (known != null && Arrays.equals(known.digest(), digest)) {
+            return;
+        }
+        write(key, embedding.getVersion(), embedding.getLatentScores(), document, attributes, digest);
+        compactIfNeeded();
+    }
+
+    void write(String key, long version, float[] vector, String document, List<Attribute> attributes, byte[] digest) throws IOException {
+        Segment segment = segment();
+        long offset = segment.appendVector(vector);
+
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] documentBytes = document.getBytes(StandardCharsets.UTF_8);
+        List<byte[]> attributeBytes = new ArrayList<>(attributes.size() * 2);
+        int attributesLength = attributes.isEmpty() ? 0 : 4;
+        for (Attribute attribute : attributes) {
+            attributeBytes.add(attribute.getName().getBytes(StandardCharsets.UTF_8));
+            attributeBytes.add(attribute.getValue().getBytes(StandardCharsets.UTF_8));
+        }
+        for (byte[] bytes : attributeBytes) {
+            attributesLength += 4 + bytes.length;
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(1 + 8 + 4 + keyBytes.length + 8 + 4 + 4 + documentBytes.length + attributesLength);
+        record.put(attributes.isEmpty() ? PUT : PUT_ATTRIBUTES).putLong(version).putInt(keyBytes.length).put(keyBytes)
+                .putLong(offset).putInt(vector.length)
+                .putInt(documentBytes.length).put(documentBytes);
+        if (!attributes.isEmpty()) {
+            record.putInt(attributes.size());
+            for (byte[] bytes : attributeBytes) {
+                record.putInt(bytes.length).put(bytes);
+            }
+        }
+        segment.appendRecord(record.flip());
+
+        live.put(key, new Location(segment.id, offset, digest));
+        removed.remove(key);
+        count(segment.id);
+    }
+
+    /**
+     * Deletes an entry the cache removed or expired, and tells the other nodes it is gone.
+     */
+    void remove(String key) throws IOException {
+        long removedAt = System.currentTimeMillis();
+        delete(key, removedAt);
+        if (tombstones != null) {
+            tombstones.getAdvancedCache().withFlags(Flag.IGNORE_RETURN_VALUES)
+                    .putAsync(key, removedAt, tombstoneRetentionMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    synchronized void delete(String key, long removedAt) throws IOException {
+        if (live.remove(key) == null) {
+            return;
+        }
+        writeDelete(key, removedAt);
+        compactIfNeeded();
+    }
+
+    void writeDelete(String key, long removedAt) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(1 + 8 + 4 + keyBytes.length);
+        record.put(DELETE).putLong(removedAt).putInt(keyBytes.length).put(keyBytes).flip();
+        Segment segment = segment();
+        segment.appendRecord(record);
+        removed.put(key, removedAt);
+        count(segment.id);
+    }
+
+    void count(int segment) {
+        records.merge(segment, 1, Integer::sum);
+        totalRecords++;
+    }
+
+    /**
+     * Compacts the oldest segment when there are enough dead records. One segment per write at most, so a
+     * write waits for no more than one segment's copy.
+     */
+    void compactIfNeeded() {
+        long dead = totalRecords - live.size() - removed.size();
+        if (dead < COMPACTION_MIN_RECORDS || dead < live.size() || records.isEmpty()
+                || current != null && records.firstKey() == current.id) {
+            return;
+        }
+        int oldest = records.firstKey();
+        try {
+            compact(oldest);
+        } catch (IOException | RuntimeException e) {
+            logger.error(String.format("Failed to compact segment %d in %s: %s", oldest, directory, e.getMessage()));
+        }
+    }
+
+    void compact(int id) throws IOException {
+        long started = System.currentTimeMillis();
+        int moved = 0;
+        try (FileChannel vectorChannel = FileChannel.open(vectorPath(id), StandardOpenOption.READ);
+             FileChannel tableChannel = FileChannel.open(tablePath(id), StandardOpenOption.READ)) {
+            long vectorBytes = vectorChannel.size();
+            FloatBuffer vectors = vectorChannel.map(FileChannel.MapMode.READ_ONLY, 0, vectorBytes)
+                    .order(ByteOrder.LITTLE_ENDIAN)
+                    .asFloatBuffer();
+            MappedByteBuffer table = tableChannel.map(FileChannel.MapMode.READ_ONLY, 0, tableChannel.size());
+
+            while (table.hasRemaining()) {
+                Record record = Record.read(table, vectorBytes);
+                if (record.op() == DELETE) {
+                    // The last record of a removed key, until it is no longer retained
+                    if (record.written() == removed.getOrDefault(record.key(), -1L)) {
+                        if (started - record.written() < tombstoneRetentionMs) {
+                            writeDelete(record.key(), record.written());
+                            moved++;
+                        } else {
+                            removed.remove(record.key());
+                        }
+                    }
+                    continue;
+                }
+                Location location = live.get(record.key());
+                // Only the last record of a live key is carried over
+                if (location != null && location.segment() == id && location.offset() == record.offset()) {
+                    write(record.key(), record.written(), record.vector(vectors), record.document(), record.attributes(), location.digest());
+                    moved++;
+                }
+            }
+        }
+        Files.deleteIfExists(vectorPath(id));
+        Files.deleteIfExists(tablePath(id));
+        int dropped = records.remove(id);
+        totalRecords -= dropped;
+
+        logger.info(String.format("Compacted segment %d in %s: kept %d of %d records in %d ms",
+                id, directory, moved, dropped, System.currentTimeMillis() - started));
+    }
+
+    synchronized void sync() throws IOException {
+        if (current != null) {
+            current.force();
+        }
+    }
+
+    synchronized void reset() throws IOException {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+        for (int id : segmentIds()) {
+            Files.deleteIfExists(vectorPath(id));
+            Files.deleteIfExists(tablePath(id));
+        }
+        live.clear();
+        removed.clear();
+        records.clear();
+        totalRecords = 0;
+        nextSegment = 0;
+    }
+
+    /**
+     * Stops writing and removes this store's files, for a collection that was dropped or truncated.
+     */
+    public synchronized void delete() throws IOException {
+        vertx.cancelTimer(syncTimer);
+        writer.close();
+        reset();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    // Appends always go to a fresh segment after a load, so a torn tail is never written after.
+    Segment segment() throws IOException {
+        if (current != null && current.vectorBytes() >= segmentBytes) {
+            current.close();
+            current = null;
+        }
+        if (current == null) {
+            current = new Segment(nextSegment, vectorPath(nextSegment), tablePath(nextSegment));
+            records.putIfAbsent(nextSegment, 0);
+            nextSegment++;
+        }
+        return current;
+    }
+
+    List<Integer> segmentIds() throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(".tbl"))
+                    .forEach(name -> ids.add(Integer.parseInt(name.substring(0, name.length() - 4))));
+        }
+        ids.sort(null);
+        return ids;
+    }
+
+    Path vectorPath(int id) {
+        return directory.resolve(String.format("%06d.vec", id));
+    }
+
+    Path tablePath(int id) {
+        return directory.resolve(String.format("%06d.tbl", id));
+    }
+
+    static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    record Location(int segment, long offset, byte[] digest) {
+    }
+
+    /**
+     * What a restore needs of the cluster, so that several nodes' restores can be played out without one.
+     */
+    interface Target {
+
+        /**
+         * When the cluster last saw the key removed, or {@code null}.
+         */
+        Long removedAt(String key);
+
+        /**
+         * Records the removal cluster-wide and removes a copy of the entry older than it.
+         */
+        void remove(String key, long removedAt);
+
+        /**
+         * Puts the entry unless the collection has it, completing with the copy it has.
+         */
+        CompletableFuture<Embedding> putIfAbsent(String key, Embedding embedding);
+
+        /**
+         * Replaces the copy the collection has, unless it changed meanwhile.
+         */
+        void replace(String key, Embedding current, Embedding embedding);
+    }
+
+    static class CacheTarget implements Target {
+        final AdvancedCache<String, Embedding> local;
+        final AdvancedCache<String, Embedding> cluster;
+        final Predicate<String> owned;
+        final Cache<String, Long> tombstones;
+        final long retentionMs;
+
+        CacheTarget(Cache<String, Embedding> collection, Cache<String, Long> tombstones, long retentionMs) {
+            this.local = collection.getAdvancedCache().withFlags(Flag.CACHE_MODE_LOCAL);
+            this.cluster = collection.getAdvancedCache();
+            this.owned = owned(collection);
+            this.tombstones = tombstones;
+            this.retentionMs = retentionMs;
+        }
+
+        @Override
+        public Long removedAt(String key) {
+            return tombstones.get(key);
+        }
+
+        @Override
+        public void remove(String key, long removedAt) {
+            long remainingMs = removedAt + retentionMs - System.currentTimeMillis();
+            Long known = tombstones.putIfAbsent(key, removedAt, remainingMs, TimeUnit.MILLISECONDS);
+            if (known != null && known < removedAt) {
+                tombstones.replace(key, known, removedAt, remainingMs, TimeUnit.MILLISECONDS);
+            }
+            Embedding current = cluster.get(key);
+            if (current != null && current.getVersion() < removedAt) {
+                cluster.remove(key, current);
+            }
+        }
+
+        @Override
+        public CompletableFuture<Embedding> putIfAbsent(String key, Embedding embedding) {
+            // The other owners restore theirs from their own segments
+            return (owned.test(key) ? local : cluster).putIfAbsentAsync(key, embedding);
+        }
+
+        @Override
+        public void replace(String key, Embedding current, Embedding embedding) {
+            cluster.replace(key, current, embedding);
+        }
+    }
+
+    /**
+     * @param written when the entry was computed, or for a delete when it was removed
+     */
+    record Record(byte op, long written, String key, long offset, int dimensions, String document, List<Attribute> attributes) {
+
+        /**
+         * Reads the record at the buffer's position.
+         *
+         * @throws BufferUnderflowException when the record is torn or points past the vector block
+         */
+        static Record read(ByteBuffer table, long vectorBytes) {
+            byte op = table.get();
+            long written = table.getLong();
+            String key = readString(table);
+            if (op == DELETE) {
+                return new Record(op, written, key, -1, 0, null, List.of());
+            }
+            long offset = table.getLong();
+            int dimensions = table.getInt();
+            String document = readString(table);
+            if (op != PUT && op != PUT_ATTRIBUTES || offset + (long) dimensions * Float.BYTES > vectorBytes) {
+                throw new BufferUnderflowException();
+            }
+            List<Attribute> attributes = new ArrayList<>();
+            for (int count = op == PUT_ATTRIBUTES ? table.getInt() : 0; count > 0; count--) {
+                attributes.add(new Attribute(readString(table), readString(table)));
+            }
+            return new Record(op, written, key, offset, dimensions, document, attributes);
+        }
+
+        float[] vector(FloatBuffer vectors) {
+            float[] vector = new float[dimensions];
+            vectors.get((int) (offset / Float.BYTES), vector);
+            return vector;
+        }
+    }
+
+    static class Segment {
+        final int id;
+        final FileChannel vectors;
+        final FileChannel table;
+
+        Segment(int id, Path vectorPath, Path tablePath) throws IOException {
+            this.id = id;
+            this.vectors = FileChannel.open(vectorPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            this.table = FileChannel.open(tablePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        long appendVector(float[] vector) throws IOException {
+            long offset = vectors.size();
+            ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.asFloatBuffer().put(vector);
+            write(vectors, buffer);
+            return offset;
+        }
+
+        void appendRecord(ByteBuffer record) throws IOException {
+            write(table, record);
+        }
+
+        long vectorBytes() throws IOException {
+            return vectors.size();
+        }
+
+        void force() throws IOException {
+            vectors.force(false);
+            table.force(false);
+        }
+
+        void close() throws IOException {
+            force();
+            vectors.close();
+            table.close();
+        }
+
+        static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package cynicdog.io.util;
+
+import cynicdog.io.data.Attribute;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Keys entries by their content: the 128-bit MD5 of the document's UTF-8 bytes, as 32 hex digits. Unlike
+ * {@code String.hashCode()} it does not collide in practice, so the same key means the same document and
+ * an ingestion can skip what is already stored without calling Ollama.
+ */
+public class ContentHash {
+
+    public static String of(String document) {
+        return HexFormat.of().formatHex(md5().digest(document.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * The MD5 of a document together with its attributes. Every string is preceded by its length, so two
+     * different entries never feed the digest the same bytes.
+     */
+    public static byte[] digest(String document, List<Attribute> attributes) {
+        MessageDigest md5 = md5();
+        update(md5, document);
+        for (Attribute attribute : attributes) {
+            update(md5, attribute.getName());
+            update(md5, attribute.getValue());
+        }
+        return md5.digest();
+    }
+
+    static void update(MessageDigest md5, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        md5.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).flip());
+        md5.update(bytes);
+    }
+
+    static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to provide MD5
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package cynicdog.io.util;
+
+/**
+ * int8 scalar quantization of a vector: 256 evenly spaced levels between its own minimum and maximum
+ * component, kept as signed bytes so that {@code v[i] ~ offset + scale * levels[i]}. A quarter of the
+ * float footprint, plus two floats.
+ */
+public record ScalarCode(byte[] levels, float offset, float scale) {
+
+    public static ScalarCode encode(float[] vector) {
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for (float value : vector) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        float scale = max > min ? (max - min) / 255 : 0;
+
+        // The minimum is level -128 and the maximum 127
+        byte[] levels = new byte[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            int level = scale == 0 ? 0 : Math.round((vector[i] - min) / scale);
+            levels[i] = (byte) (level - 128);
+        }
+        return new ScalarCode(levels, vector.length == 0 ? 0 : min + 128 * scale, scale);
+    }
+
+    public float[] decode() {
+        float[] vector = new float[levels.length];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = offset + scale * levels[i];
+        }
+        return vector;
+    }
+}
@@ -1,6 +0,0 @@
-package cynicdog.io.util;
-
-@FunctionalInterface
-public interface TriFunction<T, U, V, R> {
-    R apply(T t, U u, V v);
-}
\ No newline at end of file
@@ -0,0 +1,106 @@
+package cynicdog.io.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.vertx.core.buffer.Buffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class VectorCodec {
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    public static byte[] pack(float[] vector) {
+        if (vector == null) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(vector);
+        return buffer.array();
+    }
+
+    public static float[] unpack(byte[] packed) {
+        float[] vector = new float[packed.length / Float.BYTES];
+        ByteBuffer.wrap(packed).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vector);
+        return vector;
+    }
+
+    public static float[] unbox(List<Float> scores) {
+        if (scores == null) {
+            return new float[0];
+        }
+        float[] vector = new float[scores.size()];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = scores.get(i);
+        }
+        return vector;
+    }
+
+    /**
+     * Reads the numeric array stored under the top-level {@code field} of a JSON body straight into a
+     * {@code float[]}, without materialising the intermediate {@code JsonObject}/{@code JsonArray}.
+     */
+    public static float[] parseVector(Buffer body, String field) {
+        try (JsonParser parser = jsonFactory.createParser(body.getBytes())) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("Expected a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (field.equals(name) && token == JsonToken.START_ARRAY) {
+                    return readVector(parser);
+                }
+                parser.skipChildren();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed embedding response: " + e.getMessage(), e);
+        }
+        throw new IllegalArgumentException("Field '" + field + "' not found in embedding response");
+    }
+
+    /**
+     * Same as {@link #parseVector(Buffer, String)} for a field holding an array of vectors, as returned
+     * by Ollama's multi-input {@code /api/embed}.
+     */
+    public static List<float[]> parseVectors(Buffer body, String field) {
+        try (JsonParser parser = jsonFactory.createParser(body.getBytes())) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("Expected a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (field.equals(name) && token == JsonToken.START_ARRAY) {
+                    List<float[]> vectors = new ArrayList<>();
+                    while (parser.nextToken() == JsonToken.START_ARRAY) {
+                        vectors.add(readVector(parser));
+                    }
+                    return vectors;
+                }
+                parser.skipChildren();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed embedding response: " + e.getMessage(), e);
+        }
+        throw new IllegalArgumentException("Field '" + field + "' not found in embedding response");
+    }
+
+    static float[] readVector(JsonParser parser) throws IOException {
+        float[] vector = new float[1024];
+        int size = 0;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (size == vector.length) {
+                vector = Arrays.copyOf(vector, size * 2);
+            }
+            vector[size++] = parser.getFloatValue();
+        }
+        return size == vector.length ? vector : Arrays.copyOf(vector, size);
+    }
+}
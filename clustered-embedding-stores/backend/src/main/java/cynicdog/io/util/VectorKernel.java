@@ -0,0 +1,25 @@
+package cynicdog.io.util;
+
+/**
+ * Primitive distance kernels over equally sized float vectors.
+ * <p>
+ * The offset variants compare {@code a} with the {@code a.length} floats of {@code b} starting at
+ * {@code offset}, so rows of a row-major matrix are scored in place. The byte variant scores a query
+ * against the signed levels of a {@link ScalarCode}.
+ */
+public interface VectorKernel {
+
+    default float dot(float[] a, float[] b) {
+        return dot(a, b, 0);
+    }
+
+    default float squaredDistance(float[] a, float[] b) {
+        return squaredDistance(a, b, 0);
+    }
+
+    float dot(float[] a, float[] b, int offset);
+
+    float squaredDistance(float[] a, float[] b, int offset);
+
+    float dot(float[] a, byte[] b);
+}
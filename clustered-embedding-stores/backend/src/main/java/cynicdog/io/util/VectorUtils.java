@@ -1,53 +1,76 @@
 package cynicdog.io.util;
 
-import cynicdog.io.data.Embedding;
 import io.vertx.core.impl.logging.Logger;
 import io.vertx.core.impl.logging.LoggerFactory;
-import org.infinispan.Cache;
-
-import java.util.List;
 
 public class VectorUtils {
 
     private final static Logger logger = LoggerFactory.getLogger(VectorUtils.class);
 
-    public static String retrieveRelevantDocument(List<Float> embeddings, Cache<String, Embedding> collection) {
-        String closestKey = null;
-        double maxSimilarity = -1;
-
-        for (String cacheKey : collection.keySet()) {
-            List<Float> cachedEmbeddings = collection.get(cacheKey).getLatentScores();
+    private static final VectorKernel kernel = loadKernel();
 
-            double similarity = calculateCosineSimilarity(embeddings, cachedEmbeddings);
-            if (similarity > maxSimilarity) {
-                maxSimilarity = similarity;
-                closestKey = cacheKey;
-            }
-        }
+    public static VectorKernel kernel() {
+        return kernel;
+    }
 
-        logger.info(String.format("Retrieved similarity: %f", maxSimilarity));
+    public static float dot(float[] vectorA, float[] vectorB) {
+        checkDimensions(vectorA, vectorB);
+        return kernel.dot(vectorA, vectorB);
+    }
 
-        return closestKey != null ? collection.get(closestKey).getDocument() : "No relevant data found.";
+    public static float squaredDistance(float[] vectorA, float[] vectorB) {
+        checkDimensions(vectorA, vectorB);
+        return kernel.squaredDistance(vectorA, vectorB);
     }
 
-    public static double calculateCosineSimilarity(List<Float> vectorA, List<Float> vectorB) {
-        if (vectorA.size() != vectorB.size()) {
-            throw new IllegalArgumentException("Vectors must be of the same size for cosine similarity calculation.");
+    /**
+     * Returns a unit-length copy of the vector, so that cosine similarity against other normalised
+     * vectors reduces to a single dot product.
+     */
+    public static float[] normalize(float[] vector) {
+        float norm = (float) Math.sqrt(kernel.dot(vector, vector));
+        float[] normalized = new float[vector.length];
+        if (norm == 0) {
+            return normalized;
         }
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = vector[i] / norm;
+        }
+        return normalized;
+    }
 
-        double dotProduct = 0.0;
-        double normA = 0.0;
-        double normB = 0.0;
+    public static double calculateCosineSimilarity(float[] vectorA, float[] vectorB) {
+        checkDimensions(vectorA, vectorB);
 
-        for (int i = 0; i < vectorA.size(); i++) {
-            float valueA = vectorA.get(i);
-            float valueB = vectorB.get(i);
+        double dotProduct = kernel.dot(vectorA, vectorB);
+        double normA = kernel.dot(vectorA, vectorA);
+        double normB = kernel.dot(vectorB, vectorB);
 
-            dotProduct += valueA * valueB;
-            normA += Math.pow(valueA, 2);
-            normB += Math.pow(valueB, 2);
+        return dotProduct / (Math.sqrt(normA) * Math.sqrt(normB));
+    }
+
+    static void checkDimensions(float[] vectorA, float[] vectorB) {
+        if (vectorA.length != vectorB.length) {
+            throw new IllegalArgumentException("Vectors must be of the same size for similarity calculation.");
         }
+    }
 
-        return dotProduct / (Math.sqrt(normA) * Math.sqrt(normB));
+    // The Vector API is an incubator module: it has to be added with `--add-modules jdk.incubator.vector`
+    // and SimdKernel must not be touched otherwise, hence the reflective load.
+    static VectorKernel loadKernel() {
+        boolean enabled = Boolean.parseBoolean(System.getenv().getOrDefault("VECTOR_SIMD", "true"));
+        if (enabled && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                VectorKernel simd = (VectorKernel) Class.forName("cynicdog.io.util.SimdKernel")
+                        .getDeclaredConstructor()
+                        .newInstance();
+                logger.info("Using Vector API similarity kernels");
+                return simd;
+            } catch (ReflectiveOperationException | LinkageError e) {
+                logger.warn("Vector API unavailable, falling back to scalar kernels: " + e.getMessage());
+            }
+        }
+        logger.info("Using scalar similarity kernels");
+        return new ScalarKernel();
     }
 }
@@ -0,0 +1,151 @@
+package cynicdog.io.api;
+
+import cynicdog.io.api.OllamaDispatcher.Priority;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.WebClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EmbeddingBatcherTest {
+
+    Vertx vertx;
+    WebClient client;
+    OllamaEndpoints endpoints;
+
+    // The inputs of every /api/embed call the stub Ollama got, and the priorities they were submitted with
+    final List<JsonArray> batches = new CopyOnWriteArrayList<>();
+    final List<Priority> priorities = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void start() throws Exception {
+        vertx = Vertx.vertx();
+        HttpServer ollama = await(vertx.createHttpServer().requestHandler(req -> req.body().onSuccess(body -> {
+            if (!req.path().equals("/api/embed")) {
+                req.response().end("{}");
+                return;
+            }
+            JsonArray input = body.toJsonObject().getJsonArray("input");
+            batches.add(input);
+            // "unknown" and "overloaded" prompts are turned down the way Ollama does, with an error object
+            if (input.contains("unknown") || input.contains("overloaded")) {
+                req.response().setStatusCode(input.contains("unknown") ? 404 : 500)
+                        .end(new JsonObject().put("error", "model \"model\" not found").encode());
+                return;
+            }
+            // Each prompt is embedded as its position in the batch and its length; a "drop" prompt loses one
+            JsonArray embeddings = new JsonArray();
+            for (int i = 0; i < input.size(); i++) {
+                embeddings.add(new JsonArray().add(i).add(input.getString(i).length()));
+            }
+            if (input.contains("drop")) {
+                embeddings.remove(0);
+            }
+            req.response().end(new JsonObject().put("embeddings", embeddings).encode());
+        })).listen(0));
+
+        client = WebClient.create(vertx);
+        endpoints = new OllamaEndpoints(vertx, client, new OllamaDispatcher(vertx, 4, 64, 10_000), List.of("model"), 3, 1000, false, 10);
+        endpoints.use(List.of("localhost:" + ollama.actualPort()));
+    }
+
+    @AfterEach
+    void stop() {
+        vertx.close().toCompletionStage().toCompletableFuture().join();
+    }
+
+    @Test
+    void sendsAFullBatchAtOnce() throws Exception {
+        EmbeddingBatcher batcher = batcher(60_000, 3);
+
+        List<float[]> vectors = await(batcher.embedAll(List.of("a", "bb", "ccc")));
+
+        assertEquals(List.of(new JsonArray().add("a").add("bb").add("ccc")), batches);
+        for (int i = 0; i < 3; i++) {
+            assertArrayEquals(new float[]{i, i + 1}, vectors.get(i));
+        }
+        assertEquals(List.of(Priority.BULK), priorities);
+    }
+
+    @Test
+    void sendsWhatArrivedWithinTheWindow() throws Exception {
+        EmbeddingBatcher batcher = batcher(50, 100);
+
+        Future<float[]> first = batcher.embed("a", Priority.BULK);
+        Future<float[]> second = batcher.embed("bb", Priority.INTERACTIVE);
+
+        assertArrayEquals(new float[]{0, 1}, await(first));
+        assertArrayEquals(new float[]{1, 2}, await(second));
+        assertEquals(1, batches.size());
+        // One interactive prompt is enough for the whole batch to go ahead of bulk calls
+        assertEquals(List.of(Priority.INTERACTIVE), priorities);
+    }
+
+    @Test
+    void splitsPromptsOverBatchesOfTheMaximumSize() throws Exception {
+        EmbeddingBatcher batcher = batcher(50, 2);
+
+        List<float[]> vectors = await(batcher.embedAll(List.of("a", "b", "c", "d", "e")));
+
+        assertEquals(5, vectors.size());
+        assertEquals(List.of(2, 2, 1), batches.stream().map(JsonArray::size).toList());
+        assertArrayEquals(new float[]{0, 1}, vectors.get(4));
+    }
+
+    @Test
+    void failsEveryPromptOfABatchWithMissingEmbeddings() {
+        EmbeddingBatcher batcher = batcher(60_000, 2);
+
+        Future<float[]> first = batcher.embed("drop", Priority.BULK);
+        Future<float[]> second = batcher.embed("kept", Priority.BULK);
+
+        for (Future<float[]> future : List.of(first, second)) {
+            ExecutionException failure = assertThrows(ExecutionException.class, () -> await(future));
+            assertTrue(failure.getCause().getMessage().contains("Expected 2 embeddings"));
+        }
+    }
+
+    @Test
+    void failsWithOllamasStatusRatherThanParsingItsError() {
+        EmbeddingBatcher batcher = batcher(60_000, 1);
+
+        ExecutionException rejected = assertThrows(ExecutionException.class, () -> await(batcher.embed("unknown", Priority.BULK)));
+        assertEquals(404, assertInstanceOf(ReplyException.class, rejected.getCause()).failureCode());
+
+        // A server error is the service being unavailable, whatever Ollama answered
+        ExecutionException failed = assertThrows(ExecutionException.class, () -> await(batcher.embed("overloaded", Priority.BULK)));
+        assertEquals(503, assertInstanceOf(ReplyException.class, failed.getCause()).failureCode());
+    }
+
+    EmbeddingBatcher batcher(long windowMs, int maxBatchSize) {
+        OllamaDispatcher dispatcher = new OllamaDispatcher(vertx, 4, 64, 10_000) {
+            @Override
+            public <T> Future<T> submit(Priority priority, String operation, Supplier<Future<T>> call) {
+                priorities.add(priority);
+                return super.submit(priority, operation, call);
+            }
+        };
+        return new EmbeddingBatcher(vertx, client, dispatcher, endpoints, "model", windowMs, maxBatchSize);
+    }
+
+    static <T> T await(Future<T> future) throws Exception {
+        return future.toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+}
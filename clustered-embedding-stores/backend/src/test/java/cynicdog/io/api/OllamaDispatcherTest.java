@@ -0,0 +1,168 @@
+package cynicdog.io.api;
+
+import cynicdog.io.api.OllamaDispatcher.Priority;
+import cynicdog.io.message.Backpressure;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.ReplyException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OllamaDispatcherTest {
+
+    Vertx vertx;
+
+    final List<String> started = new ArrayList<>();
+    final List<Promise<String>> calls = new ArrayList<>();
+
+    @BeforeEach
+    void start() {
+        vertx = Vertx.vertx();
+    }
+
+    @AfterEach
+    void stop() {
+        vertx.close().toCompletionStage().toCompletableFuture().join();
+    }
+
+    @Test
+    void admitsInteractiveCallsFirstAndEachPriorityInOrder() {
+        OllamaDispatcher dispatcher = new OllamaDispatcher(vertx, 1, 10, 60_000);
+        Future<String> running = dispatcher.submit(Priority.BULK, "test", call("running"));
+        List<Future<String>> queued = List.of(
+                dispatcher.submit(Priority.BULK, "test", call("bulk-1")),
+                dispatcher.submit(Priority.INTERACTIVE, "test", call("interactive-1")),
+                dispatcher.submit(Priority.BULK, "test", call("bulk-2")),
+                dispatcher.submit(Priority.INTERACTIVE, "test", call("interactive-2")));
+        assertEquals(List.of("running"), started);
+        assertEquals(4, dispatcher.stats().getInteger("queuedInteractive") + dispatcher.stats().getInteger("queuedBulk"));
+
+        // Each call that ends hands its slot to the next one
+        for (int i = 0; i < 5; i++) {
+            calls.get(i).complete(started.get(i));
+        }
+
+        assertEquals(List.of("running", "interactive-1", "interactive-2", "bulk-1", "bulk-2"), started);
+        assertEquals("running", running.result());
+        queued.forEach(future -> assertTrue(future.succeeded()));
+        assertEquals(0, dispatcher.running());
+        assertEquals(5L, dispatcher.stats().getLong("admitted"));
+    }
+
+    @Test
+    void interactiveCallsPushOutTheMostRecentBulkCall() {
+        OllamaDispatcher dispatcher = new OllamaDispatcher(vertx, 1, 2, 60_000);
+        dispatcher.submit(Priority.BULK, "test", call("running"));
+        Future<String> first = dispatcher.submit(Priority.BULK, "test", call("bulk-1"));
+        Future<String> second = dispatcher.submit(Priority.BULK, "test", call("bulk-2"));
+
+        Future<String> interactive = dispatcher.submit(Priority.INTERACTIVE, "test", call("interactive"));
+        assertRejected(second, 429);
+        assertFalse(first.isComplete());
+        assertFalse(interactive.isComplete());
+
+        // Full again, and a bulk call has nothing to push out
+        assertRejected(dispatcher.submit(Priority.BULK, "test", call("bulk-3")), 429);
+        assertRejected(dispatcher.admission(Priority.BULK, "stream"), 429);
+
+        calls.get(0).complete("done");
+        assertEquals(List.of("running", "interactive"), started);
+        assertEquals(3L, dispatcher.stats().getLong("rejected"));
+    }
+
+    @Test
+    void admissionHoldsItsSlotUntilReleased() {
+        OllamaDispatcher dispatcher = new OllamaDispatcher(vertx, 1, 10, 60_000);
+        Future<OllamaDispatcher.Slot> first = dispatcher.admission(Priority.INTERACTIVE, "stream");
+        assertTrue(first.succeeded());
+        assertEquals(1, dispatcher.running());
+
+        // The stream keeps the slot, so the next ones wait for it, interactive ahead of bulk
+        Future<String> bulk = dispatcher.submit(Priority.BULK, "test", call("bulk"));
+        Future<OllamaDispatcher.Slot> second = dispatcher.admission(Priority.INTERACTIVE, "stream");
+        assertFalse(second.isComplete());
+        assertFalse(bulk.isComplete());
+        assertNull(dispatcher.trySlot());
+
+        first.result().release();
+        first.result().release();
+        assertTrue(second.succeeded());
+        assertEquals(List.of(), started);
+        assertEquals(1, dispatcher.running());
+
+        second.result().release();
+        assertEquals(List.of("bulk"), started);
+        calls.get(0).complete("done");
+        assertEquals(0, dispatcher.running());
+
+        // A free slot is handed out straight away, and counts as running until it is released
+        OllamaDispatcher.Slot slot = dispatcher.trySlot();
+        assertEquals(1, dispatcher.running());
+        assertNull(dispatcher.trySlot());
+        slot.release();
+        assertEquals(0, dispatcher.running());
+    }
+
+    @Test
+    void expiresCallsThatWaitTooLong() throws Exception {
+        OllamaDispatcher dispatcher = new OllamaDispatcher(vertx, 1, 10, 50);
+        dispatcher.submit(Priority.INTERACTIVE, "test", call("running"));
+        Future<String> waiting = dispatcher.submit(Priority.INTERACTIVE, "test", call("waiting"));
+
+        ExecutionException failure = assertThrows(ExecutionException.class,
+                () -> waiting.toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS));
+        ReplyException rejection = assertInstanceOf(ReplyException.class, failure.getCause());
+        assertEquals(503, rejection.failureCode());
+        assertTrue(Backpressure.retryAfter(rejection) >= 1);
+
+        // The expired call never runs, and its slot is not taken
+        calls.get(0).complete("done");
+        assertEquals(List.of("running"), started);
+        assertEquals(0, dispatcher.running());
+        assertEquals(1L, dispatcher.stats().getLong("expired"));
+    }
+
+    @Test
+    void aCallThatThrowsReleasesItsSlot() {
+        OllamaDispatcher dispatcher = new OllamaDispatcher(vertx, 1, 10, 60_000);
+        Future<String> broken = dispatcher.submit(Priority.BULK, "test", () -> {
+            throw new IllegalStateException("broken");
+        });
+
+        assertTrue(broken.failed());
+        assertEquals(0, dispatcher.running());
+        dispatcher.submit(Priority.BULK, "test", call("next"));
+        assertEquals(List.of("next"), started);
+    }
+
+    Supplier<Future<String>> call(String name) {
+        return () -> {
+            started.add(name);
+            Promise<String> promise = Promise.promise();
+            calls.add(promise);
+            return promise.future();
+        };
+    }
+
+    static void assertRejected(Future<?> future, int status) {
+        assertTrue(future.failed());
+        ReplyException rejection = assertInstanceOf(ReplyException.class, future.cause());
+        assertEquals(status, rejection.failureCode());
+        assertTrue(Backpressure.retryAfter(rejection) >= 1);
+    }
+}
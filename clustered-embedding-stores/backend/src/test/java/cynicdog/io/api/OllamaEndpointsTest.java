@@ -0,0 +1,237 @@
+package cynicdog.io.api;
+
+import cynicdog.io.api.OllamaDispatcher.Priority;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OllamaEndpointsTest {
+
+    Vertx vertx;
+    WebClient client;
+    final List<String> addresses = new ArrayList<>();
+
+    // The stub Ollama each /api/embed call reached, in order, and the calls it is holding on to
+    final List<String> served = new CopyOnWriteArrayList<>();
+    final List<HttpServerResponse> held = new CopyOnWriteArrayList<>();
+    final Promise<Void> reset = Promise.promise();
+
+    // Every stub answers /api/pull and turns /api/unknown down with 404; /api/embed fails on the "failing" stub, and the first call of all is held
+    volatile String failing;
+    volatile boolean holdFirst;
+    final AtomicInteger calls = new AtomicInteger();
+
+    @BeforeEach
+    void start() throws Exception {
+        vertx = Vertx.vertx();
+        client = WebClient.create(vertx);
+        for (int i = 0; i < 2; i++) {
+            String[] name = new String[1];
+            HttpServer server = await(vertx.createHttpServer().requestHandler(req -> {
+                if (req.path().equals("/api/unknown")) {
+                    req.response().setStatusCode(404).end();
+                    return;
+                }
+                if (!req.path().equals("/api/embed")) {
+                    req.response().end("{}");
+                    return;
+                }
+                served.add(name[0]);
+                if (name[0].equals(failing)) {
+                    req.response().setStatusCode(500).end();
+                } else if (holdFirst && calls.getAndIncrement() == 0) {
+                    held.add(req.response());
+                    req.connection().closeHandler(v -> reset.tryComplete());
+                } else {
+                    req.response().end(name[0]);
+                }
+            }).listen(0));
+            name[0] = "localhost:" + server.actualPort();
+            addresses.add(name[0]);
+        }
+    }
+
+    @AfterEach
+    void stop() {
+        vertx.close().toCompletionStage().toCompletableFuture().join();
+    }
+
+    @Test
+    void sendsEachCallToTheLeastLoadedEndpoint() throws Exception {
+        OllamaEndpoints endpoints = endpoints(new OllamaDispatcher(vertx, 4, 64, 10_000), 3, false);
+        holdFirst = true;
+
+        Future<HttpResponse<Buffer>> first = endpoints.call(this::embed);
+        awaitCondition(() -> served.size() == 1);
+        String busy = served.get(0);
+
+        // While one endpoint works on the first call, the others go elsewhere
+        for (int i = 0; i < 3; i++) {
+            assertFalse(await(endpoints.call(this::embed)).bodyAsString().equals(busy));
+        }
+        assertFalse(first.isComplete());
+        held.get(0).end(busy);
+        assertEquals(busy, await(first).bodyAsString());
+    }
+
+    @Test
+    void ejectsAnEndpointThatKeepsFailing() throws Exception {
+        OllamaEndpoints endpoints = endpoints(new OllamaDispatcher(vertx, 4, 64, 10_000), 2, false);
+        failing = addresses.get(0);
+
+        int failures = 0;
+        for (int i = 0; i < 8; i++) {
+            Future<HttpResponse<Buffer>> call = endpoints.call(this::embed);
+            try {
+                await(call);
+            } catch (ExecutionException e) {
+                // A 5xx answer fails the call with 503
+                assertEquals(503, assertInstanceOf(ReplyException.class, e.getCause()).failureCode());
+                failures++;
+            }
+        }
+
+        // Two failures in a row eject it, and the calls after that all go to the other endpoint
+        assertEquals(2, failures);
+        assertFalse(endpoints.usable(endpoints.endpoints.get(failing)));
+        assertTrue(endpoints.usable(endpoints.endpoints.get(addresses.get(1))));
+        assertEquals(List.of(failing, addresses.get(1), addresses.get(1), addresses.get(1), addresses.get(1), addresses.get(1)),
+                served.subList(served.lastIndexOf(failing), served.size()));
+    }
+
+    @Test
+    void aRequestTurnedDownDoesNotCountAgainstTheEndpoint() throws Exception {
+        OllamaEndpoints endpoints = endpoints(new OllamaDispatcher(vertx, 4, 64, 10_000), 1, false);
+
+        for (int i = 0; i < 4; i++) {
+            Future<HttpResponse<Buffer>> call = endpoints.call(endpoint -> client.post(endpoint.port(), endpoint.host(), "/api/unknown").send());
+            ExecutionException failure = assertThrows(ExecutionException.class, () -> await(call));
+            assertEquals(404, assertInstanceOf(ReplyException.class, failure.getCause()).failureCode());
+        }
+        assertTrue(endpoints.endpoints.values().stream().allMatch(endpoints::usable));
+    }
+
+    @Test
+    void hedgesOnlyOnceThereAreEnoughLatencies() {
+        OllamaEndpoints endpoints = endpoints(new OllamaDispatcher(vertx, 4, 64, 10_000), 3, true);
+        for (int i = 0; i < OllamaEndpoints.MIN_LATENCY_SAMPLES - 1; i++) {
+            endpoints.recordLatency(50);
+        }
+        assertEquals(-1, endpoints.hedgeDelayMs());
+
+        // The 95th percentile, but never below the minimum delay
+        endpoints.recordLatency(50);
+        assertEquals(50, endpoints.hedgeDelayMs());
+        for (int i = 0; i < OllamaEndpoints.LATENCY_WINDOW; i++) {
+            endpoints.recordLatency(1);
+        }
+        assertEquals(10, endpoints.hedgeDelayMs());
+    }
+
+    @Test
+    void hedgesASlowCallAndCancelsTheLoser() throws Exception {
+        OllamaEndpoints endpoints = hedging(new OllamaDispatcher(vertx, 4, 64, 10_000));
+        long hedges = endpoints.stats().getLong("hedges");
+        long wins = endpoints.stats().getLong("hedgeWins");
+        holdFirst = true;
+
+        HttpResponse<Buffer> response = await(endpoints.hedged(this::embed));
+
+        // The second endpoint answered, and the first one's request was reset rather than left running
+        assertEquals(served.get(1), response.bodyAsString());
+        assertEquals(2, new HashSet<>(served).size());
+        assertEquals(hedges + 1, endpoints.stats().getLong("hedges"));
+        awaitCondition(() -> endpoints.stats().getLong("hedgeWins") == wins + 1);
+        await(reset.future());
+        awaitCondition(() -> endpoints.outstanding(endpoints.endpoints.get(served.get(0))) == 0);
+        // Being cancelled doesn't count against the endpoint
+        assertEquals(0, endpoints.endpoints.get(served.get(0)).failures);
+    }
+
+    @Test
+    void skipsTheHedgeWhenTheDispatcherIsSaturated() throws Exception {
+        OllamaDispatcher dispatcher = new OllamaDispatcher(vertx, 1, 64, 10_000);
+        OllamaEndpoints endpoints = hedging(dispatcher);
+        long hedges = endpoints.stats().getLong("hedges");
+        long skipped = endpoints.stats().getLong("hedgesSkipped");
+        holdFirst = true;
+
+        // The call holds the only slot, so the hedge has none to run in
+        Future<HttpResponse<Buffer>> call = dispatcher.submit(Priority.BULK, "embed", () -> endpoints.hedged(this::embed));
+        awaitCondition(() -> endpoints.stats().getLong("hedgesSkipped") == skipped + 1);
+
+        assertEquals(hedges, endpoints.stats().getLong("hedges"));
+        assertEquals(1, served.size());
+        held.get(0).end("slow");
+        assertEquals("slow", await(call).bodyAsString());
+        assertEquals(0, dispatcher.running());
+    }
+
+    @Test
+    void failsWithoutEndpoints() {
+        OllamaEndpoints endpoints = new OllamaEndpoints(vertx, client, new OllamaDispatcher(vertx, 4, 64, 10_000), List.of("model"), 3, 60_000, true, 10);
+
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> await(endpoints.hedged(this::embed)));
+        assertEquals(503, assertInstanceOf(ReplyException.class, failure.getCause()).failureCode());
+    }
+
+    Future<HttpResponse<Buffer>> embed(OllamaEndpoints.Endpoint endpoint) {
+        return client.post(endpoint.port(), endpoint.host(), "/api/embed").sendBuffer(Buffer.buffer("{}"));
+    }
+
+    OllamaEndpoints endpoints(OllamaDispatcher dispatcher, int maxFailures, boolean hedging) {
+        OllamaEndpoints endpoints = new OllamaEndpoints(vertx, client, dispatcher, List.of("model"), maxFailures, 60_000, hedging, 10);
+        endpoints.use(addresses);
+        awaitCondition(() -> endpoints.endpoints.values().stream().allMatch(endpoints::usable));
+        return endpoints;
+    }
+
+    // Hedging after 10 ms, as if every recent call had taken 1 ms
+    OllamaEndpoints hedging(OllamaDispatcher dispatcher) {
+        OllamaEndpoints endpoints = endpoints(dispatcher, 3, true);
+        for (int i = 0; i < OllamaEndpoints.MIN_LATENCY_SAMPLES; i++) {
+            endpoints.recordLatency(1);
+        }
+        return endpoints;
+    }
+
+    static void awaitCondition(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out");
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    static <T> T await(Future<T> future) throws Exception {
+        return future.toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,97 @@
+package cynicdog.io.api;
+
+import cynicdog.io.api.OllamaDispatcher.Priority;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QueryEmbeddingCacheTest {
+
+    // The prompts the batcher was asked to embed, and the calls it has not answered yet
+    final List<String> embedded = new ArrayList<>();
+    final List<Promise<float[]>> calls = new ArrayList<>();
+
+    final EmbeddingBatcher batcher = new EmbeddingBatcher(null, null, null, null, "model", 0, 1) {
+        @Override
+        public Future<float[]> embed(String prompt, Priority priority) {
+            // Whoever calls the batcher must not hold the cache's lock
+            assertFalse(Thread.holdsLock(cache));
+            embedded.add(prompt);
+            Promise<float[]> promise = Promise.promise();
+            calls.add(promise);
+            return promise.future();
+        }
+    };
+    final QueryEmbeddingCache cache = new QueryEmbeddingCache(batcher, 2);
+
+    @Test
+    void coalescesConcurrentMissesIntoOneCall() {
+        Future<float[]> first = cache.get("llamas");
+        Future<float[]> second = cache.get("llamas");
+        assertEquals(List.of("llamas"), embedded);
+        assertFalse(first.isComplete());
+
+        calls.get(0).complete(new float[]{1, 2});
+        assertArrayEquals(new float[]{1, 2}, first.result());
+        assertArrayEquals(new float[]{1, 2}, second.result());
+
+        // Answered from the cache from now on
+        assertArrayEquals(new float[]{1, 2}, cache.get("llamas").result());
+        assertEquals(List.of("llamas"), embedded);
+        assertEquals(1L, cache.stats().getLong("hits"));
+        assertEquals(1L, cache.stats().getLong("misses"));
+        assertEquals(1L, cache.stats().getLong("coalesced"));
+    }
+
+    @Test
+    void handsEveryCallerItsOwnCopy() {
+        Future<float[]> first = cache.get("llamas");
+        Future<float[]> second = cache.get("llamas");
+        calls.get(0).complete(new float[]{1, 2});
+        assertNotSame(first.result(), second.result());
+
+        // Changing one leaves the cached vector as it was
+        first.result()[0] = 42;
+        float[] cached = cache.get("llamas").result();
+        assertArrayEquals(new float[]{1, 2}, cached);
+        cached[1] = 42;
+        assertArrayEquals(new float[]{1, 2}, cache.get("llamas").result());
+    }
+
+    @Test
+    void doesNotKeepAFailedCall() {
+        Future<float[]> failed = cache.get("llamas");
+        calls.get(0).fail("Ollama is down");
+        assertTrue(failed.failed());
+
+        // The next lookup asks again
+        Future<float[]> retried = cache.get("llamas");
+        assertEquals(List.of("llamas", "llamas"), embedded);
+        calls.get(1).complete(new float[]{3});
+        assertArrayEquals(new float[]{3}, retried.result());
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedPrompt() {
+        for (String prompt : List.of("a", "b")) {
+            cache.get(prompt);
+            calls.get(calls.size() - 1).complete(new float[]{prompt.charAt(0)});
+        }
+        cache.get("a");
+        cache.get("c");
+        calls.get(2).complete(new float[]{'c'});
+
+        assertEquals(2, cache.stats().getInteger("size"));
+        cache.get("b");
+        assertEquals(List.of("a", "b", "c", "b"), embedded);
+    }
+}
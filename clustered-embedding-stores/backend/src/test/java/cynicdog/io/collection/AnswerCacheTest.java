@@ -0,0 +1,84 @@
+package cynicdog.io.collection;
+
+import cynicdog.io.data.CachedAnswer;
+import cynicdog.io.index.AttributeFilter;
+import cynicdog.io.index.Metric;
+import cynicdog.io.index.SearchHit;
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AnswerCacheTest {
+
+    static final float[] LLAMAS = {1, 0, 0};
+    static final float[] ALPACAS = {0, 1, 0};
+
+    // Candidates are indexed as the answers cache notifies them, so no cache is needed to look them up
+    final AnswerCache cache = new AnswerCache(null, "test", 0.95, 60_000, 100);
+
+    @Test
+    void findsTheClosestQuestionWithinTheSimilarity() {
+        cache.index("llamas", new CachedAnswer(LLAMAS, "", List.of("a", "b"), "about llamas"));
+        cache.index("almost llamas", new CachedAnswer(new float[]{0.97f, 0.24f, 0}, "", List.of("a", "b"), "almost"));
+        cache.index("alpacas", new CachedAnswer(ALPACAS, "", List.of("a", "b"), "about alpacas"));
+
+        assertEquals("llamas", cache.closest(prepare(0.99f, 0.05f, 0), "", List.of("a", "b")));
+        assertEquals("alpacas", cache.closest(prepare(0, 1, 0.1f), "", List.of("a", "b")));
+        // Halfway between them is close enough to neither
+        assertNull(cache.closest(prepare(1, 1, 0), "", List.of("a", "b")));
+    }
+
+    @Test
+    void requiresTheSameFilterAndDocuments() {
+        String filter = AnswerCache.filterKey(AttributeFilter.fromJson(new JsonObject().put("tenant", "acme")));
+        cache.index("llamas", new CachedAnswer(LLAMAS, filter, List.of("a", "b"), "about llamas"));
+
+        assertEquals("llamas", cache.closest(prepare(LLAMAS), filter, List.of("a", "b")));
+        assertNull(cache.closest(prepare(LLAMAS), "", List.of("a", "b")));
+        assertNull(cache.closest(prepare(LLAMAS), filter, List.of("a")));
+        // Retrieval ranked the documents differently
+        assertNull(cache.closest(prepare(LLAMAS), filter, List.of("b", "a")));
+        // A question embedded by another model
+        assertNull(cache.closest(prepare(1, 0), filter, List.of("a", "b")));
+    }
+
+    @Test
+    void tracksTheAnswersGroundedOnEachDocument() {
+        cache.index("llamas", new CachedAnswer(LLAMAS, "", List.of("a", "b"), "about llamas"));
+        cache.index("alpacas", new CachedAnswer(ALPACAS, "", List.of("b", "c"), "about alpacas"));
+        assertEquals(Map.of("a", Set.of("llamas"), "b", Set.of("llamas", "alpacas"), "c", Set.of("alpacas")), cache.dependents);
+
+        // Asked again, now over other documents
+        cache.index("llamas", new CachedAnswer(LLAMAS, "", List.of("d"), "about llamas, again"));
+        assertEquals(Map.of("b", Set.of("alpacas"), "c", Set.of("alpacas"), "d", Set.of("llamas")), cache.dependents);
+
+        cache.unindex("alpacas");
+        cache.unindex("unknown");
+        assertEquals(Map.of("d", Set.of("llamas")), cache.dependents);
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.stats().getInteger("size"));
+    }
+
+    @Test
+    void missesWhileDetached() {
+        Future<String> answer = cache.lookup(LLAMAS, null, List.of(new SearchHit("a", 1, "doc")));
+
+        assertTrue(answer.succeeded());
+        assertNull(answer.result());
+        assertTrue(cache.enabled());
+        assertFalse(new AnswerCache(null, "test", 0.95, 0, 100).enabled());
+    }
+
+    static float[] prepare(float... vector) {
+        return Metric.COSINE.prepare(vector);
+    }
+}
@@ -0,0 +1,56 @@
+package cynicdog.io.collection;
+
+import io.vertx.core.json.JsonObject;
+import org.infinispan.configuration.cache.StorageType;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CollectionLimitsTest {
+
+    static final CollectionLimits DEFAULTS = new CollectionLimits(1000, 0, 3600, 0, StorageType.HEAP);
+
+    @Test
+    void fillsInWhatARequestLeavesOut() {
+        assertSame(DEFAULTS, CollectionLimits.fromJson(null, DEFAULTS));
+        assertEquals(DEFAULTS, CollectionLimits.fromJson(new JsonObject(), DEFAULTS));
+
+        CollectionLimits limits = CollectionLimits.fromJson(new JsonObject()
+                .put("maxEntries", 0)
+                .put("maxBytes", "512MB")
+                .put("storage", "off-heap"), DEFAULTS);
+
+        assertEquals(new CollectionLimits(0, 512_000_000, 3600, 0, StorageType.OFF_HEAP), limits);
+        assertTrue(limits.bounded());
+    }
+
+    @Test
+    void roundTripsThroughJson() {
+        CollectionLimits limits = new CollectionLimits(0, 1 << 30, 0, 600, StorageType.OFF_HEAP);
+
+        assertEquals(limits, CollectionLimits.fromJson(limits.toJson(), CollectionLimits.NONE));
+        assertEquals(limits.toJson(), CollectionLimits.fromJson(new JsonObject(limits.toJson().encode()), DEFAULTS).toJson());
+    }
+
+    @Test
+    void readsByteQuantities() {
+        assertEquals(0, CollectionLimits.bytes(" "));
+        assertEquals(1024, CollectionLimits.bytes("1024"));
+        assertEquals(2L << 30, CollectionLimits.bytes(" 2GiB "));
+        assertEquals(StorageType.OFF_HEAP, CollectionLimits.storage(" Off_Heap"));
+        assertThrows(IllegalArgumentException.class, () -> CollectionLimits.bytes("lots"));
+    }
+
+    @Test
+    void rejectsLimitsThatCannotApply() {
+        assertThrows(IllegalArgumentException.class, () -> new CollectionLimits(-1, 0, 0, 0, StorageType.HEAP));
+        assertThrows(IllegalArgumentException.class, () -> new CollectionLimits(10, 1024, 0, 0, StorageType.HEAP));
+        assertThrows(IllegalArgumentException.class, () -> new CollectionLimits(0, 0, 0, 0, null));
+        assertThrows(IllegalArgumentException.class, () -> CollectionLimits.fromJson(new JsonObject().put("storage", "disk"), DEFAULTS));
+        assertFalse(CollectionLimits.NONE.bounded());
+    }
+}
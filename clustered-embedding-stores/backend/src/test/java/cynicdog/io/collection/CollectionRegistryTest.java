@@ -0,0 +1,193 @@
+package cynicdog.io.collection;
+
+import cynicdog.io.index.HnswIndex;
+import cynicdog.io.index.Metric;
+import cynicdog.io.index.VectorSearch;
+import cynicdog.io.index.VectorStorage;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.json.JsonObject;
+import org.infinispan.Cache;
+import org.infinispan.configuration.cache.CacheMode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CollectionRegistryTest {
+
+    Vertx vertx;
+    CollectionRegistry registry;
+
+    // Collection caches opened, discarded and removed, in order
+    final List<String> log = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void start() {
+        vertx = Vertx.vertx();
+        var searchPool = vertx.createSharedWorkerExecutor("search");
+        registry = new CollectionRegistry(vertx, null, CacheMode.DIST_SYNC, 2,
+                config -> new VectorSearch(vertx, config.name(), searchPool,
+                        new HnswIndex(config.metric(), VectorStorage.create(config.quantization(), config.metric(), 8, 256, false), 16, 100, 64, false),
+                        1000, 3, 0),
+                config -> new AnswerCache(vertx.createSharedWorkerExecutor("cache"), config.name(), 0.95, 0, 100),
+                new CollectionConfig("default", 0, Metric.COSINE, "none", 0, CollectionLimits.NONE),
+                null, 0, 0, 0) {
+
+            // The caches are left out: each collection gets a stand-in that only notes when it is discarded
+            @Override
+            Future<EmbeddingCollection> open(CollectionConfig config) {
+                log.add("open " + config.cacheName());
+                return Future.succeededFuture(new EmbeddingCollection(vertx, config, cache(config.cacheName(), new ConcurrentHashMap<>()),
+                        searchFactory.apply(config), answerFactory.apply(config), null));
+            }
+
+            @Override
+            Future<Void> removeCaches(CollectionConfig config) {
+                log.add("remove " + config.cacheName());
+                return Future.succeededFuture();
+            }
+        };
+        registry.metadata = cache(CollectionRegistry.METADATA_CACHE, new Definitions());
+    }
+
+    @AfterEach
+    void stop() {
+        vertx.close().toCompletionStage().toCompletableFuture().join();
+    }
+
+    @Test
+    void dropRemovesTheCachesAndDiscardsTheCollection() throws Exception {
+        await(registry.create(new JsonObject().put("name", "docs")));
+        assertEquals("docs", await(registry.get("docs")).name());
+        assertStatus(409, registry.create(new JsonObject().put("name", "docs")));
+
+        CollectionConfig dropped = await(registry.drop("docs"));
+
+        assertEquals("embeddings.docs.0", dropped.cacheName());
+        assertTrue(log.containsAll(List.of("open embeddings.docs.0", "discard embeddings.docs.0", "remove embeddings.docs.0")), log.toString());
+        assertStatus(404, registry.get("docs"));
+        assertStatus(404, registry.drop("docs"));
+        assertTrue(await(registry.list()).isEmpty());
+    }
+
+    @Test
+    void truncateMovesTheCollectionToTheNextGeneration() throws Exception {
+        await(registry.create(new JsonObject().put("name", "docs").put("dimension", 3)));
+
+        CollectionConfig truncated = await(registry.truncate("docs"));
+
+        assertEquals(1, truncated.generation());
+        assertEquals(3, truncated.dimension());
+        assertEquals(truncated, await(registry.get("docs")).config());
+        assertTrue(log.contains("remove embeddings.docs.0"), log.toString());
+        // The old generation is let go of before the new one opens
+        assertTrue(log.indexOf("discard embeddings.docs.0") < log.indexOf("open embeddings.docs.1"), log.toString());
+        assertEquals(new JsonObject(registry.metadata.get("docs")), truncated.toJson());
+
+        assertStatus(404, registry.truncate("missing"));
+    }
+
+    @Test
+    void rejectsInvalidDefinitions() {
+        assertStatus(400, registry.create(new JsonObject().put("name", "not a name")));
+        assertStatus(400, registry.create(new JsonObject().put("name", "docs").put("metric", "manhattan")));
+        assertStatus(400, registry.create(new JsonObject().put("name", "docs").put("quantization", "int3")));
+        assertTrue(registry.metadata.isEmpty());
+    }
+
+    /**
+     * Collection definitions that tell the registry of every change, as {@link CollectionListener} does.
+     */
+    class Definitions extends ConcurrentHashMap<String, String> {
+
+        @Override
+        public String putIfAbsent(String name, String definition) {
+            String previous = super.putIfAbsent(name, definition);
+            if (previous == null) {
+                registry.apply(CollectionConfig.fromJson(new JsonObject(definition)));
+            }
+            return previous;
+        }
+
+        @Override
+        public boolean replace(String name, String definition, String next) {
+            boolean replaced = super.replace(name, definition, next);
+            if (replaced) {
+                registry.apply(CollectionConfig.fromJson(new JsonObject(next)));
+            }
+            return replaced;
+        }
+
+        @Override
+        public String remove(Object name) {
+            String definition = super.remove(name);
+            if (definition != null) {
+                registry.discard((String) name);
+            }
+            return definition;
+        }
+    }
+
+    /**
+     * A cache backed by {@code entries}: map operations, and their async variants, go to the map, removing
+     * a listener is logged as a discard and anything else does nothing.
+     */
+    @SuppressWarnings("unchecked")
+    <K, V> Cache<K, V> cache(String name, ConcurrentMap<K, V> entries) {
+        return (Cache<K, V>) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Cache.class}, (proxy, method, args) -> {
+            boolean async = method.getName().endsWith("Async");
+            String operation = async ? method.getName().substring(0, method.getName().length() - 5) : method.getName();
+            switch (operation) {
+                case "getName", "toString":
+                    return name;
+                case "removeListener":
+                    log.add("discard " + name);
+                    return null;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+            }
+            Object result;
+            try {
+                result = ConcurrentMap.class.getMethod(operation, method.getParameterTypes()).invoke(entries, args);
+            } catch (NoSuchMethodException e) {
+                result = null;
+            }
+            return async ? CompletableFuture.completedFuture(result) : view(method.getReturnType(), result);
+        });
+    }
+
+    // The map's views stand in for the cache's, such as CacheCollection for values()
+    static Object view(Class<?> type, Object result) {
+        if (result == null || type.isInstance(result) || !type.isInterface()) {
+            return result;
+        }
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) ->
+                method.getDeclaringClass().isInstance(result) ? method.invoke(result, args) : null);
+    }
+
+    static void assertStatus(int status, Future<?> future) {
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> await(future));
+        assertEquals(status, assertInstanceOf(ReplyException.class, failure.getCause()).failureCode());
+    }
+
+    static <T> T await(Future<T> future) throws Exception {
+        return future.toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+}
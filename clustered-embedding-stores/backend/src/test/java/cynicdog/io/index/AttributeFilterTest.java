@@ -0,0 +1,99 @@
+package cynicdog.io.index;
+
+import cynicdog.io.api.OllamaAPI;
+import cynicdog.io.data.Attribute;
+import io.vertx.core.Future;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AttributeFilterTest {
+
+    static final List<Attribute> ENTRY = List.of(
+            new Attribute("tenant", "acme"),
+            new Attribute("tags", "llama"),
+            new Attribute("tags", "alpaca"),
+            new Attribute("timestamp", "1700000000"),
+            new Attribute("score", "0.5"));
+
+    @Test
+    void matchesEqualValues() {
+        assertTrue(filter("{\"tenant\": \"acme\"}").matches(ENTRY));
+        assertFalse(filter("{\"tenant\": \"other\"}").matches(ENTRY));
+        // An entry without the attribute never matches a condition on it
+        assertFalse(filter("{\"region\": \"eu\"}").matches(ENTRY));
+    }
+
+    @Test
+    void matchesAnyValueOfAnArray() {
+        assertTrue(filter("{\"tags\": [\"camel\", \"alpaca\"]}").matches(ENTRY));
+        assertFalse(filter("{\"tags\": [\"camel\", \"vicuna\"]}").matches(ENTRY));
+        assertFalse(filter("{\"tags\": []}").matches(ENTRY));
+    }
+
+    @Test
+    void comparesNumbersAsNumbers() {
+        assertTrue(filter("{\"timestamp\": 1.7e9}").matches(ENTRY));
+        assertTrue(filter("{\"score\": \"0.50\"}").matches(ENTRY));
+        assertFalse(filter("{\"score\": 0.51}").matches(ENTRY));
+    }
+
+    @Test
+    void boundsRanges() {
+        assertTrue(filter("{\"timestamp\": {\"gte\": 1700000000}}").matches(ENTRY));
+        assertFalse(filter("{\"timestamp\": {\"gt\": 1700000000}}").matches(ENTRY));
+        assertTrue(filter("{\"timestamp\": {\"gt\": 1600000000, \"lte\": 1700000000}}").matches(ENTRY));
+        assertFalse(filter("{\"timestamp\": {\"lt\": 1700000000}}").matches(ENTRY));
+        // A value that is not a number is outside every range
+        assertFalse(filter("{\"tenant\": {\"gte\": 0}}").matches(ENTRY));
+    }
+
+    @Test
+    void requiresEveryCondition() {
+        assertTrue(filter("{\"tenant\": \"acme\", \"tags\": [\"llama\"], \"score\": {\"lt\": 1}}").matches(ENTRY));
+        assertFalse(filter("{\"tenant\": \"acme\", \"tags\": [\"camel\"]}").matches(ENTRY));
+    }
+
+    @Test
+    void readsFromJson() {
+        assertNull(AttributeFilter.fromJson(null));
+        assertNull(AttributeFilter.fromJson(new JsonObject()));
+        assertEquals(new JsonObject("{\"tenant\": \"acme\"}"), filter("{\"tenant\": \"acme\"}").toJson());
+
+        assertThrows(IllegalArgumentException.class, () -> filter("{\"timestamp\": {\"after\": 1}}"));
+        assertThrows(IllegalArgumentException.class, () -> filter("{\"timestamp\": {\"gte\": \"yesterday\"}}"));
+    }
+
+    @Test
+    void rejectsRangesThatCannotMatch() {
+        // Two bounds on the same side
+        assertThrows(IllegalArgumentException.class, () -> filter("{\"timestamp\": {\"gt\": 1, \"gte\": 2}}"));
+        assertThrows(IllegalArgumentException.class, () -> filter("{\"timestamp\": {\"lt\": 1, \"lte\": 2}}"));
+        // Bounds the wrong way round, or a single point left out
+        assertThrows(IllegalArgumentException.class, () -> filter("{\"timestamp\": {\"gte\": 2, \"lte\": 1}}"));
+        assertThrows(IllegalArgumentException.class, () -> filter("{\"timestamp\": {\"gt\": 1, \"lte\": 1}}"));
+
+        assertTrue(filter("{\"timestamp\": {\"gte\": 1700000000, \"lte\": 1700000000}}").matches(ENTRY));
+    }
+
+    @Test
+    void turnsAnInvalidFilterAwayWith400() {
+        Future<AttributeFilter> filter = OllamaAPI.filter("{\"timestamp\": {\"gte\": 2, \"lt\": 1}}");
+
+        assertTrue(filter.failed());
+        assertEquals(400, assertInstanceOf(ReplyException.class, filter.cause()).failureCode());
+    }
+
+    static AttributeFilter filter(String json) {
+        return AttributeFilter.fromJson(new JsonObject(json));
+    }
+}
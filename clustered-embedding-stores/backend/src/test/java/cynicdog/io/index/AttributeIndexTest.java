@@ -0,0 +1,119 @@
+package cynicdog.io.index;
+
+import cynicdog.io.data.Attribute;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AttributeIndexTest {
+
+    static final List<String> FILTERS = List.of(
+            "{\"tenant\": \"t1\"}",
+            "{\"tenant\": [\"t0\", \"t2\"], \"tag\": \"b\"}",
+            "{\"year\": {\"gte\": 2001, \"lt\": 2004}}",
+            "{\"year\": 2002.0, \"tag\": [\"a\", \"c\"]}",
+            "{\"tenant\": \"t3\", \"year\": {\"gt\": 2000}}",
+            "{\"missing\": \"x\"}");
+
+    final Random random = new Random(11);
+
+    @Test
+    void selectsWhatTheFilterMatches() {
+        AttributeIndex index = new AttributeIndex();
+        List<List<Attribute>> entries = entries(2000);
+        for (int id = 0; id < entries.size(); id++) {
+            index.add(id, entries.get(id));
+        }
+
+        for (String json : FILTERS) {
+            AttributeFilter filter = AttributeFilter.fromJson(new JsonObject(json));
+            assertEquals(expected(entries, filter), index.select(filter), json);
+        }
+    }
+
+    @Test
+    void leavesRemovedIdsOut() {
+        AttributeIndex index = new AttributeIndex();
+        index.add(0, List.of(new Attribute("tenant", "t1")));
+        index.add(1, List.of(new Attribute("tenant", "t1")));
+        index.remove(0);
+
+        assertEquals(RoaringBitmap.bitmapOf(1), index.select(AttributeFilter.fromJson(new JsonObject("{\"tenant\": \"t1\"}"))));
+    }
+
+    @Test
+    void holdsExactlyTheAttributesAnIdWasAddedWith() {
+        AttributeIndex index = new AttributeIndex();
+        List<Attribute> attributes = List.of(new Attribute("tag", "a"), new Attribute("tag", "b"), new Attribute("tag", "a"));
+        int count = index.add(4, attributes);
+
+        assertEquals(2, count);
+        assertTrue(index.holds(4, attributes, count));
+        assertTrue(index.holds(4, List.of(new Attribute("tag", "b"), new Attribute("tag", "a")), count));
+        // A subset of the values, another value or another id
+        assertFalse(index.holds(4, List.of(new Attribute("tag", "a")), count));
+        assertFalse(index.holds(4, List.of(new Attribute("tag", "a"), new Attribute("tag", "c")), count));
+        assertFalse(index.holds(5, attributes, count));
+    }
+
+    @Test
+    void compactsToTheLiveIds() {
+        AttributeIndex index = new AttributeIndex();
+        List<List<Attribute>> entries = entries(500);
+        RoaringBitmap removed = new RoaringBitmap();
+        for (int id = 0; id < entries.size(); id++) {
+            index.add(id, entries.get(id));
+            if (id % 3 == 0) {
+                index.remove(id);
+                removed.add(id);
+            }
+        }
+
+        AttributeIndex compacted = index.compact();
+
+        assertEquals(entries.size() - removed.getCardinality(), compacted.live.getCardinality());
+        List<List<Attribute>> kept = new ArrayList<>();
+        for (int id = 0; id < entries.size(); id++) {
+            if (!removed.contains(id)) {
+                kept.add(entries.get(id));
+            }
+        }
+        for (String json : FILTERS) {
+            AttributeFilter filter = AttributeFilter.fromJson(new JsonObject(json));
+            assertEquals(expected(kept, filter), compacted.select(filter), json);
+        }
+        assertTrue(compacted.memoryBytes() < index.memoryBytes());
+    }
+
+    List<List<Attribute>> entries(int count) {
+        List<List<Attribute>> entries = new ArrayList<>();
+        for (int id = 0; id < count; id++) {
+            List<Attribute> attributes = new ArrayList<>();
+            attributes.add(new Attribute("tenant", "t" + random.nextInt(4)));
+            attributes.add(new Attribute("year", String.valueOf(2000 + random.nextInt(6))));
+            for (int tag = 0; tag < random.nextInt(3); tag++) {
+                attributes.add(new Attribute("tag", String.valueOf((char) ('a' + random.nextInt(4)))));
+            }
+            entries.add(attributes);
+        }
+        return entries;
+    }
+
+    static RoaringBitmap expected(List<List<Attribute>> entries, AttributeFilter filter) {
+        RoaringBitmap matches = new RoaringBitmap();
+        for (int id = 0; id < entries.size(); id++) {
+            if (filter.matches(entries.get(id))) {
+                matches.add(id);
+            }
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,144 @@
+package cynicdog.io.index;
+
+import cynicdog.io.data.Attribute;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HnswIndexTest {
+
+    static final int DIMENSION = 32;
+    static final int K = 10;
+
+    final Random random = new Random(42);
+
+    @Test
+    void recallAgainstExactSearch() {
+        HnswIndex graph = index(false);
+        HnswIndex exact = index(true);
+        for (int i = 0; i < 5000; i++) {
+            float[] vector = vector();
+            graph.add("key" + i, vector);
+            exact.add("key" + i, vector);
+        }
+
+        assertTrue(recall(graph, exact) >= 0.95);
+    }
+
+    @Test
+    void returnsKLiveResultsAmongTombstones() {
+        HnswIndex index = index(false);
+        for (int i = 0; i < 2000; i++) {
+            index.add("key" + i, vector());
+        }
+        // Just under the compaction threshold, so the traversal has to route through the tombstones
+        for (int i = 0; i < HnswIndex.COMPACTION_MIN_TOMBSTONES - 1; i++) {
+            index.remove("key" + i);
+        }
+
+        for (int query = 0; query < 50; query++) {
+            List<SearchResult> results = index.search(vector(), K);
+            assertEquals(K, results.size());
+            results.forEach(result -> assertTrue(Integer.parseInt(result.key().substring(3)) >= HnswIndex.COMPACTION_MIN_TOMBSTONES - 1));
+        }
+        assertEquals(2000, index.nodes.size());
+    }
+
+    @Test
+    void compactsOnceTombstonesDominate() {
+        HnswIndex index = index(false);
+        HnswIndex exact = index(true);
+        for (int i = 0; i < 4000; i++) {
+            float[] vector = vector();
+            List<Attribute> attributes = List.of(new Attribute("parity", String.valueOf(i % 2)));
+            index.add("key" + i, vector, attributes);
+            if (i >= 3000) {
+                exact.add("key" + i, vector, attributes);
+            }
+        }
+        for (int i = 0; i < 3000; i++) {
+            index.remove("key" + i);
+        }
+
+        // Rebuilt over the 2000 live entries once half the nodes were tombstones
+        assertEquals(1000, index.size());
+        assertEquals(1, index.compactions.sum());
+        assertEquals(2000, index.nodes.size());
+        assertEquals(index.idsByKey.size(), index.attributes.live.getCardinality());
+        assertTrue(recall(index, exact) >= 0.95);
+
+        AttributeFilter even = AttributeFilter.fromJson(new JsonObject().put("parity", 0));
+        List<SearchResult> results = index.search(vector(), K, even);
+        assertEquals(K, results.size());
+        results.forEach(result -> assertEquals(0, Integer.parseInt(result.key().substring(3)) % 2));
+    }
+
+    @Test
+    void putsOfAnUnchangedEntryAddNoNode() {
+        HnswIndex index = index(false);
+        float[] vector = vector();
+        List<Attribute> attributes = List.of(new Attribute("tag", "a"), new Attribute("tag", "b"));
+
+        index.add("key", vector, attributes);
+        index.add("key", vector.clone(), List.of(new Attribute("tag", "b"), new Attribute("tag", "a")));
+        assertEquals(1, index.nodes.size());
+
+        index.add("key", vector, List.of(new Attribute("tag", "a")));
+        assertEquals(2, index.nodes.size());
+        index.add("key", vector(), List.of(new Attribute("tag", "a")));
+        assertEquals(3, index.nodes.size());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void filteredSearchReturnsMatchesOnly() {
+        HnswIndex index = index(false);
+        for (int i = 0; i < 3000; i++) {
+            index.add("key" + i, vector(), List.of(new Attribute("bucket", String.valueOf(i % 10))));
+        }
+
+        AttributeFilter filter = AttributeFilter.fromJson(new JsonObject().put("bucket", 3));
+        for (int query = 0; query < 20; query++) {
+            List<SearchResult> results = index.search(vector(), K, filter);
+            assertEquals(K, results.size());
+            results.forEach(result -> assertEquals(3, Integer.parseInt(result.key().substring(3)) % 10));
+        }
+        assertFalse(index.search(vector(), K, AttributeFilter.fromJson(new JsonObject().put("bucket", 11))).iterator().hasNext());
+    }
+
+    HnswIndex index(boolean exact) {
+        return new HnswIndex(Metric.COSINE, VectorStorage.create("none", Metric.COSINE, 8, 256, false), 16, 100, 64, exact);
+    }
+
+    double recall(HnswIndex index, HnswIndex exact) {
+        int found = 0;
+        int queries = 100;
+        for (int query = 0; query < queries; query++) {
+            float[] vector = vector();
+            Set<String> expected = new HashSet<>();
+            exact.search(vector, K).forEach(result -> expected.add(result.key()));
+            for (SearchResult result : index.search(vector, K)) {
+                if (expected.contains(result.key())) {
+                    found++;
+                }
+            }
+        }
+        return (double) found / (queries * K);
+    }
+
+    float[] vector() {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,127 @@
+package cynicdog.io.index;
+
+import cynicdog.io.data.Embedding;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.infinispan.remoting.transport.Address;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class VectorSearchTest {
+
+    static final Address NODE_A = new Node("a");
+    static final Address NODE_B = new Node("b");
+    static final Address NODE_C = new Node("c");
+
+    Vertx vertx;
+    VectorSearch search;
+
+    @BeforeEach
+    void start() {
+        vertx = Vertx.vertx();
+        search = new VectorSearch(vertx, "test", vertx.createSharedWorkerExecutor("search"),
+                new HnswIndex(Metric.COSINE, VectorStorage.create("none", Metric.COSINE, 8, 256, false), 16, 100, 64, false),
+                500, 3, 0);
+    }
+
+    @AfterEach
+    void stop() {
+        search.detach();
+        vertx.close().toCompletionStage().toCompletableFuture().join();
+    }
+
+    @Test
+    void mergesThePartitionsIntoTheTopK() throws Exception {
+        partition(NODE_A, hit("a1", 0.9), hit("moved", 0.5), hit("a2", 0.3));
+        partition(NODE_B, hit("b1", 0.8), hit("moved", 0.7));
+
+        List<SearchHit> hits = await(search.scatter("test", owners(NODE_A, NODE_B), new JsonObject().put("k", 3), 3));
+
+        // An entry reported by two partitions while it moves is kept once, with its better score
+        assertEquals(List.of("a1", "b1", "moved"), hits.stream().map(SearchHit::key).toList());
+        assertEquals(0.7, hits.get(2).similarity(), 1e-9);
+    }
+
+    @Test
+    void failsWhenAPartitionFails() {
+        partition(NODE_A, hit("a1", 0.9));
+        vertx.eventBus().consumer(VectorSearch.address("test", NODE_B), msg -> msg.fail(500, "Partial search failed"));
+
+        assertUnavailable(search.scatter("test", owners(NODE_A, NODE_B), new JsonObject(), 1));
+    }
+
+    @Test
+    void failsWhenAPartitionIsMissing() {
+        partition(NODE_A, hit("a1", 0.9));
+        partition(NODE_B, hit("b1", 0.8));
+
+        // Nothing answers for the third owner, so the search gives up rather than answering from two thirds
+        assertUnavailable(search.scatter("test", owners(NODE_A, NODE_B, NODE_C), new JsonObject(), 1));
+    }
+
+    @Test
+    void keepsLookingUntilItHasKPrimaries() {
+        Map<String, Embedding> entries = new HashMap<>();
+        for (int i = 0; i < 40; i++) {
+            // Backups all lie nearer to the query than any primary
+            String key = (i < 30 ? "backup" : "primary") + i;
+            float[] vector = {1, i / 10f, 0, 0};
+            entries.put(key, new Embedding(vector, key));
+            search.index.add(key, vector, List.of());
+        }
+
+        List<SearchHit> hits = search.nearest(new float[]{1, 0, 0, 0}, 3, null, entries, key -> key.startsWith("primary"), 2);
+
+        assertEquals(List.of("primary30", "primary31", "primary32"), hits.stream().map(SearchHit::key).toList());
+    }
+
+    void partition(Address node, JsonObject... hits) {
+        vertx.eventBus().<JsonObject>consumer(VectorSearch.address("test", node), msg -> msg.reply(new JsonArray(List.of(hits))));
+    }
+
+    static JsonObject hit(String key, double similarity) {
+        return new JsonObject().put("key", key).put("similarity", similarity).put("document", key);
+    }
+
+    static Set<Address> owners(Address... nodes) {
+        return new LinkedHashSet<>(List.of(nodes));
+    }
+
+    static void assertUnavailable(Future<?> future) {
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> future.toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS));
+        assertEquals(503, assertInstanceOf(ReplyException.class, failure.getCause()).failureCode());
+    }
+
+    static <T> T await(Future<T> future) throws Exception {
+        return future.toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    record Node(String name) implements Address {
+
+        @Override
+        public int compareTo(Address other) {
+            return toString().compareTo(other.toString());
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package cynicdog.io.index;
+
+import cynicdog.io.util.ScalarCode;
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VectorStorageTest {
+
+    static final int DIMENSION = 48;
+
+    final Random random = new Random(7);
+
+    @Test
+    void offHeapStorageScoresLikeHeapStorage() {
+        VectorStorage heap = VectorStorage.create("none", Metric.COSINE, 8, 256, false);
+        VectorStorage offHeap = VectorStorage.create("none", Metric.COSINE, 8, 256, true);
+        assertTrue(offHeap.offHeap());
+
+        // More than one block of rows
+        int count = FloatVectorStorage.BLOCK_ROWS * 2 + 5;
+        float[][] vectors = new float[count][];
+        for (int id = 0; id < count; id++) {
+            vectors[id] = Metric.COSINE.prepare(vector());
+            heap.put(id, vectors[id]);
+            offHeap.put(id, vectors[id]);
+        }
+
+        float[] query = Metric.COSINE.prepare(vector());
+        VectorStorage.Scorer expected = heap.scorer(query);
+        VectorStorage.Scorer actual = offHeap.scorer(query);
+        for (int id = 0; id < count; id++) {
+            assertEquals(expected.score(id), actual.score(id), 1e-6);
+            assertArrayEquals(vectors[id], offHeap.reconstruct(id));
+        }
+        assertTrue(offHeap.holds(3, vectors[3]));
+        assertFalse(offHeap.holds(3, vectors[4]));
+    }
+
+    @Test
+    void compactRenumbersRows() {
+        for (String quantization : new String[]{"none", "int8", "pq"}) {
+            for (boolean offHeap : new boolean[]{false, true}) {
+                VectorStorage storage = VectorStorage.create(quantization, Metric.DOT_PRODUCT, 8, 256, offHeap);
+                for (int id = 0; id < 600; id++) {
+                    storage.put(id, vector());
+                }
+
+                int[] kept = {5, 17, 300, 599};
+                VectorStorage compacted = storage.compact(kept);
+                for (int id = 0; id < kept.length; id++) {
+                    assertArrayEquals(storage.reconstruct(kept[id]), compacted.reconstruct(id), quantization);
+                }
+                assertTrue(compacted.memoryBytes() < storage.memoryBytes(), quantization);
+            }
+        }
+    }
+
+    @Test
+    void int8ScoresStayCloseToExactScores() {
+        VectorStorage exact = VectorStorage.create("none", Metric.COSINE, 8, 256, false);
+        VectorStorage int8 = VectorStorage.create("int8", Metric.COSINE, 8, 256, false);
+        for (int id = 0; id < 500; id++) {
+            float[] vector = Metric.COSINE.prepare(vector());
+            exact.put(id, vector);
+            int8.put(id, vector);
+        }
+        assertTrue(int8.lossy());
+        // Its scores are as good as the cache's int8 codes would give, so there is nothing to rescore
+        assertFalse(int8.rescored());
+        assertEquals(500L * (DIMENSION + 12), int8.memoryBytes());
+
+        float[] query = Metric.COSINE.prepare(vector());
+        VectorStorage.Scorer expected = exact.scorer(query);
+        VectorStorage.Scorer estimated = int8.scorer(query);
+        for (int id = 0; id < 500; id++) {
+            assertEquals(expected.score(id), estimated.score(id), 0.01);
+        }
+    }
+
+    @Test
+    void int8L2ScoresStayCloseToExactScores() {
+        VectorStorage exact = VectorStorage.create("none", Metric.L2, 8, 256, false);
+        VectorStorage int8 = VectorStorage.create("int8", Metric.L2, 8, 256, false);
+        for (int id = 0; id < 200; id++) {
+            float[] vector = vector();
+            exact.put(id, vector);
+            int8.put(id, vector);
+        }
+
+        float[] query = vector();
+        VectorStorage.Scorer expected = exact.scorer(query);
+        VectorStorage.Scorer estimated = int8.scorer(query);
+        for (int id = 0; id < 200; id++) {
+            // Relative to squared distances around 2 * DIMENSION
+            assertEquals(expected.score(id), estimated.score(id), 1);
+        }
+    }
+
+    @Test
+    void productQuantizationTrainsOnceEnoughVectorsArrive() {
+        VectorStorage pq = VectorStorage.create("pq", Metric.COSINE, 16, 1000, false);
+        float[][] vectors = new float[3000][];
+        for (int id = 0; id < vectors.length; id++) {
+            vectors[id] = Metric.COSINE.prepare(vector());
+            pq.put(id, vectors[id]);
+            // Until the codebooks are trained the vectors are kept and scored as they are
+            assertEquals(id >= 999, pq.lossy());
+            assertEquals(id >= 999, pq.rescored());
+        }
+        assertTrue(pq.memoryBytes() < 3000L * DIMENSION * Float.BYTES / 2);
+
+        // Shortlisting 4k candidates on the codes and rescoring them against the int8 codes of the cache finds
+        // most of the exact top k
+        int k = 10;
+        int found = 0;
+        int queries = 50;
+        for (int q = 0; q < queries; q++) {
+            float[] query = Metric.COSINE.prepare(vector());
+            VectorStorage.Scorer scorer = pq.scorer(query);
+            List<Integer> shortlist = top(vectors.length, 4 * k, scorer::score);
+            List<Integer> rescored = shortlist.stream()
+                    .sorted(Comparator.comparingDouble((Integer id) -> Metric.COSINE.score(query, ScalarCode.encode(vectors[id]).decode())).reversed())
+                    .limit(k)
+                    .toList();
+            Set<Integer> expected = new HashSet<>(top(vectors.length, k, id -> Metric.COSINE.score(query, vectors[id])));
+            found += (int) rescored.stream().filter(expected::contains).count();
+        }
+        assertTrue((double) found / (queries * k) >= 0.8, "recall " + (double) found / (queries * k));
+    }
+
+    static List<Integer> top(int count, int k, IntToDoubleFunction score) {
+        return IntStream.range(0, count).boxed()
+                .sorted(Comparator.comparingDouble((Integer id) -> score.applyAsDouble(id)).reversed())
+                .limit(k)
+                .toList();
+    }
+
+    float[] vector() {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}
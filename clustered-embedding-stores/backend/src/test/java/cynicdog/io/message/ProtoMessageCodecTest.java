@@ -0,0 +1,103 @@
+package cynicdog.io.message;
+
+import io.vertx.core.buffer.Buffer;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProtoMessageCodecTest {
+
+    @Test
+    void roundTripsPrompts() {
+        Prompt prompt = roundTrip(Prompt.class, new Prompt("what is a vector?", true));
+        assertEquals("what is a vector?", prompt.getText());
+        assertTrue(prompt.isIncludeVectors());
+
+        PromptBatch batch = roundTrip(PromptBatch.class, new PromptBatch(List.of("a", "", "\u00e9t\u00e9"), false));
+        assertEquals(List.of("a", "", "\u00e9t\u00e9"), batch.getTexts());
+        assertFalse(batch.isIncludeVectors());
+        assertNull(batch.getAttributes());
+    }
+
+    @Test
+    void roundTripsAttributesAndFilters() {
+        Prompt prompt = roundTrip(Prompt.class, new Prompt("q", false, "{\"tag\":\"a\"}", "{\"year\":{\"gte\":2001}}"));
+        assertEquals("{\"tag\":\"a\"}", prompt.getAttributes());
+        assertEquals("{\"year\":{\"gte\":2001}}", prompt.getFilter());
+
+        PromptBatch batch = roundTrip(PromptBatch.class, new PromptBatch(List.of("a"), true, "{\"tag\":\"b\"}"));
+        assertEquals("{\"tag\":\"b\"}", batch.getAttributes());
+        assertTrue(batch.isIncludeVectors());
+    }
+
+    @Test
+    void roundTripsEmbedResultsWithTheirVectors() {
+        EmbedResult sent = new EmbedResult("default", List.of("k1", "k2"), "pod-0", 42)
+                .withVectors(List.of(new float[]{1, -2, 0.5f}, new float[]{3, 4, Float.MIN_VALUE}));
+
+        EmbedResult received = roundTrip(EmbedResult.class, sent);
+
+        assertEquals("default", received.getCollection());
+        assertEquals(List.of("k1", "k2"), received.getKeys());
+        assertEquals("pod-0", received.getPod());
+        assertEquals(42, received.getCollectionSize());
+        assertEquals(3, received.getDimension());
+        assertArrayEquals(new float[]{1, -2, 0.5f}, received.vector(0));
+        assertArrayEquals(new float[]{3, 4, Float.MIN_VALUE}, received.vector(1));
+
+        // Without vectors, nothing but the header travels
+        EmbedResult plain = roundTrip(EmbedResult.class, new EmbedResult("default", List.of("k1"), "pod-0", 1));
+        assertEquals(0, plain.getDimension());
+        assertNull(plain.getVectors());
+    }
+
+    @Test
+    void roundTripsGenerateResultsWithTheirReferences() {
+        GenerateResult received = roundTrip(GenerateResult.class, new GenerateResult("an answer",
+                List.of(new Reference("k1", 0.75, "first"), new Reference("k2", -0.25, "second")), "pod-1", 7));
+
+        assertEquals("an answer", received.getResponse());
+        assertEquals("pod-1", received.getPod());
+        assertEquals(7, received.getCollectionSize());
+        assertEquals(2, received.getReferences().size());
+        Reference second = received.getReferences().get(1);
+        assertEquals("k2", second.getKey());
+        assertEquals(-0.25, second.getSimilarity());
+        assertEquals("second", second.getDocument());
+    }
+
+    @Test
+    void roundTripsIngestResults() {
+        IngestResult received = roundTrip(IngestResult.class, new IngestResult("docs", 32, 5, "pod-2"));
+
+        assertEquals("docs", received.getCollection());
+        assertEquals(32, received.getChunks());
+        assertEquals(5, received.getSkipped());
+        assertEquals("pod-2", received.getPod());
+    }
+
+    @Test
+    void decodesFromTheMessagePosition() {
+        ProtoMessageCodec<Prompt> codec = new ProtoMessageCodec<>(Prompt.class);
+        // The event bus writes its own headers ahead of the body, and may append more after it
+        Buffer buffer = Buffer.buffer().appendString("header");
+        codec.encodeToWire(buffer, new Prompt("body", false));
+        buffer.appendString("trailer");
+
+        assertEquals("body", codec.decodeFromWire(6, buffer).getText());
+        assertEquals("proto.Prompt", codec.name());
+    }
+
+    static <T> T roundTrip(Class<T> type, T message) {
+        ProtoMessageCodec<T> codec = new ProtoMessageCodec<>(type);
+        Buffer buffer = Buffer.buffer();
+        codec.encodeToWire(buffer, message);
+        return codec.decodeFromWire(0, buffer);
+    }
+}
@@ -0,0 +1,213 @@
+package cynicdog.io.store;
+
+import cynicdog.io.data.Attribute;
+import cynicdog.io.data.Embedding;
+import io.vertx.core.Vertx;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SegmentStoreTest {
+
+    @TempDir
+    Path directory;
+
+    Vertx vertx;
+
+    @BeforeEach
+    void start() {
+        vertx = Vertx.vertx();
+    }
+
+    @AfterEach
+    void stop() {
+        vertx.close().toCompletionStage().toCompletableFuture().join();
+    }
+
+    @Test
+    void restoresTheLastRecordOfEveryKey() throws IOException {
+        SegmentStore store = store(8);
+        store.append("a", new Embedding(new float[]{1, 2, 3}, "alpha"));
+        store.append("b", new Embedding(new float[]{4, 5, 6}, "beta", List.of(new Attribute("tag", "x"))));
+        store.append("c", new Embedding(new float[]{7, 8, 9}, "gamma"));
+        store.append("b", new Embedding(new float[]{4, 5, 7}, "beta", List.of(new Attribute("tag", "y"))));
+        store.remove("c");
+        store.sync();
+
+        Map<String, Embedding> entries = store(8).load();
+        assertEquals(List.of("a", "b"), List.copyOf(entries.keySet()));
+        assertArrayEquals(new float[]{4, 5, 7}, entries.get("b").getLatentScores());
+        assertEquals(List.of(new Attribute("tag", "y")), entries.get("b").getAttributes());
+        // Segments smaller than a vector: every put above went to a segment of its own
+        assertTrue(store.records.size() > 1);
+    }
+
+    @Test
+    void skipsEntriesItAlreadyHas() throws IOException {
+        SegmentStore store = store(1 << 20);
+        store.append("a", new Embedding(new float[]{1, 2}, "alpha", List.of(new Attribute("tag", "x"))));
+        store.append("a", new Embedding(new float[]{1, 2}, "alpha", List.of(new Attribute("tag", "x"))));
+        assertEquals(1, store.totalRecords);
+
+        // The same strings split differently are a different entry
+        store.append("a", new Embedding(new float[]{1, 2}, "alpha", List.of(new Attribute("ta", "gx"))));
+        assertEquals(2, store.totalRecords);
+    }
+
+    @Test
+    void truncatesATornTail() throws IOException {
+        SegmentStore store = store(1 << 20);
+        store.append("a", new Embedding(new float[]{1, 2, 3}, "alpha"));
+        store.append("b", new Embedding(new float[]{4, 5, 6}, "beta"));
+        store.sync();
+
+        Path table = store.tablePath(0);
+        long size = Files.size(table);
+        try (FileChannel channel = FileChannel.open(table, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 3);
+        }
+
+        SegmentStore restored = store(1 << 20);
+        Map<String, Embedding> entries = restored.load();
+        assertEquals(List.of("a"), List.copyOf(entries.keySet()));
+        assertTrue(Files.size(table) < size - 3);
+
+        // Appends after the load go to a new segment and survive the next one
+        restored.append("c", new Embedding(new float[]{7, 8, 9}, "gamma"));
+        restored.sync();
+        assertEquals(List.of("a", "c"), List.copyOf(store(1 << 20).load().keySet()));
+    }
+
+    @Test
+    void compactsSupersededRecords() throws IOException {
+        SegmentStore store = store(4096);
+        store.append("gone", new Embedding(new float[]{0, 0}, "gone"));
+        store.remove("gone");
+        store.append("long gone", new Embedding(new float[]{0, 0}, "long gone"));
+        store.delete("long gone", 1);
+        int keys = 100;
+        int rounds = SegmentStore.COMPACTION_MIN_RECORDS / keys + 10;
+        for (int round = 0; round < rounds; round++) {
+            for (int key = 0; key < keys; key++) {
+                store.append("k" + key, new Embedding(new float[]{round, key}, "document " + key + " round " + round));
+            }
+        }
+        store.remove("k0");
+        store.sync();
+
+        // Never more dead records than the minimum, the live ones and one segment's worth
+        assertTrue(store.totalRecords - store.live.size() <= SegmentStore.COMPACTION_MIN_RECORDS + keys + 4096 / 8);
+        assertFalse(Files.exists(store.tablePath(0)));
+
+        SegmentStore restored = store(4096);
+        Map<String, Embedding> entries = restored.load();
+        assertEquals(keys - 1, entries.size());
+        // Tombstones are carried over until they are past the retention
+        assertEquals(Set.of("gone", "k0"), restored.removed.keySet());
+        assertArrayEquals(new float[]{rounds - 1, 42}, entries.get("k42").getLatentScores());
+        assertEquals("document 42 round " + (rounds - 1), entries.get("k42").getDocument());
+    }
+
+    @Test
+    void restartOfADistributedClusterKeepsEveryNodesEntries() throws IOException {
+        List<String> nodes = List.of("a", "b", "c");
+        long now = System.currentTimeMillis();
+        // The stale node restoring first, and last
+        for (List<String> order : List.of(List.of("c", "a", "b"), List.of("b", "a", "c"))) {
+            Path cluster = directory.resolve(String.join("", order));
+            Map<String, SegmentStore> running = new HashMap<>();
+            for (String node : nodes) {
+                running.put(node, new SegmentStore(vertx, node, Files.createDirectories(cluster.resolve(node)), 1 << 20, 60_000, 60_000, false));
+            }
+            Map<String, Set<String>> owned = new HashMap<>();
+            for (int i = 0; i < 30; i++) {
+                // Each key on two of the three nodes
+                for (String node : List.of(nodes.get(i % 3), nodes.get((i + 1) % 3))) {
+                    running.get(node).append("k" + i, new Embedding(new float[]{i}, "document " + i, List.of(), now - 3000));
+                    owned.computeIfAbsent(node, n -> new HashSet<>()).add("k" + i);
+                }
+            }
+            // c goes down; meanwhile k1 is removed and k4 embedded again, both seen by b only
+            running.get("b").delete("k1", now - 2000);
+            running.get("b").append("k4", new Embedding(new float[]{4}, "document 4", List.of(new Attribute("tag", "new")), now - 1000));
+            for (SegmentStore store : running.values()) {
+                store.sync();
+            }
+
+            // Every node comes back in turn; the later ones join a cluster that already holds data
+            Cluster restarted = new Cluster();
+            for (String node : order) {
+                new SegmentStore(vertx, node, cluster.resolve(node), 1 << 20, 60_000, 60_000, false).restore(restarted);
+            }
+
+            Set<String> expected = new HashSet<>();
+            owned.values().forEach(expected::addAll);
+            expected.remove("k1");
+            assertEquals(expected, restarted.entries.keySet(), "restored in the order " + order);
+            assertEquals(List.of(new Attribute("tag", "new")), restarted.entries.get("k4").getAttributes());
+            for (String node : nodes) {
+                // Nothing restored is dropped from the segments. Restoring after b, c deletes its stale copy of k1
+                // itself; restoring before, it is the removal b publishes that reaches c's listener
+                Set<String> kept = new HashSet<>(owned.get(node));
+                if (!node.equals("c") || order.indexOf("c") > order.indexOf("b")) {
+                    kept.remove("k1");
+                }
+                assertEquals(kept, new SegmentStore(vertx, node, cluster.resolve(node), 1 << 20, 60_000, 60_000, false).load().keySet(), node);
+            }
+        }
+    }
+
+    SegmentStore store(long segmentBytes) {
+        return new SegmentStore(vertx, "test", directory, segmentBytes, 60_000, 60_000, false);
+    }
+
+    /**
+     * A distributed collection as a restore sees it: one copy of every entry, and the removals every node can read.
+     */
+    static class Cluster implements SegmentStore.Target {
+        final Map<String, Embedding> entries = new HashMap<>();
+        final Map<String, Long> tombstones = new HashMap<>();
+
+        @Override
+        public Long removedAt(String key) {
+            return tombstones.get(key);
+        }
+
+        @Override
+        public void remove(String key, long removedAt) {
+            tombstones.merge(key, removedAt, Math::max);
+            Embedding current = entries.get(key);
+            if (current != null && current.getVersion() < removedAt) {
+                entries.remove(key);
+            }
+        }
+
+        @Override
+        public CompletableFuture<Embedding> putIfAbsent(String key, Embedding embedding) {
+            return CompletableFuture.completedFuture(entries.putIfAbsent(key, embedding));
+        }
+
+        @Override
+        public void replace(String key, Embedding current, Embedding embedding) {
+            entries.replace(key, current, embedding);
+        }
+    }
+}
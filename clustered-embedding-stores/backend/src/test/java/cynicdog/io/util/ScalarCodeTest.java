@@ -0,0 +1,77 @@
+package cynicdog.io.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ScalarCodeTest {
+
+    @Test
+    void decodesWithinHalfAStep() {
+        float[] vector = random(new Random(7), 384);
+
+        ScalarCode code = ScalarCode.encode(vector);
+        float[] decoded = code.decode();
+
+        assertEquals(vector.length, code.levels().length);
+        for (int i = 0; i < vector.length; i++) {
+            assertEquals(vector[i], decoded[i], code.scale() / 2 + 1e-6f);
+        }
+        // Both ends of the range are kept exactly
+        assertEquals(-128, min(code.levels()));
+        assertEquals(127, max(code.levels()));
+    }
+
+    @Test
+    void keepsAConstantVector() {
+        assertArrayEquals(new float[]{0.5f, 0.5f, 0.5f}, ScalarCode.encode(new float[]{0.5f, 0.5f, 0.5f}).decode());
+        assertArrayEquals(new float[0], ScalarCode.encode(new float[0]).decode());
+    }
+
+    @Test
+    void kernelsAgreeOnCodes() {
+        Random random = new Random(11);
+        VectorKernel scalar = new ScalarKernel();
+        VectorKernel simd = new SimdKernel();
+
+        // Lengths on either side of every vector width, so the tail loop runs too
+        for (int length : new int[]{1, 7, 16, 31, 64, 65, 100, 384, 1023}) {
+            float[] query = random(random, length);
+            byte[] levels = ScalarCode.encode(random(random, length)).levels();
+
+            double expected = 0;
+            for (int i = 0; i < length; i++) {
+                expected += query[i] * levels[i];
+            }
+            assertEquals(expected, scalar.dot(query, levels), 1e-3 * length, "scalar, length " + length);
+            assertEquals(expected, simd.dot(query, levels), 1e-3 * length, "simd, length " + length);
+        }
+    }
+
+    static float[] random(Random random, int length) {
+        float[] vector = new float[length];
+        for (int i = 0; i < length; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    static int min(byte[] levels) {
+        int min = Byte.MAX_VALUE;
+        for (byte level : levels) {
+            min = Math.min(min, level);
+        }
+        return min;
+    }
+
+    static int max(byte[] levels) {
+        int max = Byte.MIN_VALUE;
+        for (byte level : levels) {
+            max = Math.max(max, level);
+        }
+        return max;
+    }
+}
@@ -0,0 +1,69 @@
+package cynicdog.io.util;
+
+import io.vertx.core.buffer.Buffer;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class VectorCodecTest {
+
+    @Test
+    void packsLittleEndianFloats() {
+        float[] vector = {1.5f, -0.25f, Float.MIN_VALUE, Float.MAX_VALUE, 0f};
+
+        byte[] packed = VectorCodec.pack(vector);
+
+        assertEquals(vector.length * Float.BYTES, packed.length);
+        // 1.5f is 0x3FC00000, least significant byte first
+        assertArrayEquals(new byte[]{0, 0, (byte) 0xC0, 0x3F}, Arrays.copyOf(packed, 4));
+        assertArrayEquals(vector, VectorCodec.unpack(packed));
+        assertNull(VectorCodec.pack(null));
+    }
+
+    @Test
+    void unboxesScores() {
+        assertArrayEquals(new float[]{1f, 2f}, VectorCodec.unbox(List.of(1f, 2f)));
+        assertArrayEquals(new float[0], VectorCodec.unbox(null));
+    }
+
+    @Test
+    void parsesTheVectorOfAField() {
+        Buffer body = Buffer.buffer("""
+                {"model": "m", "meta": {"embedding": [9]}, "embedding": [0.5, -1, 2e-3], "done": true}""");
+
+        assertArrayEquals(new float[]{0.5f, -1f, 2e-3f}, VectorCodec.parseVector(body, "embedding"));
+    }
+
+    @Test
+    void parsesVectorsLongerThanTheInitialBuffer() {
+        float[] vector = new float[2500];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = i / 7f;
+        }
+        StringBuilder json = new StringBuilder("{\"embeddings\": [[1], [");
+        for (int i = 0; i < vector.length; i++) {
+            json.append(i == 0 ? "" : ",").append(vector[i]);
+        }
+        json.append("], []]}");
+
+        List<float[]> vectors = VectorCodec.parseVectors(Buffer.buffer(json.toString()), "embeddings");
+
+        assertEquals(3, vectors.size());
+        assertArrayEquals(new float[]{1f}, vectors.get(0));
+        assertArrayEquals(vector, vectors.get(1));
+        assertArrayEquals(new float[0], vectors.get(2));
+    }
+
+    @Test
+    void rejectsMalformedResponses() {
+        assertThrows(IllegalArgumentException.class, () -> VectorCodec.parseVector(Buffer.buffer("[1, 2]"), "embedding"));
+        assertThrows(IllegalArgumentException.class, () -> VectorCodec.parseVector(Buffer.buffer("{\"other\": [1]}"), "embedding"));
+        assertThrows(IllegalArgumentException.class, () -> VectorCodec.parseVectors(Buffer.buffer("{\"embeddings\": [[1, "), "embeddings"));
+    }
+}
@@ -1,10 +1,31 @@
 package cynicdog.io;
 
+import cynicdog.io.cluster.ClusterProfile;
+import cynicdog.io.message.Backpressure;
+import cynicdog.io.message.EmbedResult;
+import cynicdog.io.ingest.Ingestion;
+import cynicdog.io.ingest.TextChunker;
+import cynicdog.io.message.GenerateResult;
+import cynicdog.io.message.IngestResult;
+import cynicdog.io.message.Prompt;
+import cynicdog.io.message.PromptBatch;
+import cynicdog.io.message.ProtoMessageCodec;
+import cynicdog.io.message.Reference;
+import cynicdog.io.metrics.Metrics;
+import io.micrometer.core.instrument.Timer;
 import io.vertx.core.*;
 import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
 import io.vertx.core.impl.logging.Logger;
 import io.vertx.core.impl.logging.LoggerFactory;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
 import io.vertx.core.spi.cluster.ClusterManager;
 import io.vertx.ext.cluster.infinispan.ClusterHealthCheck;
 import io.vertx.ext.cluster.infinispan.InfinispanClusterManager;
@@ -13,33 +34,91 @@ import io.vertx.ext.healthchecks.HealthChecks;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.BodyHandler;
-import org.infinispan.configuration.cache.CacheMode;
-import org.infinispan.configuration.cache.ConfigurationBuilder;
-import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import io.vertx.micrometer.PrometheusScrapingHandler;
 import org.infinispan.manager.DefaultCacheManager;
 
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
 public class Main extends AbstractVerticle {
 
     private static final Logger logger = LoggerFactory.getLogger(Main.class);
 
     private static final int HTTP_PORT = Integer.parseInt(System.getenv().getOrDefault("HTTP_PORT", "8080"));
 
+    // A streamed answer is abandoned only if no chunk arrives for this long, however long the answer is
+    private static final long STREAM_IDLE_TIMEOUT_MS = Long.parseLong(System.getenv().getOrDefault("STREAM_IDLE_TIMEOUT_MS", "40000"));
+
+    // How often the event loop lag reported on /metrics is sampled
+    private static final long EVENT_LOOP_LAG_INTERVAL_MS = Long.parseLong(System.getenv().getOrDefault("EVENT_LOOP_LAG_INTERVAL_MS", "1000"));
+
+    // Verticle instances, each serving HTTP on an event loop of its own; by default one per core the container may use
+    private static final int VERTICLE_INSTANCES = Integer.parseInt(System.getenv().getOrDefault("VERTICLE_INSTANCES", String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+    // Ingestion: default chunk size and overlap in characters, chunks per batch sent to a backend, batches in
+    // flight per upload, and how often a batch turned away by an overloaded backend is retried
+    private static final int INGEST_CHUNK_SIZE = Integer.parseInt(System.getenv().getOrDefault("INGEST_CHUNK_SIZE", "1000"));
+    private static final int INGEST_CHUNK_OVERLAP = Integer.parseInt(System.getenv().getOrDefault("INGEST_CHUNK_OVERLAP", "200"));
+    private static final int INGEST_BATCH_SIZE = Integer.parseInt(System.getenv().getOrDefault("INGEST_BATCH_SIZE", "32"));
+    private static final int INGEST_PIPELINE_DEPTH = Integer.parseInt(System.getenv().getOrDefault("INGEST_PIPELINE_DEPTH", "2"));
+    private static final int INGEST_MAX_RETRIES = Integer.parseInt(System.getenv().getOrDefault("INGEST_MAX_RETRIES", "10"));
+
     @Override
     public void start() throws Exception {
 
         Router router = Router.router(vertx);
 
+        // Ahead of the body handler, so documents are read as they arrive instead of buffered whole
+        for (String prefix : new String[]{"", "/collections/:collection"}) {
+            router.post(prefix + "/ingest").handler(this::handleIngestRequest);
+        }
+
         router.route().handler(BodyHandler.create());
 
         router.get("/health").handler(context -> context.response().end("OK"));
         router.get("/readiness").handler(HealthCheckHandler.createWithHealthChecks(HealthChecks
                 .create(vertx)
                 .register("cluster-health", ClusterHealthCheck.createProcedure(vertx, false))));
+        router.get("/metrics").handler(PrometheusScrapingHandler.create());
+
+        Metrics.monitorEventLoop(vertx, EVENT_LOOP_LAG_INTERVAL_MS);
+
+        // Routes at the root act on the default collection
+        for (String prefix : new String[]{"", "/collections/:collection"}) {
+            router.post(prefix + "/evict").handler(context -> handleRequest(context, "evict"));
+            router.post(prefix + "/evictAll").handler(context -> handleRequest(context, "evictAll"));
+            router.post(prefix + "/embed").handler(context -> handleRequest(context, "embed"));
+            router.post(prefix + "/embedBatch").handler(this::handleBatchRequest);
+            router.post(prefix + "/generate").handler(context -> {
+                if (context.body().asJsonObject().getBoolean("stream", false)) {
+                    handleStreamingRequest(context);
+                } else {
+                    handleRequest(context, "generate");
+                }
+            });
+            router.get(prefix + "/stats").handler(this::handleStatsRequest);
+        }
 
-        router.post("/evict").handler(context -> handleRequest(context, "evict"));
-        router.post("/evictAll").handler(context -> handleRequest(context, "evictAll"));
-        router.post("/embed").handler(context -> handleRequest(context, "embed"));
-        router.post("/generate").handler(context -> handleRequest(context, "generate"));
+        router.post("/collections").handler(context -> relay(context, "collections.create", context.body().asJsonObject()));
+        router.get("/collections").handler(context -> relay(context, "collections.list", ""));
+        router.delete("/collections/:collection").handler(context -> relay(context, "collections.drop", ""));
+
+        // Backend failures that carry a client error (unknown collection, wrong dimension, ...) or an overload
+        // keep their status, and a rejection tells the client when to come back
+        router.route().failureHandler(context -> {
+            if (context.failure() instanceof ReplyException failure
+                    && failure.failureType() == ReplyFailure.RECIPIENT_FAILURE
+                    && (failure.failureCode() >= 400 && failure.failureCode() < 500 || failure.failureCode() == 503)) {
+                long retryAfter = Backpressure.retryAfter(failure);
+                if (retryAfter >= 0) {
+                    context.response().putHeader("Retry-After", String.valueOf(retryAfter));
+                }
+                context.response().setStatusCode(failure.failureCode()).end(failure.getMessage());
+            } else {
+                context.next();
+            }
+        });
 
         vertx.createHttpServer()
                 .requestHandler(router)
@@ -49,32 +128,292 @@ public class Main extends AbstractVerticle {
 
     public static void main(String[] args) {
 
-        // Configure default cache manager
-        DefaultCacheManager cacheManager = new DefaultCacheManager(
-                new GlobalConfigurationBuilder()
-                        .transport()
-                        .defaultTransport()
-                        .build()
-        );
-        cacheManager.defineConfiguration("__vertx.subs", new ConfigurationBuilder().clustering().cacheMode(CacheMode.REPL_SYNC).build());
-        cacheManager.defineConfiguration("__vertx.haInfo", new ConfigurationBuilder().clustering().cacheMode(CacheMode.REPL_SYNC).build());
-        cacheManager.defineConfiguration("__vertx.nodeInfo", new ConfigurationBuilder().clustering().cacheMode(CacheMode.REPL_SYNC).build());
+        // Same cluster profile as the backends; frontends create no embeddings caches, so the data and its search
+        // partitions stay on the backends
+        DefaultCacheManager cacheManager = ClusterProfile.fromEnv().cacheManager();
 
         ClusterManager clusterManager = new InfinispanClusterManager(cacheManager);
 
-        Vertx.clusteredVertx(new VertxOptions().setClusterManager(clusterManager))
-                .compose(v -> v.deployVerticle(new Main()))
+        Vertx.clusteredVertx(Metrics.checkEventLoops(new VertxOptions().setClusterManager(clusterManager).setMetricsOptions(Metrics.options())))
+                .compose(v -> {
+                    ProtoMessageCodec.registerAll(v.eventBus());
+                    return v.deployVerticle(Main::new, new DeploymentOptions().setInstances(VERTICLE_INSTANCES));
+                })
                 .onFailure(Throwable::printStackTrace);
     }
 
     private void handleRequest(RoutingContext context, String address) {
 
-        String prompt = context.getBodyAsJson().getString("prompt");
+        JsonObject body = context.body().asJsonObject();
+        relay(context, address, body != null
+                ? new Prompt(body.getString("prompt"), body.getBoolean("includeVectors", false), encoded(body, "attributes"), encoded(body, "filter"))
+                : new Prompt(null, false));
+    }
+
+    // Attributes and filters are passed on as sent; the backend validates them
+    private static String encoded(JsonObject body, String field) {
+        Object value = body.getValue(field);
+        return value == null ? null : Json.encode(value);
+    }
+
+    private void relay(RoutingContext context, String address, Object payload) {
 
         // Set response timeout from embedding server to 40 seconds
-        vertx.eventBus().<String>request(address, prompt, new DeliveryOptions().setSendTimeout(40000))
+        request(address, payload, deliveryOptions(context).setSendTimeout(40000))
+                .map(Message::body)
+                .onSuccess(reply -> respond(context, address, reply))
+                .onFailure(context::fail);
+    }
+
+    /**
+     * Renders a backend reply as JSON when the client accepts {@code application/json}, otherwise as the
+     * plain-text summary.
+     */
+    private void respond(RoutingContext context, String address, Object reply) {
+        String accept = context.request().getHeader("Accept");
+        boolean json = accept != null && accept.contains("application/json");
+
+        if (reply instanceof EmbedResult result) {
+            respond(context, json, toJson(result), describe(address, result));
+        } else if (reply instanceof GenerateResult result) {
+            respond(context, json, toJson(result), describe(result));
+        } else {
+            context.response().end(String.valueOf(reply));
+        }
+    }
+
+    private static void respond(RoutingContext context, boolean json, JsonObject body, String text) {
+        if (json) {
+            context.response().putHeader("Content-Type", "application/json").end(body.encode());
+        } else {
+            context.response().end(text);
+        }
+    }
+
+    private static String describe(String address, EmbedResult result) {
+        String from = String.format("\nFrom: %s (Collection Size: %d)", result.getPod(), result.getCollectionSize());
+        return switch (address) {
+            case "embed" -> String.format("Embedding entry stored with key: %s %s", result.getKeys().get(0), from);
+            case "embedBatch" -> String.format("%d embedding entries stored with keys: %s %s", result.getKeys().size(), result.getKeys(), from);
+            case "evict" -> String.format("Embedding entry evicted with key: %s %s", result.getKeys().get(0), from);
+            default -> String.format("All embedding entries evicted from collection %s %s", result.getCollection(), from);
+        };
+    }
+
+    private static String describe(GenerateResult result) {
+        String documents = result.getReferences().isEmpty()
+                ? "No relevant data found."
+                : result.getReferences().stream().map(Reference::getDocument).collect(Collectors.joining("\n"));
+        return result.getResponse() + String.format("\n\nReferenced document: %s. \nFrom: %s (Collection Size: %d)",
+                documents, result.getPod(), result.getCollectionSize());
+    }
+
+    private static JsonObject toJson(EmbedResult result) {
+        JsonObject json = new JsonObject()
+                .put("collection", result.getCollection())
+                .put("keys", new JsonArray(result.getKeys()))
+                .put("pod", result.getPod())
+                .put("collectionSize", result.getCollectionSize());
+        if (result.getDimension() > 0) {
+            JsonArray vectors = new JsonArray();
+            for (int i = 0; i < result.getKeys().size(); i++) {
+                JsonArray vector = new JsonArray();
+                for (float score : result.vector(i)) {
+                    vector.add(score);
+                }
+                vectors.add(vector);
+            }
+            json.put("vectors", vectors);
+        }
+        return json;
+    }
+
+    private static JsonObject toJson(GenerateResult result) {
+        JsonArray references = new JsonArray();
+        result.getReferences().forEach(reference -> references.add(new JsonObject()
+                .put("key", reference.getKey())
+                .put("similarity", reference.getSimilarity())
+                .put("document", reference.getDocument())));
+        return new JsonObject()
+                .put("response", result.getResponse())
+                .put("references", references)
+                .put("pod", result.getPod())
+                .put("collectionSize", result.getCollectionSize());
+    }
+
+    /**
+     * Event bus request to the backends, timed per address and outcome: success, timeout, no_handlers, or
+     * the status code a backend failed it with.
+     */
+    private <T> Future<Message<T>> request(String address, Object payload, DeliveryOptions options) {
+        long started = System.nanoTime();
+        return vertx.eventBus().<T>request(address, payload, options).onComplete(res -> Timer.builder("eventbus.request")
+                .description("Round trip of event bus requests to the backends")
+                .tags("address", address, "outcome", outcome(res))
+                .publishPercentiles(0.5, 0.99)
+                .register(Metrics.registry())
+                .record(System.nanoTime() - started, TimeUnit.NANOSECONDS));
+    }
+
+    private static String outcome(AsyncResult<?> res) {
+        if (res.succeeded()) {
+            return "success";
+        }
+        if (res.cause() instanceof ReplyException failure) {
+            return failure.failureType() == ReplyFailure.RECIPIENT_FAILURE
+                    ? String.valueOf(failure.failureCode())
+                    : failure.failureType().name().toLowerCase();
+        }
+        return "error";
+    }
+
+    // Names the target collection for the backend; without one it uses the default collection
+    private static DeliveryOptions deliveryOptions(RoutingContext context) {
+        DeliveryOptions options = new DeliveryOptions();
+        String collection = context.pathParam("collection");
+        if (collection != null) {
+            options.addHeader("collection", collection);
+        }
+        return options;
+    }
+
+    /**
+     * Relays tokens as they are produced: as Server-Sent Events when the client accepts
+     * {@code text/event-stream}, otherwise as a chunked plain-text body.
+     */
+    private void handleStreamingRequest(RoutingContext context) {
+
+        JsonObject body = context.body().asJsonObject();
+        String prompt = body.getString("prompt");
+        String accept = context.request().getHeader("Accept");
+        boolean sse = accept != null && accept.contains("text/event-stream");
+
+        HttpServerResponse response = context.response()
+                .setChunked(true)
+                .putHeader("Content-Type", sse ? "text/event-stream" : "text/plain; charset=utf-8");
+
+        String replyAddress = "generate.stream." + UUID.randomUUID();
+        MessageConsumer<String> consumer = vertx.eventBus().consumer(replyAddress);
+
+        long[] idleTimer = {vertx.setTimer(STREAM_IDLE_TIMEOUT_MS, id -> finishStream(consumer, response, sse, "error", "Stream timed out"))};
+
+        consumer.handler(msg -> {
+            vertx.cancelTimer(idleTimer[0]);
+            String type = msg.headers().get("type");
+            if ("token".equals(type)) {
+                response.write(sse ? toEvent("token", msg.body()) : msg.body());
+                idleTimer[0] = vertx.setTimer(STREAM_IDLE_TIMEOUT_MS, id -> finishStream(consumer, response, sse, "error", "Stream timed out"));
+            } else {
+                finishStream(consumer, response, sse, type, msg.body());
+            }
+        });
+        response.closeHandler(v -> {
+            vertx.cancelTimer(idleTimer[0]);
+            consumer.unregister();
+        });
+
+        // The reply address has to be known cluster-wide before the backend starts sending to it
+        Promise<Void> registered = Promise.promise();
+        consumer.completionHandler(registered);
+
+        registered.future()
+                .compose(v -> request("generateStream", new JsonObject()
+                        .put("prompt", prompt)
+                        .put("filter", encoded(body, "filter"))
+                        .put("replyAddress", replyAddress), deliveryOptions(context).setSendTimeout(40000)))
+                .onFailure(err -> {
+                    vertx.cancelTimer(idleTimer[0]);
+                    consumer.unregister();
+                    context.fail(err);
+                });
+    }
+
+    private void finishStream(MessageConsumer<String> consumer, HttpServerResponse response, boolean sse, String type, String body) {
+        consumer.unregister();
+        if (response.ended() || response.closed()) {
+            return;
+        }
+        response.end(sse ? toEvent(type, body) : body);
+    }
+
+    private static String toEvent(String type, String data) {
+        StringBuilder event = new StringBuilder("event: ").append(type).append('\n');
+        for (String line : data.split("\n", -1)) {
+            event.append("data: ").append(line).append('\n');
+        }
+        return event.append('\n').toString();
+    }
+
+    private void handleBatchRequest(RoutingContext context) {
+
+        JsonObject body = context.body().asJsonObject();
+        JsonArray prompts = body.getJsonArray("prompts");
+        if (prompts == null || prompts.isEmpty()) {
+            context.response().setStatusCode(400).end("Expected a non-empty \"prompts\" array");
+            return;
+        }
+
+        relay(context, "embedBatch", new PromptBatch(
+                prompts.stream().map(String::valueOf).toList(),
+                body.getBoolean("includeVectors", false),
+                encoded(body, "attributes")));
+    }
+
+    /**
+     * Streams the body into chunks and reports progress as one JSON line per stored batch, the last one
+     * marked {@code done}. Chunk size and overlap can be set per upload, and {@code attributes} (a JSON
+     * object) is stored with every chunk.
+     */
+    private void handleIngestRequest(RoutingContext context) {
+
+        HttpServerRequest request = context.request();
+        HttpServerResponse response = context.response();
+
+        TextChunker chunker;
+        try {
+            chunker = new TextChunker(intParam(request, "chunkSize", INGEST_CHUNK_SIZE), intParam(request, "chunkOverlap", INGEST_CHUNK_OVERLAP));
+        } catch (IllegalArgumentException e) {
+            response.setStatusCode(400).end("Invalid chunking: " + e.getMessage());
+            return;
+        }
+
+        Ingestion ingestion = new Ingestion(vertx, request, chunker, INGEST_BATCH_SIZE, INGEST_PIPELINE_DEPTH, INGEST_MAX_RETRIES,
+                request.getParam("attributes"),
+                batch -> this.<IngestResult>request("ingest", batch, deliveryOptions(context).setSendTimeout(40000)).map(Message::body),
+                totals -> {
+                    if (!response.headWritten()) {
+                        response.setChunked(true).putHeader("Content-Type", "application/x-ndjson");
+                    }
+                    response.write(totals.encode() + "\n");
+                });
+        response.closeHandler(v -> ingestion.cancel());
+
+        ingestion.start()
+                .onSuccess(totals -> {
+                    if (!response.headWritten()) {
+                        response.putHeader("Content-Type", "application/x-ndjson");
+                    }
+                    response.end(totals.encode() + "\n");
+                })
+                .onFailure(err -> {
+                    logger.error("Ingestion failed: " + err.getMessage());
+                    if (!response.headWritten()) {
+                        context.fail(err);
+                    } else if (!response.closed()) {
+                        response.end(new JsonObject().put("error", err.getMessage()).encode() + "\n");
+                    }
+                });
+    }
+
+    private static int intParam(HttpServerRequest request, String name, int defaultValue) {
+        String value = request.getParam(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    private void handleStatsRequest(RoutingContext context) {
+        this.<String>request("stats", "", deliveryOptions(context))
                 .map(Message::body)
-                .onSuccess(reply -> context.response().end(reply))
+                .onSuccess(reply -> context.response().putHeader("Content-Type", "application/json").end(reply))
                 .onFailure(context::fail);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,186 @@
+package cynicdog.io.ingest;
+
+import cynicdog.io.message.Backpressure;
+import cynicdog.io.message.IngestResult;
+import cynicdog.io.message.PromptBatch;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonObject;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * One streamed upload to {@code /ingest}: the body is chunked as it arrives and the chunks are sent to the
+ * backends in batches, with up to {@code depth} batches in flight.
+ * <p>
+ * Backpressure runs from Ollama back to the client: while every slot is taken the request is paused, so
+ * the client's upload stalls on TCP flow control, and a batch the backends turn away as overloaded is
+ * retried after the delay they asked for, still holding its slot.
+ */
+public class Ingestion {
+
+    final Vertx vertx;
+    final HttpServerRequest request;
+    final TextChunker chunker;
+    final int batchSize;
+    final int depth;
+    final int maxRetries;
+    final String attributes;
+    final Function<PromptBatch, Future<IngestResult>> send;
+    final Consumer<JsonObject> progress;
+
+    final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    // Bytes of a character split across two buffers
+    ByteBuffer undecoded = ByteBuffer.allocate(0);
+
+    final List<String> pending = new ArrayList<>();
+    final Promise<JsonObject> done = Promise.promise();
+    final long started = System.nanoTime();
+
+    int inFlight;
+    boolean ended;
+    long bytes;
+    int batches;
+    int chunks;
+    int skipped;
+
+    /**
+     * @param send     delivers a batch to a backend
+     * @param progress called with the running totals after every batch
+     */
+    public Ingestion(Vertx vertx, HttpServerRequest request, TextChunker chunker, int batchSize, int depth, int maxRetries,
+                     String attributes, Function<PromptBatch, Future<IngestResult>> send, Consumer<JsonObject> progress) {
+        this.vertx = vertx;
+        this.request = request;
+        this.chunker = chunker;
+        this.batchSize = batchSize;
+        this.depth = depth;
+        this.maxRetries = maxRetries;
+        this.attributes = attributes;
+        this.send = send;
+        this.progress = progress;
+    }
+
+    /**
+     * Starts reading the body; completes with the final totals once every chunk is stored.
+     */
+    public Future<JsonObject> start() {
+        request.handler(data -> {
+            bytes += data.length();
+            pending.addAll(chunker.add(decode(data, false)));
+            dispatch();
+        });
+        request.endHandler(v -> {
+            ended = true;
+            pending.addAll(chunker.add(decode(Buffer.buffer(), true)));
+            pending.addAll(chunker.finish());
+            dispatch();
+        });
+        request.exceptionHandler(done::tryFail);
+        request.resume();
+        return done.future();
+    }
+
+    /**
+     * Stops reading and sending, for a client that went away.
+     */
+    public void cancel() {
+        done.tryFail("Ingestion cancelled");
+    }
+
+    void dispatch() {
+        if (done.future().isComplete()) {
+            return;
+        }
+        while (inFlight < depth && (pending.size() >= batchSize || ended && !pending.isEmpty())) {
+            List<String> batch = new ArrayList<>(pending.subList(0, Math.min(batchSize, pending.size())));
+            pending.subList(0, batch.size()).clear();
+            inFlight++;
+            send(batch, 0);
+        }
+
+        if (ended) {
+            if (pending.isEmpty() && inFlight == 0) {
+                done.tryComplete(totals().put("done", true));
+            }
+        } else if (pending.size() >= batchSize) {
+            request.pause();
+        } else {
+            request.resume();
+        }
+    }
+
+    void send(List<String> batch, int attempt) {
+        send.apply(new PromptBatch(batch, false, attributes)).onComplete(res -> {
+            if (done.future().isComplete()) {
+                return;
+            }
+            if (res.failed()) {
+                long retryAfter = res.cause() instanceof ReplyException failure ? retryAfter(failure) : -1;
+                if (retryAfter >= 0 && attempt < maxRetries) {
+                    vertx.setTimer(Math.max(retryAfter * 1000, 100), id -> send(batch, attempt + 1));
+                } else {
+                    done.tryFail(res.cause());
+                }
+                return;
+            }
+
+            inFlight--;
+            batches++;
+            chunks += res.result().getChunks();
+            skipped += res.result().getSkipped();
+            progress.accept(totals());
+            dispatch();
+        });
+    }
+
+    JsonObject totals() {
+        return new JsonObject()
+                .put("bytes", bytes)
+                .put("batches", batches)
+                .put("chunks", chunks)
+                .put("stored", chunks - skipped)
+                .put("skipped", skipped)
+                .put("elapsedMs", (System.nanoTime() - started) / 1_000_000);
+    }
+
+    // Only overload is worth retrying: a rejected admission, or a timeout waiting for a busy backend. A batch
+    // that was stored after all is skipped the second time, as chunks are keyed by their content.
+    static long retryAfter(ReplyException failure) {
+        if (failure.failureType() == ReplyFailure.TIMEOUT) {
+            return 0;
+        }
+        if (failure.failureType() == ReplyFailure.RECIPIENT_FAILURE && (failure.failureCode() == 429 || failure.failureCode() == 503)) {
+            return Math.max(Backpressure.retryAfter(failure), 0);
+        }
+        return -1;
+    }
+
+    String decode(Buffer data, boolean last) {
+        ByteBuffer in = ByteBuffer.allocate(undecoded.remaining() + data.length());
+        in.put(undecoded).put(data.getBytes()).flip();
+
+        CharBuffer out = CharBuffer.allocate((int) (in.remaining() * decoder.maxCharsPerByte()) + 1);
+        decoder.decode(in, out, last);
+        if (last) {
+            decoder.flush(out);
+        }
+        undecoded = in;
+        return out.flip().toString();
+    }
+}
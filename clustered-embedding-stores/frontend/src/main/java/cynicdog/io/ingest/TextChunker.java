@@ -0,0 +1,79 @@
+package cynicdog.io.ingest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a document arriving piece by piece into chunks of at most {@code size} characters, each starting
+ * {@code overlap} characters before the previous one ended. Cuts are moved back to the last whitespace in
+ * the final fifth of a chunk where there is one, so words are rarely split. Only the unfinished tail of
+ * the document is held in memory.
+ */
+public class TextChunker {
+
+    final int size;
+    final int overlap;
+    final StringBuilder buffer = new StringBuilder();
+
+    // Leading characters of the buffer already sent as the end of the previous chunk
+    int carried;
+
+    public TextChunker(int size, int overlap) {
+        if (size <= 0 || overlap < 0 || overlap > size / 2) {
+            throw new IllegalArgumentException("Chunks need a positive size and an overlap of at most half of it");
+        }
+        this.size = size;
+        this.overlap = overlap;
+    }
+
+    public List<String> add(CharSequence text) {
+        buffer.append(text);
+        List<String> chunks = new ArrayList<>();
+        while (buffer.length() > size) {
+            int cut = cut();
+            emit(chunks, cut);
+
+            // Start the next chunk on a word boundary inside the overlap
+            int next = cut - overlap;
+            for (int i = next; i < cut && next > 0; i++) {
+                if (Character.isWhitespace(buffer.charAt(i))) {
+                    next = i + 1;
+                    break;
+                }
+            }
+            next = Math.max(next, 1);
+            buffer.delete(0, next);
+            carried = cut - next;
+        }
+        return chunks;
+    }
+
+    /**
+     * Whatever is left once the document has ended, unless it was all sent with the last chunk.
+     */
+    public List<String> finish() {
+        List<String> chunks = new ArrayList<>();
+        if (buffer.length() > carried) {
+            emit(chunks, buffer.length());
+        }
+        buffer.setLength(0);
+        carried = 0;
+        return chunks;
+    }
+
+    int cut() {
+        for (int i = size; i > size - size / 5; i--) {
+            if (Character.isWhitespace(buffer.charAt(i))) {
+                return i;
+            }
+        }
+        return size;
+    }
+
+    void emit(List<String> chunks, int end) {
+        String chunk = buffer.substring(0, end).strip();
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+    }
+}
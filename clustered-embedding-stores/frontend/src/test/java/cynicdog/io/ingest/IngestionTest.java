@@ -0,0 +1,54 @@
+package cynicdog.io.ingest;
+
+import cynicdog.io.message.Backpressure;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class IngestionTest {
+
+    @Test
+    void decodesCharactersSplitAcrossBuffers() {
+        byte[] bytes = "na\u00efve \u65e5\u672c \ud83e\udd99".getBytes(StandardCharsets.UTF_8);
+        Ingestion ingestion = ingestion();
+
+        StringBuilder decoded = new StringBuilder();
+        for (byte b : bytes) {
+            decoded.append(ingestion.decode(Buffer.buffer(new byte[]{b}), false));
+        }
+        decoded.append(ingestion.decode(Buffer.buffer(), true));
+
+        assertEquals("na\u00efve \u65e5\u672c \ud83e\udd99", decoded.toString());
+    }
+
+    @Test
+    void replacesMalformedInput() {
+        Ingestion ingestion = ingestion();
+
+        assertEquals("a\ufffdb", ingestion.decode(Buffer.buffer(new byte[]{'a', (byte) 0xFF, 'b'}), false));
+        // A character cut off by the end of the body
+        assertEquals("c", ingestion.decode(Buffer.buffer(new byte[]{'c', (byte) 0xE6, (byte) 0x97}), false));
+        assertEquals("\ufffd", ingestion.decode(Buffer.buffer(), true));
+    }
+
+    @Test
+    void retriesOnlyOverload() {
+        assertEquals(3, Ingestion.retryAfter(Backpressure.rejected(429, 3, "saturated")));
+        assertEquals(1, Ingestion.retryAfter(Backpressure.rejected(503, 1, "waited too long")));
+        assertEquals(0, Ingestion.retryAfter(new ReplyException(ReplyFailure.RECIPIENT_FAILURE, 503, "no delay")));
+        assertEquals(0, Ingestion.retryAfter(new ReplyException(ReplyFailure.TIMEOUT, -1, "timed out")));
+        assertEquals(-1, Ingestion.retryAfter(new ReplyException(ReplyFailure.RECIPIENT_FAILURE, 400, "bad request")));
+        assertEquals(-1, Ingestion.retryAfter(new ReplyException(ReplyFailure.NO_HANDLERS, -1, "no backend")));
+    }
+
+    // Decoding and retry decisions don't touch the request
+    static Ingestion ingestion() {
+        return new Ingestion(null, null, new TextChunker(100, 10), 8, 2, 3, null, batch -> null, totals -> {
+        });
+    }
+}
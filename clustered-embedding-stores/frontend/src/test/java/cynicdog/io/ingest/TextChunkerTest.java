@@ -0,0 +1,86 @@
+package cynicdog.io.ingest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TextChunkerTest {
+
+    @Test
+    void keepsShortDocumentsWhole() {
+        TextChunker chunker = new TextChunker(100, 10);
+
+        assertEquals(List.of(), chunker.add("  a short document "));
+        assertEquals(List.of("a short document"), chunker.finish());
+        assertEquals(List.of(), chunker.finish());
+    }
+
+    @Test
+    void cutsAtWhitespaceAndOverlaps() {
+        TextChunker chunker = new TextChunker(20, 6);
+
+        List<String> chunks = new ArrayList<>(chunker.add("the quick brown fox jumps over the lazy dog"));
+        chunks.addAll(chunker.finish());
+
+        assertEquals(List.of("the quick brown fox", "fox jumps over the", "the lazy dog"), chunks);
+    }
+
+    @Test
+    void cutsWordsLongerThanAChunk() {
+        TextChunker chunker = new TextChunker(10, 2);
+
+        List<String> chunks = new ArrayList<>(chunker.add("abcdefghijklmnopqrstuvwxyz"));
+        chunks.addAll(chunker.finish());
+
+        assertEquals(List.of("abcdefghij", "ijklmnopqr", "qrstuvwxyz"), chunks);
+    }
+
+    @Test
+    void chunksTheSameHoweverTheTextArrives() {
+        Random random = new Random(3);
+        StringBuilder document = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            document.append("abcdefghijkl", 0, 1 + random.nextInt(12)).append(random.nextInt(8) == 0 ? "\n" : " ");
+        }
+
+        List<String> whole = chunk(document.toString(), document.length());
+        for (int piece : new int[]{1, 7, 64, 1000}) {
+            assertEquals(whole, chunk(document.toString(), piece));
+        }
+
+        // Each chunk fits, and starts with a word from the overlap at the end of the one before it
+        for (int i = 0; i < whole.size(); i++) {
+            assertTrue(whole.get(i).length() <= 200);
+            if (i > 0) {
+                String previous = whole.get(i - 1);
+                String overlap = previous.substring(Math.max(0, previous.length() - 40));
+                assertTrue(overlap.contains(whole.get(i).split("\\s", 2)[0]), previous + " | " + whole.get(i));
+            }
+        }
+        assertTrue(document.toString().startsWith(whole.get(0)));
+        assertTrue(document.toString().strip().endsWith(whole.get(whole.size() - 1)));
+    }
+
+    @Test
+    void rejectsOverlapsOfMoreThanHalfAChunk() {
+        assertThrows(IllegalArgumentException.class, () -> new TextChunker(0, 0));
+        assertThrows(IllegalArgumentException.class, () -> new TextChunker(10, 6));
+        assertThrows(IllegalArgumentException.class, () -> new TextChunker(10, -1));
+    }
+
+    static List<String> chunk(String document, int piece) {
+        TextChunker chunker = new TextChunker(200, 40);
+        List<String> chunks = new ArrayList<>();
+        for (int i = 0; i < document.length(); i += piece) {
+            chunks.addAll(chunker.add(document.substring(i, Math.min(document.length(), i + piece))));
+        }
+        chunks.addAll(chunker.finish());
+        return chunks;
+    }
+}
@@ -0,0 +1,129 @@
+package cynicdog.io.loadtest;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.impl.logging.Logger;
+import io.vertx.core.impl.logging.LoggerFactory;
+import io.vertx.ext.web.client.WebClient;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Backend and frontend nodes run as separate JVMs on this host, started the way the container images start
+ * them and clustered over loopback. Each node inherits this process's environment, so any backend or
+ * frontend setting exported before the run applies to every node; only ports and pod names are set here.
+ */
+public class Cluster {
+
+    private static final Logger logger = LoggerFactory.getLogger(Cluster.class);
+
+    static final String LAUNCHER = "cynicdog.io.metrics.MetricsLauncher";
+    static final String VERTICLE = "cynicdog.io.Main";
+
+    final Vertx vertx;
+    final WebClient client;
+    final Path logDir;
+    final List<String> jvmArgs;
+    final List<Node> nodes = new ArrayList<>();
+
+    record Node(String name, int port, Process process, Path log) {
+    }
+
+    /**
+     * @param heap size of each node's heap, as for {@code -Xmx}
+     */
+    public Cluster(Vertx vertx, WebClient client, Path logDir, String heap) {
+        this.vertx = vertx;
+        this.client = client;
+        this.logDir = logDir;
+        // A discovery port of its own keeps the run from joining any other cluster on this network
+        this.jvmArgs = List.of(
+                "-Xmx" + heap,
+                "-Djava.net.preferIPv4Stack=true",
+                "-Djgroups.bind.address=127.0.0.1",
+                "-Djgroups.mcast_port=" + ThreadLocalRandom.current().nextInt(40000, 50000),
+                "-Dvertx.jgroups.config=default-configs/default-jgroups-tcp.xml");
+    }
+
+    public List<Integer> start(String role, String classpath, int count, int firstPort, List<String> extraJvmArgs, Map<String, String> env) throws IOException {
+        Files.createDirectories(logDir);
+        List<Integer> ports = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String name = role + "-" + i;
+            int port = firstPort + i;
+
+            List<String> command = new ArrayList<>();
+            command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+            command.addAll(jvmArgs);
+            command.addAll(extraJvmArgs);
+            command.addAll(List.of("-cp", classpath, LAUNCHER, "run", VERTICLE, "-cluster", "-cluster-host", "127.0.0.1"));
+
+            Path log = logDir.resolve(name + ".log");
+            ProcessBuilder builder = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log.toFile());
+            builder.environment().putAll(env);
+            builder.environment().put("HTTP_PORT", String.valueOf(port));
+            builder.environment().put("POD_NAME", name);
+
+            nodes.add(new Node(name, port, builder.start(), log));
+            ports.add(port);
+            logger.info(String.format("Started %s on port %d, logging to %s", name, port, log));
+        }
+        return ports;
+    }
+
+    /**
+     * Completes once every node answers its readiness probe, or fails as soon as one of them exits.
+     */
+    public Future<Void> awaitReady(long timeoutMs) {
+        List<Future<Void>> ready = new ArrayList<>();
+        for (Node node : nodes) {
+            ready.add(awaitReady(node, System.currentTimeMillis() + timeoutMs));
+        }
+        return Future.all(ready).mapEmpty();
+    }
+
+    Future<Void> awaitReady(Node node, long deadline) {
+        Promise<Void> promise = Promise.promise();
+        vertx.setPeriodic(500, id -> {
+            if (!node.process().isAlive()) {
+                vertx.cancelTimer(id);
+                promise.tryFail(String.format("%s exited with %d, see %s", node.name(), node.process().exitValue(), node.log()));
+            } else if (System.currentTimeMillis() > deadline) {
+                vertx.cancelTimer(id);
+                promise.tryFail(String.format("%s not ready in time, see %s", node.name(), node.log()));
+            } else {
+                client.get(node.port(), "localhost", "/readiness").send()
+                        .onSuccess(res -> {
+                            if (res.statusCode() == 200 && promise.tryComplete()) {
+                                vertx.cancelTimer(id);
+                                logger.info(node.name() + " is ready");
+                            }
+                        });
+            }
+        });
+        return promise.future();
+    }
+
+    public void stop() {
+        nodes.forEach(node -> node.process().destroy());
+        for (Node node : nodes) {
+            try {
+                if (!node.process().waitFor(10, TimeUnit.SECONDS)) {
+                    node.process().destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                node.process().destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+        nodes.clear();
+    }
+}
@@ -0,0 +1,462 @@
+package cynicdog.io.loadtest;
+
+import cynicdog.io.cluster.ClusterProfile;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.impl.logging.Logger;
+import io.vertx.core.impl.logging.LoggerFactory;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.cluster.infinispan.InfinispanClusterManager;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.infinispan.manager.DefaultCacheManager;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Starts a cluster of Vert.x nodes in this JVM for every combination of cluster profile and transport, and
+ * measures the event bus between them: the {@code greetings} request/reply of the clustered-apps sample and
+ * a publish to every node, across payload sizes, and how long a newly registered consumer takes to become
+ * reachable from another node.
+ * <p>
+ * The first node only sends, so every message crosses the cluster. Nodes share one clock, so publish latency
+ * runs from sending to delivery.
+ */
+public class EventBusBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventBusBenchmark.class);
+
+    // Each combination of CLUSTER_CACHES and CLUSTER_TRANSPORT values gets a fresh cluster
+    private static final List<String> CACHES = list(System.getenv().getOrDefault("BENCH_CACHES", "sync,async-subs,async"));
+    private static final List<String> TRANSPORTS = list(System.getenv().getOrDefault("BENCH_TRANSPORTS", "tcp,udp"));
+    private static final int NODES = Integer.parseInt(System.getenv().getOrDefault("BENCH_NODES", "3"));
+    private static final List<Integer> PAYLOAD_BYTES = list(System.getenv().getOrDefault("BENCH_PAYLOAD_BYTES", "64,1024,16384"))
+            .stream().map(Integer::parseInt).toList();
+
+    // Requests awaiting a reply, or published messages not yet delivered everywhere, at any time
+    private static final int WINDOW = Integer.parseInt(System.getenv().getOrDefault("BENCH_WINDOW", "64"));
+    private static final long WARMUP_S = Long.parseLong(System.getenv().getOrDefault("BENCH_WARMUP_S", "2"));
+    private static final long DURATION_S = Long.parseLong(System.getenv().getOrDefault("BENCH_DURATION_S", "10"));
+    private static final int SUBSCRIPTIONS = Integer.parseInt(System.getenv().getOrDefault("BENCH_SUBSCRIPTIONS", "50"));
+    private static final Path LOG_DIR = Path.of(System.getenv().getOrDefault("LOADTEST_LOG_DIR", "build/loadtest"));
+
+    static final String CLUSTER_NAME = "event-bus-benchmark";
+    static final String GREETINGS = "greetings";
+    static final String ANNOUNCEMENTS = "announcements";
+    static final long HIGHEST_LATENCY_US = TimeUnit.MINUTES.toMicros(1);
+    static final long DRAIN_MS = 5_000;
+    static final long SUBSCRIPTION_TIMEOUT_MS = 10_000;
+
+    public static void main(String[] args) {
+        if (NODES < 2) {
+            throw new IllegalArgumentException("BENCH_NODES must be at least 2");
+        }
+        Vertx vertx = Vertx.vertx();
+        // Nodes are started and stopped from this context, whichever node's thread completed the step before
+        Context driver = vertx.getOrCreateContext();
+        JsonObject profiles = new JsonObject();
+
+        Future<Void> runs = Future.succeededFuture();
+        for (String caches : CACHES) {
+            for (String transport : TRANSPORTS) {
+                ClusterProfile profile = new ClusterProfile(ClusterProfile.Caches.of(caches), transport, CLUSTER_NAME);
+                runs = runs.compose(v -> run(driver, profile)).map(result -> {
+                    profiles.put(profile.name(), result);
+                    return null;
+                });
+            }
+        }
+
+        runs.onComplete(done -> {
+            int status = 0;
+            JsonObject report = new JsonObject()
+                    .put("nodes", NODES)
+                    .put("window", WINDOW)
+                    .put("warmupSeconds", WARMUP_S)
+                    .put("durationSeconds", DURATION_S)
+                    .put("profiles", profiles);
+            if (done.succeeded()) {
+                print(report);
+                write(report);
+            } else {
+                logger.error("Benchmark failed: " + done.cause().getMessage());
+                status = 1;
+            }
+            vertx.close();
+            System.exit(status);
+        });
+    }
+
+    static Future<JsonObject> run(Context driver, ClusterProfile profile) {
+        Nodes cluster = new Nodes(driver, profile);
+        JsonObject result = new JsonObject();
+        long started = System.nanoTime();
+
+        Future<Void> measured = cluster.start()
+                .onSuccess(v -> result.put("startupMs", elapsedMs(started)));
+        for (int bytes : PAYLOAD_BYTES) {
+            measured = measured
+                    .compose(v -> cluster.onSender(() -> new RequestLoop(cluster.sender(), bytes).run()))
+                    .map(json -> {
+                        result.put("requestReply", result.getJsonObject("requestReply", new JsonObject()).put(String.valueOf(bytes), json));
+                        return null;
+                    })
+                    .compose(v -> new PublishLoop(cluster, bytes).run())
+                    .map(json -> {
+                        result.put("publish", result.getJsonObject("publish", new JsonObject()).put(String.valueOf(bytes), json));
+                        return null;
+                    });
+        }
+        return measured
+                .compose(v -> cluster.onSender(() -> subscriptions(cluster)))
+                .map(result::mergeIn)
+                .eventually(() -> cluster.stop());
+    }
+
+    /**
+     * The nodes of one run. Node 0 sends; the others answer {@code greetings} with the payload they were sent,
+     * which the sample answers with a greeting instead, so that replies grow with the payload too.
+     */
+    static class Nodes {
+
+        final Context driver;
+        final ClusterProfile profile;
+        final List<Vertx> nodes = new ArrayList<>();
+        final List<DefaultCacheManager> cacheManagers = new ArrayList<>();
+        Context senderContext;
+
+        Nodes(Context driver, ClusterProfile profile) {
+            this.driver = driver;
+            this.profile = profile;
+        }
+
+        // One node at a time, so each joins an existing view rather than racing to form one
+        Future<Void> start() {
+            logger.info(String.format("Starting %d nodes with profile %s", NODES, profile.name()));
+            Future<Void> started = Future.succeededFuture();
+            for (int i = 0; i < NODES; i++) {
+                boolean receiver = i > 0;
+                started = started
+                        .compose(v -> driver.executeBlocking(() -> profile.cacheManager()))
+                        .compose(cacheManager -> {
+                            cacheManagers.add(cacheManager);
+                            return Vertx.clusteredVertx(new VertxOptions().setClusterManager(new InfinispanClusterManager(cacheManager)));
+                        })
+                        .compose(node -> {
+                            nodes.add(node);
+                            if (!receiver) {
+                                senderContext = node.getOrCreateContext();
+                            }
+                            return receiver
+                                    ? completion(node.eventBus().<Buffer>consumer(GREETINGS, msg -> msg.reply(msg.body())))
+                                    : Future.succeededFuture();
+                        });
+            }
+            return started;
+        }
+
+        Future<Void> stop() {
+            Future<Void> stopped = Future.succeededFuture();
+            for (int i = nodes.size() - 1; i >= 0; i--) {
+                Vertx node = nodes.get(i);
+                DefaultCacheManager cacheManager = cacheManagers.get(i);
+                stopped = stopped
+                        .compose(v -> node.close())
+                        .compose(v -> driver.executeBlocking(() -> {
+                            cacheManager.stop();
+                            return null;
+                        }));
+            }
+            return stopped;
+        }
+
+        Vertx sender() {
+            return nodes.get(0);
+        }
+
+        List<Vertx> receivers() {
+            return nodes.subList(1, nodes.size());
+        }
+
+        // Runs the task on one event loop of the sender, so its replies and timers come back to the same thread
+        <T> Future<T> onSender(Supplier<Future<T>> task) {
+            Promise<T> result = Promise.promise();
+            senderContext.runOnContext(v -> task.get().onComplete(result));
+            return result.future();
+        }
+    }
+
+    /**
+     * Keeps {@link #WINDOW} requests outstanding and sends the next one as soon as a reply comes back.
+     */
+    static class RequestLoop {
+
+        final Vertx sender;
+        final Buffer payload;
+        final long measuredFrom;
+        final long end;
+        final Histogram latency = new Histogram(HIGHEST_LATENCY_US, 3);
+        final Promise<JsonObject> result = Promise.promise();
+        long succeeded;
+        long failed;
+        int running;
+
+        RequestLoop(Vertx sender, int payloadBytes) {
+            this.sender = sender;
+            this.payload = Buffer.buffer(new byte[payloadBytes]);
+            this.measuredFrom = System.nanoTime() + TimeUnit.SECONDS.toNanos(WARMUP_S);
+            this.end = measuredFrom + TimeUnit.SECONDS.toNanos(DURATION_S);
+        }
+
+        Future<JsonObject> run() {
+            running = WINDOW;
+            for (int i = 0; i < WINDOW; i++) {
+                send();
+            }
+            return result.future();
+        }
+
+        void send() {
+            long sent = System.nanoTime();
+            if (sent >= end) {
+                if (--running == 0) {
+                    result.complete(new JsonObject()
+                            .put("succeeded", succeeded)
+                            .put("failed", failed)
+                            .put("throughput", succeeded / (double) DURATION_S)
+                            .put("latencyMs", latencyMs(latency)));
+                }
+                return;
+            }
+            sender.eventBus().request(GREETINGS, payload).onComplete(reply -> {
+                if (sent >= measuredFrom) {
+                    if (reply.succeeded()) {
+                        succeeded++;
+                        record(latency, sent);
+                    } else {
+                        failed++;
+                    }
+                }
+                send();
+            });
+        }
+    }
+
+    /**
+     * Publishes while fewer than {@link #WINDOW} messages are still on their way to some receiver. Published
+     * messages carry no acknowledgement, so deliveries that stop arriving for a while are written off as lost
+     * instead of holding the window shut.
+     */
+    static class PublishLoop {
+
+        final Nodes cluster;
+        final int payloadBytes;
+        final int receivers;
+        final long measuredFrom;
+        final long end;
+        final Histogram latency = new ConcurrentHistogram(HIGHEST_LATENCY_US, 3);
+        final AtomicLong delivered = new AtomicLong();
+        final AtomicLong measured = new AtomicLong();
+        final Promise<JsonObject> result = Promise.promise();
+        final List<MessageConsumer<Buffer>> consumers = new ArrayList<>();
+        long published;
+        long lost;
+        long lastDelivered;
+        long stalledSince;
+
+        PublishLoop(Nodes cluster, int payloadBytes) {
+            this.cluster = cluster;
+            this.payloadBytes = Math.max(payloadBytes, Long.BYTES);
+            this.receivers = cluster.receivers().size();
+            this.measuredFrom = System.nanoTime() + TimeUnit.SECONDS.toNanos(WARMUP_S);
+            this.end = measuredFrom + TimeUnit.SECONDS.toNanos(DURATION_S);
+        }
+
+        Future<JsonObject> run() {
+            List<Future<Void>> registrations = new ArrayList<>();
+            for (Vertx receiver : cluster.receivers()) {
+                MessageConsumer<Buffer> consumer = receiver.eventBus().consumer(ANNOUNCEMENTS, msg -> {
+                    long sent = msg.body().getLong(0);
+                    if (sent >= measuredFrom && sent < end) {
+                        measured.incrementAndGet();
+                        record(latency, sent);
+                    }
+                    // Wake the publisher once per message delivered everywhere, roughly
+                    if (delivered.incrementAndGet() % receivers == 0) {
+                        cluster.senderContext.runOnContext(v -> publish());
+                    }
+                });
+                consumers.add(consumer);
+                registrations.add(completion(consumer));
+            }
+            return Future.all(registrations)
+                    .compose(v -> cluster.onSender(() -> {
+                        stalledSince = System.nanoTime();
+                        cluster.sender().setPeriodic(100, this::check);
+                        publish();
+                        return result.future();
+                    }))
+                    .eventually(() -> Future.all(consumers.stream().map(MessageConsumer::unregister).toList()));
+        }
+
+        long pending() {
+            return published * receivers - lost - delivered.get();
+        }
+
+        void publish() {
+            if (System.nanoTime() >= end) {
+                return;
+            }
+            while (pending() < (long) WINDOW * receivers) {
+                Buffer body = Buffer.buffer(payloadBytes)
+                        .appendLong(System.nanoTime())
+                        .appendBytes(new byte[payloadBytes - Long.BYTES]);
+                cluster.sender().eventBus().publish(ANNOUNCEMENTS, body);
+                published++;
+            }
+        }
+
+        void check(long timer) {
+            long now = System.nanoTime();
+            long deliveredNow = delivered.get();
+            if (deliveredNow != lastDelivered || pending() == 0) {
+                lastDelivered = deliveredNow;
+                stalledSince = now;
+            } else if (now - stalledSince > TimeUnit.SECONDS.toNanos(1)) {
+                lost += pending();
+                stalledSince = now;
+                publish();
+            }
+
+            boolean drained = now >= end && pending() == 0;
+            if (drained || now >= end + TimeUnit.MILLISECONDS.toNanos(DRAIN_MS)) {
+                cluster.sender().cancelTimer(timer);
+                result.complete(new JsonObject()
+                        .put("published", published)
+                        .put("delivered", measured.get())
+                        .put("lost", lost + pending())
+                        .put("throughput", measured.get() / (double) DURATION_S)
+                        .put("latencyMs", latencyMs(latency)));
+            }
+        }
+    }
+
+    /**
+     * Registers consumers on the receivers one after another and, for each, times how long until the
+     * registration completes and until the sender first gets a reply from it. The sender retries every
+     * millisecond while it still knows no handler for the address.
+     */
+    static Future<JsonObject> subscriptions(Nodes cluster) {
+        Histogram registered = new Histogram(HIGHEST_LATENCY_US, 3);
+        Histogram visible = new Histogram(HIGHEST_LATENCY_US, 3);
+        Future<Void> subscribed = Future.succeededFuture();
+        for (int n = 0; n < SUBSCRIPTIONS; n++) {
+            Vertx receiver = cluster.receivers().get(n % cluster.receivers().size());
+            String address = "subscription." + n;
+            subscribed = subscribed.compose(v -> {
+                long started = System.nanoTime();
+                MessageConsumer<Buffer> consumer = receiver.eventBus().consumer(address, msg -> msg.reply(msg.body()));
+                Future<Void> registration = completion(consumer).onSuccess(done -> record(registered, started));
+                Promise<Void> reached = Promise.promise();
+                probe(cluster.sender(), address, started, visible, reached);
+                return Future.all(registration, reached.future()).compose(done -> consumer.unregister());
+            });
+        }
+        return subscribed.map(v -> new JsonObject().put("subscriptions", new JsonObject()
+                .put("count", SUBSCRIPTIONS)
+                .put("registeredMs", latencyMs(registered))
+                .put("visibleMs", latencyMs(visible))));
+    }
+
+    static void probe(Vertx sender, String address, long started, Histogram visible, Promise<Void> reached) {
+        sender.eventBus().request(address, Buffer.buffer(), new DeliveryOptions().setSendTimeout(SUBSCRIPTION_TIMEOUT_MS))
+                .onComplete(reply -> {
+                    if (reply.succeeded()) {
+                        record(visible, started);
+                        reached.complete();
+                    } else if (System.nanoTime() - started > TimeUnit.MILLISECONDS.toNanos(SUBSCRIPTION_TIMEOUT_MS)) {
+                        reached.fail(String.format("No handler for %s after %d ms", address, SUBSCRIPTION_TIMEOUT_MS));
+                    } else {
+                        sender.setTimer(1, id -> probe(sender, address, started, visible, reached));
+                    }
+                });
+    }
+
+    static Future<Void> completion(MessageConsumer<?> consumer) {
+        Promise<Void> completion = Promise.promise();
+        consumer.completionHandler(completion);
+        return completion.future();
+    }
+
+    static void record(Histogram histogram, long sentNanos) {
+        histogram.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sentNanos), HIGHEST_LATENCY_US));
+    }
+
+    static JsonObject latencyMs(Histogram histogram) {
+        return new JsonObject()
+                .put("p50", histogram.getValueAtPercentile(50) / 1000.0)
+                .put("p90", histogram.getValueAtPercentile(90) / 1000.0)
+                .put("p99", histogram.getValueAtPercentile(99) / 1000.0)
+                .put("p999", histogram.getValueAtPercentile(99.9) / 1000.0)
+                .put("max", histogram.getMaxValue() / 1000.0);
+    }
+
+    static long elapsedMs(long startedNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos);
+    }
+
+    static List<String> list(String values) {
+        return Arrays.stream(values.split(",")).map(String::trim).filter(value -> !value.isEmpty()).toList();
+    }
+
+    static void print(JsonObject report) {
+        System.out.printf("%n%-22s %-14s %8s %12s %9s %9s %9s %9s %9s  %s%n",
+                "profile", "exchange", "bytes", "msgs/s", "p50 ms", "p90 ms", "p99 ms", "p999 ms", "max ms", "errors");
+        JsonObject profiles = report.getJsonObject("profiles");
+        for (String name : profiles.fieldNames()) {
+            JsonObject result = profiles.getJsonObject(name);
+            for (String exchange : List.of("requestReply", "publish")) {
+                JsonObject sizes = result.getJsonObject(exchange);
+                for (String bytes : sizes.fieldNames()) {
+                    JsonObject run = sizes.getJsonObject(bytes);
+                    long errors = exchange.equals("publish") ? run.getLong("lost") : run.getLong("failed");
+                    printRow(name, exchange, bytes, String.format("%.1f", run.getDouble("throughput")), run.getJsonObject("latencyMs"), errors);
+                }
+            }
+            JsonObject subscriptions = result.getJsonObject("subscriptions");
+            printRow(name, "registered", "-", "-", subscriptions.getJsonObject("registeredMs"), 0);
+            printRow(name, "visible", "-", "-", subscriptions.getJsonObject("visibleMs"), 0);
+        }
+    }
+
+    static void printRow(String profile, String exchange, String bytes, String throughput, JsonObject latency, long errors) {
+        System.out.printf("%-22s %-14s %8s %12s %9.2f %9.2f %9.2f %9.2f %9.2f  %d%n",
+                profile, exchange, bytes, throughput,
+                latency.getDouble("p50"), latency.getDouble("p90"), latency.getDouble("p99"),
+                latency.getDouble("p999"), latency.getDouble("max"), errors);
+    }
+
+    static void write(JsonObject report) {
+        try {
+            Files.createDirectories(LOG_DIR);
+            Path file = LOG_DIR.resolve("event-bus-report.json");
+            Files.writeString(file, report.encodePrettily());
+            logger.info("Report written to " + file.toAbsolutePath());
+        } catch (Exception e) {
+            logger.error("Failed to write the report: " + e.getMessage());
+        }
+    }
+}
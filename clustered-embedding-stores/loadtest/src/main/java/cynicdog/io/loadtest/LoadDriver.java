@@ -0,0 +1,199 @@
+package cynicdog.io.loadtest;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.impl.logging.Logger;
+import io.vertx.core.impl.logging.LoggerFactory;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+import org.HdrHistogram.Histogram;
+
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+
+/**
+ * Sends requests at fixed rates, whether or not earlier ones have come back, so a slow cluster shows up as
+ * latency rather than as a lower offered load. Latency is measured from the moment a request was due, not
+ * from when it went out, and only requests due after the warm-up count.
+ */
+public class LoadDriver extends AbstractVerticle {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadDriver.class);
+
+    static final long TICK_MS = 5;
+    static final long HIGHEST_LATENCY_US = TimeUnit.MINUTES.toMicros(5);
+
+    /**
+     * @param rate requests per second
+     * @param body request body for the n-th request of the scenario
+     */
+    public record Scenario(String name, String path, double rate, LongFunction<JsonObject> body) {
+    }
+
+    final WebClient client;
+    final List<String> targets;
+    final List<Scenario> scenarios;
+    final long warmupMs;
+    final long durationMs;
+    final int maxInFlight;
+    final Promise<JsonObject> report = Promise.promise();
+
+    final Map<String, Stats> stats = new TreeMap<>();
+    long started;
+    long inFlight;
+    long nextTarget;
+
+    /**
+     * @param targets     base URLs of the frontends, used in turn
+     * @param maxInFlight requests outstanding at once; past it new ones are dropped and counted as such
+     */
+    public LoadDriver(WebClient client, List<String> targets, List<Scenario> scenarios, long warmupMs, long durationMs, int maxInFlight) {
+        this.client = client;
+        this.targets = targets;
+        this.scenarios = scenarios;
+        this.warmupMs = warmupMs;
+        this.durationMs = durationMs;
+        this.maxInFlight = maxInFlight;
+    }
+
+    public Future<JsonObject> report() {
+        return report.future();
+    }
+
+    @Override
+    public void start() {
+        scenarios.forEach(scenario -> stats.put(scenario.name(), new Stats()));
+        started = System.nanoTime();
+        logger.info(String.format("Warming up for %d s, then measuring for %d s", warmupMs / 1000, durationMs / 1000));
+
+        long end = started + TimeUnit.MILLISECONDS.toNanos(warmupMs + durationMs);
+        vertx.setPeriodic(TICK_MS, id -> {
+            long now = Math.min(System.nanoTime(), end);
+            for (Scenario scenario : scenarios) {
+                Stats scenarioStats = stats.get(scenario.name());
+                long due = (long) (scenario.rate() * (now - started) / 1e9);
+                for (long n = scenarioStats.issued; n < due; n++) {
+                    send(scenario, scenarioStats, n, started + (long) (n * 1e9 / scenario.rate()));
+                }
+                scenarioStats.issued = Math.max(scenarioStats.issued, due);
+            }
+            if (now == end) {
+                vertx.cancelTimer(id);
+                drain();
+            }
+        });
+    }
+
+    void send(Scenario scenario, Stats scenarioStats, long n, long dueAt) {
+        boolean measured = dueAt >= started + TimeUnit.MILLISECONDS.toNanos(warmupMs);
+        if (inFlight >= maxInFlight) {
+            if (measured) {
+                scenarioStats.dropped++;
+            }
+            return;
+        }
+        inFlight++;
+
+        String target = targets.get((int) (nextTarget++ % targets.size()));
+        client.postAbs(target + scenario.path())
+                .putHeader("Accept", "application/json")
+                .sendJsonObject(scenario.body().apply(n))
+                .onComplete(res -> {
+                    inFlight--;
+                    if (measured) {
+                        scenarioStats.record(res.succeeded() ? res.result() : null, res.cause(), System.nanoTime() - dueAt);
+                    }
+                });
+    }
+
+    // Outstanding requests still count; stop waiting for them after a while
+    void drain() {
+        long deadline = System.currentTimeMillis() + 60_000;
+        vertx.setPeriodic(100, id -> {
+            if (inFlight == 0 || System.currentTimeMillis() > deadline) {
+                vertx.cancelTimer(id);
+                report.complete(toJson());
+            }
+        });
+    }
+
+    JsonObject toJson() {
+        JsonObject json = new JsonObject()
+                .put("warmupSeconds", warmupMs / 1000)
+                .put("durationSeconds", durationMs / 1000)
+                .put("targets", new JsonArray(targets))
+                .put("unfinished", inFlight);
+        JsonObject results = new JsonObject();
+        for (Scenario scenario : scenarios) {
+            Stats scenarioStats = stats.get(scenario.name());
+            results.put(scenario.name(), scenarioStats.toJson(scenario.rate(), durationMs));
+        }
+        return json.put("scenarios", results);
+    }
+
+    static class Stats {
+        final Histogram latency = new Histogram(HIGHEST_LATENCY_US, 3);
+        final Map<String, Long> errors = new TreeMap<>();
+        long issued;
+        long succeeded;
+        long dropped;
+
+        void record(HttpResponse<Buffer> response, Throwable failure, long elapsedNanos) {
+            if (response != null && response.statusCode() == 200) {
+                succeeded++;
+                latency.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(elapsedNanos), HIGHEST_LATENCY_US));
+            } else {
+                errors.merge(response != null ? String.valueOf(response.statusCode()) : failure.getClass().getSimpleName(), 1L, Long::sum);
+            }
+        }
+
+        JsonObject toJson(double rate, long durationMs) {
+            return new JsonObject()
+                    .put("offeredRate", rate)
+                    .put("succeeded", succeeded)
+                    .put("throughput", succeeded * 1000.0 / durationMs)
+                    .put("dropped", dropped)
+                    .put("errors", new JsonObject(new TreeMap<>(errors)))
+                    .put("latencyMs", new JsonObject()
+                            .put("p50", percentile(50))
+                            .put("p90", percentile(90))
+                            .put("p99", percentile(99))
+                            .put("p999", percentile(99.9))
+                            .put("max", latency.getMaxValue() / 1000.0));
+        }
+
+        double percentile(double percentile) {
+            return latency.getValueAtPercentile(percentile) / 1000.0;
+        }
+    }
+
+    /**
+     * A document for the n-th embed request. Documents repeat after {@code distinct}, as re-ingested content does.
+     */
+    static String document(long n, int distinct) {
+        long id = n % distinct;
+        return "Document " + id + ": " + words(id, 24);
+    }
+
+    static String query(long n, int distinct) {
+        long id = n % distinct;
+        return "What do we know about " + words(~id, 6) + "?";
+    }
+
+    static String words(long seed, int count) {
+        SplittableRandom random = new SplittableRandom(seed);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append(i == 0 ? "" : " ").append(OllamaStub.WORDS[random.nextInt(OllamaStub.WORDS.length)]);
+        }
+        return text.toString();
+    }
+}
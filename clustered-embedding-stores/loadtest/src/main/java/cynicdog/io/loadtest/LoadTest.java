@@ -0,0 +1,172 @@
+package cynicdog.io.loadtest;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.impl.logging.Logger;
+import io.vertx.core.impl.logging.LoggerFactory;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.client.WebClientOptions;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Starts the Ollama stub and a cluster of backends and frontends on this host, fills the default collection,
+ * then drives {@code /embed} and {@code /generate} at fixed rates and reports throughput and latency.
+ * <p>
+ * With {@code LOADTEST_TARGETS} set, nothing is started and the load goes to those frontends instead, for
+ * instance a kind cluster behind {@code kubectl port-forward}.
+ */
+public class LoadTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadTest.class);
+
+    private static final String TARGETS = System.getenv().getOrDefault("LOADTEST_TARGETS", "");
+    private static final int BACKENDS = Integer.parseInt(System.getenv().getOrDefault("LOADTEST_BACKENDS", "3"));
+    private static final int FRONTENDS = Integer.parseInt(System.getenv().getOrDefault("LOADTEST_FRONTENDS", "2"));
+    private static final int BACKEND_FIRST_PORT = Integer.parseInt(System.getenv().getOrDefault("LOADTEST_BACKEND_PORT", "8180"));
+    private static final int FRONTEND_FIRST_PORT = Integer.parseInt(System.getenv().getOrDefault("LOADTEST_FRONTEND_PORT", "8080"));
+    private static final String NODE_HEAP = System.getenv().getOrDefault("LOADTEST_NODE_HEAP", "1g");
+    private static final long STARTUP_TIMEOUT_MS = Long.parseLong(System.getenv().getOrDefault("LOADTEST_STARTUP_TIMEOUT_MS", "120000"));
+    private static final Path LOG_DIR = Path.of(System.getenv().getOrDefault("LOADTEST_LOG_DIR", "build/loadtest"));
+
+    private static final int STUB_PORT = Integer.parseInt(System.getenv().getOrDefault("STUB_PORT", "11500"));
+    // Independent Ollama stubs on consecutive ports from STUB_PORT, each with its own STUB_PARALLEL limit
+    private static final int OLLAMA_STUBS = Integer.parseInt(System.getenv().getOrDefault("LOADTEST_OLLAMA_STUBS", "1"));
+
+    // Documents embedded before the measurement, so searches run against a collection of realistic size
+    private static final int SEED_DOCUMENTS = Integer.parseInt(System.getenv().getOrDefault("LOADTEST_SEED_DOCUMENTS", "1000"));
+    private static final int SEED_BATCH_SIZE = 32;
+
+    private static final double EMBED_RATE = Double.parseDouble(System.getenv().getOrDefault("LOADTEST_EMBED_RATE", "50"));
+    private static final double GENERATE_RATE = Double.parseDouble(System.getenv().getOrDefault("LOADTEST_GENERATE_RATE", "5"));
+    private static final boolean GENERATE_STREAM = Boolean.parseBoolean(System.getenv().getOrDefault("LOADTEST_GENERATE_STREAM", "false"));
+    private static final int DISTINCT_DOCUMENTS = Integer.parseInt(System.getenv().getOrDefault("LOADTEST_DISTINCT_DOCUMENTS", "100000"));
+    private static final int DISTINCT_QUERIES = Integer.parseInt(System.getenv().getOrDefault("LOADTEST_DISTINCT_QUERIES", "1000"));
+    private static final long WARMUP_S = Long.parseLong(System.getenv().getOrDefault("LOADTEST_WARMUP_S", "10"));
+    private static final long DURATION_S = Long.parseLong(System.getenv().getOrDefault("LOADTEST_DURATION_S", "60"));
+    private static final int MAX_IN_FLIGHT = Integer.parseInt(System.getenv().getOrDefault("LOADTEST_MAX_IN_FLIGHT", "2000"));
+    private static final int CONNECTIONS = Integer.parseInt(System.getenv().getOrDefault("LOADTEST_CONNECTIONS", "64"));
+
+    public static void main(String[] args) {
+        Vertx vertx = Vertx.vertx();
+        WebClient client = WebClient.create(vertx, new WebClientOptions()
+                .setMaxPoolSize(CONNECTIONS)
+                .setIdleTimeout(60));
+        Cluster cluster = new Cluster(vertx, client, LOG_DIR, NODE_HEAP);
+        Runtime.getRuntime().addShutdownHook(new Thread(cluster::stop));
+
+        Future<List<String>> targets = TARGETS.isBlank()
+                ? startCluster(vertx, cluster)
+                : Future.succeededFuture(Arrays.stream(TARGETS.split(",")).map(String::trim).toList());
+
+        targets.compose(urls -> seed(client, urls).map(urls))
+                .compose(urls -> {
+                    LoadDriver driver = new LoadDriver(client, urls, scenarios(),
+                            WARMUP_S * 1000, DURATION_S * 1000, MAX_IN_FLIGHT);
+                    return vertx.deployVerticle(driver).compose(id -> driver.report());
+                })
+                .onComplete(report -> {
+                    int status = 0;
+                    if (report.succeeded()) {
+                        print(report.result());
+                        write(report.result());
+                    } else {
+                        logger.error("Load test failed: " + report.cause().getMessage());
+                        status = 1;
+                    }
+                    cluster.stop();
+                    vertx.close();
+                    System.exit(status);
+                });
+    }
+
+    static Future<List<String>> startCluster(Vertx vertx, Cluster cluster) {
+        String backendClasspath = System.getProperty("loadtest.backend.classpath");
+        String frontendClasspath = System.getProperty("loadtest.frontend.classpath");
+        if (backendClasspath == null || frontendClasspath == null) {
+            return Future.failedFuture("Run through `gradle run` so the node classpaths are known, or set LOADTEST_TARGETS");
+        }
+
+        List<String> endpoints = new ArrayList<>();
+        List<Future<String>> stubs = new ArrayList<>();
+        for (int i = 0; i < OLLAMA_STUBS; i++) {
+            endpoints.add("localhost:" + (STUB_PORT + i));
+            stubs.add(OllamaStub.deploy(vertx, OllamaStub.Config.fromEnv(STUB_PORT + i)));
+        }
+        Map<String, String> backendEnv = Map.of("OLLAMA_ENDPOINTS", String.join(",", endpoints));
+
+        return Future.all(stubs)
+                .compose(deployed -> vertx.executeBlocking(() -> {
+                    cluster.start("backend", backendClasspath, BACKENDS, BACKEND_FIRST_PORT,
+                            List.of("--add-modules", "jdk.incubator.vector"), backendEnv);
+                    return cluster.start("frontend", frontendClasspath, FRONTENDS, FRONTEND_FIRST_PORT, List.of(), Map.of());
+                }))
+                .compose(ports -> cluster.awaitReady(STARTUP_TIMEOUT_MS)
+                        .map(v -> ports.stream().map(port -> "http://localhost:" + port).toList()));
+    }
+
+    // Fills the collection a batch at a time, so the measurement starts from a known size
+    static Future<Void> seed(WebClient client, List<String> targets) {
+        Future<Void> seeded = Future.succeededFuture();
+        for (int first = 0; first < SEED_DOCUMENTS; first += SEED_BATCH_SIZE) {
+            JsonArray prompts = new JsonArray();
+            for (int n = first; n < Math.min(first + SEED_BATCH_SIZE, SEED_DOCUMENTS); n++) {
+                prompts.add(LoadDriver.document(n, DISTINCT_DOCUMENTS));
+            }
+            String target = targets.get((first / SEED_BATCH_SIZE) % targets.size());
+            seeded = seeded.compose(v -> client.postAbs(target + "/embedBatch")
+                    .sendJsonObject(new JsonObject().put("prompts", prompts))
+                    .compose(res -> res.statusCode() == 200
+                            ? Future.<Void>succeededFuture()
+                            : Future.failedFuture("Seeding failed with " + res.statusCode() + ": " + res.bodyAsString())));
+        }
+        return seeded.onSuccess(v -> logger.info(String.format("Seeded %d documents", SEED_DOCUMENTS)));
+    }
+
+    static List<LoadDriver.Scenario> scenarios() {
+        List<LoadDriver.Scenario> scenarios = new ArrayList<>();
+        if (EMBED_RATE > 0) {
+            // Continue after the seeded documents, so embeds add to the collection rather than overwrite it
+            scenarios.add(new LoadDriver.Scenario("embed", "/embed", EMBED_RATE,
+                    n -> new JsonObject().put("prompt", LoadDriver.document(SEED_DOCUMENTS + n, DISTINCT_DOCUMENTS))));
+        }
+        if (GENERATE_RATE > 0) {
+            scenarios.add(new LoadDriver.Scenario("generate", "/generate", GENERATE_RATE,
+                    n -> new JsonObject().put("prompt", LoadDriver.query(n, DISTINCT_QUERIES)).put("stream", GENERATE_STREAM)));
+        }
+        return scenarios;
+    }
+
+    static void print(JsonObject report) {
+        System.out.printf("%n%-10s %10s %10s %10s %8s %9s %9s %9s %9s %9s  %s%n",
+                "scenario", "offered/s", "done/s", "succeeded", "dropped", "p50 ms", "p90 ms", "p99 ms", "p999 ms", "max ms", "errors");
+        JsonObject scenarios = report.getJsonObject("scenarios");
+        for (String name : scenarios.fieldNames()) {
+            JsonObject result = scenarios.getJsonObject(name);
+            JsonObject latency = result.getJsonObject("latencyMs");
+            System.out.printf("%-10s %10.1f %10.1f %10d %8d %9.1f %9.1f %9.1f %9.1f %9.1f  %s%n",
+                    name, result.getDouble("offeredRate"), result.getDouble("throughput"),
+                    result.getLong("succeeded"), result.getLong("dropped"),
+                    latency.getDouble("p50"), latency.getDouble("p90"), latency.getDouble("p99"),
+                    latency.getDouble("p999"), latency.getDouble("max"), result.getJsonObject("errors").encode());
+        }
+    }
+
+    static void write(JsonObject report) {
+        try {
+            Files.createDirectories(LOG_DIR);
+            Path file = LOG_DIR.resolve("report.json");
+            Files.writeString(file, report.encodePrettily());
+            logger.info("Report written to " + file.toAbsolutePath());
+        } catch (Exception e) {
+            logger.error("Failed to write the report: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package cynicdog.io.loadtest;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Context;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.impl.logging.Logger;
+import io.vertx.core.impl.logging.LoggerFactory;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.handler.BodyHandler;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Stands in for Ollama with the endpoints the backend calls. Vectors and answers are derived from the input
+ * text alone, so every run embeds and retrieves the same way; only the latency is simulated.
+ * <p>
+ * With {@code parallel} set, at most that many requests are served at once and the rest wait, the way a
+ * single Ollama instance works through its request queue.
+ */
+public class OllamaStub extends AbstractVerticle {
+
+    private static final Logger logger = LoggerFactory.getLogger(OllamaStub.class);
+
+    private static final int STUB_PORT = Integer.parseInt(System.getenv().getOrDefault("STUB_PORT", "11500"));
+
+    static final String[] WORDS = {"llamas", "alpacas", "vicunas", "camels", "graze", "in", "the", "andes",
+            "and", "live", "for", "about", "twenty", "years", "herds", "wool", "are", "social", "animals", "."};
+
+    /**
+     * @param dimension              length of the vectors returned
+     * @param embedLatencyMs         time to answer an embed request
+     * @param embedLatencyPerInputMs added per input of a batched embed request
+     * @param generateLatencyMs      time to the first token of a generate request
+     * @param tokens                 tokens in each generated answer
+     * @param tokenIntervalMs        time between two generated tokens
+     * @param jitter                 each latency is stretched by a random factor in [1, 1 + jitter]
+     * @param parallel               requests served at once across all instances, or 0 for no limit
+     */
+    public record Config(int port, int dimension, long embedLatencyMs, long embedLatencyPerInputMs,
+                         long generateLatencyMs, int tokens, long tokenIntervalMs, double jitter, int parallel) {
+
+        public static Config fromEnv(int port) {
+            return new Config(port,
+                    Integer.parseInt(System.getenv().getOrDefault("STUB_DIMENSION", "1024")),
+                    Long.parseLong(System.getenv().getOrDefault("STUB_EMBED_LATENCY_MS", "20")),
+                    Long.parseLong(System.getenv().getOrDefault("STUB_EMBED_LATENCY_PER_INPUT_MS", "2")),
+                    Long.parseLong(System.getenv().getOrDefault("STUB_GENERATE_LATENCY_MS", "150")),
+                    Integer.parseInt(System.getenv().getOrDefault("STUB_TOKENS", "24")),
+                    Long.parseLong(System.getenv().getOrDefault("STUB_TOKEN_INTERVAL_MS", "10")),
+                    Double.parseDouble(System.getenv().getOrDefault("STUB_LATENCY_JITTER", "0.2")),
+                    Integer.parseInt(System.getenv().getOrDefault("STUB_PARALLEL", "0")));
+        }
+    }
+
+    final Config config;
+    final Slots slots;
+    final SplittableRandom jitter = new SplittableRandom(7);
+
+    OllamaStub(Config config, Slots slots) {
+        this.config = config;
+        this.slots = slots;
+    }
+
+    /**
+     * Deploys one stub per event loop, sharing a single request limit.
+     */
+    public static Future<String> deploy(Vertx vertx, Config config) {
+        Slots slots = new Slots(config.parallel());
+        return vertx.deployVerticle(() -> new OllamaStub(config, slots),
+                        new DeploymentOptions().setInstances(Runtime.getRuntime().availableProcessors()))
+                .onSuccess(id -> logger.info(String.format("Ollama stub listening on port %d (%d dimensions)", config.port(), config.dimension())));
+    }
+
+    public static void main(String[] args) {
+        deploy(Vertx.vertx(), Config.fromEnv(STUB_PORT)).onFailure(Throwable::printStackTrace);
+    }
+
+    @Override
+    public void start(Promise<Void> startPromise) {
+        Router router = Router.router(vertx);
+        router.route().handler(BodyHandler.create());
+
+        router.post("/api/pull").handler(context -> context.json(new JsonObject().put("status", "success")));
+        router.post("/api/embeddings").handler(context -> {
+            String prompt = context.body().asJsonObject().getString("prompt", "");
+            serve(embedLatency(1), () -> context.response()
+                    .putHeader("Content-Type", "application/json")
+                    .end("{\"embedding\":" + vectorJson(prompt) + "}"));
+        });
+        router.post("/api/embed").handler(this::embed);
+        router.post("/api/generate").handler(this::generate);
+
+        vertx.createHttpServer()
+                .requestHandler(router)
+                .listen(config.port())
+                .<Void>mapEmpty()
+                .onComplete(startPromise);
+    }
+
+    void embed(RoutingContext context) {
+        JsonObject request = context.body().asJsonObject();
+        Object input = request.getValue("input");
+        List<String> inputs = new ArrayList<>();
+        if (input instanceof JsonArray array) {
+            array.forEach(text -> inputs.add(String.valueOf(text)));
+        } else {
+            inputs.add(String.valueOf(input));
+        }
+
+        serve(embedLatency(inputs.size()), () -> {
+            StringBuilder body = new StringBuilder("{\"model\":\"").append(request.getString("model")).append("\",\"embeddings\":[");
+            for (int i = 0; i < inputs.size(); i++) {
+                body.append(i == 0 ? "" : ",").append(vectorJson(inputs.get(i)));
+            }
+            context.response()
+                    .putHeader("Content-Type", "application/json")
+                    .end(body.append("]}").toString());
+        });
+    }
+
+    void generate(RoutingContext context) {
+        JsonObject request = context.body().asJsonObject();
+        String model = request.getString("model");
+        List<String> tokens = answer(request.getString("prompt", ""));
+
+        if (!request.getBoolean("stream", true)) {
+            serve(latency(config.generateLatencyMs() + config.tokens() * config.tokenIntervalMs()), () -> context.json(new JsonObject()
+                    .put("model", model)
+                    .put("response", String.join("", tokens))
+                    .put("done", true)));
+            return;
+        }
+
+        // Tokens go out as NDJSON chunks, like Ollama's default streaming mode
+        HttpServerResponse response = context.response().setChunked(true).putHeader("Content-Type", "application/x-ndjson");
+        Promise<Void> finished = Promise.promise();
+        slots.acquire(vertx.getOrCreateContext(), () -> {
+            vertx.setTimer(latency(config.generateLatencyMs()), id -> stream(response, model, tokens, 0, finished));
+            return finished.future();
+        });
+    }
+
+    void stream(HttpServerResponse response, String model, List<String> tokens, int next, Promise<Void> finished) {
+        if (response.closed()) {
+            finished.complete();
+            return;
+        }
+        if (next == tokens.size()) {
+            response.end(new JsonObject().put("model", model).put("response", "").put("done", true).encode() + "\n");
+            finished.complete();
+            return;
+        }
+        response.write(new JsonObject().put("model", model).put("response", tokens.get(next)).put("done", false).encode() + "\n");
+        vertx.setTimer(latency(config.tokenIntervalMs()), id -> stream(response, model, tokens, next + 1, finished));
+    }
+
+    void serve(long delayMs, Runnable respond) {
+        slots.acquire(vertx.getOrCreateContext(), () -> {
+            Promise<Void> done = Promise.promise();
+            vertx.setTimer(delayMs, id -> {
+                respond.run();
+                done.complete();
+            });
+            return done.future();
+        });
+    }
+
+    long embedLatency(int inputs) {
+        return latency(config.embedLatencyMs() + config.embedLatencyPerInputMs() * inputs);
+    }
+
+    // Vert.x timers take at least a millisecond
+    long latency(long baseMs) {
+        return Math.max(1, Math.round(baseMs * (1 + jitter.nextDouble() * config.jitter())));
+    }
+
+    String vectorJson(String text) {
+        SplittableRandom random = new SplittableRandom(seed(text));
+        float[] vector = new float[config.dimension()];
+        double norm = 0;
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = (float) (random.nextDouble() * 2 - 1);
+            norm += vector[i] * vector[i];
+        }
+        StringBuilder json = new StringBuilder(vector.length * 12).append('[');
+        for (int i = 0; i < vector.length; i++) {
+            json.append(i == 0 ? "" : ",").append((float) (vector[i] / Math.sqrt(norm)));
+        }
+        return json.append(']').toString();
+    }
+
+    List<String> answer(String prompt) {
+        SplittableRandom random = new SplittableRandom(seed(prompt));
+        List<String> tokens = new ArrayList<>(config.tokens());
+        for (int i = 0; i < config.tokens(); i++) {
+            tokens.add(WORDS[random.nextInt(WORDS.length)] + " ");
+        }
+        return tokens;
+    }
+
+    static long seed(String text) {
+        return UUID.nameUUIDFromBytes(text.getBytes(StandardCharsets.UTF_8)).getMostSignificantBits();
+    }
+
+    /**
+     * Request limit shared by the stub instances. Waiting requests resume on the event loop they came from.
+     */
+    static class Slots {
+
+        final int limit;
+        final Queue<Runnable> waiting = new ArrayDeque<>();
+        int busy;
+
+        Slots(int limit) {
+            this.limit = limit;
+        }
+
+        void acquire(Context context, Supplier<Future<Void>> work) {
+            Runnable run = () -> context.runOnContext(v -> work.get().onComplete(done -> release()));
+            synchronized (this) {
+                if (limit > 0 && busy == limit) {
+                    waiting.add(run);
+                    return;
+                }
+                busy++;
+            }
+            run.run();
+        }
+
+        void release() {
+            Runnable next;
+            synchronized (this) {
+                next = waiting.poll();
+                if (next == null) {
+                    busy--;
+                    return;
+                }
+            }
+            next.run();
+        }
+    }
+}
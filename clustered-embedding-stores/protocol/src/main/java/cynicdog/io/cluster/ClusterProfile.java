@@ -0,0 +1,95 @@
+package cynicdog.io.cluster;
+
+import io.vertx.core.spi.cluster.ClusterManager;
+import io.vertx.ext.cluster.infinispan.InfinispanClusterManager;
+import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.infinispan.remoting.transport.jgroups.JGroupsTransport;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * How the Infinispan cluster manager replicates the event bus bookkeeping ({@code __vertx.subs},
+ * {@code __vertx.haInfo} and {@code __vertx.nodeInfo}) and which JGroups stack the nodes talk over.
+ * The backend, the frontend and the event bus benchmark all start their cache manager from one of these,
+ * so a profile measured by the benchmark is the one the pods run.
+ */
+public record ClusterProfile(Caches caches, String transport, String clusterName) {
+
+    public enum Caches {
+        // Registering a consumer or joining waits until every node has applied the change
+        SYNC(CacheMode.REPL_SYNC, CacheMode.REPL_SYNC, CacheMode.REPL_SYNC),
+        // Consumers are registered without waiting for the other nodes, which may answer NO_HANDLERS for a moment
+        ASYNC_SUBS(CacheMode.REPL_ASYNC, CacheMode.REPL_SYNC, CacheMode.REPL_SYNC),
+        // As above, and failover may act on stale node information; only for clusters without HA deployments
+        ASYNC(CacheMode.REPL_ASYNC, CacheMode.REPL_ASYNC, CacheMode.REPL_ASYNC);
+
+        final CacheMode subs;
+        final CacheMode haInfo;
+        final CacheMode nodeInfo;
+
+        Caches(CacheMode subs, CacheMode haInfo, CacheMode nodeInfo) {
+            this.subs = subs;
+            this.haInfo = haInfo;
+            this.nodeInfo = nodeInfo;
+        }
+
+        public static Caches of(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+
+        @Override
+        public String toString() {
+            return name().toLowerCase(Locale.ROOT).replace('_', '-');
+        }
+    }
+
+    // Stacks shipped with Infinispan; any other transport is taken as the path of a JGroups configuration
+    static final Map<String, String> STACKS = Map.of(
+            "udp", "default-configs/default-jgroups-udp.xml",
+            "tcp", "default-configs/default-jgroups-tcp.xml",
+            "kubernetes", "default-configs/default-jgroups-kubernetes.xml");
+
+    static final String DEFAULT_CLUSTER_NAME = "ISPN";
+
+    /**
+     * The profile named by {@code CLUSTER_CACHES} and {@code CLUSTER_TRANSPORT}. Without a transport, the
+     * {@code vertx.jgroups.config} system property the manifests set is used, and UDP multicast otherwise.
+     */
+    public static ClusterProfile fromEnv() {
+        return new ClusterProfile(
+                Caches.of(System.getenv().getOrDefault("CLUSTER_CACHES", "sync")),
+                System.getenv().getOrDefault("CLUSTER_TRANSPORT", System.getProperty("vertx.jgroups.config", "udp")),
+                System.getenv().getOrDefault("CLUSTER_NAME", DEFAULT_CLUSTER_NAME));
+    }
+
+    public String name() {
+        return caches + "/" + transport;
+    }
+
+    public DefaultCacheManager cacheManager() {
+        DefaultCacheManager cacheManager = new DefaultCacheManager(
+                new GlobalConfigurationBuilder()
+                        .transport()
+                        .defaultTransport()
+                        .clusterName(clusterName)
+                        .addProperty(JGroupsTransport.CONFIGURATION_FILE, STACKS.getOrDefault(transport, transport))
+                        .build()
+        );
+        cacheManager.defineConfiguration("__vertx.subs", new ConfigurationBuilder().clustering().cacheMode(caches.subs).build());
+        cacheManager.defineConfiguration("__vertx.haInfo", new ConfigurationBuilder().clustering().cacheMode(caches.haInfo).build());
+        cacheManager.defineConfiguration("__vertx.nodeInfo", new ConfigurationBuilder().clustering().cacheMode(caches.nodeInfo).build());
+        return cacheManager;
+    }
+
+    /**
+     * A cluster manager over a cache manager of its own, for nodes that keep no caches besides the event bus ones.
+     * Closing Vert.x leaves the cluster but does not stop that cache manager.
+     */
+    public ClusterManager clusterManager() {
+        return new InfinispanClusterManager(cacheManager());
+    }
+}
@@ -0,0 +1,32 @@
+package cynicdog.io.message;
+
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rejections for an overloaded backend. A {@link ReplyException} only carries a code and a message across
+ * the cluster, so the retry delay travels at the end of the message for the frontend to turn back into a
+ * {@code Retry-After} header.
+ */
+public class Backpressure {
+
+    static final Pattern RETRY_AFTER = Pattern.compile("\\(retry after (\\d+)s\\)$");
+
+    public static ReplyException rejected(int status, long retryAfterSeconds, String reason) {
+        return new ReplyException(ReplyFailure.RECIPIENT_FAILURE, status, String.format("%s (retry after %ds)", reason, retryAfterSeconds));
+    }
+
+    /**
+     * @return the delay in seconds carried by a rejection, or -1 when there is none
+     */
+    public static long retryAfter(ReplyException failure) {
+        if (failure.getMessage() == null) {
+            return -1;
+        }
+        Matcher matcher = RETRY_AFTER.matcher(failure.getMessage());
+        return matcher.find() ? Long.parseLong(matcher.group(1)) : -1;
+    }
+}
@@ -0,0 +1,88 @@
+package cynicdog.io.message;
+
+import org.infinispan.protostream.annotations.ProtoFactory;
+import org.infinispan.protostream.annotations.ProtoField;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of a write to a collection: the keys it touched and the entries of the collection the replying
+ * pod held afterwards, backups included.
+ * <p>
+ * Requested vectors travel raw, as one block of little-endian floats with {@code dimension} floats per
+ * key, in the order of {@code keys}.
+ */
+public class EmbedResult {
+
+    final String collection;
+    final List<String> keys;
+    final String pod;
+    final long collectionSize;
+    final int dimension;
+    final byte[] vectors;
+
+    @ProtoFactory
+    public EmbedResult(String collection, List<String> keys, String pod, long collectionSize, int dimension, byte[] vectors) {
+        this.collection = collection;
+        this.keys = keys;
+        this.pod = pod;
+        this.collectionSize = collectionSize;
+        this.dimension = dimension;
+        this.vectors = vectors;
+    }
+
+    public EmbedResult(String collection, List<String> keys, String pod, long collectionSize) {
+        this(collection, keys, pod, collectionSize, 0, null);
+    }
+
+    @ProtoField(number = 1)
+    public String getCollection() {
+        return collection;
+    }
+
+    @ProtoField(number = 2, collectionImplementation = ArrayList.class)
+    public List<String> getKeys() {
+        return keys;
+    }
+
+    @ProtoField(number = 3)
+    public String getPod() {
+        return pod;
+    }
+
+    @ProtoField(number = 4, defaultValue = "0")
+    public long getCollectionSize() {
+        return collectionSize;
+    }
+
+    @ProtoField(number = 5, defaultValue = "0")
+    public int getDimension() {
+        return dimension;
+    }
+
+    @ProtoField(number = 6)
+    public byte[] getVectors() {
+        return vectors;
+    }
+
+    public float[] vector(int i) {
+        float[] vector = new float[dimension];
+        ByteBuffer.wrap(vectors, i * dimension * Float.BYTES, dimension * Float.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .asFloatBuffer()
+                .get(vector);
+        return vector;
+    }
+
+    public EmbedResult withVectors(List<float[]> vectors) {
+        int dimension = vectors.isEmpty() ? 0 : vectors.get(0).length;
+        ByteBuffer block = ByteBuffer.allocate(vectors.size() * dimension * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        FloatBuffer floats = block.asFloatBuffer();
+        vectors.forEach(floats::put);
+        return new EmbedResult(collection, keys, pod, collectionSize, dimension, block.array());
+    }
+}
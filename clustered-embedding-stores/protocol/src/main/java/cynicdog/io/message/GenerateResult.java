@@ -0,0 +1,43 @@
+package cynicdog.io.message;
+
+import org.infinispan.protostream.annotations.ProtoFactory;
+import org.infinispan.protostream.annotations.ProtoField;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class GenerateResult {
+
+    final String response;
+    final List<Reference> references;
+    final String pod;
+    final long collectionSize;
+
+    @ProtoFactory
+    public GenerateResult(String response, List<Reference> references, String pod, long collectionSize) {
+        this.response = response;
+        this.references = references;
+        this.pod = pod;
+        this.collectionSize = collectionSize;
+    }
+
+    @ProtoField(number = 1)
+    public String getResponse() {
+        return response;
+    }
+
+    @ProtoField(number = 2, collectionImplementation = ArrayList.class)
+    public List<Reference> getReferences() {
+        return references;
+    }
+
+    @ProtoField(number = 3)
+    public String getPod() {
+        return pod;
+    }
+
+    @ProtoField(number = 4, defaultValue = "0")
+    public long getCollectionSize() {
+        return collectionSize;
+    }
+}
@@ -0,0 +1,44 @@
+package cynicdog.io.message;
+
+import org.infinispan.protostream.annotations.ProtoFactory;
+import org.infinispan.protostream.annotations.ProtoField;
+
+/**
+ * Outcome of one batch of an ingestion: how many chunks it carried and how many of them were skipped
+ * because the collection already held their content.
+ */
+public class IngestResult {
+
+    final String collection;
+    final int chunks;
+    final int skipped;
+    final String pod;
+
+    @ProtoFactory
+    public IngestResult(String collection, int chunks, int skipped, String pod) {
+        this.collection = collection;
+        this.chunks = chunks;
+        this.skipped = skipped;
+        this.pod = pod;
+    }
+
+    @ProtoField(number = 1)
+    public String getCollection() {
+        return collection;
+    }
+
+    @ProtoField(number = 2, defaultValue = "0")
+    public int getChunks() {
+        return chunks;
+    }
+
+    @ProtoField(number = 3, defaultValue = "0")
+    public int getSkipped() {
+        return skipped;
+    }
+
+    @ProtoField(number = 4)
+    public String getPod() {
+        return pod;
+    }
+}
@@ -0,0 +1,13 @@
+package cynicdog.io.message;
+
+import org.infinispan.protostream.GeneratedSchema;
+import org.infinispan.protostream.annotations.AutoProtoSchemaBuilder;
+
+@AutoProtoSchemaBuilder(
+        includeClasses = {Prompt.class, PromptBatch.class, EmbedResult.class, Reference.class, GenerateResult.class, IngestResult.class},
+        schemaFileName = "message.proto",
+        schemaFilePath = "proto",
+        schemaPackageName = "cynicdog.io.message"
+)
+public interface MessageSchema extends GeneratedSchema {
+}
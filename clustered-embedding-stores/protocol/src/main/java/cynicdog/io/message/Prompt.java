@@ -0,0 +1,51 @@
+package cynicdog.io.message;
+
+import org.infinispan.protostream.annotations.ProtoFactory;
+import org.infinispan.protostream.annotations.ProtoField;
+
+/**
+ * A single prompt for {@code embed} and {@code generate}, or the key to drop for {@code evict}.
+ * Attributes and filters travel as the JSON objects the client sent; the backend parses them.
+ */
+public class Prompt {
+
+    final String text;
+    final boolean includeVectors;
+    final String attributes;
+    final String filter;
+
+    public Prompt(String text, boolean includeVectors) {
+        this(text, includeVectors, null, null);
+    }
+
+    @ProtoFactory
+    public Prompt(String text, boolean includeVectors, String attributes, String filter) {
+        this.text = text;
+        this.includeVectors = includeVectors;
+        this.attributes = attributes;
+        this.filter = filter;
+    }
+
+    @ProtoField(number = 1)
+    public String getText() {
+        return text;
+    }
+
+    // Ask for the stored vectors back in the reply
+    @ProtoField(number = 2, defaultValue = "false")
+    public boolean isIncludeVectors() {
+        return includeVectors;
+    }
+
+    // Attributes to store with the embedded document
+    @ProtoField(number = 3)
+    public String getAttributes() {
+        return attributes;
+    }
+
+    // Attribute conditions the documents retrieved for generation must meet
+    @ProtoField(number = 4)
+    public String getFilter() {
+        return filter;
+    }
+}
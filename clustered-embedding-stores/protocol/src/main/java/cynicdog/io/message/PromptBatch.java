@@ -0,0 +1,41 @@
+package cynicdog.io.message;
+
+import org.infinispan.protostream.annotations.ProtoFactory;
+import org.infinispan.protostream.annotations.ProtoField;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class PromptBatch {
+
+    final List<String> texts;
+    final boolean includeVectors;
+    final String attributes;
+
+    public PromptBatch(List<String> texts, boolean includeVectors) {
+        this(texts, includeVectors, null);
+    }
+
+    @ProtoFactory
+    public PromptBatch(List<String> texts, boolean includeVectors, String attributes) {
+        this.texts = texts;
+        this.includeVectors = includeVectors;
+        this.attributes = attributes;
+    }
+
+    @ProtoField(number = 1, collectionImplementation = ArrayList.class)
+    public List<String> getTexts() {
+        return texts;
+    }
+
+    @ProtoField(number = 2, defaultValue = "false")
+    public boolean isIncludeVectors() {
+        return includeVectors;
+    }
+
+    // Attributes, as a JSON object, stored with every document of the batch
+    @ProtoField(number = 3)
+    public String getAttributes() {
+        return attributes;
+    }
+}
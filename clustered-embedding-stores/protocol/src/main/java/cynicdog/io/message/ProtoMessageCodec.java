@@ -0,0 +1,86 @@
+package cynicdog.io.message;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.MessageCodec;
+import org.infinispan.protostream.ImmutableSerializationContext;
+import org.infinispan.protostream.ProtobufUtil;
+import org.infinispan.protostream.SerializationContext;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * Event bus codec writing a message as its protobuf encoding, prefixed with the length. Messages delivered
+ * within the same Vert.x instance are handed over as they are, without being encoded at all.
+ */
+public class ProtoMessageCodec<T> implements MessageCodec<T, T> {
+
+    static final List<Class<?>> MESSAGES = List.of(Prompt.class, PromptBatch.class, EmbedResult.class, GenerateResult.class, IngestResult.class);
+
+    static final ImmutableSerializationContext context = createContext();
+
+    final Class<T> type;
+
+    ProtoMessageCodec(Class<T> type) {
+        this.type = type;
+    }
+
+    /**
+     * Makes the protobuf codecs the default for every message type, on both ends of the event bus. Called once
+     * per Vert.x instance before its verticles are deployed, as a codec can only be registered once.
+     */
+    public static void registerAll(EventBus eventBus) {
+        for (Class<?> type : MESSAGES) {
+            register(eventBus, type);
+        }
+    }
+
+    static <T> void register(EventBus eventBus, Class<T> type) {
+        eventBus.registerDefaultCodec(type, new ProtoMessageCodec<>(type));
+    }
+
+    @Override
+    public void encodeToWire(Buffer buffer, T message) {
+        try {
+            byte[] bytes = ProtobufUtil.toByteArray(context, message);
+            buffer.appendInt(bytes.length).appendBytes(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public T decodeFromWire(int pos, Buffer buffer) {
+        int length = buffer.getInt(pos);
+        try {
+            return ProtobufUtil.fromByteArray(context, buffer.getBytes(pos + 4, pos + 4 + length), type);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public T transform(T message) {
+        return message;
+    }
+
+    @Override
+    public String name() {
+        return "proto." + type.getSimpleName();
+    }
+
+    @Override
+    public byte systemCodecID() {
+        return -1;
+    }
+
+    static ImmutableSerializationContext createContext() {
+        SerializationContext context = ProtobufUtil.newSerializationContext();
+        MessageSchema schema = new MessageSchemaImpl();
+        schema.registerSchema(context);
+        schema.registerMarshallers(context);
+        return context;
+    }
+}
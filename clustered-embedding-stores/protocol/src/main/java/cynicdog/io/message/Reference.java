@@ -0,0 +1,36 @@
+package cynicdog.io.message;
+
+import org.infinispan.protostream.annotations.ProtoFactory;
+import org.infinispan.protostream.annotations.ProtoField;
+
+/**
+ * A retrieved document that grounded a generated answer.
+ */
+public class Reference {
+
+    final String key;
+    final double similarity;
+    final String document;
+
+    @ProtoFactory
+    public Reference(String key, double similarity, String document) {
+        this.key = key;
+        this.similarity = similarity;
+        this.document = document;
+    }
+
+    @ProtoField(number = 1)
+    public String getKey() {
+        return key;
+    }
+
+    @ProtoField(number = 2, defaultValue = "0")
+    public double getSimilarity() {
+        return similarity;
+    }
+
+    @ProtoField(number = 3)
+    public String getDocument() {
+        return document;
+    }
+}
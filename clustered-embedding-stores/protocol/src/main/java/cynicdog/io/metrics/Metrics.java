@@ -0,0 +1,75 @@
+package cynicdog.io.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.micrometer.Label;
+import io.vertx.micrometer.MicrometerMetricsOptions;
+import io.vertx.micrometer.VertxPrometheusOptions;
+import io.vertx.micrometer.backends.BackendRegistries;
+
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prometheus metrics shared by the frontend and the backend. Vert.x reports HTTP, event bus and pool
+ * metrics itself; the services add their own meters to {@link #registry()}.
+ */
+public class Metrics {
+
+    static final MeterRegistry fallback = new SimpleMeterRegistry();
+
+    public static MicrometerMetricsOptions options() {
+        return new MicrometerMetricsOptions()
+                .setPrometheusOptions(new VertxPrometheusOptions()
+                        .setEnabled(true)
+                        .setPublishQuantiles(true))
+                // Per-route rather than per-path labels keep /collections/<name>/... to one series per route
+                .setLabels(EnumSet.of(Label.HTTP_ROUTE, Label.HTTP_METHOD, Label.HTTP_CODE, Label.EB_ADDRESS, Label.EB_FAILURE, Label.POOL_TYPE, Label.POOL_NAME))
+                .setJvmMetricsEnabled(true)
+                .setEnabled(true);
+    }
+
+    /**
+     * Sets up the blocked thread checker from {@code BLOCKED_THREAD_CHECK_INTERVAL_MS} and
+     * {@code MAX_EVENT_LOOP_EXECUTE_TIME_MS}. Nothing is meant to hold an event loop for more than a few
+     * milliseconds, so the default warns after 100 ms rather than Vert.x's 2 s.
+     */
+    public static VertxOptions checkEventLoops(VertxOptions options) {
+        return options
+                .setBlockedThreadCheckInterval(Long.parseLong(System.getenv().getOrDefault("BLOCKED_THREAD_CHECK_INTERVAL_MS", "100")))
+                .setBlockedThreadCheckIntervalUnit(TimeUnit.MILLISECONDS)
+                .setMaxEventLoopExecuteTime(Long.parseLong(System.getenv().getOrDefault("MAX_EVENT_LOOP_EXECUTE_TIME_MS", "100")))
+                .setMaxEventLoopExecuteTimeUnit(TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The registry scraped on {@code /metrics}, or a detached one when Vert.x runs without metrics.
+     */
+    public static MeterRegistry registry() {
+        MeterRegistry registry = BackendRegistries.getDefaultNow();
+        return registry != null ? registry : fallback;
+    }
+
+    /**
+     * Records how late a timer on this verticle's event loop fires, which is how long anything queued on
+     * that loop waits behind whatever is running on it.
+     */
+    public static void monitorEventLoop(Vertx vertx, long intervalMs) {
+        Timer lag = Timer.builder("vertx.eventloop.lag")
+                .description("Delay between when a timer on the event loop was due and when it ran")
+                .publishPercentiles(0.5, 0.99)
+                .register(registry());
+        schedule(vertx, lag, intervalMs);
+    }
+
+    static void schedule(Vertx vertx, Timer lag, long intervalMs) {
+        long due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        vertx.setTimer(intervalMs, id -> {
+            lag.record(Math.max(0, System.nanoTime() - due), TimeUnit.NANOSECONDS);
+            schedule(vertx, lag, intervalMs);
+        });
+    }
+}
@@ -0,0 +1,55 @@
+package cynicdog.io.metrics;
+
+import cynicdog.io.cluster.ClusterProfile;
+import cynicdog.io.message.ProtoMessageCodec;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Launcher;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+
+import java.util.List;
+
+/**
+ * {@link Launcher} that turns on {@link Metrics} and the blocked thread checker for the Vert.x instance it
+ * creates, since a verticle run by the launcher never gets to set its own options. When started with
+ * {@code -cluster} it joins with the {@link ClusterProfile} from the environment, as {@code Main.main} does.
+ * Without {@code -instances}, it deploys {@code VERTICLE_INSTANCES} instances of the verticle, one per
+ * available core by default. The event bus gets its protobuf codecs before any of them starts.
+ */
+public class MetricsLauncher extends Launcher {
+
+    final boolean clustered;
+    final boolean instancesGiven;
+
+    MetricsLauncher(boolean clustered, boolean instancesGiven) {
+        this.clustered = clustered;
+        this.instancesGiven = instancesGiven;
+    }
+
+    public static void main(String[] args) {
+        List<String> arguments = List.of(args);
+        new MetricsLauncher(arguments.contains("-cluster") || arguments.contains("--cluster"),
+                arguments.contains("-instances") || arguments.contains("--instances")).dispatch(args);
+    }
+
+    @Override
+    public void beforeStartingVertx(VertxOptions options) {
+        Metrics.checkEventLoops(options.setMetricsOptions(Metrics.options()));
+        if (clustered) {
+            options.setClusterManager(ClusterProfile.fromEnv().clusterManager());
+        }
+    }
+
+    @Override
+    public void afterStartingVertx(Vertx vertx) {
+        ProtoMessageCodec.registerAll(vertx.eventBus());
+    }
+
+    @Override
+    public void beforeDeployingVerticle(DeploymentOptions deploymentOptions) {
+        if (!instancesGiven) {
+            deploymentOptions.setInstances(Integer.parseInt(System.getenv()
+                    .getOrDefault("VERTICLE_INSTANCES", String.valueOf(Runtime.getRuntime().availableProcessors()))));
+        }
+    }
+}